@@ -28,24 +28,31 @@
 package de.uka.ipd.idaho.goldenGateServer.ats;
 
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Properties;
+import java.util.Set;
 
 import de.uka.ipd.idaho.gamta.Annotation;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
@@ -92,6 +99,21 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 	 */
 	private StringVector ignoreAnnotationTypes = new StringVector(); 
 	
+	/* stores of hosted annotation types, loaded on first access */
+	private HashMap typeStores = new HashMap();
+	
+	/* index of the annotation types stored for each document, so updates and
+	 * deletions only need to load the stores of the types actually affected;
+	 * it uses the same storage as the annotation types, with one row per type
+	 * of a document, and is built from the type stores on first access */
+	private static final String DOC_TYPE_INDEX_FOLDER_NAME = ".docTypes";
+	private static final String DOC_TYPE_INDEX_COMPLETE_FILE_NAME = "complete";
+	private static final String DOC_TYPE_KEY = "type";
+	private AnnotationTypeStore docTypeIndex = null;
+	
+	/* number of rows to send in one CSV block (client parses each block separately) */
+	private static final int rowsPerBlock = 1000;
+	
 	/** Constructor passing 'ATS' as the letter code to super constructor
 	 */
 	public GoldenGateATS() {
@@ -106,7 +128,7 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 		//	load existing annotation types
 		File[] typeFolders = this.dataPath.listFiles(new FileFilter() {
 			public boolean accept(File file) {
-				return file.isDirectory();
+				return (file.isDirectory() && !file.getName().startsWith("."));
 			}
 		});
 		for (int f = 0; f < typeFolders.length; f++)
@@ -150,6 +172,7 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 		
 		//	get annotation types
 		String[] types = doc.getAnnotationTypes();
+		HashSet docTypes = new HashSet();
 		for (int t = 0; t < types.length; t++) {
 			
 			//	this one's not ours
@@ -158,26 +181,30 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 			
 			//	remember type
 			this.annotationTypes.addElementIgnoreDuplicates(types[t]);
+			docTypes.add(types[t]);
+		}
+		
+		//	get annotation types stored for document so far, and add new ones to index right away (index must not miss any stored type)
+		AnnotationTypeStore docTypeIndex = this.getDocTypeIndex();
+		HashSet storedDocTypes = getDocTypes(docTypeIndex.getRows(docId));
+		if (!storedDocTypes.containsAll(docTypes)) {
+			HashSet indexDocTypes = new HashSet(storedDocTypes);
+			indexDocTypes.addAll(docTypes);
+			docTypeIndex.setRows(docId, getDocTypeRows(docId, indexDocTypes));
+		}
+		
+		//	store annotations
+		for (Iterator tit = docTypes.iterator(); tit.hasNext();) {
+			String type = ((String) tit.next());
+			AnnotationTypeStore typeStore = this.getTypeStore(type, true);
+			if (typeStore == null)
+				continue;
 			
-			//	load existing file
-			File typeDocFile = this.getFile(types[t], docId, true);
-			Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(typeDocFile), "UTF-8"));
-			StringRelation typeDocData = StringRelation.readCsvData(in, CSV_DELIMITER, true, null);
-			in.close();
-			
-			//	index what we got
-			HashMap removeTupels = new HashMap();
-			for (int d = 0; d < typeDocData.size(); d++) {
-				if (docId.equals(typeDocData.get(d).getValue(SOURCE_DOCUMENT_ID)))
-					removeTupels.put(typeDocData.get(d), new Integer(d));
-			}
-			
-			//	add new annotation
-			Annotation[] annotations = doc.getAnnotations(types[t]);
-			HashSet addTupels = new HashSet();
+			//	collect annotations, dropping duplicates right away
+			Annotation[] annotations = doc.getAnnotations(type);
+			LinkedHashMap typeDocRows = new LinkedHashMap();
 			for (int d = 0; d < annotations.length; d++) {
 				StringTupel typeDocDataTupel = new StringTupel();
-				typeDocDataTupel.setValue(SOURCE_DOCUMENT_ID, docId);
 				typeDocDataTupel.setValue(Annotation.ANNOTATION_VALUE_ATTRIBUTE, TokenSequenceUtils.concatTokens(annotations[d], true, true));
 				String[] ans = annotations[d].getAttributeNames();
 				for (int a = 0; a < ans.length; a++) {
@@ -185,85 +212,42 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 					if ((value != null) && (value instanceof CharSequence))
 						typeDocDataTupel.setValue(ans[a], value.toString());
 				}
-				
-				//	we've seen this one before, simply retain it
-				if (removeTupels.containsKey(typeDocDataTupel))
-					removeTupels.remove(typeDocDataTupel);
-				
-				//	this one's new
-				else addTupels.add(typeDocDataTupel);
+				typeDocDataTupel.removeValue(SOURCE_DOCUMENT_ID);
+				AnnotationRow typeDocRow = new AnnotationRow(docId, typeDocDataTupel);
+				if (!typeDocRows.containsKey(new Long(typeDocRow.hash)))
+					typeDocRows.put(new Long(typeDocRow.hash), typeDocRow);
 			}
 			
-			//	nothing changed, we're done
-			if ((removeTupels.size() + addTupels.size()) == 0)
+			//	store rows (only writes anything if something actually changed)
+			typeStore.setRows(docId, ((AnnotationRow[]) typeDocRows.values().toArray(new AnnotationRow[typeDocRows.size()])));
+		}
+		
+		//	remove rows of annotation types the document no longer contains
+		for (Iterator tit = storedDocTypes.iterator(); tit.hasNext();) {
+			String type = ((String) tit.next());
+			if (docTypes.contains(type))
 				continue;
-			
-			//	remove what we have to
-			if (removeTupels.size() != 0) {
-				ArrayList removeIndices = new ArrayList(removeTupels.values());
-				Collections.sort(removeIndices);
-				Collections.reverse(removeIndices);
-				for (Iterator it = removeIndices.iterator(); it.hasNext();)
-					typeDocData.remove(((Integer) it.next()).intValue());
-			}
-			
-			//	add what's new
-			for (Iterator it = addTupels.iterator(); it.hasNext();)
-				typeDocData.addElement((StringTupel) it.next());
-			
-			//	clean up empty file
-			if (typeDocData.size() == 0)
-				typeDocFile.delete();
-			
-			//	store what we got
-			else {
-				Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(typeDocFile, true), "UTF-8"));
-				StringRelation.writeCsvData(out, typeDocData, CSV_DELIMITER, true);
-				out.flush();
-				out.close();
-			}
+			AnnotationTypeStore typeStore = this.getTypeStore(type, false);
+			if (typeStore != null)
+				typeStore.setRows(docId, new AnnotationRow[0]);
 		}
+		
+		//	update index (only writes anything if something actually changed)
+		docTypeIndex.setRows(docId, getDocTypeRows(docId, docTypes));
 	}
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.exp.GoldenGateEXP#doDelete(java.lang.String, java.util.Properties)
 	 */
 	protected void doDelete(String docId, Properties docAttributes) throws IOException {
-		String[] types = this.annotationTypes.toStringArray();
-		for (int t = 0; t < types.length; t++) {
-			File typeDocFile = this.getFile(types[t], docId, false);
-			if (typeDocFile == null)
-				continue;
-			
-			//	load existing file
-			Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(typeDocFile), "UTF-8"));
-			StringRelation typeDocData = StringRelation.readCsvData(in, CSV_DELIMITER, true, null);
-			in.close();
-			
-			//	check if anything changed
-			boolean unmodified = true;
-			for (int d = 0; d < typeDocData.size(); d++)
-				if (docId.equals(typeDocData.get(d).getValue(SOURCE_DOCUMENT_ID))) {
-					typeDocData.remove(d--);
-					unmodified = false;
-				}
-			
-			//	nothing changed, we're done
-			if (unmodified)
-				continue;
-			
-			//	clean up empty file
-			if (typeDocData.size() == 0)
-				typeDocFile.delete();
-			
-			//	store what we got
-			else {
-				Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(typeDocFile, true), "UTF-8"));
-				StringRelation.writeCsvData(out, typeDocData, CSV_DELIMITER, true);
-				out.flush();
-				out.close();
-			}
+		AnnotationTypeStore docTypeIndex = this.getDocTypeIndex();
+		HashSet storedDocTypes = getDocTypes(docTypeIndex.getRows(docId));
+		for (Iterator tit = storedDocTypes.iterator(); tit.hasNext();) {
+			AnnotationTypeStore typeStore = this.getTypeStore(((String) tit.next()), false);
+			if (typeStore != null)
+				typeStore.setRows(docId, new AnnotationRow[0]);
 		}
+		docTypeIndex.setRows(docId, new AnnotationRow[0]);
 	}
 	
 	/* (non-Javadoc)
@@ -316,52 +300,55 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 					return;
 				}
 				
-				//	get relevant files, and prepare to filter out duplicates
-				File[] typeDataFiles = getFiles(type);
+				//	get type store, and prepare to filter out duplicates
+				AnnotationTypeStore typeStore = getTypeStore(type, false);
 				HashSet alreadySeen = new HashSet();
 				
 				//	indicate annotations coming
 				output.write(GET_ANNOTATIONS);
 				output.newLine();
+				if (typeStore == null)
+					return;
 				
-				//	filter and send files one by one (we can work line wise, as we don't have to expect line broken content)
-				for (int f = 0; f < typeDataFiles.length; f++) {
-					
-					//	load file
-					Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(typeDataFiles[f]), "UTF-8"));
-					StringRelation typeDocData = StringRelation.readCsvData(in, CSV_DELIMITER, true, null);
-					in.close();
-					
-					//	get keys for current file
-					StringVector keyList = typeDocData.getKeys();
-					keyList.remove(SOURCE_DOCUMENT_ID);
-					keyList.remove(Annotation.ANNOTATION_VALUE_ATTRIBUTE);
-					String[] keys = keyList.toStringArray();
-					
-					//	filter out duplicates
-					for (int d = 0; d < typeDocData.size(); d++) {
+				//	filter and send rows in blocks (we can work line wise, as we don't have to expect line broken content)
+				StringRelation typeData = new StringRelation();
+				AnnotationRowReader rows = typeStore.getRowReader();
+				try {
+					for (AnnotationRow row; (row = rows.readRow()) != null;) {
 						
-						//	wrap current tupel
-						StringTupel tdd = typeDocData.get(d);
-						QueriableAnnotation dat = new AttributeMapAnnotation(type, tdd, keys, tdd.getValue(Annotation.ANNOTATION_VALUE_ATTRIBUTE), null);
+						//	apply filter predicate if given (before de-duplication, so we only need to remember hashes of matching rows)
+						if (gpe != null) {
+							StringVector keyList = row.data.getKeys();
+							keyList.remove(Annotation.ANNOTATION_VALUE_ATTRIBUTE);
+							String[] keys = keyList.toStringArray();
+							QueriableAnnotation dat = new AttributeMapAnnotation(type, row.data, keys, row.data.getValue(Annotation.ANNOTATION_VALUE_ATTRIBUTE), null);
+							if (!GPath.evaluateExpression(gpe, dat, null).asBoolean().value)
+								continue;
+						}
 						
 						//	filter out duplicates
-						if (!alreadySeen.add(dat.toXML()))
-							typeDocData.remove(d--);
+						if (!alreadySeen.add(new Long(row.hash)))
+							continue;
+						
+						//	add source document ID, and send block if full
+						row.data.setValue(SOURCE_DOCUMENT_ID, row.docId);
+						typeData.addElement(row.data);
+						if (typeData.size() < rowsPerBlock)
+							continue;
+						StringRelation.writeCsvData(output, typeData, CSV_DELIMITER, true);
+						typeData = new StringRelation();
 						
-						//	apply filter predicate if given
-						else if ((gpe != null) && !GPath.evaluateExpression(gpe, dat, null).asBoolean().value)
-							typeDocData.remove(d--);
+						//	add line break to indicate to client the end of the current block, and potentially a new block coming with new keys
+						output.newLine();
 					}
-					
-					//	anything left?
-					if (typeDocData.size() == 0)
-						continue;
-					
-					//	send data
-					StringRelation.writeCsvData(output, typeDocData, CSV_DELIMITER, true);
-					
-					//	add line break to indicate to client the end of the current file, and potentially a new file coming with new keys
+				}
+				finally {
+					rows.close();
+				}
+				
+				//	send last block
+				if (typeData.size() != 0) {
+					StringRelation.writeCsvData(output, typeData, CSV_DELIMITER, true);
 					output.newLine();
 				}
 			}
@@ -371,7 +358,14 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 		return ((ComponentAction[]) cal.toArray(new ComponentAction[cal.size()]));
 	}
 	
-	private File getFile(String type, String docId, boolean create) throws IOException {
+	private synchronized AnnotationTypeStore getTypeStore(String type, boolean create) throws IOException {
+		AnnotationTypeStore typeStore = ((AnnotationTypeStore) this.typeStores.get(type));
+		if (typeStore != null)
+			return typeStore;
+		
+		//	this one might clash with the document type index
+		if (type.startsWith("."))
+			return null;
 		
 		//	get or create annotation type folder
 		File typeFolder = new File(this.dataPath, type.replaceAll("\\:", "+"));
@@ -381,39 +375,619 @@ public class GoldenGateATS extends GoldenGateEXP implements GoldenGateAtsConstan
 			else return null;
 		}
 		
-		//	get or create data file for current document (3 chars / 12 bits of random should be enough for now)
-		File docDataFile = new File(typeFolder, ("at-" + docId.substring(0, 3) + ".csv"));
+		//	load store (segments are indexed on first access only, so startup doesn't scan all the types)
 		try {
-			if (!docDataFile.exists()) {
-				if (create)
-					docDataFile.createNewFile();
-				else return null;
-			}
+			typeStore = new AnnotationTypeStore(type, typeFolder);
 		}
 		catch (IOException ioe) {
-			this.logError("GoldenGateATS: error creating file '" + docDataFile.getAbsolutePath() + "': " + ioe.getMessage());
+			this.logError("GoldenGateATS: error loading annotations of type '" + type + "': " + ioe.getMessage());
 			this.logError(ioe);
 			throw ioe;
 		}
+		this.typeStores.put(type, typeStore);
+		return typeStore;
+	}
+	
+	private synchronized AnnotationTypeStore getDocTypeIndex() throws IOException {
+		if (this.docTypeIndex != null)
+			return this.docTypeIndex;
+		
+		//	clean up after interrupted build
+		File indexFolder = new File(this.dataPath, DOC_TYPE_INDEX_FOLDER_NAME);
+		File indexCompleteFile = new File(indexFolder, DOC_TYPE_INDEX_COMPLETE_FILE_NAME);
+		if (!indexCompleteFile.exists()) {
+			if (indexFolder.exists()) {
+				File[] indexFiles = indexFolder.listFiles();
+				for (int f = 0; f < indexFiles.length; f++)
+					indexFiles[f].delete();
+			}
+			else indexFolder.mkdir();
+		}
 		
-		//	return data file
-		return docDataFile;
+		//	load index
+		AnnotationTypeStore docTypeIndex = new AnnotationTypeStore(DOC_TYPE_INDEX_FOLDER_NAME, indexFolder);
+		if (indexCompleteFile.exists()) {
+			this.docTypeIndex = docTypeIndex;
+			return this.docTypeIndex;
+		}
+		
+		//	build index from type stores (only happens once, on the first update after the index was introduced)
+		this.logInfo("GoldenGateATS: building document type index ...");
+		HashMap docTypes = new HashMap();
+		String[] types = this.annotationTypes.toStringArray();
+		for (int t = 0; t < types.length; t++) {
+			AnnotationTypeStore typeStore = this.getTypeStore(types[t], false);
+			if (typeStore == null)
+				continue;
+			String[] docIds = typeStore.getDocIds();
+			for (int d = 0; d < docIds.length; d++) {
+				HashSet storedDocTypes = ((HashSet) docTypes.get(docIds[d]));
+				if (storedDocTypes == null) {
+					storedDocTypes = new HashSet();
+					docTypes.put(docIds[d], storedDocTypes);
+				}
+				storedDocTypes.add(types[t]);
+			}
+		}
+		for (Iterator dit = docTypes.keySet().iterator(); dit.hasNext();) {
+			String docId = ((String) dit.next());
+			docTypeIndex.setRows(docId, getDocTypeRows(docId, ((HashSet) docTypes.get(docId))));
+		}
+		indexCompleteFile.createNewFile();
+		this.logInfo("GoldenGateATS: document type index built for " + docTypes.size() + " documents");
+		
+		this.docTypeIndex = docTypeIndex;
+		return this.docTypeIndex;
+	}
+	
+	private static HashSet getDocTypes(AnnotationRow[] docTypeRows) {
+		HashSet docTypes = new HashSet();
+		for (int r = 0; r < docTypeRows.length; r++) {
+			String type = docTypeRows[r].data.getValue(DOC_TYPE_KEY);
+			if (type != null)
+				docTypes.add(type);
+		}
+		return docTypes;
+	}
+	
+	private static AnnotationRow[] getDocTypeRows(String docId, Set docTypes) {
+		AnnotationRow[] docTypeRows = new AnnotationRow[docTypes.size()];
+		int r = 0;
+		for (Iterator tit = docTypes.iterator(); tit.hasNext();) {
+			StringTupel docTypeData = new StringTupel();
+			docTypeData.setValue(DOC_TYPE_KEY, ((String) tit.next()));
+			docTypeRows[r++] = new AnnotationRow(docId, docTypeData);
+		}
+		return docTypeRows;
 	}
 	
-	private File[] getFiles(String type) {
+	/* The annotations of each type are stored in append-only segment files.
+	 * Each line is either a row, i.e., '+', source document ID, value hash,
+	 * and the attribute key/value pairs, or a deletion marker, i.e., '-' and
+	 * the source document ID, all separated by tabs. Each update of the rows
+	 * of a document writes a deletion marker followed by the new rows, so
+	 * the rows of a document are contiguous, and we only need to keep their
+	 * start and end offset in memory. Segments with too much dead content
+	 * get compacted, which only rewrites that one segment. */
+	private static final int maxSegmentSize = (8 * 1024 * 1024);
+	private static final String SEGMENT_FILE_PREFIX = "seg-";
+	private static final String SEGMENT_FILE_SUFFIX = ".ats";
+	private static final String COMPACTING_FILE_SUFFIX = ".compacting";
+	
+	private static class Segment {
+		final int number;
+		final File file;
+		long size = 0;
+		long deadBytes = 0;
+		Segment(int number, File file) {
+			this.number = number;
+			this.file = file;
+		}
+	}
+	
+	private static class DocRows {
+		Segment segment;
+		long start;
+		long end;
+		DocRows(Segment segment, long start, long end) {
+			this.segment = segment;
+			this.start = start;
+			this.end = end;
+		}
+		boolean contains(Segment segment, long offset) {
+			return ((this.segment == segment) && (this.start <= offset) && (offset < this.end));
+		}
+	}
+	
+	private static class AnnotationRow {
+		final String docId;
+		final long hash;
+		final StringTupel data;
+		AnnotationRow(String docId, StringTupel data) {
+			this(docId, computeHash(data), data);
+		}
+		AnnotationRow(String docId, long hash, StringTupel data) {
+			this.docId = docId;
+			this.hash = hash;
+			this.data = data;
+		}
 		
-		//	get or create annotation type folder
-		File typeFolder = new File(this.dataPath, type.replaceAll("\\:", "+"));
+		/* 64 bit FNV-1a hash over attribute names and values in lexicographical
+		 * order, so we can de-duplicate rows without holding their string
+		 * representations in memory */
+		private static long computeHash(StringTupel data) {
+			String[] keys = data.getKeyArray();
+			Arrays.sort(keys);
+			long hash = 0xcbf29ce484222325L;
+			for (int k = 0; k < keys.length; k++) {
+				hash = hash(hash, keys[k]);
+				hash = hash(hash, "\u0000");
+				hash = hash(hash, data.getValue(keys[k], ""));
+				hash = hash(hash, "\u0001");
+			}
+			return hash;
+		}
+		private static long hash(long hash, String str) {
+			for (int c = 0; c < str.length(); c++) {
+				hash ^= str.charAt(c);
+				hash *= 0x100000001b3L;
+			}
+			return hash;
+		}
+		
+		String toLine() {
+			StringBuffer line = new StringBuffer("+\t");
+			escape(this.docId, line);
+			line.append('\t');
+			line.append(Long.toHexString(this.hash));
+			String[] keys = this.data.getKeyArray();
+			for (int k = 0; k < keys.length; k++) {
+				line.append('\t');
+				escape(keys[k], line);
+				line.append('\t');
+				escape(this.data.getValue(keys[k], ""), line);
+			}
+			return line.toString();
+		}
+		static AnnotationRow parseLine(String line) {
+			String[] fields = line.split("\\t", -1);
+			StringTupel data = new StringTupel();
+			for (int f = 3; (f + 1) < fields.length; f += 2)
+				data.setValue(unescape(fields[f]), unescape(fields[f + 1]));
+			return new AnnotationRow(unescape(fields[1]), parseHash(fields[2]), data);
+		}
+		private static long parseHash(String hash) {
+			long h = 0;
+			for (int c = 0; c < hash.length(); c++)
+				h = ((h << 4) | Character.digit(hash.charAt(c), 16));
+			return h;
+		}
+		
+		static String getDocId(String line) {
+			int start = (line.indexOf('\t') + 1);
+			int end = line.indexOf('\t', start);
+			return unescape((end == -1) ? line.substring(start) : line.substring(start, end));
+		}
+		static String toDeletionLine(String docId) {
+			StringBuffer line = new StringBuffer("-\t");
+			escape(docId, line);
+			return line.toString();
+		}
+		
+		private static void escape(String str, StringBuffer escaped) {
+			for (int c = 0; c < str.length(); c++) {
+				char ch = str.charAt(c);
+				if (ch == '\\')
+					escaped.append("\\\\");
+				else if (ch == '\t')
+					escaped.append("\\t");
+				else if (ch == '\n')
+					escaped.append("\\n");
+				else if (ch == '\r')
+					escaped.append("\\r");
+				else escaped.append(ch);
+			}
+		}
+		private static String unescape(String str) {
+			if (str.indexOf('\\') == -1)
+				return str;
+			StringBuffer unescaped = new StringBuffer();
+			for (int c = 0; c < str.length(); c++) {
+				char ch = str.charAt(c);
+				if ((ch == '\\') && ((c + 1) < str.length())) {
+					ch = str.charAt(++c);
+					if (ch == 't')
+						unescaped.append('\t');
+					else if (ch == 'n')
+						unescaped.append('\n');
+					else if (ch == 'r')
+						unescaped.append('\r');
+					else unescaped.append(ch);
+				}
+				else unescaped.append(ch);
+			}
+			return unescaped.toString();
+		}
+	}
+	
+	/* reads the lines of a segment file, keeping track of their byte offsets */
+	private static class SegmentReader {
+		private InputStream in;
+		private long limit;
+		private byte[] buffer = new byte[256];
+		long offset = 0;
+		long lineEnd = 0;
+		SegmentReader(Segment segment, long limit) throws IOException {
+			this(segment, 0, limit);
+		}
+		SegmentReader(Segment segment, long start, long limit) throws IOException {
+			this.in = new BufferedInputStream(new FileInputStream(segment.file));
+			this.limit = limit;
+			while (this.lineEnd < start) {
+				long skipped = this.in.skip(start - this.lineEnd);
+				if (skipped <= 0)
+					throw new EOFException("Could not skip to offset " + start + " in segment '" + segment.file.getAbsolutePath() + "'");
+				this.lineEnd += skipped;
+			}
+		}
+		String readLine() throws IOException {
+			this.offset = this.lineEnd;
+			int length = 0;
+			while ((this.offset + length) < this.limit) {
+				int b = this.in.read();
+				if (b == -1)
+					break;
+				if (b == '\n') {
+					this.lineEnd = (this.offset + length + 1);
+					return new String(this.buffer, 0, length, "UTF-8");
+				}
+				if (length == this.buffer.length) {
+					byte[] buffer = new byte[this.buffer.length * 2];
+					System.arraycopy(this.buffer, 0, buffer, 0, length);
+					this.buffer = buffer;
+				}
+				this.buffer[length++] = ((byte) b);
+			}
+			return null; // end of segment, or incomplete last line from an interrupted write
+		}
+		void close() throws IOException {
+			this.in.close();
+		}
+	}
+	
+	private class AnnotationTypeStore {
+		final String type;
+		final File folder;
+		private ArrayList segments = new ArrayList();
+		private HashMap docRows = new HashMap();
+		private int readers = 0;
+		AnnotationTypeStore(String type, File folder) throws IOException {
+			this.type = type;
+			this.folder = folder;
+			
+			//	clean up after interrupted compaction (the original segment is still there, as we only delete it after finishing the replacement)
+			File[] compactingFiles = this.folder.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return (file.isFile() && file.getName().endsWith(COMPACTING_FILE_SUFFIX));
+				}
+			});
+			for (int f = 0; f < compactingFiles.length; f++) {
+				File segmentFile = new File(this.folder, compactingFiles[f].getName().substring(0, (compactingFiles[f].getName().length() - COMPACTING_FILE_SUFFIX.length())));
+				if (segmentFile.exists())
+					compactingFiles[f].delete();
+				else compactingFiles[f].renameTo(segmentFile);
+			}
+			
+			//	index segments in order
+			File[] segmentFiles = this.folder.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return (file.isFile() && file.getName().startsWith(SEGMENT_FILE_PREFIX) && file.getName().endsWith(SEGMENT_FILE_SUFFIX));
+				}
+			});
+			for (int f = 0; f < segmentFiles.length; f++) {
+				String number = segmentFiles[f].getName().substring(SEGMENT_FILE_PREFIX.length(), (segmentFiles[f].getName().length() - SEGMENT_FILE_SUFFIX.length()));
+				try {
+					this.segments.add(new Segment(Integer.parseInt(number), segmentFiles[f]));
+				} catch (NumberFormatException nfe) {}
+			}
+			Collections.sort(this.segments, new Comparator() {
+				public int compare(Object obj1, Object obj2) {
+					return (((Segment) obj1).number - ((Segment) obj2).number);
+				}
+			});
+			for (int s = 0; s < this.segments.size(); s++)
+				this.indexSegment((Segment) this.segments.get(s));
+			
+			//	import data from CSV files of earlier versions
+			this.importCsvFiles();
+		}
+		
+		private void indexSegment(Segment segment) throws IOException {
+			SegmentReader sr = new SegmentReader(segment, segment.file.length());
+			try {
+				for (String line; (line = sr.readLine()) != null;) {
+					String docId = AnnotationRow.getDocId(line);
+					DocRows dr = ((DocRows) this.docRows.get(docId));
+					
+					//	row continuing current range of document
+					if (line.startsWith("+") && (dr != null) && (dr.segment == segment) && (dr.end == sr.offset))
+						dr.end = sr.lineEnd;
+					
+					//	row starting new range (rows of earlier update left behind by compaction if range is not contiguous)
+					else if (line.startsWith("+")) {
+						if (dr != null)
+							dr.segment.deadBytes += (dr.end - dr.start);
+						this.docRows.put(docId, new DocRows(segment, sr.offset, sr.lineEnd));
+					}
+					
+					//	deletion marker
+					else if (dr != null) {
+						dr.segment.deadBytes += (dr.end - dr.start);
+						this.docRows.remove(docId);
+					}
+				}
+				segment.size = sr.lineEnd;
+			}
+			finally {
+				sr.close();
+			}
+			
+			//	cut off incomplete last line (we might append to this segment later)
+			if (segment.size < segment.file.length()) {
+				RandomAccessFile raf = new RandomAccessFile(segment.file, "rw");
+				raf.setLength(segment.size);
+				raf.close();
+			}
+		}
 		
-		//	list data files
-		if (typeFolder.exists())
-			return typeFolder.listFiles(new FileFilter() {
+		private void importCsvFiles() throws IOException {
+			File[] csvFiles = this.folder.listFiles(new FileFilter() {
 				public boolean accept(File file) {
 					return (file.isFile() && file.getName().startsWith("at-") && file.getName().endsWith(".csv"));
 				}
 			});
+			for (int f = 0; f < csvFiles.length; f++) {
+				
+				//	load file
+				Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(csvFiles[f]), "UTF-8"));
+				StringRelation typeDocData = StringRelation.readCsvData(in, CSV_DELIMITER, true, null);
+				in.close();
+				
+				//	group rows by document
+				LinkedHashMap docRows = new LinkedHashMap();
+				for (int d = 0; d < typeDocData.size(); d++) {
+					StringTupel tdd = typeDocData.get(d);
+					String docId = tdd.removeValue(SOURCE_DOCUMENT_ID);
+					if (docId == null)
+						continue;
+					LinkedHashMap rows = ((LinkedHashMap) docRows.get(docId));
+					if (rows == null) {
+						rows = new LinkedHashMap();
+						docRows.put(docId, rows);
+					}
+					AnnotationRow row = new AnnotationRow(docId, tdd);
+					rows.put(new Long(row.hash), row);
+				}
+				
+				//	store rows (documents we already have are from an import interrupted before deleting the file)
+				for (Iterator dit = docRows.keySet().iterator(); dit.hasNext();) {
+					String docId = ((String) dit.next());
+					if (this.docRows.containsKey(docId))
+						continue;
+					LinkedHashMap rows = ((LinkedHashMap) docRows.get(docId));
+					this.setRows(docId, ((AnnotationRow[]) rows.values().toArray(new AnnotationRow[rows.size()])));
+				}
+				csvFiles[f].delete();
+			}
+			if (csvFiles.length != 0)
+				logInfo("GoldenGateATS: imported " + csvFiles.length + " CSV files for annotation type '" + this.type + "'");
+		}
 		
-		//	nothing we have
-		else return new File[0];
+		synchronized String[] getDocIds() {
+			return ((String[]) this.docRows.keySet().toArray(new String[this.docRows.size()]));
+		}
+		
+		synchronized AnnotationRow[] getRows(String docId) throws IOException {
+			DocRows dr = ((DocRows) this.docRows.get(docId));
+			if (dr == null)
+				return new AnnotationRow[0];
+			ArrayList rows = new ArrayList();
+			SegmentReader sr = new SegmentReader(dr.segment, dr.start, dr.end);
+			try {
+				for (String line; (line = sr.readLine()) != null;)
+					rows.add(AnnotationRow.parseLine(line));
+			}
+			finally {
+				sr.close();
+			}
+			return ((AnnotationRow[]) rows.toArray(new AnnotationRow[rows.size()]));
+		}
+		
+		/**
+		 * Replace the rows stored for a document. If the argument rows are the
+		 * same as the stored ones, this method does not write anything. An
+		 * empty array deletes the rows of the document.
+		 * @param docId the ID of the document
+		 * @param rows the new rows
+		 */
+		synchronized void setRows(String docId, AnnotationRow[] rows) throws IOException {
+			DocRows dr = ((DocRows) this.docRows.get(docId));
+			
+			//	nothing stored, and nothing to store
+			if ((dr == null) && (rows.length == 0))
+				return;
+			
+			//	compare to stored rows
+			if ((dr != null) && (rows.length != 0)) {
+				HashSet storedHashes = new HashSet();
+				SegmentReader sr = new SegmentReader(dr.segment, dr.start, dr.end);
+				try {
+					for (String line; (line = sr.readLine()) != null;) {
+						String hash = line.substring((line.indexOf('\t', 2) + 1));
+						if (hash.indexOf('\t') != -1)
+							hash = hash.substring(0, hash.indexOf('\t'));
+						storedHashes.add(hash);
+					}
+				}
+				finally {
+					sr.close();
+				}
+				boolean unmodified = (storedHashes.size() == rows.length);
+				for (int r = 0; unmodified && (r < rows.length); r++)
+					unmodified = storedHashes.contains(Long.toHexString(rows[r].hash));
+				if (unmodified)
+					return;
+			}
+			
+			//	get segment to append to
+			Segment segment = ((Segment) (this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1)));
+			if ((segment == null) || (segment.size >= maxSegmentSize)) {
+				int number = ((segment == null) ? 0 : (segment.number + 1));
+				segment = new Segment(number, new File(this.folder, (SEGMENT_FILE_PREFIX + number + SEGMENT_FILE_SUFFIX)));
+				this.segments.add(segment);
+			}
+			
+			//	append deletion marker and rows
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(segment.file, true), "UTF-8"));
+			String deletionLine = AnnotationRow.toDeletionLine(docId);
+			out.write(deletionLine);
+			out.write('\n');
+			long start = (segment.size + deletionLine.getBytes("UTF-8").length + 1);
+			long end = start;
+			for (int r = 0; r < rows.length; r++) {
+				String line = rows[r].toLine();
+				out.write(line);
+				out.write('\n');
+				end += (line.getBytes("UTF-8").length + 1);
+			}
+			out.flush();
+			out.close();
+			segment.size = end;
+			
+			//	update index
+			if (dr != null)
+				dr.segment.deadBytes += (dr.end - dr.start);
+			if (rows.length == 0)
+				this.docRows.remove(docId);
+			else this.docRows.put(docId, new DocRows(segment, start, end));
+			
+			//	clean up if we just created enough dead rows
+			if (dr != null)
+				this.compactIfDue(dr.segment);
+		}
+		
+		private void compactIfDue(Segment segment) throws IOException {
+			if (this.readers != 0)
+				return; // we'll come back when the last reader closes
+			if ((segment.deadBytes * 2) <= segment.size)
+				return;
+			
+			//	copy live rows and deletion markers of deleted documents (we might still have earlier rows in older segments)
+			File compactingFile = new File(this.folder, (segment.file.getName() + COMPACTING_FILE_SUFFIX));
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compactingFile), "UTF-8"));
+			HashMap compactedDocRows = new HashMap();
+			HashSet compactedDeletions = new HashSet();
+			long size = 0;
+			SegmentReader sr = new SegmentReader(segment, segment.size);
+			try {
+				for (String line; (line = sr.readLine()) != null;) {
+					String docId = AnnotationRow.getDocId(line);
+					DocRows dr = ((DocRows) this.docRows.get(docId));
+					if (line.startsWith("+") ? ((dr == null) || !dr.contains(segment, sr.offset)) : ((dr != null) || !compactedDeletions.add(docId)))
+						continue;
+					out.write(line);
+					out.write('\n');
+					long lineEnd = (size + (sr.lineEnd - sr.offset));
+					if (line.startsWith("+")) {
+						DocRows cdr = ((DocRows) compactedDocRows.get(docId));
+						if (cdr == null)
+							compactedDocRows.put(docId, new DocRows(segment, size, lineEnd));
+						else cdr.end = lineEnd;
+					}
+					size = lineEnd;
+				}
+			}
+			finally {
+				sr.close();
+				out.flush();
+				out.close();
+			}
+			
+			//	switch segment file
+			if (!segment.file.delete() || !compactingFile.renameTo(segment.file))
+				throw new IOException("Could not replace segment '" + segment.file.getAbsolutePath() + "'");
+			
+			//	update index
+			for (Iterator dit = compactedDocRows.keySet().iterator(); dit.hasNext();) {
+				String docId = ((String) dit.next());
+				DocRows cdr = ((DocRows) compactedDocRows.get(docId));
+				DocRows dr = ((DocRows) this.docRows.get(docId));
+				dr.start = cdr.start;
+				dr.end = cdr.end;
+			}
+			segment.size = size;
+			segment.deadBytes = 0;
+		}
+		
+		synchronized boolean isLive(String docId, Segment segment, long offset) {
+			DocRows dr = ((DocRows) this.docRows.get(docId));
+			return ((dr != null) && dr.contains(segment, offset));
+		}
+		
+		synchronized AnnotationRowReader getRowReader() {
+			this.readers++;
+			Segment[] segments = ((Segment[]) this.segments.toArray(new Segment[this.segments.size()]));
+			long[] segmentSizes = new long[segments.length];
+			for (int s = 0; s < segments.length; s++)
+				segmentSizes[s] = segments[s].size;
+			return new AnnotationRowReader(this, segments, segmentSizes);
+		}
+		synchronized void readerClosed() throws IOException {
+			this.readers--;
+			for (int s = 0; s < this.segments.size(); s++)
+				this.compactIfDue((Segment) this.segments.get(s));
+		}
+	}
+	
+	/* reads the live rows of an annotation type store, segment by segment,
+	 * up to the size the segments had when the reader was created, so rows
+	 * appended while reading are ignored */
+	private static class AnnotationRowReader {
+		private AnnotationTypeStore typeStore;
+		private Segment[] segments;
+		private long[] segmentSizes;
+		private int segmentIndex = -1;
+		private SegmentReader segmentReader = null;
+		private boolean closed = false;
+		AnnotationRowReader(AnnotationTypeStore typeStore, Segment[] segments, long[] segmentSizes) {
+			this.typeStore = typeStore;
+			this.segments = segments;
+			this.segmentSizes = segmentSizes;
+		}
+		AnnotationRow readRow() throws IOException {
+			while (true) {
+				if (this.segmentReader == null) {
+					if ((this.segmentIndex + 1) == this.segments.length)
+						return null;
+					this.segmentIndex++;
+					this.segmentReader = new SegmentReader(this.segments[this.segmentIndex], this.segmentSizes[this.segmentIndex]);
+				}
+				String line = this.segmentReader.readLine();
+				if (line == null) {
+					this.segmentReader.close();
+					this.segmentReader = null;
+				}
+				else if (line.startsWith("+") && this.typeStore.isLive(AnnotationRow.getDocId(line), this.segments[this.segmentIndex], this.segmentReader.offset))
+					return AnnotationRow.parseLine(line);
+			}
+		}
+		void close() throws IOException {
+			if (this.closed)
+				return;
+			this.closed = true;
+			if (this.segmentReader != null)
+				this.segmentReader.close();
+			this.typeStore.readerClosed();
+		}
 	}
 }
\ No newline at end of file
@@ -137,6 +137,11 @@ public abstract class GoldenGateDCS extends GoldenGateEXP implements GoldenGateD
 			}
 		};
 		
+		//	read how long we may serve outdated statistics while refreshing them in the background
+		try {
+			this.statEngine.setMaxStaleness(1000 * Long.parseLong(this.configuration.getSetting("statsMaxStalenessSeconds", "0")));
+		} catch (NumberFormatException nfe) {}
+		
 		//	load static exports
 		try {
 			this.staticStatExports = this.loadStaticStatExports();
@@ -151,6 +156,7 @@ public abstract class GoldenGateDCS extends GoldenGateEXP implements GoldenGateD
 	private static final String LIST_QUERIED_FIELDS_COMMAND = "listQueried";
 	private static final String RELOAD_STATIC_EXPORTS_COMMAND = "reloadStatic";
 	private static final String UPDATE_STATIC_EXPORTS_COMMAND = "updateStatic";
+	private static final String BULK_LOAD_COMMAND = "bulkLoad";
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.wcs.GoldenGateWCS#getActions()
@@ -313,6 +319,36 @@ public abstract class GoldenGateDCS extends GoldenGateEXP implements GoldenGateD
 		};
 		cal.add(ca);
 		
+		//	switch bulk load mode on and off
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return BULK_LOAD_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						BULK_LOAD_COMMAND + " <mode>",
+						"Switch bulk load mode on or off, e.g. for re-populating the statistics tables via updateAll:",
+						"- <mode>: set to 'start' to buffer updates and write them to the database in large chunks,",
+						"          or to 'finish' to write all buffered updates to the database and end bulk load mode"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length != 1)
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify 'start' or 'finish' as the only argument.");
+				else if ("start".equals(arguments[0])) {
+					statEngine.startBulkLoad();
+					this.reportResult(" Bulk load mode started.");
+				}
+				else if ("finish".equals(arguments[0])) {
+					statEngine.finishBulkLoad();
+					this.reportResult(" Bulk load mode finished.");
+				}
+				else this.reportError(" Invalid mode '" + arguments[0] + "', use 'start' or 'finish'.");
+			}
+		};
+		cal.add(ca);
+		
 		//	execute static exports
 		ca = new ComponentActionConsole() {
 			public String getActionCommand() {
@@ -511,6 +547,9 @@ public abstract class GoldenGateDCS extends GoldenGateEXP implements GoldenGateD
 	protected void exitComponent() {
 		super.exitComponent();
 		
+		//	write any buffered updates
+		this.statEngine.finishBulkLoad();
+		
 		//	disconnect from database
 		this.io.close();
 	}
@@ -94,6 +94,7 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 		
 		private LinkedList variables = new LinkedList();
 		private LinkedList fieldGroups = new LinkedList();
+		private LinkedList cubes = new LinkedList();
 		StatFieldSet(String label, String docCountLabel) {
 			this.label = label;
 			this.docCountLabel = ((docCountLabel == null) ? "Number of Documents" : docCountLabel);
@@ -119,6 +120,16 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 			return ((StatFieldGroup[]) this.fieldGroups.toArray(new StatFieldGroup[this.fieldGroups.size()]));
 		}
 		
+		/**
+		 * Retrieve the roll-up cubes of the field set. Cubes pre-aggregate the
+		 * data of frequently requested statistics, with each cube residing in
+		 * its own database table.
+		 * @return an array holding the cubes
+		 */
+		public StatCube[] getCubes() {
+			return ((StatCube[]) this.cubes.toArray(new StatCube[this.cubes.size()]));
+		}
+		
 		/**
 		 * Serialize the field set as XML. If the argument writer is not a
 		 * <code>BufferedWriter</code>, this method wraps it in one, and calls
@@ -137,6 +148,8 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 				((StatVariable) vit.next()).writeXml(bw);
 			for (Iterator fgit = this.fieldGroups.iterator(); fgit.hasNext();)
 				((StatFieldGroup) fgit.next()).writeXml(bw);
+			for (Iterator cit = this.cubes.iterator(); cit.hasNext();)
+				((StatCube) cit.next()).writeXml(bw);
 			bw.write("</fieldSet>");
 			bw.newLine();
 			if (bw != out)
@@ -157,6 +170,7 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 				private StatFieldGroup sfg = null;
 				private StatField sf = null;
 				private StatVariable sv = null;
+				private StatCube sc = null;
 				public void storeToken(String token, int treeDepth) throws IOException {
 					if (!grammar.isTag(token))
 						return;
@@ -295,6 +309,35 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 						sfs[0] = new StatFieldSet(label, tnas.getAttribute("docCountLabel"));
 						return;
 					}
+					if ("groupingField".equals(type) && (this.sc != null)) {
+						if (tnas == null)
+							return;
+						String name = tnas.getAttribute("name");
+						if (name != null)
+							this.sc.groupingFieldNames.add(name);
+						return;
+					}
+					if ("aggregateField".equals(type) && (this.sc != null)) {
+						if (tnas == null)
+							return;
+						String name = tnas.getAttribute("name");
+						if (name != null)
+							this.sc.aggregateFields.add(new StatCubeAggregate(name, tnas.getAttribute("aggregate")));
+						return;
+					}
+					if ("cube".equals(type) && (sfs[0] != null)) {
+						if (tnas == null) {
+							if ((this.sc != null) && (this.sc.groupingFieldNames.size() != 0))
+								sfs[0].cubes.add(this.sc);
+							this.sc = null;
+						}
+						else {
+							String name = tnas.getAttribute("name");
+							if (name != null)
+								this.sc = new StatCube(name, tnas.getAttribute("label"));
+						}
+						return;
+					}
 					if ("variable".equals(type) && (sfs[0] != null)) {
 						if (tnas == null) {
 							if ((this.sv != null) && (this.sv.selectors.size() != 0)) {
@@ -460,6 +503,111 @@ public interface GoldenGateDcsConstants extends GoldenGateServerConstants, Liter
 		}
 	}
 	
+	/**
+	 * A roll-up cube, i.e., a pre-aggregated statistics grouped by a fixed set
+	 * of fields and holding a fixed set of aggregates. Each cube resides in
+	 * its own database table in the server component, and statistics grouped
+	 * by the grouping fields of a cube (or a subset thereof) are compiled from
+	 * the cube rather than from the raw data tables.
+	 * 
+	 * @author sautter
+	 */
+	public static class StatCube {
+		
+		/** the name of the cube (has to consist of letters only, no spaces, and must not be an SQL key word; has to be unique within a field set) */
+		public final String name;
+		
+		/** the label of the cube, i.e., a nice name for use in a UI */
+		public final String label;
+		
+		private LinkedList groupingFieldNames = new LinkedList();
+		private LinkedList aggregateFields = new LinkedList();
+		StatCube(String name, String label) {
+			this.name = name;
+			this.label = ((label == null) ? name : label);
+		}
+		
+		/**
+		 * Retrieve the fully qualified names of the fields the cube is grouped
+		 * by.
+		 * @return an array holding the grouping field names
+		 */
+		public String[] getGroupingFieldNames() {
+			return ((String[]) this.groupingFieldNames.toArray(new String[this.groupingFieldNames.size()]));
+		}
+		
+		/**
+		 * Retrieve the aggregates pre-computed in the cube.
+		 * @return an array holding the aggregates
+		 */
+		public StatCubeAggregate[] getAggregateFields() {
+			return ((StatCubeAggregate[]) this.aggregateFields.toArray(new StatCubeAggregate[this.aggregateFields.size()]));
+		}
+		
+		/**
+		 * Serialize the cube as XML. If the argument writer is not a
+		 * <code>BufferedWriter</code>, this method wraps it in one, and calls
+		 * its <code>flush()</code> method before returning.
+		 * @param out the writer to write to
+		 * @throws IOException
+		 */
+		public void writeXml(Writer out) throws IOException {
+			BufferedWriter bw = ((out instanceof BufferedWriter) ? ((BufferedWriter) out) : new BufferedWriter(out));
+			bw.write("<cube" +
+					" name=\"" + StatFieldSet.grammar.escape(this.name) + "\"" +
+					" label=\"" + StatFieldSet.grammar.escape(this.label) + "\"" +
+					">");
+			bw.newLine();
+			for (Iterator gfit = this.groupingFieldNames.iterator(); gfit.hasNext();) {
+				bw.write("<groupingField name=\"" + StatFieldSet.grammar.escape((String) gfit.next()) + "\"/>");
+				bw.newLine();
+			}
+			for (Iterator afit = this.aggregateFields.iterator(); afit.hasNext();)
+				((StatCubeAggregate) afit.next()).writeXml(bw);
+			bw.write("</cube>");
+			bw.newLine();
+			if (bw != out)
+				bw.flush();
+		}
+	}
+	
+	/**
+	 * An aggregate pre-computed in a roll-up cube.
+	 * 
+	 * @author sautter
+	 */
+	public static class StatCubeAggregate {
+		
+		/** the fully qualified name of the aggregated field */
+		public final String fieldName;
+		
+		/** the aggregation function (null indicates the default aggregate of the field) */
+		public final String aggregate;
+		
+		StatCubeAggregate(String fieldName, String aggregate) {
+			this.fieldName = fieldName;
+			this.aggregate = ("".equals(aggregate) ? null : aggregate);
+		}
+		
+		/**
+		 * Serialize the cube aggregate as XML. If the argument writer is not
+		 * a <code>BufferedWriter</code>, this method wraps it in one, and
+		 * calls its <code>flush()</code> method before returning.
+		 * @param out the writer to write to
+		 * @throws IOException
+		 */
+		public void writeXml(Writer out) throws IOException {
+			BufferedWriter bw = ((out instanceof BufferedWriter) ? ((BufferedWriter) out) : new BufferedWriter(out));
+			bw.write("<aggregateField" +
+					" name=\"" + StatFieldSet.grammar.escape(this.fieldName) + "\"" +
+					((this.aggregate == null) ? "" : (" aggregate=\"" + StatFieldSet.grammar.escape(this.aggregate) + "\"")) +
+					"/>");
+			bw.newLine();
+			if (bw != out)
+				bw.flush();
+		}
+	}
+	
 	/**
 	 * An individual statistics field, representing a single value. The value
 	 * is extracted from documents by means of XPath based selectors. The first
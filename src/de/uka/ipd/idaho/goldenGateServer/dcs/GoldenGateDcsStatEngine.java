@@ -32,6 +32,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -39,6 +40,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
@@ -222,10 +224,20 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		//	create soft referencing cache, using number of table cells as weight of entries
 		this.cache = new LruCache((this.tableNamePrefix + "StatsCache"), 256, 0x00010000, 0, Integer.MAX_VALUE, Integer.MAX_VALUE) {
 			protected int getWeight(Object value) {
-				DcStatistics stats = ((DcStatistics) value);
+				DcStatistics stats = ((CachedStatistics) value).stats;
 				return (stats.getFieldCount() * stats.size());
 			}
 		};
+		
+		//	create roll-up cube tables, and fill them in the background
+		StatCube[] cubes = this.fieldSet.getCubes();
+		for (int c = 0; c < cubes.length; c++) {
+			StatCubeTable cube = this.createCubeTable(cubes[c]);
+			if (cube != null)
+				this.cubes.add(cube);
+		}
+		if ((this.statName != null) && (this.cubes.size() != 0))
+			this.scheduleCubeRebuild(this.cubes);
 	}
 	
 	private Map virtualIdFieldCache = Collections.synchronizedMap(new LinkedHashMap());
@@ -243,7 +255,49 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		return idField;
 	}
 	
+	/*
+	 * Cached statistics remember the versions of the field groups (and thus
+	 * tables) they were computed from, and a cache entry is only valid as long
+	 * as none of these field groups was modified. Document updates only bump
+	 * the versions of the field groups whose data actually changed, which we
+	 * detect by comparing the hash of the generated insert queries to the
+	 * one from the last update of the same document. In bounded staleness
+	 * mode, outdated statistics are still served until they exceed the
+	 * maximum age, while a background thread recomputes them.
+	 */
 	private LruCache cache;
+	private HashMap fieldGroupVersions = new HashMap();
+	private long maxStaleness = 0;
+	
+	private static final int MAX_DOC_FIELD_GROUP_HASHES = 0x00004000;
+	private Map docFieldGroupHashes = Collections.synchronizedMap(new LinkedHashMap(256, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > MAX_DOC_FIELD_GROUP_HASHES);
+		}
+	});
+	
+	/**
+	 * Set the maximum age up to which cached statistics are still served after
+	 * the data they were compiled from changed. The age is measured from when
+	 * the statistics were compiled, not from when the data changed, so served
+	 * statistics are never more outdated than this. While within this age,
+	 * outdated statistics are refreshed in the background rather than compiled
+	 * anew for the requester. A non-positive argument, the default, switches
+	 * off serving outdated statistics altogether.
+	 * @param maxStaleness the maximum staleness (in milliseconds)
+	 */
+	public void setMaxStaleness(long maxStaleness) {
+		this.maxStaleness = maxStaleness;
+	}
+	
+	/**
+	 * Retrieve the maximum age up to which cached statistics are still served
+	 * after the data they were compiled from changed.
+	 * @return the maximum staleness (in milliseconds)
+	 */
+	public long getMaxStaleness() {
+		return this.maxStaleness;
+	}
 	
 	/**
 	 * Update the data belonging to a specific document in the statistics
@@ -270,10 +324,8 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		//	get document ID
 		String docId = ((String) doc.getAttribute(DOCUMENT_ID_ATTRIBUTE));
 		
-		//	clean up
-		this.deleteDocument(docId, fieldGroups);
-		
-		//	assemble insert queries
+		//	assemble insert rows
+		LinkedHashMap fieldGroupInsertRows = new LinkedHashMap();
 		String docTableFields = (DOCUMENT_ID_ATTRIBUTE + ", " + DOCUMENT_ID_HASH_ATTRIBUTE);
 		String docTableValues = ("'" + EasyIO.sqlEscape(docId) + "'" + ", " + docId.hashCode());
 		
@@ -287,8 +339,11 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		}
 		
 		//	fill document table
-		if ((fieldGroups == null) || fieldGroups.contains("doc"))
-			this.updateFieldGroup(this.docFieldGroup, doc, doc, variables, docTableFields, docTableValues);
+		if ((fieldGroups == null) || fieldGroups.contains("doc")) {
+			ArrayList insertRows = new ArrayList(1);
+			insertRows.add(this.getInsertRow(this.docFieldGroup, doc, doc, variables, docTableFields, docTableValues));
+			fieldGroupInsertRows.put("doc", insertRows);
+		}
 		
 		//	fill sub tables
 		String subTableFields = (DOCUMENT_ID_ATTRIBUTE + ", " + DOCUMENT_ID_HASH_ATTRIBUTE);
@@ -304,6 +359,7 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			QueriableAnnotation[] contexts = {doc};
 			if (this.fieldGroups[g].defContext != null)
 				contexts = this.fieldGroups[g].defContext.evaluate(doc, variables);
+			ArrayList insertRows = new ArrayList(contexts.length);
 			for (int c = 0; c < contexts.length; c++) {
 				GPathVariableResolver cVariables = new GPathVariableResolver(variables);
 				for (int v = 0; v < fgVars.length; v++) {
@@ -311,16 +367,129 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 					if ((value != null) && (value.asBoolean().value))
 						cVariables.setVariable(fgVars[v].name, value);
 				}
-				this.updateFieldGroup(this.fieldGroups[g], doc, contexts[c], cVariables, subTableFields, subTableValues);
+				insertRows.add(this.getInsertRow(this.fieldGroups[g], doc, contexts[c], cVariables, subTableFields, subTableValues));
 			}
+			fieldGroupInsertRows.put(this.fieldGroups[g].name, insertRows);
 		}
 		
-		//	clear cache & update timestamp
-		this.cache.clear();
+		//	compare to data from last update, and skip unmodified field groups
+		HashMap fieldGroupHashes = new HashMap();
+		for (Iterator fgnit = fieldGroupInsertRows.keySet().iterator(); fgnit.hasNext();) {
+			String fieldGroupName = ((String) fgnit.next());
+			fieldGroupHashes.put(fieldGroupName, new Long(getInsertRowHash((ArrayList) fieldGroupInsertRows.get(fieldGroupName))));
+		}
+		HashMap exFieldGroupHashes = ((HashMap) this.docFieldGroupHashes.get(docId));
+		HashSet modifiedFieldGroups = new HashSet();
+		for (Iterator fgnit = fieldGroupHashes.keySet().iterator(); fgnit.hasNext();) {
+			String fieldGroupName = ((String) fgnit.next());
+			if ((exFieldGroupHashes == null) || !fieldGroupHashes.get(fieldGroupName).equals(exFieldGroupHashes.get(fieldGroupName)))
+				modifiedFieldGroups.add(fieldGroupName);
+		}
+		if (modifiedFieldGroups.contains("doc"))
+			modifiedFieldGroups.addAll(fieldGroupInsertRows.keySet()); // need to clean up sub tables before document table
+		if (modifiedFieldGroups.isEmpty())
+			return;
+		
+		//	in bulk load mode, buffer insert rows across documents (we don't know if rows were inserted successfully until flushing)
+		synchronized (this.bulkLoadRows) {
+			if (this.bulkLoading) {
+				if (this.bulkLoadDocIds.contains(docId))
+					this.flushBulkLoadRows(); // need to get pending rows into database before deleting them
+				this.deleteDocument(docId, modifiedFieldGroups);
+				for (Iterator fgnit = fieldGroupInsertRows.keySet().iterator(); fgnit.hasNext();) {
+					String fieldGroupName = ((String) fgnit.next());
+					if (!modifiedFieldGroups.contains(fieldGroupName))
+						continue;
+					ArrayList insertRows = ((ArrayList) fieldGroupInsertRows.get(fieldGroupName));
+					ArrayList bulkLoadRows = ((ArrayList) this.bulkLoadRows.get(fieldGroupName));
+					if (bulkLoadRows == null) {
+						bulkLoadRows = new ArrayList();
+						this.bulkLoadRows.put(fieldGroupName, bulkLoadRows);
+					}
+					bulkLoadRows.addAll(insertRows);
+					this.bulkLoadPendingRowCount += insertRows.size();
+				}
+				this.bulkLoadDocIds.add(docId);
+				this.bulkLoadDocCount++;
+				this.bulkLoadModifiedFieldGroups.addAll(modifiedFieldGroups);
+				this.invalidateCubes(modifiedFieldGroups);
+				this.rememberFieldGroupHashes(docId, exFieldGroupHashes, fieldGroupHashes);
+				if (this.bulkLoadPendingRowCount >= BULK_LOAD_FLUSH_ROWS)
+					this.flushBulkLoadRows();
+				return;
+			}
+		}
+		
+		//	collect roll-up cube cells the document contributed to before the update
+		HashMap cubeCells = this.getCubeCells(docId, modifiedFieldGroups);
+		
+		//	clean up
+		this.deleteDocument(docId, modifiedFieldGroups);
+		
+		//	execute inserts (document table comes first)
+		boolean allInserted = true;
+		for (Iterator fgnit = fieldGroupInsertRows.keySet().iterator(); fgnit.hasNext();) {
+			String fieldGroupName = ((String) fgnit.next());
+			if (!modifiedFieldGroups.contains(fieldGroupName))
+				continue;
+			allInserted = (this.insertRows(this.fieldGroupsToTables.getProperty(fieldGroupName), ((ArrayList) fieldGroupInsertRows.get(fieldGroupName))) && allInserted);
+		}
+		
+		//	remember what we stored (unless something went wrong, so next update does the full job)
+		if (allInserted)
+			this.rememberFieldGroupHashes(docId, exFieldGroupHashes, fieldGroupHashes);
+		else this.docFieldGroupHashes.remove(docId);
+		
+		//	re-aggregate roll-up cube cells the document contributes to before or after the update
+		this.updateCubeCells(docId, cubeCells);
+		
+		//	invalidate cached statistics depending on modified field groups & update timestamp
+		this.fieldGroupsModified(modifiedFieldGroups);
 		this.lastUpdate = System.currentTimeMillis();
 	}
 	
-	private void updateFieldGroup(StatFieldGroup fieldGroup, QueriableAnnotation doc, QueriableAnnotation context, GPathVariableResolver variables, String fieldsPrefix, String valuesPrefix) {
+	private void rememberFieldGroupHashes(String docId, HashMap exFieldGroupHashes, HashMap fieldGroupHashes) {
+		if (exFieldGroupHashes != null) {
+			HashMap allFieldGroupHashes = new HashMap(exFieldGroupHashes);
+			allFieldGroupHashes.putAll(fieldGroupHashes);
+			fieldGroupHashes = allFieldGroupHashes;
+		}
+		this.docFieldGroupHashes.put(docId, fieldGroupHashes);
+	}
+	
+	private static long getInsertRowHash(ArrayList insertRows) {
+		long hash = 0xcbf29ce484222325L; // 64 bit FNV-1a, as 32 bit String hash codes collide too easily
+		for (int r = 0; r < insertRows.size(); r++) {
+			String[] insertRow = ((String[]) insertRows.get(r));
+			for (int p = 0; p < insertRow.length; p++) {
+				for (int c = 0; c < insertRow[p].length(); c++) {
+					hash ^= insertRow[p].charAt(c);
+					hash *= 0x100000001b3L;
+				}
+				hash ^= 0x0A; // part separator
+				hash *= 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+	
+	private void fieldGroupsModified(Set fieldGroupNames) {
+		synchronized (this.fieldGroupVersions) {
+			for (Iterator fgnit = fieldGroupNames.iterator(); fgnit.hasNext();) {
+				String fieldGroupName = ((String) fgnit.next());
+				this.fieldGroupVersions.put(fieldGroupName, new Integer(this.getFieldGroupVersion(fieldGroupName) + 1));
+			}
+		}
+	}
+	
+	private int getFieldGroupVersion(String fieldGroupName) {
+		synchronized (this.fieldGroupVersions) {
+			Integer version = ((Integer) this.fieldGroupVersions.get(fieldGroupName));
+			return ((version == null) ? 0 : version.intValue());
+		}
+	}
+	
+	private String[] getInsertRow(StatFieldGroup fieldGroup, QueriableAnnotation doc, QueriableAnnotation context, GPathVariableResolver variables, String fieldsPrefix, String valuesPrefix) {
 		StringBuffer fieldNames = new StringBuffer(fieldsPrefix);
 		StringBuffer fieldValues = new StringBuffer(valuesPrefix);
 		
@@ -396,23 +565,251 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			}
 		}
 		
-		//	execute insert query
-		String query = "INSERT INTO " + this.fieldGroupsToTables.getProperty((fieldGroup == null) ? "doc" : fieldGroup.name) + " (" +
-				fieldNames.toString() +
+		//	finally ...
+		String[] insertRow = {fieldNames.toString(), fieldValues.toString()};
+		return insertRow;
+	}
+	
+	/* Rows go into the database in multi-row INSERT statements, cutting
+	 * database round trips from one per row to one per some hundred rows.
+	 * If a multi-row INSERT fails, we re-try its rows one by one to isolate
+	 * offending rows. Some databases apply multi-row INSERTs only partially,
+	 * so we first clean out all rows of the affected documents and then also
+	 * re-insert the rows of these documents that went into the database with
+	 * preceding statements. If the single row inserts succeed, we conclude
+	 * that the database does not support multi-row INSERTs and stop using
+	 * them, but only if it reported a syntax error or an unsupported feature,
+	 * or if this happened several times in a row, as a failure might just as
+	 * well be transient. */
+	private static final int MAX_INSERT_ROWS = 256;
+	private static final int MAX_INSERT_QUERY_LENGTH = 0x00010000;
+	private static final int MAX_MULTI_ROW_INSERT_FAILURES = 3;
+	private boolean useMultiRowInserts = true;
+	private int multiRowInsertFailures = 0;
+	
+	private boolean insertRows(String tableName, ArrayList insertRows) {
+		boolean allInserted = true;
+		for (int r = 0; r < insertRows.size();) {
+			String[] insertRow = ((String[]) insertRows.get(r));
+			if (!this.useMultiRowInserts) {
+				allInserted = (this.executeInsertQuery(getInsertQuery(tableName, insertRow), true) && allInserted);
+				r++;
+				continue;
+			}
+			
+			//	assemble multi-row insert query (field names are the same for all rows in a field group, but let's make sure)
+			StringBuffer query = new StringBuffer("INSERT INTO " + tableName + " (" + insertRow[0] + ") VALUES ");
+			int rs = r;
+			while ((r < insertRows.size()) && ((r - rs) < MAX_INSERT_ROWS) && (query.length() < MAX_INSERT_QUERY_LENGTH)) {
+				String[] queryRow = ((String[]) insertRows.get(r));
+				if (!insertRow[0].equals(queryRow[0]))
+					break;
+				if (r != rs)
+					query.append(", ");
+				query.append("(" + queryRow[1] + ")");
+				r++;
+			}
+			query.append(";");
+			if ((r - rs) == 1) {
+				allInserted = (this.executeInsertQuery(getInsertQuery(tableName, insertRow), true) && allInserted);
+				continue;
+			}
+			SQLException multiRowError;
+			try {
+				this.executeInsertQuery(query.toString());
+				this.multiRowInsertFailures = 0;
+				continue;
+			}
+			catch (SQLException sqle) {
+				multiRowError = sqle;
+			}
+			
+			//	clean out rows of affected documents, in case multi-row insert was applied partially
+			HashSet docIdValues = new HashSet();
+			for (int sr = rs; sr < r; sr++)
+				docIdValues.add(getDocIdValues(((String[]) insertRows.get(sr))[1]));
+			for (Iterator divit = docIdValues.iterator(); divit.hasNext();)
+				this.deleteInsertRows(tableName, ((String) divit.next()));
+			
+			//	fall back to single row inserts (including rows of affected documents from preceding statements, which we just deleted)
+			boolean rowsInserted = true;
+			for (int sr = 0; sr < r; sr++) {
+				String[] retryRow = ((String[]) insertRows.get(sr));
+				if ((sr < rs) && !docIdValues.contains(getDocIdValues(retryRow[1])))
+					continue;
+				rowsInserted = (this.executeInsertQuery(getInsertQuery(tableName, retryRow), true) && rowsInserted);
+			}
+			if (rowsInserted) {
+				this.multiRowInsertFailures++;
+				String sqlState = multiRowError.getSQLState();
+				if ((sqlState != null) && (sqlState.startsWith("42") || sqlState.startsWith("0A"))) {
+					System.out.println(this.statName + ": multi-row inserts appear to be unsupported (" + multiRowError.getMessage() + "), switching to single row inserts");
+					this.useMultiRowInserts = false;
+				}
+				else if (this.multiRowInsertFailures >= MAX_MULTI_ROW_INSERT_FAILURES) {
+					System.out.println(this.statName + ": multi-row inserts failed " + this.multiRowInsertFailures + " times in a row (" + multiRowError.getMessage() + "), switching to single row inserts");
+					this.useMultiRowInserts = false;
+				}
+				else System.out.println(this.statName + ": multi-row insert failed (" + multiRowError.getMessage() + "), rows inserted one by one");
+			}
+			allInserted = (rowsInserted && allInserted);
+		}
+		return allInserted;
+	}
+	
+	private static String getInsertQuery(String tableName, String[] insertRow) {
+		return ("INSERT INTO " + tableName + " (" +
+				insertRow[0] +
 				") VALUES (" +
-				fieldValues.toString() +
-				");";
+				insertRow[1] +
+				");");
+	}
+	
+	private static String getDocIdValues(String insertRowValues) {
+		
+		//	insert row values start with quoted document ID (quotes inside escaped by doubling), followed by its hash
+		int quote = 1;
+		while ((quote = insertRowValues.indexOf('\'', quote)) != -1) {
+			if (((quote + 1) < insertRowValues.length()) && (insertRowValues.charAt(quote + 1) == '\''))
+				quote += 2;
+			else break;
+		}
+		if (quote == -1)
+			return insertRowValues;
+		int hashEnd = insertRowValues.indexOf(',', (quote + ", ".length()));
+		return ((hashEnd == -1) ? insertRowValues : insertRowValues.substring(0, hashEnd));
+	}
+	
+	private void deleteInsertRows(String tableName, String docIdValues) {
+		int split = docIdValues.lastIndexOf(", ");
+		String query = "DELETE FROM " + tableName + 
+				" WHERE " + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docIdValues.substring(split + ", ".length()) + "" +
+				" AND " + DOCUMENT_ID_ATTRIBUTE + " = " + docIdValues.substring(0, split) + "" +
+				";";
 		try {
 			if (this.statName == null)
 				System.out.println(query);
-			else this.io.executeUpdateQuery(query.toString());
+			else this.io.executeUpdateQuery(query);
 		}
 		catch (SQLException sqle) {
-			System.out.println("DocumentCollectionStatistics: exception updating statistics table: " + sqle.getMessage());
+			System.out.println("DocumentCollectionStatistics: exception cleaning statistics table: " + sqle.getMessage());
 			System.out.println("  Query was: " + query);
 		}
 	}
 	
+	private boolean executeInsertQuery(String query, boolean logErrors) {
+		try {
+			this.executeInsertQuery(query);
+			return true;
+		}
+		catch (SQLException sqle) {
+			if (logErrors) {
+				System.out.println("DocumentCollectionStatistics: exception updating statistics table: " + sqle.getMessage());
+				System.out.println("  Query was: " + query);
+			}
+			return false;
+		}
+	}
+	
+	private void executeInsertQuery(String query) throws SQLException {
+		if (this.statName == null)
+			System.out.println(query);
+		else this.io.executeUpdateQuery(query);
+	}
+	
+	/* In bulk load mode, insert rows are buffered across documents and go
+	 * into the database in large multi-row INSERTs, with cache invalidation
+	 * deferred until the bulk load is finished. This is for re-populating
+	 * the tables from the whole collection. */
+	private static final int BULK_LOAD_FLUSH_ROWS = 0x00001000;
+	private boolean bulkLoading = false;
+	private LinkedHashMap bulkLoadRows = new LinkedHashMap();
+	private HashSet bulkLoadDocIds = new HashSet();
+	private HashSet bulkLoadModifiedFieldGroups = new HashSet();
+	private int bulkLoadPendingRowCount = 0;
+	private int bulkLoadDocCount = 0;
+	private int bulkLoadRowCount = 0;
+	private long bulkLoadStart = 0;
+	
+	/**
+	 * Switch to bulk load mode. In this mode, the data from document updates
+	 * is buffered and written to the database in large chunks, and cached
+	 * statistics are only invalidated when the bulk load is finished. This is
+	 * intended for whole-collection updates. The bulk load mode stays active
+	 * until the <code>finishBulkLoad()</code> method is called.
+	 */
+	public void startBulkLoad() {
+		synchronized (this.bulkLoadRows) {
+			if (this.bulkLoading)
+				return;
+			this.bulkLoading = true;
+			this.bulkLoadDocCount = 0;
+			this.bulkLoadRowCount = 0;
+			this.bulkLoadStart = System.currentTimeMillis();
+		}
+		System.out.println(this.statName + ": bulk load started");
+	}
+	
+	/**
+	 * Finish bulk load mode, writing all buffered data to the database and
+	 * invalidating cached statistics.
+	 */
+	public void finishBulkLoad() {
+		synchronized (this.bulkLoadRows) {
+			if (!this.bulkLoading)
+				return;
+			this.flushBulkLoadRows();
+			this.bulkLoading = false;
+			ArrayList rebuildCubes = new ArrayList();
+			for (int c = 0; c < this.cubes.size(); c++) {
+				StatCubeTable cube = ((StatCubeTable) this.cubes.get(c));
+				if (!cube.valid || cube.dependsOn(this.bulkLoadModifiedFieldGroups))
+					rebuildCubes.add(cube);
+			}
+			this.scheduleCubeRebuild(rebuildCubes);
+			this.fieldGroupsModified(this.bulkLoadModifiedFieldGroups);
+			this.bulkLoadModifiedFieldGroups.clear();
+			this.lastUpdate = System.currentTimeMillis();
+			long time = Math.max(1, (System.currentTimeMillis() - this.bulkLoadStart));
+			System.out.println(this.statName + ": bulk load finished, " + this.bulkLoadDocCount + " documents with " + this.bulkLoadRowCount + " rows in " + time + "ms (" + ((this.bulkLoadDocCount * 1000L) / time) + " documents/s, " + ((this.bulkLoadRowCount * 1000L) / time) + " rows/s)");
+		}
+	}
+	
+	/**
+	 * Check whether or not the engine is in bulk load mode.
+	 * @return true if in bulk load mode
+	 */
+	public boolean isBulkLoading() {
+		return this.bulkLoading;
+	}
+	
+	private void flushBulkLoadRows() {
+		if (this.bulkLoadRows.isEmpty())
+			return;
+		
+		//	insert rows, document table first (we might have foreign keys to observe)
+		boolean allInserted = true;
+		ArrayList docRows = ((ArrayList) this.bulkLoadRows.remove("doc"));
+		if (docRows != null)
+			allInserted = (this.insertRows(this.fieldGroupsToTables.getProperty("doc"), docRows) && allInserted);
+		for (Iterator fgnit = this.bulkLoadRows.keySet().iterator(); fgnit.hasNext();) {
+			String fieldGroupName = ((String) fgnit.next());
+			allInserted = (this.insertRows(this.fieldGroupsToTables.getProperty(fieldGroupName), ((ArrayList) this.bulkLoadRows.get(fieldGroupName))) && allInserted);
+		}
+		
+		//	if anything went wrong, make sure next update of affected documents does the full job
+		if (!allInserted) {
+			for (Iterator dit = this.bulkLoadDocIds.iterator(); dit.hasNext();)
+				this.docFieldGroupHashes.remove(dit.next());
+		}
+		
+		//	clean up
+		this.bulkLoadRowCount += this.bulkLoadPendingRowCount;
+		this.bulkLoadRows.clear();
+		this.bulkLoadDocIds.clear();
+		this.bulkLoadPendingRowCount = 0;
+	}
+	
 	/**
 	 * Normalize a field value. This default implementation does simply returns
 	 * the argument value. Sub classes are welcome to overwrite it as needed to
@@ -432,7 +829,32 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 	 * @throws IOException
 	 */
 	public void deleteDocument(String docId) throws IOException {
+		HashSet modifiedFieldGroups = new HashSet();
+		modifiedFieldGroups.add("doc");
+		for (int g = 0; g < this.fieldGroups.length; g++) {
+			if (this.fieldGroups[g].virtualTableName == null)
+				modifiedFieldGroups.add(this.fieldGroups[g].name);
+		}
+		
+		//	collect roll-up cube cells the document contributes to (in bulk load mode, cubes are re-computed when finished)
+		HashMap cubeCells = null;
+		synchronized (this.bulkLoadRows) {
+			if (this.bulkLoadDocIds.contains(docId))
+				this.flushBulkLoadRows(); // need to get pending rows into database before deleting them
+			if (this.bulkLoading) {
+				this.bulkLoadModifiedFieldGroups.addAll(modifiedFieldGroups);
+				this.invalidateCubes(modifiedFieldGroups);
+			}
+			else cubeCells = this.getCubeCells(docId, modifiedFieldGroups);
+		}
 		this.deleteDocument(docId, null);
+		if (cubeCells != null)
+			this.updateCubeCells(docId, cubeCells);
+		
+		//	invalidate cached statistics & update timestamp
+		this.docFieldGroupHashes.remove(docId);
+		this.fieldGroupsModified(modifiedFieldGroups);
+		this.lastUpdate = System.currentTimeMillis();
 	}
 	
 	private void deleteDocument(String docId, HashSet fieldGroups) throws IOException {
@@ -527,12 +949,18 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		//	prepare parsing and SQL query assembly
 		FieldListBuffer outputFieldString = new FieldListBuffer(null);
 		TableListBuffer tableString = new TableListBuffer();
-		StringBuffer whereString = new StringBuffer("1=1");
+		ArrayList wherePredicates = new ArrayList();
 		FieldListBuffer groupFieldString = new FieldListBuffer(" GROUP BY ");
-		StringBuffer havingString = new StringBuffer("1=1");
+		ArrayList havingPredicates = new ArrayList();
 		FieldListBuffer orderFieldString = new FieldListBuffer(" ORDER BY ");
 		HashSet filterFieldSet = new HashSet();
 		
+		//	keep track of query parts for answering from a roll-up cube
+		boolean cubeEligible = true;
+		LinkedHashMap cubeFieldPredicates = new LinkedHashMap();
+		ArrayList cubeAggregatePredicates = new ArrayList();
+		Predicate cubeDocCountPredicate = null;
+		
 		//	parse custom filters
 		ArrayList whereCustomFilters = new ArrayList();
 		ArrayList havingCustomFilters = new ArrayList();
@@ -545,6 +973,8 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			else if ("res".equals(cf.target))
 				havingCustomFilters.add(cf);
 		}
+		if ((whereCustomFilters.size() + havingCustomFilters.size()) != 0)
+			cubeEligible = false;
 		
 		//	prepare output fields
 		StringVector statFields = new StringVector();
@@ -641,9 +1071,10 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 							predicatePartWhere.append(" OR " + this.getQualifiedFieldName(fields[f]) + " = " + d + "");
 					}
 					if (predicatePartWhere.length() > "1=0".length())
-						whereString.append(" AND (" + predicatePartWhere.toString() + ")");
+						wherePredicates.add("(" + predicatePartWhere.toString() + ")");
 				}
 				tableString.appendTableForFieldGroup(fieldGroup);
+				cubeEligible = false;
 				continue;
 			}
 			
@@ -661,8 +1092,9 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			}
 			if (!filterFieldSet.add(field.fullName))
 				continue;
-			whereString.append(" AND " + predicate.getSql(this.getQualifiedFieldName(field)));
+			wherePredicates.add(predicate.getSql(this.getQualifiedFieldName(field)));
 			tableString.appendTableForField(field);
+			cubeFieldPredicates.put(field, predicate);
 		}
 		for (int f = 0; f < whereCustomFilters.size(); f++) {
 			CustomFilter cf = ((CustomFilter) whereCustomFilters.get(f));
@@ -672,7 +1104,7 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			StatField rightField = ((StatField) this.fieldsByFullName.get(cf.rightField));
 			if (rightField == null)
 				continue;
-			whereString.append(" AND " + this.getQualifiedFieldName(leftField) + " " + cf.operator + " " + this.getQualifiedFieldName(rightField));
+			wherePredicates.add(this.getQualifiedFieldName(leftField) + " " + cf.operator + " " + this.getQualifiedFieldName(rightField));
 			tableString.appendTableForField(leftField);
 			tableString.appendTableForField(rightField);
 		}
@@ -716,8 +1148,10 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 				continue;
 			}
 			String aggreateField = ("count-distinct".equals(aggregate) ? ("count(DISTINCT " + this.getQualifiedFieldName(field) + ")") : (aggregate + "(" + this.getQualifiedFieldName(field) + ")"));
-			havingString.append(" AND " + predicate.getSql(aggreateField));
+			havingPredicates.add(predicate.getSql(aggreateField));
 			tableString.appendTableForField(field);
+			Object[] cubeAggregatePredicate = {field, aggregate, predicate};
+			cubeAggregatePredicates.add(cubeAggregatePredicate);
 		}
 		for (int f = 0; f < havingCustomFilters.size(); f++) {
 			CustomFilter cf = ((CustomFilter) havingCustomFilters.get(f));
@@ -751,7 +1185,7 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 			String leftAggreateField = ("count-distinct".equals(leftAggregate) ? ("count(DISTINCT " + this.getQualifiedFieldName(leftField) + ")") : (leftAggregate + "(" + this.getQualifiedFieldName(leftField) + ")"));
 			String rightAggreateField = ("count-distinct".equals(rightAggregate) ? ("count(DISTINCT " + this.getQualifiedFieldName(rightField) + ")") : (rightAggregate + "(" + this.getQualifiedFieldName(rightField) + ")"));
 			
-			havingString.append(" AND " + leftAggreateField + " " + cf.operator + " " + rightAggreateField);
+			havingPredicates.add(leftAggreateField + " " + cf.operator + " " + rightAggreateField);
 			tableString.appendTableForField(leftField);
 			tableString.appendTableForField(rightField);
 		}
@@ -763,29 +1197,55 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 					System.out.println(this.statName + ": empty predicate for DocCount");
 					System.out.println("  input string was " + predicateString);
 				}
-				else havingString.append(" AND " + predicate.getSql("count(DISTINCT " + this.fieldGroupsToTableAliases.getProperty(tableString.getLeadFieldGroup().name) + "." + DOCUMENT_ID_ATTRIBUTE + ")"));
+				else {
+					havingPredicates.add(predicate.getSql("count(DISTINCT " + this.fieldGroupsToTableAliases.getProperty(tableString.getLeadFieldGroup().name) + "." + DOCUMENT_ID_ATTRIBUTE + ")"));
+					cubeDocCountPredicate = predicate;
+				}
 			}
 		}
 		
-		/* produce cache key TODO increase hit rate by exploiting commutative properties
-		 * - HEX hash of output field string (includes aggregates)
-		 * - HEX hash of ORDER field string
-		 * - HEX hash of sorted WHERE string (predicates are commutative TODO use it)
-		 * - HEX hash of sorted GROUP field string (grouping is commutative TODO use it)
-		 * - HEX hash of sorted HAVING string (predicates are commutative TODO use it)
+		//	assemble predicates in canonical order (predicates are commutative, and sorting increases cache hit rate)
+		Collections.sort(wherePredicates);
+		StringBuffer whereString = new StringBuffer("1=1");
+		for (int p = 0; p < wherePredicates.size(); p++)
+			whereString.append(" AND " + wherePredicates.get(p));
+		Collections.sort(havingPredicates);
+		StringBuffer havingString = new StringBuffer("1=1");
+		for (int p = 0; p < havingPredicates.size(); p++)
+			havingString.append(" AND " + havingPredicates.get(p));
+		
+		/* produce cache key from canonical query parts
+		 * - output field string (includes aggregates, field order determines column order)
+		 * - ORDER field string
+		 * - sorted WHERE string (predicates are commutative)
+		 * - sorted GROUP field string (grouping is commutative)
+		 * - sorted HAVING string (predicates are commutative)
 		 */
 		String statsCacheKey = "" + limit +
-				"-" + Integer.toString(outputFieldString.getFieldListHash(), 16) +
-				"-" + Integer.toString(orderFieldString.getFieldListHash(), 16) +
-				"-" + Integer.toString(whereString.toString().hashCode(), 16) +
-				"-" + Integer.toString(groupFieldString.getFieldListHash(), 16) +
-				"-" + Integer.toString(havingString.toString().hashCode(), 16) +
+				"|" + outputFieldString.toString() +
+				"|" + orderFieldString.toString() +
+				"|" + whereString.toString() +
+				"|" + groupFieldString.toString() +
+				"|" + havingString.toString() +
 				"";
 		
+		//	collect field groups the statistics depend upon
+		TreeSet fieldGroupNameSet = new TreeSet();
+		fieldGroupNameSet.add(tableString.getLeadFieldGroup().name);
+		for (Iterator sfgit = tableString.fieldGroups.iterator(); sfgit.hasNext();)
+			fieldGroupNameSet.add(((StatFieldGroup) sfgit.next()).name);
+		String[] fieldGroupNames = ((String[]) fieldGroupNameSet.toArray(new String[fieldGroupNameSet.size()]));
+		
 		//	do cache lookup
-		DcStatistics stats = ((DcStatistics) this.cache.get(statsCacheKey));
-		if (stats != null)
-			return stats;
+		CachedStatistics cachedStats = ((CachedStatistics) this.cache.get(statsCacheKey));
+		if (cachedStats != null) {
+			if (this.isCurrent(cachedStats))
+				return cachedStats.stats;
+			if ((this.maxStaleness > 0) && ((System.currentTimeMillis() - cachedStats.created) < this.maxStaleness)) {
+				this.scheduleRefresh(statsCacheKey, cachedStats);
+				return cachedStats.stats;
+			}
+		}
 		
 		//	create row limit clause
 		/* TODO implement limitation clause distinction for MS SQL Server, Oracle, etc.
@@ -835,40 +1295,60 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 				orderFieldString.toString() +
 				limitClause +
 				";";
+		
+		//	answer from narrowest covering roll-up cube if possible
+		String cubeQuery = (cubeEligible ? this.getCubeQuery(outputFieldString, groupFieldString, orderFieldString, tableString, cubeFieldPredicates, cubeAggregatePredicates, cubeDocCountPredicate, topClause, limitClause) : null);
+		if (cubeQuery != null)
+			query = cubeQuery;
 		System.out.println(this.statName + ": stats query is " + query);
 		
+		//	we're testing the query parser ...
+		if (this.statName == null) {
+			System.out.println(query);
+			return null;
+		}
+		
+		//	produce and cache statistics
+		cachedStats = this.loadStatistics(query, statFields.toStringArray(), limit, fieldGroupNames);
+		if (cachedStats == null)
+			return null;
+		this.cache.put(statsCacheKey, cachedStats);
+		return cachedStats.stats;
+	}
+	
+	private CachedStatistics loadStatistics(String query, String[] statFields, int limit, String[] fieldGroupNames) {
+		
+		//	get field group versions first, so modifications during query execution make result outdated right away
+		int[] fieldGroupVersions = new int[fieldGroupNames.length];
+		for (int g = 0; g < fieldGroupNames.length; g++)
+			fieldGroupVersions[g] = this.getFieldGroupVersion(fieldGroupNames[g]);
+		long created = System.currentTimeMillis();
+		
 		//	produce statistics
 		SqlQueryResult sqr = null;
 		long time = System.currentTimeMillis();
 		try {
 			
-			//	we're testing the query parser ...
-			if (this.statName == null) {
-				System.out.println(query);
-				return null;
-			}
-			
 			//	execute query
-			sqr = this.io.executeSelectQuery(query.toString(), true);
+			sqr = this.io.executeSelectQuery(query, true);
 			
 			//	read data
-			stats = new DcStatistics(statFields.toStringArray(), lastUpdate);
+			DcStatistics stats = new DcStatistics(statFields, lastUpdate);
 			while (sqr.next()) {
 				StringTupel st = new StringTupel();
-				for (int f = 0; (f < sqr.getColumnCount()) && (f < statFields.size()); f++)
-					st.setValue(statFields.get(f), sqr.getString(f));
+				for (int f = 0; (f < sqr.getColumnCount()) && (f < statFields.length); f++)
+					st.setValue(statFields[f], sqr.getString(f));
 				stats.addElement(st);
 				//	catch databases that don't support the limit clause
 				if ((limit > 0) && (stats.size() >= limit))
 					break;
 			}
 			
-			//	lock and cache statistics
+			//	lock statistics
 			stats.setReadOnly();
-			this.cache.put(statsCacheKey, stats);
 			
 			//	finally ...
-			return stats;
+			return new CachedStatistics(stats, query, statFields, limit, fieldGroupNames, fieldGroupVersions, created);
 		}
 		catch (SQLException sqle) {
 			System.out.println(this.statName + ": exception generating statistics: " + sqle.getMessage());
@@ -882,6 +1362,565 @@ public class GoldenGateDcsStatEngine implements GoldenGateDcsConstants {
 		}
 	}
 	
+	private boolean isCurrent(CachedStatistics cachedStats) {
+		for (int g = 0; g < cachedStats.fieldGroupNames.length; g++) {
+			if (cachedStats.fieldGroupVersions[g] != this.getFieldGroupVersion(cachedStats.fieldGroupNames[g]))
+				return false;
+		}
+		return true;
+	}
+	
+	private LinkedHashMap refreshQueue = new LinkedHashMap();
+	private Thread refresher = null;
+	private void scheduleRefresh(String statsCacheKey, CachedStatistics cachedStats) {
+		synchronized (this.refreshQueue) {
+			this.refreshQueue.put(statsCacheKey, cachedStats);
+			if (this.refresher != null)
+				return;
+			this.refresher = new Thread(this.statName + "StatsRefresher") {
+				public void run() {
+					while (true) {
+						String statsCacheKey;
+						CachedStatistics cachedStats;
+						synchronized (refreshQueue) {
+							if (refreshQueue.isEmpty()) {
+								refresher = null;
+								return;
+							}
+							statsCacheKey = ((String) refreshQueue.keySet().iterator().next());
+							cachedStats = ((CachedStatistics) refreshQueue.remove(statsCacheKey));
+						}
+						if (isCurrent(cachedStats))
+							continue; // refreshed by some other request in the meantime
+						CachedStatistics refreshedStats = loadStatistics(cachedStats.query, cachedStats.statFields, cachedStats.limit, cachedStats.fieldGroupNames);
+						if (refreshedStats != null)
+							cache.put(statsCacheKey, refreshedStats);
+					}
+				}
+			};
+			this.refresher.setDaemon(true);
+			this.refresher.start();
+		}
+	}
+	
+	private static class CachedStatistics {
+		final DcStatistics stats;
+		final String query;
+		final String[] statFields;
+		final int limit;
+		final String[] fieldGroupNames;
+		final int[] fieldGroupVersions;
+		final long created;
+		CachedStatistics(DcStatistics stats, String query, String[] statFields, int limit, String[] fieldGroupNames, int[] fieldGroupVersions, long created) {
+			this.stats = stats;
+			this.query = query;
+			this.statFields = statFields;
+			this.limit = limit;
+			this.fieldGroupNames = fieldGroupNames;
+			this.fieldGroupVersions = fieldGroupVersions;
+			this.created = created;
+		}
+	}
+	
+	/*
+	 * Roll-up cubes hold the pre-aggregated result of a fixed GROUP BY query
+	 * on the raw data tables. A statistics is answered from a cube if it uses
+	 * the same tables (and thus the same joins) as the cube, groups by the
+	 * cube grouping fields or a subset thereof, filters only on cube grouping
+	 * fields, and all its aggregates can be computed from those in the cube.
+	 * When a document is updated, we re-aggregate the cube cells (grouping
+	 * value combinations) the document contributes to before and after the
+	 * update from the raw data tables, which works for all aggregates alike.
+	 * In bulk load mode, affected cubes are re-computed as a whole when the
+	 * bulk load is finished, and they are not used for queries meanwhile.
+	 */
+	private static final int MAX_CUBE_CELLS_PER_QUERY = 64;
+	private ArrayList cubes = new ArrayList();
+	
+	private StatCubeTable createCubeTable(StatCube cube) {
+		TableListBuffer tableString = new TableListBuffer();
+		
+		//	resolve grouping fields
+		String[] groupingFieldNames = cube.getGroupingFieldNames();
+		ArrayList groupingFields = new ArrayList();
+		for (int f = 0; f < groupingFieldNames.length; f++) {
+			StatField field = ((StatField) this.fieldsByFullName.get(groupingFieldNames[f]));
+			if (field == null) {
+				System.out.println(this.statName + ": unknown grouping field " + groupingFieldNames[f] + " in cube " + cube.name);
+				return null;
+			}
+			if (field.group.virtualTableName != null) {
+				System.out.println(this.statName + ": cannot use grouping field " + field.fullName + " from virtual table in cube " + cube.name);
+				return null;
+			}
+			if (StatField.REAL_TYPE.equals(field.dataType)) {
+				System.out.println(this.statName + ": cannot use floating point grouping field " + field.fullName + " in cube " + cube.name);
+				return null;
+			}
+			if (groupingFields.contains(field))
+				continue;
+			groupingFields.add(field);
+			tableString.appendTableForField(field);
+		}
+		
+		//	resolve aggregates
+		StatCubeAggregate[] cubeAggregates = cube.getAggregateFields();
+		ArrayList aggregateFields = new ArrayList();
+		ArrayList aggregates = new ArrayList();
+		HashSet aggregateColumnNames = new HashSet();
+		for (int a = 0; a < cubeAggregates.length; a++) {
+			StatField field = ((StatField) this.fieldsByFullName.get(cubeAggregates[a].fieldName));
+			if (field == null) {
+				System.out.println(this.statName + ": unknown aggregate field " + cubeAggregates[a].fieldName + " in cube " + cube.name);
+				return null;
+			}
+			if (field.group.virtualTableName != null) {
+				System.out.println(this.statName + ": cannot use aggregate field " + field.fullName + " from virtual table in cube " + cube.name);
+				return null;
+			}
+			if (groupingFields.contains(field))
+				continue;
+			String aggregate = ((cubeAggregates[a].aggregate == null) ? field.defAggregate : cubeAggregates[a].aggregate).toLowerCase();
+			if (!"count".equals(aggregate) && !"count-distinct".equals(aggregate) && !"sum".equals(aggregate) && !"avg".equals(aggregate) && !"min".equals(aggregate) && !"max".equals(aggregate))
+				continue;
+			if (("sum".equals(aggregate) || "avg".equals(aggregate)) && !StatField.INTEGER_TYPE.equals(field.dataType) && !StatField.LONG_TYPE.equals(field.dataType) && !StatField.REAL_TYPE.equals(field.dataType))
+				continue;
+			if (!aggregateColumnNames.add(getCubeColumnName(field, aggregate)))
+				continue;
+			aggregateFields.add(field);
+			aggregates.add(aggregate);
+			tableString.appendTableForField(field);
+		}
+		
+		//	create table definition
+		TableDefinition cubeTableDef = new TableDefinition(this.tableNamePrefix + "Stats" + cube.name.substring(0, 1).toUpperCase() + cube.name.substring(1) + "Cube");
+		String[] groupingColumnNames = new String[groupingFields.size()];
+		for (int f = 0; f < groupingFields.size(); f++) {
+			StatField field = ((StatField) groupingFields.get(f));
+			groupingColumnNames[f] = field.statColName;
+			if (StatField.STRING_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(field.statColName, TableDefinition.VARCHAR_DATATYPE, field.dataLength);
+			else if (StatField.INTEGER_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(field.statColName, TableDefinition.INT_DATATYPE, 0);
+			else if (StatField.LONG_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(field.statColName, TableDefinition.BIGINT_DATATYPE, 0);
+			else if (StatField.BOOLEAN_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(field.statColName, TableDefinition.CHAR_DATATYPE, 1);
+		}
+		cubeTableDef.addColumn("DocCount", TableDefinition.INT_DATATYPE, 0);
+		for (int a = 0; a < aggregateFields.size(); a++) {
+			StatField field = ((StatField) aggregateFields.get(a));
+			String aggregate = ((String) aggregates.get(a));
+			String columnName = getCubeColumnName(field, aggregate);
+			if ("count".equals(aggregate) || "count-distinct".equals(aggregate))
+				cubeTableDef.addColumn(columnName, TableDefinition.INT_DATATYPE, 0);
+			else if ("avg".equals(aggregate) || StatField.REAL_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(columnName, TableDefinition.REAL_DATATYPE, 0);
+			else if ("sum".equals(aggregate) || StatField.LONG_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(columnName, TableDefinition.BIGINT_DATATYPE, 0);
+			else if (StatField.INTEGER_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(columnName, TableDefinition.INT_DATATYPE, 0);
+			else if (StatField.STRING_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(columnName, TableDefinition.VARCHAR_DATATYPE, field.dataLength);
+			else if (StatField.BOOLEAN_TYPE.equals(field.dataType))
+				cubeTableDef.addColumn(columnName, TableDefinition.CHAR_DATATYPE, 1);
+		}
+		
+		//	create and index table
+		if (!this.io.ensureTable(cubeTableDef, true)) {
+			System.out.println(this.statName + ": could not create table for cube " + cube.name);
+			return null;
+		}
+		for (int c = 0; c < groupingColumnNames.length; c++)
+			this.io.indexColumn(cubeTableDef.getTableName(), groupingColumnNames[c]);
+		if (groupingColumnNames.length > 1)
+			this.io.indexColumns(cubeTableDef.getTableName(), groupingColumnNames);
+		
+		//	finally ...
+		return new StatCubeTable(cube, cubeTableDef.getTableName(), ((StatField[]) groupingFields.toArray(new StatField[groupingFields.size()])), ((StatField[]) aggregateFields.toArray(new StatField[aggregateFields.size()])), ((String[]) aggregates.toArray(new String[aggregates.size()])), tableString);
+	}
+	
+	private static String getCubeColumnName(StatField field, String aggregate) {
+		return (field.statColName + ("count-distinct".equals(aggregate) ? "CountDistinct" : (aggregate.substring(0, 1).toUpperCase() + aggregate.substring(1))));
+	}
+	
+	private void invalidateCubes(Set fieldGroupNames) {
+		for (int c = 0; c < this.cubes.size(); c++) {
+			StatCubeTable cube = ((StatCubeTable) this.cubes.get(c));
+			if (cube.dependsOn(fieldGroupNames)) synchronized (cube) {
+				cube.valid = false;
+			}
+		}
+	}
+	
+	private LinkedHashSet cubeRebuildQueue = new LinkedHashSet();
+	private Thread cubeBuilder = null;
+	private void scheduleCubeRebuild(ArrayList cubes) {
+		if (cubes.isEmpty())
+			return;
+		synchronized (this.cubeRebuildQueue) {
+			this.cubeRebuildQueue.addAll(cubes);
+			if (this.cubeBuilder != null)
+				return;
+			this.cubeBuilder = new Thread(this.statName + "CubeBuilder") {
+				public void run() {
+					while (true) {
+						StatCubeTable cube;
+						synchronized (cubeRebuildQueue) {
+							if (cubeRebuildQueue.isEmpty()) {
+								cubeBuilder = null;
+								return;
+							}
+							cube = ((StatCubeTable) cubeRebuildQueue.iterator().next());
+							cubeRebuildQueue.remove(cube);
+						}
+						rebuildCube(cube);
+					}
+				}
+			};
+			this.cubeBuilder.setDaemon(true);
+			this.cubeBuilder.start();
+		}
+	}
+	
+	private void rebuildCube(StatCubeTable cube) {
+		long time = System.currentTimeMillis();
+		synchronized (cube) {
+			cube.valid = false;
+			String deleteQuery = ("DELETE FROM " + cube.tableName + ";");
+			String insertQuery = ("INSERT INTO " + cube.tableName + " (" + cube.columnString + ") " + cube.getSourceQuery(null) + ";");
+			try {
+				this.io.executeUpdateQuery(deleteQuery);
+				this.io.executeUpdateQuery(insertQuery);
+			}
+			catch (SQLException sqle) {
+				System.out.println(this.statName + ": exception computing cube " + cube.cube.name + ": " + sqle.getMessage());
+				System.out.println("  Query was: " + insertQuery);
+				return;
+			}
+			cube.valid = !this.bulkLoading; // we'll come back after bulk load is finished
+		}
+		System.out.println(this.statName + ": cube " + cube.cube.name + " computed in " + (System.currentTimeMillis() - time) + "ms");
+	}
+	
+	private HashMap getCubeCells(String docId, Set fieldGroupNames) {
+		HashMap cubeCells = new HashMap();
+		for (int c = 0; c < this.cubes.size(); c++) {
+			StatCubeTable cube = ((StatCubeTable) this.cubes.get(c));
+			if (!cube.dependsOn(fieldGroupNames))
+				continue;
+			LinkedHashMap cells = new LinkedHashMap();
+			this.addCubeCells(cube, docId, cells);
+			cubeCells.put(cube, cells);
+		}
+		return cubeCells;
+	}
+	
+	private void addCubeCells(StatCubeTable cube, String docId, LinkedHashMap cells) {
+		String query = "SELECT DISTINCT " + cube.sourceGroupingString +
+				" FROM " + cube.sourceTableString +
+				" WHERE " + cube.sourceJoinWhereString +
+				" AND " + cube.sourceLeadAlias + "." + DOCUMENT_ID_HASH_ATTRIBUTE + " = " + docId.hashCode() + "" +
+				" AND " + cube.sourceLeadAlias + "." + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docId) + "'" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query, true);
+			while (sqr.next()) {
+				String[] cell = new String[cube.groupingFields.length];
+				for (int f = 0; f < cube.groupingFields.length; f++) {
+					String value = sqr.getString(f);
+					if (value == null)
+						value = "";
+					if (StatField.STRING_TYPE.equals(cube.groupingFields[f].dataType) || StatField.BOOLEAN_TYPE.equals(cube.groupingFields[f].dataType))
+						cell[f] = ("'" + EasyIO.sqlEscape(value) + "'");
+					else cell[f] = (("".equals(value) ? "0" : value));
+				}
+				cells.put(Arrays.toString(cell), cell);
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println(this.statName + ": exception getting cells of cube " + cube.cube.name + ": " + sqle.getMessage());
+			System.out.println("  Query was: " + query);
+			cells.put("", null); // we cannot do a selective update
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private void updateCubeCells(String docId, HashMap cubeCells) {
+		ArrayList rebuildCubes = new ArrayList();
+		for (Iterator cit = cubeCells.keySet().iterator(); cit.hasNext();) {
+			StatCubeTable cube = ((StatCubeTable) cit.next());
+			LinkedHashMap cells = ((LinkedHashMap) cubeCells.get(cube));
+			this.addCubeCells(cube, docId, cells);
+			if (cells.containsKey("") || !this.updateCubeCells(cube, new ArrayList(cells.values())))
+				rebuildCubes.add(cube);
+		}
+		this.scheduleCubeRebuild(rebuildCubes);
+	}
+	
+	private boolean updateCubeCells(StatCubeTable cube, ArrayList cells) {
+		synchronized (cube) {
+			if (!cube.valid)
+				return true; // cube is re-computed as a whole anyway
+			for (int cs = 0; cs < cells.size(); cs += MAX_CUBE_CELLS_PER_QUERY) {
+				StringBuffer cubePredicate = new StringBuffer();
+				StringBuffer sourcePredicate = new StringBuffer();
+				for (int c = cs; (c < cells.size()) && (c < (cs + MAX_CUBE_CELLS_PER_QUERY)); c++) {
+					String[] cell = ((String[]) cells.get(c));
+					if (c != cs) {
+						cubePredicate.append(" OR ");
+						sourcePredicate.append(" OR ");
+					}
+					cubePredicate.append("(");
+					sourcePredicate.append("(");
+					for (int f = 0; f < cell.length; f++) {
+						if (f != 0) {
+							cubePredicate.append(" AND ");
+							sourcePredicate.append(" AND ");
+						}
+						cubePredicate.append(cube.groupingFields[f].statColName + " = " + cell[f]);
+						sourcePredicate.append(getQualifiedFieldName(cube.groupingFields[f]) + " = " + cell[f]);
+					}
+					cubePredicate.append(")");
+					sourcePredicate.append(")");
+				}
+				String deleteQuery = ("DELETE FROM " + cube.tableName + " WHERE " + cubePredicate.toString() + ";");
+				String insertQuery = ("INSERT INTO " + cube.tableName + " (" + cube.columnString + ") " + cube.getSourceQuery(sourcePredicate.toString()) + ";");
+				try {
+					this.io.executeUpdateQuery(deleteQuery);
+					this.io.executeUpdateQuery(insertQuery);
+				}
+				catch (SQLException sqle) {
+					System.out.println(this.statName + ": exception updating cube " + cube.cube.name + ": " + sqle.getMessage());
+					System.out.println("  Query was: " + insertQuery);
+					cube.valid = false;
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private String getCubeQuery(FieldListBuffer outputFieldString, FieldListBuffer groupFieldString, FieldListBuffer orderFieldString, TableListBuffer tableString, LinkedHashMap fieldPredicates, ArrayList aggregatePredicates, Predicate docCountPredicate, String topClause, String limitClause) {
+		if (this.cubes.isEmpty())
+			return null;
+		HashSet queryFieldGroups = new HashSet(tableString.fieldGroups);
+		Set groupingFields = groupFieldString.fieldsToFunctions.keySet();
+		
+		//	find narrowest covering cube
+		StatCubeTable cube = null;
+		for (int c = 0; c < this.cubes.size(); c++) {
+			StatCubeTable ct = ((StatCubeTable) this.cubes.get(c));
+			if (!ct.valid)
+				continue;
+			if ((cube != null) && (cube.groupingFields.length <= ct.groupingFields.length))
+				continue;
+			if (!ct.fieldGroups.equals(queryFieldGroups))
+				continue; // different joins
+			if (ct.covers(groupingFields, outputFieldString.fieldsToFunctions, fieldPredicates.keySet(), aggregatePredicates, (docCountPredicate != null)))
+				cube = ct;
+		}
+		if (cube == null)
+			return null;
+		boolean rollUp = (cube.groupingFields.length != groupingFields.size());
+		
+		//	assemble output fields
+		StringBuffer cubeOutputString = new StringBuffer(cube.getDocCountExpression(groupingFields) + " AS DocCount");
+		for (Iterator ofit = outputFieldString.fieldsToFunctions.keySet().iterator(); ofit.hasNext();) {
+			StatField field = ((StatField) ofit.next());
+			String aggregate = ((String) outputFieldString.fieldsToFunctions.get(field));
+			cubeOutputString.append(", " + ((aggregate == null) ? field.statColName : cube.getAggregateExpression(field, aggregate, rollUp)) + " AS " + field.statColName);
+		}
+		
+		//	assemble predicates (aggregate predicates go to WHERE clause if we use cube rows as they are)
+		ArrayList cubeWherePredicates = new ArrayList();
+		ArrayList cubeHavingPredicates = new ArrayList();
+		for (Iterator fpit = fieldPredicates.keySet().iterator(); fpit.hasNext();) {
+			StatField field = ((StatField) fpit.next());
+			cubeWherePredicates.add(((Predicate) fieldPredicates.get(field)).getSql(field.statColName));
+		}
+		for (int p = 0; p < aggregatePredicates.size(); p++) {
+			Object[] aggregatePredicate = ((Object[]) aggregatePredicates.get(p));
+			String aggregateExpression = cube.getAggregateExpression(((StatField) aggregatePredicate[0]), ((String) aggregatePredicate[1]), rollUp);
+			(rollUp ? cubeHavingPredicates : cubeWherePredicates).add(((Predicate) aggregatePredicate[2]).getSql(aggregateExpression));
+		}
+		if (docCountPredicate != null)
+			(rollUp ? cubeHavingPredicates : cubeWherePredicates).add(docCountPredicate.getSql(cube.getDocCountExpression(groupingFields)));
+		Collections.sort(cubeWherePredicates);
+		StringBuffer cubeWhereString = new StringBuffer();
+		for (int p = 0; p < cubeWherePredicates.size(); p++)
+			cubeWhereString.append(((p == 0) ? " WHERE " : " AND ") + cubeWherePredicates.get(p));
+		Collections.sort(cubeHavingPredicates);
+		StringBuffer cubeHavingString = new StringBuffer();
+		for (int p = 0; p < cubeHavingPredicates.size(); p++)
+			cubeHavingString.append(((p == 0) ? " HAVING " : " AND ") + cubeHavingPredicates.get(p));
+		
+		//	assemble grouping fields
+		StringBuffer cubeGroupString = new StringBuffer();
+		if (rollUp) {
+			for (Iterator gfit = groupingFields.iterator(); gfit.hasNext();) {
+				StatField field = ((StatField) gfit.next());
+				cubeGroupString.append(((cubeGroupString.length() == 0) ? " GROUP BY " : ", ") + field.statColName);
+			}
+		}
+		
+		//	finally ...
+		return ("SELECT " + topClause + cubeOutputString.toString() +
+				" FROM " + cube.tableName +
+				cubeWhereString.toString() +
+				cubeGroupString.toString() +
+				cubeHavingString.toString() +
+				orderFieldString.toString() +
+				limitClause +
+				";");
+	}
+	
+	private class StatCubeTable {
+		final StatCube cube;
+		final String tableName;
+		final StatField[] groupingFields;
+		final StatField[] aggregateFields;
+		final String[] aggregates;
+		final HashSet fieldGroups;
+		final String columnString;
+		final String sourceOutputString;
+		final String sourceTableString;
+		final String sourceJoinWhereString;
+		final String sourceGroupingString;
+		final String sourceLeadAlias;
+		boolean valid = false;
+		StatCubeTable(StatCube cube, String tableName, StatField[] groupingFields, StatField[] aggregateFields, String[] aggregates, TableListBuffer tableString) {
+			this.cube = cube;
+			this.tableName = tableName;
+			this.groupingFields = groupingFields;
+			this.aggregateFields = aggregateFields;
+			this.aggregates = aggregates;
+			this.fieldGroups = new HashSet(tableString.fieldGroups);
+			
+			//	assemble column list and source query parts
+			this.sourceLeadAlias = fieldGroupsToTableAliases.getProperty(tableString.getLeadFieldGroup().name);
+			StringBuffer columnString = new StringBuffer();
+			StringBuffer sourceGroupingString = new StringBuffer();
+			for (int f = 0; f < this.groupingFields.length; f++) {
+				columnString.append(this.groupingFields[f].statColName + ", ");
+				if (f != 0)
+					sourceGroupingString.append(", ");
+				sourceGroupingString.append(getQualifiedFieldName(this.groupingFields[f]));
+			}
+			columnString.append("DocCount");
+			StringBuffer sourceOutputString = new StringBuffer(sourceGroupingString.toString() + ", count(DISTINCT " + this.sourceLeadAlias + "." + DOCUMENT_ID_ATTRIBUTE + ")");
+			for (int a = 0; a < this.aggregateFields.length; a++) {
+				columnString.append(", " + getCubeColumnName(this.aggregateFields[a], this.aggregates[a]));
+				if ("count-distinct".equals(this.aggregates[a]))
+					sourceOutputString.append(", count(DISTINCT " + getQualifiedFieldName(this.aggregateFields[a]) + ")");
+				else sourceOutputString.append(", " + this.aggregates[a] + "(" + getQualifiedFieldName(this.aggregateFields[a]) + ")");
+			}
+			this.columnString = columnString.toString();
+			this.sourceOutputString = sourceOutputString.toString();
+			this.sourceTableString = tableString.toString();
+			this.sourceJoinWhereString = tableString.getJoinWhereString();
+			this.sourceGroupingString = sourceGroupingString.toString();
+		}
+		boolean dependsOn(Set fieldGroupNames) {
+			for (Iterator fgit = this.fieldGroups.iterator(); fgit.hasNext();) {
+				if (fieldGroupNames.contains(((StatFieldGroup) fgit.next()).name))
+					return true;
+			}
+			return false;
+		}
+		String getSourceQuery(String predicate) {
+			return ("SELECT " + this.sourceOutputString +
+					" FROM " + this.sourceTableString +
+					" WHERE " + this.sourceJoinWhereString +
+					((predicate == null) ? "" : (" AND (" + predicate + ")")) +
+					" GROUP BY " + this.sourceGroupingString);
+		}
+		boolean covers(Set queryGroupingFields, Map queryOutputFields, Set queryPredicateFields, ArrayList queryAggregatePredicates, boolean queryDocCountPredicate) {
+			for (Iterator gfit = queryGroupingFields.iterator(); gfit.hasNext();) {
+				if (!this.isGroupingField((StatField) gfit.next()))
+					return false;
+			}
+			for (Iterator pfit = queryPredicateFields.iterator(); pfit.hasNext();) {
+				if (!this.isGroupingField((StatField) pfit.next()))
+					return false;
+			}
+			boolean rollUp = (this.groupingFields.length != queryGroupingFields.size());
+			if (this.getDocCountExpression(queryGroupingFields) == null)
+				return false; // DocCount is in every statistics
+			for (Iterator ofit = queryOutputFields.keySet().iterator(); ofit.hasNext();) {
+				StatField field = ((StatField) ofit.next());
+				String aggregate = ((String) queryOutputFields.get(field));
+				if ((aggregate != null) && (this.getAggregateExpression(field, aggregate, rollUp) == null))
+					return false;
+			}
+			for (int p = 0; p < queryAggregatePredicates.size(); p++) {
+				Object[] aggregatePredicate = ((Object[]) queryAggregatePredicates.get(p));
+				if (this.getAggregateExpression(((StatField) aggregatePredicate[0]), ((String) aggregatePredicate[1]), rollUp) == null)
+					return false;
+			}
+			return true;
+		}
+		boolean isGroupingField(StatField field) {
+			for (int f = 0; f < this.groupingFields.length; f++) {
+				if (this.groupingFields[f] == field)
+					return true;
+			}
+			return false;
+		}
+		String getAggregateColumnName(StatField field, String aggregate) {
+			for (int a = 0; a < this.aggregateFields.length; a++) {
+				if ((this.aggregateFields[a] == field) && this.aggregates[a].equals(aggregate))
+					return getCubeColumnName(field, aggregate);
+			}
+			return null;
+		}
+		String getDocCountExpression(Set queryGroupingFields) {
+			if (this.groupingFields.length == queryGroupingFields.size())
+				return "DocCount";
+			
+			//	documents counted in cells we merge have to be disjoint, which is the case if we only merge cells differing in document table fields
+			for (int f = 0; f < this.groupingFields.length; f++) {
+				if (!queryGroupingFields.contains(this.groupingFields[f]) && (this.groupingFields[f].group != docFieldGroup))
+					return null;
+			}
+			return "sum(DocCount)";
+		}
+		String getAggregateExpression(StatField field, String aggregate, boolean rollUp) {
+			
+			//	aggregate over cube grouping field we merge cells on
+			if (this.isGroupingField(field)) {
+				if ("count-distinct".equals(aggregate))
+					return ("count(DISTINCT " + field.statColName + ")");
+				else if ("min".equals(aggregate) || "max".equals(aggregate))
+					return (aggregate + "(" + field.statColName + ")");
+				else return null;
+			}
+			
+			//	use cube rows as they are
+			String columnName = this.getAggregateColumnName(field, aggregate);
+			if (!rollUp && (columnName != null))
+				return columnName;
+			
+			//	merge cells
+			if ("sum".equals(aggregate) || "count".equals(aggregate))
+				return ((columnName == null) ? null : ("sum(" + columnName + ")"));
+			if ("min".equals(aggregate) || "max".equals(aggregate))
+				return ((columnName == null) ? null : (aggregate + "(" + columnName + ")"));
+			if ("avg".equals(aggregate)) {
+				String sumColumnName = this.getAggregateColumnName(field, "sum");
+				String countColumnName = this.getAggregateColumnName(field, "count");
+				if ((sumColumnName == null) || (countColumnName == null))
+					return null;
+				return (rollUp ? ("(1.0 * sum(" + sumColumnName + ") / sum(" + countColumnName + "))") : ("(1.0 * " + sumColumnName + " / " + countColumnName + ")"));
+			}
+			return null; // distinct counts don't add up
+		}
+	}
+	
 	private String getQualifiedFieldName(StatField field) {
 		return (this.fieldGroupsToTableAliases.getProperty(field.group.name) + "." + field.columnName);
 	}
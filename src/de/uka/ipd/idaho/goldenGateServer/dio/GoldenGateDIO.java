@@ -82,6 +82,7 @@ import de.uka.ipd.idaho.goldenGateServer.dio.GoldenGateDioConstants.DioDocumentE
 import de.uka.ipd.idaho.goldenGateServer.dio.data.DioDocumentList;
 import de.uka.ipd.idaho.goldenGateServer.dst.DocumentStore;
 import de.uka.ipd.idaho.goldenGateServer.uaa.UserAccessAuthority;
+import de.uka.ipd.idaho.goldenGateServer.util.GPathMatcher;
 import de.uka.ipd.idaho.htmlXmlUtil.TreeNode;
 import de.uka.ipd.idaho.htmlXmlUtil.accessories.IoTools;
 import de.uka.ipd.idaho.htmlXmlUtil.accessories.TreeTools;
@@ -133,14 +134,65 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	
 	private int documentListSizeThreshold = 0;
 	
-	private Set docIdSet = new HashSet();
-	private Map docAttributeValueCache = new HashMap();
+	private Set docIdSet = Collections.synchronizedSet(new HashSet());
+	private Map docAttributeValueCache = Collections.synchronizedMap(new HashMap());
+	
+	/* Document updates, checkouts, and releases lock on a stripe selected by
+	 * the document ID rather than on the whole component, so operations on
+	 * unrelated documents can run in parallel. Operations on one and the same
+	 * document ID always map to the same stripe, and are thus serialized. */
+	private static final int DOCUMENT_LOCK_STRIPES = 64;
+	private final Object[] documentLocks = new Object[DOCUMENT_LOCK_STRIPES];
+	{
+		for (int l = 0; l < this.documentLocks.length; l++)
+			this.documentLocks[l] = new Object();
+	}
+	private Object getDocumentLock(String docId) {
+		return this.documentLocks[(docId.hashCode() & 0x7FFFFFFF) % this.documentLocks.length];
+	}
+	
+	/* External identifiers currently undergoing conflict checks, reserved
+	 * until the checking upload or update has written its meta data, so two
+	 * documents with the same external identifier cannot both pass the check.
+	 * Reserved before acquiring a document lock, never while holding one. */
+	private Set reservedExternalIdentifiers = new HashSet();
+	private void reserveExternalIdentifier(String externalIdentifier) throws IOException {
+		synchronized (this.reservedExternalIdentifiers) {
+			while (this.reservedExternalIdentifiers.contains(externalIdentifier)) try {
+				this.reservedExternalIdentifiers.wait();
+			}
+			catch (InterruptedException ie) {
+				throw new IOException("Interrupted waiting for external identifier check");
+			}
+			this.reservedExternalIdentifiers.add(externalIdentifier);
+		}
+	}
+	private void releaseExternalIdentifier(String externalIdentifier) {
+		synchronized (this.reservedExternalIdentifiers) {
+			if (this.reservedExternalIdentifiers.remove(externalIdentifier))
+				this.reservedExternalIdentifiers.notifyAll();
+		}
+	}
+	private String getExternalIdentifier(Attributed doc) {
+		for (int i = 0; i < this.extIdAttributeNames.length; i++) {
+			String externalIdentifier = ((String) doc.getAttribute(this.extIdAttributeNames[i]));
+			if (externalIdentifier == null)
+				continue;
+			externalIdentifier = externalIdentifier.replaceAll("\\s", "");
+			if (externalIdentifier.length() > EXTERNAL_IDENTIFIER_LENGTH)
+				externalIdentifier = externalIdentifier.substring(0, EXTERNAL_IDENTIFIER_LENGTH);
+			return externalIdentifier;
+		}
+		return null;
+	}
 	
 	private void cacheDocumentAttributeValue(String fieldName, String fieldValue) {
 		if ((fieldValue == null) || summarylessAttributes.contains(fieldValue))
 			return;
 		AttributeSummary as = this.getListFieldSummary(fieldName, true);
-		as.add(fieldValue);
+		synchronized (as) {
+			as.add(fieldValue);
+		}
 	}
 	private void cacheDocumentAttributeValues(Attributed values) {
 		for (int f = 0; f < documentListFields.length; f++)
@@ -152,8 +204,9 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		if ((fieldValue == null) || summarylessAttributes.contains(fieldValue))
 			return;
 		AttributeSummary as = this.getListFieldSummary(fieldName, false);
-		if (as != null)
+		if (as != null) synchronized (as) {
 			as.remove(fieldValue);
+		}
 	}
 	private void uncacheDocumentAttributeValues(Attributed values) {
 		for (int f = 0; f < documentListFields.length; f++)
@@ -162,12 +215,24 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 			this.uncacheDocumentAttributeValue(documentListFieldsAdmin[f], ((String) values.getAttribute(documentListFields[f])));
 	}
 	private AttributeSummary getListFieldSummary(String fieldName, boolean create) {
-		AttributeSummary as = ((AttributeSummary) this.docAttributeValueCache.get(fieldName));
-		if ((as == null) && create) {
-			as = new AttributeSummary();
-			this.docAttributeValueCache.put(fieldName, as);
+		synchronized (this.docAttributeValueCache) {
+			AttributeSummary as = ((AttributeSummary) this.docAttributeValueCache.get(fieldName));
+			if ((as == null) && create) {
+				as = new AttributeSummary();
+				this.docAttributeValueCache.put(fieldName, as);
+			}
+			return as;
 		}
-		return as;
+	}
+	private AttributeSummary getListFieldSummaryCopy(String fieldName) {
+		
+		//	copy summary, as document lists iterate it while updates might modify it
+		AttributeSummary as = this.getListFieldSummary(fieldName, true);
+		AttributeSummary asCopy = new AttributeSummary();
+		synchronized (as) {
+			asCopy.addAll(as);
+		}
+		return asCopy;
 	}
 	
 	/**
@@ -303,6 +368,8 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 			TreeNode keyworderRoot = IoTools.readAndParseFile(new File(keywordingFolder, "keywording.xml"));
 			TreeNode[] keyworderNodes = TreeTools.getAllNodesOfType(keyworderRoot, "keyworder");
 			ArrayList keyworderList = new ArrayList();
+			ArrayList gPathList = new ArrayList();
+			ArrayList gPathWeightBoostFactorList = new ArrayList();
 			for (int k = 0; k < keyworderNodes.length; k++) try {
 				
 				//	get basic attributes
@@ -352,7 +419,8 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 						gPathString = gPathParts.concatStrings(" ");
 					}
 					try {
-						keyworderList.add(new GPathKeyworder(normalizationMode, weightBoostFactor, new GPath(gPathString)));
+						gPathList.add(new GPath(gPathString));
+						gPathWeightBoostFactorList.add(new Integer(weightBoostFactor));
 					}
 					catch (GPathSyntaxException gse) {
 						System.out.println("GoldenGateDIO: " + gse.getClass().getName() + " (" + gse.getMessage() + ") while loading GPath document keyworder '" + keyworderNodes[k] + "'");
@@ -366,6 +434,14 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 				ioe.printStackTrace(System.out);
 			}
 			
+			//	combine GPath based keyworders, so all paths are evaluated in a single pass
+			if (gPathList.size() != 0) {
+				int[] gPathWeightBoostFactors = new int[gPathWeightBoostFactorList.size()];
+				for (int p = 0; p < gPathWeightBoostFactors.length; p++)
+					gPathWeightBoostFactors[p] = ((Integer) gPathWeightBoostFactorList.get(p)).intValue();
+				keyworderList.add(new GPathKeyworder(((GPath[]) gPathList.toArray(new GPath[gPathList.size()])), gPathWeightBoostFactors));
+			}
+			
 			//	store keyworders
 			this.documentKeyworders = ((DocumentKeyworder[]) keyworderList.toArray(new DocumentKeyworder[keyworderList.size()]));
 		}
@@ -2046,7 +2122,19 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		String docId = ((String) doc.getAttribute(DOCUMENT_ID_ATTRIBUTE, doc.getAnnotationID()));
 		long time = System.currentTimeMillis();
 		
-		int version = this.doUploadDocument(userName, doc, docId, logger, externalIdentifierMode, time);
+		String externalIdentifier = (EXTERNAL_IDENTIFIER_MODE_CHECK.equals(externalIdentifierMode) ? this.getExternalIdentifier(doc) : null);
+		int version;
+		if (externalIdentifier != null)
+			this.reserveExternalIdentifier(externalIdentifier);
+		try {
+			synchronized (this.getDocumentLock(docId)) {
+				version = this.doUploadDocument(userName, doc, docId, logger, externalIdentifierMode, time);
+			}
+		}
+		finally {
+			if (externalIdentifier != null)
+				this.releaseExternalIdentifier(externalIdentifier);
+		}
 		
 		GoldenGateServerEventService.notify(new DioDocumentEvent(userName, userName, docId, doc, version, GoldenGateDIO.class.getName(), time, logger) {
 			public void notificationComplete() {
@@ -2058,7 +2146,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		
 		return version;
 	}
-	private synchronized int doUploadDocument(String userName, final QueriableAnnotation doc, String docId, final EventLogger logger, String externalIdentifierMode, long time) throws IOException {
+	private int doUploadDocument(String userName, final QueriableAnnotation doc, String docId, final EventLogger logger, String externalIdentifierMode, long time) throws IOException {
 		
 		// get checkout user (must be null if document is new)
 		String checkoutUser = this.getCheckoutUser(docId);
@@ -2212,7 +2300,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		fieldValues.append(", ''");
 		fields.append(", " + CHECKOUT_TIME_ATTRIBUTE);
 		fieldValues.append(", -1");
-
+		
 		// store data in collection main table
 		String insertQuery = "INSERT INTO " + DOCUMENT_TABLE_NAME + 
 				" (" + fields.toString() + ")" +
@@ -2254,7 +2342,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	 * @return the new version number of the document just updated
 	 * @throws IOException
 	 */
-	public synchronized int updateDocument(String userName, String docId, QueriableAnnotation doc, EventLogger logger) throws IOException {
+	public int updateDocument(String userName, String docId, QueriableAnnotation doc, EventLogger logger) throws IOException {
 		return this.updateDocument(userName, userName, docId, doc, logger, EXTERNAL_IDENTIFIER_MODE_IGNORE);
 	}
 	
@@ -2279,7 +2367,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	 * @return the new version number of the document just updated
 	 * @throws IOException
 	 */
-	public synchronized int updateDocument(String userName, String authUserName, String docId, QueriableAnnotation doc, EventLogger logger) throws IOException {
+	public int updateDocument(String userName, String authUserName, String docId, QueriableAnnotation doc, EventLogger logger) throws IOException {
 		return this.updateDocument(userName, authUserName, docId, doc, logger, EXTERNAL_IDENTIFIER_MODE_IGNORE);
 	}
 	
@@ -2333,7 +2421,19 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	public int updateDocument(String userName, String authUserName, String docId, QueriableAnnotation doc, final EventLogger logger, String externalIdentifierMode) throws IOException {
 		long time = System.currentTimeMillis();
 		
-		int version = this.doUpdateDocument(userName, authUserName, docId, doc, externalIdentifierMode, time);
+		String externalIdentifier = (EXTERNAL_IDENTIFIER_MODE_CHECK.equals(externalIdentifierMode) ? this.getExternalIdentifier(doc) : null);
+		int version;
+		if (externalIdentifier != null)
+			this.reserveExternalIdentifier(externalIdentifier);
+		try {
+			synchronized (this.getDocumentLock(docId)) {
+				version = this.doUpdateDocument(userName, authUserName, docId, doc, externalIdentifierMode, time);
+			}
+		}
+		finally {
+			if (externalIdentifier != null)
+				this.releaseExternalIdentifier(externalIdentifier);
+		}
 		
 		if (version == -1) // don't issue an event without any actual change
 			this.logInfo("Document unchanged");
@@ -2346,7 +2446,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		
 		return version;
 	}
-	private synchronized int doUpdateDocument(String updateUserName, String authUserName, String docId, QueriableAnnotation doc, String externalIdentifierMode, long time) throws IOException {
+	private int doUpdateDocument(String updateUserName, String authUserName, String docId, QueriableAnnotation doc, String externalIdentifierMode, long time) throws IOException {
 		
 		// check if document checked out
 		if (!this.mayUpdateDocument(authUserName, docId))
@@ -2359,12 +2459,12 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 		// do not store checkout user info
 		doc.removeAttribute(CHECKOUT_USER_ATTRIBUTE);
 		doc.removeAttribute(CHECKOUT_TIME_ATTRIBUTE);
-
+		
 		// update meta data
 		doc.setAttribute(UPDATE_USER_ATTRIBUTE, updateUserName);
 		if (!doc.hasAttribute(CHECKIN_USER_ATTRIBUTE))
 			doc.setAttribute(CHECKIN_USER_ATTRIBUTE, updateUserName);
-
+		
 		doc.setAttribute(UPDATE_TIME_ATTRIBUTE, timeString);
 		if (!doc.hasAttribute(CHECKIN_TIME_ATTRIBUTE))
 			doc.setAttribute(CHECKIN_TIME_ATTRIBUTE, timeString);
@@ -2586,13 +2686,13 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 				//	set checksum
 				fields.append(", " + DOCUMENT_CHECKSUM_COLUMN_NAME);
 				fieldValues.append(", '" + EasyIO.sqlEscape(docChecksum) + "'");
-
+				
 				// set lock
 				fields.append(", " + CHECKOUT_USER_ATTRIBUTE);
 				fieldValues.append(", '" + EasyIO.sqlEscape(authUser) + "'");
 				fields.append(", " + CHECKOUT_TIME_ATTRIBUTE);
 				fieldValues.append(", " + time);
-
+				
 				// store data in collection main table
 				String insertQuery = "INSERT INTO " + DOCUMENT_TABLE_NAME + 
 						" (" + fields.toString() + ")" +
@@ -2633,7 +2733,11 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	 * @throws IOException
 	 */
 	public void deleteDocument(String userName, String docId, final EventLogger logger) throws IOException {
-		if (this.doDeleteDocument(userName, docId, logger))
+		boolean deleted;
+		synchronized (this.getDocumentLock(docId)) {
+			deleted = this.doDeleteDocument(userName, docId, logger);
+		}
+		if (deleted)
 			GoldenGateServerEventService.notify(new DioDocumentEvent(userName, docId, GoldenGateDIO.class.getName(), System.currentTimeMillis(), logger) {
 				public void notificationComplete() {
 					if (logger instanceof UpdateProtocol)
@@ -2641,7 +2745,7 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 				}
 			});
 	}
-	private synchronized boolean doDeleteDocument(String userName, String docId, final EventLogger logger) throws IOException {
+	private boolean doDeleteDocument(String userName, String docId, final EventLogger logger) throws IOException {
 		String checkoutUser = this.getCheckoutUser(docId);
 		
 		//	check if document exists
@@ -2990,11 +3094,14 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	 */
 	public DocumentReader checkoutDocumentAsStream(String userName, String docId, int version) throws IOException {
 		long checkoutTime = System.currentTimeMillis();
-		DocumentReader dr = this.doCheckoutDocumentAsStream(userName, docId, version, checkoutTime);
+		DocumentReader dr;
+		synchronized (this.getDocumentLock(docId)) {
+			dr = this.doCheckoutDocumentAsStream(userName, docId, version, checkoutTime);
+		}
 		GoldenGateServerEventService.notify(new DioDocumentEvent(userName, docId, DioDocumentEvent.CHECKOUT_TYPE, GoldenGateDIO.class.getName(), checkoutTime));
 		return dr;
 	}
-	private synchronized DocumentReader doCheckoutDocumentAsStream(String userName, String docId, int version, long checkoutTime) throws IOException {
+	private DocumentReader doCheckoutDocumentAsStream(String userName, String docId, int version, long checkoutTime) throws IOException {
 		String checkoutUser = this.getCheckoutUser(docId);
 		
 		//	check if document exists
@@ -3071,10 +3178,14 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	 * @param docId the ID of the document to release
 	 */
 	public void releaseDocument(String userName, String docId) {
-		if (this.doReleaseDocument(userName, docId))
+		boolean released;
+		synchronized (this.getDocumentLock(docId)) {
+			released = this.doReleaseDocument(userName, docId);
+		}
+		if (released)
 			GoldenGateServerEventService.notify(new DioDocumentEvent(userName, docId, DioDocumentEvent.RELEASE_TYPE, GoldenGateDIO.class.getName(), System.currentTimeMillis()));
 	}
-	private synchronized boolean doReleaseDocument(String userName, String docId) {
+	private boolean doReleaseDocument(String userName, String docId) {
 		String checkoutUser = this.getCheckoutUser(docId);
 		
 		//	check if document exists
@@ -3098,11 +3209,11 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 
 	private static final int checkoutUserCacheSize = 256;
 
-	private LinkedHashMap checkoutUserCache = new LinkedHashMap(checkoutUserCacheSize, .9f, true) {
+	private Map checkoutUserCache = Collections.synchronizedMap(new LinkedHashMap(checkoutUserCacheSize, .9f, true) {
 		protected boolean removeEldestEntry(Entry eldest) {
 			return this.size() > checkoutUserCacheSize;
 		}
-	};
+	});
 		
 	private DioDocumentList getExternalIdentifierConflictList(String externalIdentifier) {
 		
@@ -3284,11 +3395,11 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 	
 	private static final int documentMetaDataCacheSize = 256;
 
-	private LinkedHashMap documentMetaDataCache = new LinkedHashMap(documentMetaDataCacheSize, .9f, true) {
+	private Map documentMetaDataCache = Collections.synchronizedMap(new LinkedHashMap(documentMetaDataCacheSize, .9f, true) {
 		protected boolean removeEldestEntry(Entry eldest) {
 			return this.size() > documentMetaDataCacheSize;
 		}
-	};
+	});
 	
 	private boolean setCheckoutUser(String docId, String checkoutUser, long checkoutTime) {
 		StringVector assignments = new StringVector();
@@ -3340,6 +3451,102 @@ public class GoldenGateDIO extends AbstractGoldenGateServerComponent implements
 			CHECKOUT_TIME_ATTRIBUTE
 		};
 
+	/**
+	 * Retrieve a list of the checksums of the documents available through this
+	 * DIO whose ID starts with a given prefix, ordered by document ID. The list
+	 * includes the document ID, last update time, most recent version, and
+	 * checksum. As the checksum ignores update and checkout meta data, it is
+	 * the same for copies of a document held in different DIOs, which makes
+	 * this list useful for replication. Documents stored before checksums were
+	 * introduced have an empty checksum.
+	 * @param docIdPrefix the prefix of the document IDs to include (specifying
+	 *            null or the empty string lists all documents)
+	 * @return a list of the checksums of the documents whose ID starts with the
+	 *         argument prefix
+	 */
+	public DioDocumentList getDocumentChecksumList(String docIdPrefix) {
+		String[] fieldNames = {
+			DOCUMENT_ID_ATTRIBUTE,
+			UPDATE_TIME_ATTRIBUTE,
+			DOCUMENT_VERSION_ATTRIBUTE,
+			DOCUMENT_CHECKSUM_ATTRIBUTE,
+		};
+		
+		// assemble query
+		String query = "SELECT " + DOCUMENT_ID_ATTRIBUTE + ", " + UPDATE_TIME_ATTRIBUTE + ", " + DOCUMENT_VERSION_ATTRIBUTE + ", " + DOCUMENT_CHECKSUM_COLUMN_NAME + 
+				" FROM " + DOCUMENT_TABLE_NAME +
+				(((docIdPrefix == null) || (docIdPrefix.length() == 0)) ? "" : (" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(escapeForLikePrefix(docIdPrefix)) + "%' ESCAPE '" + LIKE_ESCAPE_CHAR + "'")) +
+				" ORDER BY " + DOCUMENT_ID_ATTRIBUTE +
+				";";
+		
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query.toString());
+			
+			// return SQL backed list
+			final SqlQueryResult finalSqr = sqr;
+			return new DioDocumentList(fieldNames) {
+				SqlQueryResult sqr = finalSqr;
+				DocumentListElement next = null;
+				public boolean hasNextDocument() {
+					if (this.next != null) return true;
+					else if (this.sqr == null) return false;
+					else if (this.sqr.next()) {
+						this.next = new DocumentListElement();
+						for (int f = 0; f < this.listFieldNames.length; f++) {
+							String value = this.sqr.getString(f);
+							this.next.setAttribute(this.listFieldNames[f], ((value == null) ? "" : value));
+						}
+						return true;
+					}
+					else {
+						this.sqr.close();
+						this.sqr = null;
+						return false;
+					}
+				}
+				public DocumentListElement getNextDocument() {
+					if (!this.hasNextDocument()) return null;
+					DocumentListElement next = this.next;
+					this.next = null;
+					return next;
+				}
+			};
+		}
+		catch (SQLException sqle) {
+			this.logError("GoldenGateDIO: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while listing document checksums.");
+			this.logError("  query was " + query);
+			
+			// return dummy list
+			return new DioDocumentList(fieldNames) {
+				public boolean hasNextDocument() {
+					return false;
+				}
+				public DocumentListElement getNextDocument() {
+					return null;
+				}
+				public int getDocumentCount() {
+					return 0;
+				}
+			};
+		}
+	}
+	
+	/* escape LIKE wildcards in a prefix, so they match literally (we cannot
+	 * use backslash as the escape character, as some databases also treat it
+	 * as an escape character in string literals) */
+	private static final char LIKE_ESCAPE_CHAR = '!';
+	private static String escapeForLikePrefix(String prefix) {
+		StringBuffer escaped = new StringBuffer();
+		for (int c = 0; c < prefix.length(); c++) {
+			char ch = prefix.charAt(c);
+			if ((ch == LIKE_ESCAPE_CHAR) || (ch == '%') || (ch == '_'))
+				escaped.append(LIKE_ESCAPE_CHAR);
+			escaped.append(ch);
+		}
+		return escaped.toString();
+	}
+	
 	/**
 	 * Retrieve a list of meta data for the documents available through this
 	 * DIO. The list includes the document ID, name, checkin user, checkin
@@ -3644,7 +3851,7 @@ in the long haul, ask DIO extensions to provide SQL snippets and column names to
 					return null;
 				}
 				public AttributeSummary getListFieldValues(String listFieldName) {
-					return GoldenGateDIO.this.getListFieldSummary(listFieldName, true);
+					return GoldenGateDIO.this.getListFieldSummaryCopy(listFieldName);
 				}
 			};
 //			
@@ -3740,8 +3947,10 @@ in the long haul, ask DIO extensions to provide SQL snippets and column names to
 		if (filter.size() == 1) {
 			String filterField = ((String) filter.keySet().iterator().next());
 			String filterValue = filter.getProperty(filterField);
-			if (this.docAttributeValueCache.containsKey(filterField))
-				return this.getListFieldSummary(filterField, false).getCount(filterValue);
+			AttributeSummary as = this.getListFieldSummary(filterField, false);
+			if (as != null) synchronized (as) {
+				return as.getCount(filterValue);
+			}
 		}
 		
 		String predicate = this.getDocumentFilter(filter);
@@ -3880,16 +4089,22 @@ in the long haul, ask DIO extensions to provide SQL snippets and column names to
 		}
 	}
 	private static class GPathKeyworder extends DocumentKeyworder {
-		GPath path;
-		GPathKeyworder(String normalizationMode, int weightBoostFactor, GPath path) {
-			super(normalizationMode, weightBoostFactor);
-			this.path = path;
+		GPathMatcher paths;
+		int[] weightBoostFactors;
+		GPathKeyworder(GPath[] paths, int[] weightBoostFactors) {
+			super(null, 1);
+			this.paths = new GPathMatcher(paths);
+			this.weightBoostFactors = weightBoostFactors;
 		}
 		DocumentKeywordSet getDocumentKeywords(QueriableAnnotation doc) {
 			DocumentKeywordSet dks = new DocumentKeywordSet();
-			Annotation[] keywords = this.path.evaluate(doc, null);
-			for (int a = 0; a < keywords.length; a++)
-				dks.add(keywords[a].getValue(), this.weightBoostFactor, true);
+			Annotation[][] keywords = this.paths.evaluate(doc);
+			for (int p = 0; p < keywords.length; p++) {
+				DocumentKeywordSet pDks = new DocumentKeywordSet();
+				for (int a = 0; a < keywords[p].length; a++)
+					pDks.add(keywords[p][a].getValue(), this.weightBoostFactors[p], true);
+				dks.addAll(pDks, false);
+			}
 			return dks;
 		}
 	}
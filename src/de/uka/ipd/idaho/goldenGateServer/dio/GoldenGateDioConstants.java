@@ -109,6 +109,9 @@ public interface GoldenGateDioConstants extends DocumentStoreConstants {
 	
 	/** the attribute holding keywords of a document */
 	public static final String DOCUMENT_KEYWORDS_ATTRIBUTE = "docKeywords";
+	
+	/** the attribute holding the checksum of a document, which ignores update and checkout meta data, in document checksum lists */
+	public static final String DOCUMENT_CHECKSUM_ATTRIBUTE = "docChecksum";
 //	
 //	/** the attribute holding the name of the user who has currently checked out a document for working */
 //	public static final String CHECKOUT_USER_ATTRIBUTE = "checkoutUser";
@@ -41,6 +41,10 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 
 import de.uka.ipd.idaho.easyIO.sql.TableColumnDefinition;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
@@ -61,7 +65,8 @@ import de.uka.ipd.idaho.goldenGateServer.util.masterSlave.SlaveProcessInterface;
 
 /**
  * GoldenGATE Processor provides automated processing of XML documents stored
- * in a GoldenGATE DIO. Processing happens in a slave JVM.
+ * in a GoldenGATE DIO. Processing happens in a pool of slave JVMs that stay
+ * alive from one document to the next.
  * 
  * @author sautter
  */
@@ -76,17 +81,18 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 	private File cacheFolder;
 	private AsynchronousDataActionHandler documentProcessor;
 	
-	private Process batchRun = null;
-	private DprSlaveProcessInterface batchInterface = null;
-	private String processingDocId = null;
-	private long processingStart = -1;
-	private String processorName = null;
-	private long processorStart = -1;
-	private String processingStep = null;
-	private long processingStepStart = -1;
-	private String processingInfo = null;
-	private long processingInfoStart = -1;
-	private int processingProgress = 0;
+	private int maxSlaves = 1;
+	private int maxSlaveJobs = 100;
+	private int maxSlaveMemoryPercent = 80;
+	private long maxSlaveIdleTime = (1000 * 60 * 10);
+	private long maxSlaveJobTime = 0;
+	private LinkedList idleSlaves = new LinkedList();
+	private ArrayList busySlaves = new ArrayList();
+	private HashSet processingDocIds = new HashSet();
+	private int slaveCount = 0;
+	private LinkedList workerJobs = new LinkedList();
+	private DprWorker[] workers = null;
+	private HashMap workerErrors = new HashMap();
 	
 	private String ggConfigHost;
 	private String ggConfigName;
@@ -110,6 +116,31 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			this.maxSlaveMemory = Integer.parseInt(this.configuration.getSetting("maxSlaveMemory", "1024"));
 		} catch (RuntimeException re) {}
 		
+		//	get number of slave processes to run in parallel
+		try {
+			this.maxSlaves = Integer.parseInt(this.configuration.getSetting("maxSlaves", "1"));
+		} catch (RuntimeException re) {}
+		
+		//	get number of documents after which to recycle slave processes
+		try {
+			this.maxSlaveJobs = Integer.parseInt(this.configuration.getSetting("maxSlaveJobs", "100"));
+		} catch (RuntimeException re) {}
+		
+		//	get percentage of maximum memory above which to recycle slave processes
+		try {
+			this.maxSlaveMemoryPercent = Integer.parseInt(this.configuration.getSetting("maxSlaveMemoryPercent", "80"));
+		} catch (RuntimeException re) {}
+		
+		//	get time after which to shut down idle slave processes
+		try {
+			this.maxSlaveIdleTime = (Long.parseLong(this.configuration.getSetting("maxSlaveIdleMinutes", "10")) * 1000 * 60);
+		} catch (RuntimeException re) {}
+		
+		//	get time after which to consider slave processes hung and kill them (0 means never)
+		try {
+			this.maxSlaveJobTime = (Long.parseLong(this.configuration.getSetting("maxSlaveJobMinutes", "0")) * 1000 * 60);
+		} catch (RuntimeException re) {}
+		
 		//	get working folder
 		String workingFolderName = this.configuration.getSetting("workingFolderName", "Processor");
 		while (workingFolderName.startsWith("./"))
@@ -190,6 +221,17 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 		
 		//	shut down processing handler thread
 		this.documentProcessor.shutdown();
+		
+		//	shut down slave processes (waiting for running documents to finish)
+		synchronized (this.idleSlaves) {
+			while (this.busySlaves.size() != 0) try {
+				this.idleSlaves.wait();
+			} catch (InterruptedException ie) {}
+			this.shutdownIdleSlaves(0);
+		}
+		
+		//	shut down worker threads
+		this.shutdownWorkers();
 	}
 	
 	private static final String PROCESS_DOCUMENT_COMMAND = "process";
@@ -261,18 +303,23 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
 					return;
 				}
-				if (processingStart == -1) {
+				DprSlave[] slaves;
+				synchronized (idleSlaves) {
+					slaves = ((DprSlave[]) busySlaves.toArray(new DprSlave[busySlaves.size()]));
+				}
+				if (slaves.length == 0) {
 					this.reportResult("There is no document processing at the moment");
 					return;
 				}
-				//	TODO list status of all running slaves
-				//	TODO include slave IDs
-				//	TODO list more detailed status of individual slave if ID specified
 				long time = System.currentTimeMillis();
-				this.reportResult("Processing document " + processingDocId + " (started " + (time - processingStart) + "ms ago)");
-				this.reportResult(" - current processor is " + processorName + " (since " + (time - processorStart) + "ms, at " + processingProgress + "%)");
-				this.reportResult(" - current step is " + processingStep + " (since " + (time - processingStepStart) + "ms)");
-				this.reportResult(" - current info is " + processingInfo + " (since " + (time - processingInfoStart) + "ms)");
+				for (int s = 0; s < slaves.length; s++) {
+					if (slaves[s].processingStart == -1)
+						continue;
+					this.reportResult("Slave " + slaves[s].number + " processing document " + slaves[s].docId + " (started " + (time - slaves[s].processingStart) + "ms ago, " + slaves[s].jobCount + " documents processed before)");
+					this.reportResult(" - current processor is " + slaves[s].processorName + " (since " + (time - slaves[s].processorStart) + "ms, at " + slaves[s].processingProgress + "%)");
+					this.reportResult(" - current step is " + slaves[s].processingStep + " (since " + (time - slaves[s].processingStepStart) + "ms)");
+					this.reportResult(" - current info is " + slaves[s].processingInfo + " (since " + (time - slaves[s].processingInfoStart) + "ms)");
+				}
 			}
 		};
 		cal.add(ca);
@@ -284,23 +331,24 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						PROCESS_THREADS_COMMAND,
-						"Show the threads of the batch processing a document"
+						PROCESS_THREADS_COMMAND + " -s <slaveNumber>",
+						"Show the threads of the batch processing a document:",
+						"- <slaveNumber>: The number of the slave to target (optional if only one document is processing)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
-				if (arguments.length != 0) {
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+				String slaveNumber = getSlaveNumber(arguments);
+				if (getSlaveArguments(arguments).length != 0) {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of the target slave.");
 					return;
 				}
-				if (processingStart == -1) {
-					this.reportResult("There is no document processing at the moment");
+				DprSlaveProcessInterface slaveInterface = getTargetSlaveInterface(slaveNumber, this);
+				if (slaveInterface == null)
 					return;
-				}
-				batchInterface.setReportTo(this);
-				batchInterface.listThreads();
-				batchInterface.setReportTo(null);
+				slaveInterface.setReportTo(this);
+				slaveInterface.listThreads();
+				slaveInterface.setReportTo(null);
 			}
 		};
 		cal.add(ca);
@@ -312,23 +360,24 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						PROCESS_THREAD_GROUPS_COMMAND,
-						"Show the thread groups of the batch processing a document"
+						PROCESS_THREAD_GROUPS_COMMAND + " -s <slaveNumber>",
+						"Show the thread groups of the batch processing a document:",
+						"- <slaveNumber>: The number of the slave to target (optional if only one document is processing)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
-				if (arguments.length != 0) {
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+				String slaveNumber = getSlaveNumber(arguments);
+				if (getSlaveArguments(arguments).length != 0) {
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of the target slave.");
 					return;
 				}
-				if (processingStart == -1) {
-					this.reportResult("There is no document processing at the moment");
+				DprSlaveProcessInterface slaveInterface = getTargetSlaveInterface(slaveNumber, this);
+				if (slaveInterface == null)
 					return;
-				}
-				batchInterface.setReportTo(this);
-				batchInterface.listThreadGroups();
-				batchInterface.setReportTo(null);
+				slaveInterface.setReportTo(this);
+				slaveInterface.listThreadGroups();
+				slaveInterface.setReportTo(null);
 			}
 		};
 		cal.add(ca);
@@ -340,24 +389,26 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						PROCESS_STACK_COMMAND + " <threadName>",
+						PROCESS_STACK_COMMAND + " -s <slaveNumber> <threadName>",
 						"Show the stack trace of the batch processing a document:",
+						"- <slaveNumber>: The number of the slave to target (optional if only one document is processing)",
 						"- <threadName>: The name of the thread whose stack to show (optional, omitting targets main thread)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
+				String slaveNumber = getSlaveNumber(arguments);
+				arguments = getSlaveArguments(arguments);
 				if (arguments.length > 1) {
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the name of the target thread.");
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of the target slave and the name of the target thread.");
 					return;
 				}
-				if (processingStart == -1) {
-					this.reportResult("There is no document processing at the moment");
+				DprSlaveProcessInterface slaveInterface = getTargetSlaveInterface(slaveNumber, this);
+				if (slaveInterface == null)
 					return;
-				}
-				batchInterface.setReportTo(this);
-				batchInterface.printThreadStack((arguments.length == 0) ? null : arguments[0]);
-				batchInterface.setReportTo(null);
+				slaveInterface.setReportTo(this);
+				slaveInterface.printThreadStack((arguments.length == 0) ? null : arguments[0]);
+				slaveInterface.setReportTo(null);
 			}
 		};
 		cal.add(ca);
@@ -369,24 +420,26 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						PROCESS_WAKE_COMMAND + " <threadName>",
+						PROCESS_WAKE_COMMAND + " -s <slaveNumber> <threadName>",
 						"Wake the batch processing a document, or a thread therein:",
+						"- <slaveNumber>: The number of the slave to target (optional if only one document is processing)",
 						"- <threadName>: The name of the thread to wake (optional, omitting targets main thread)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
+				String slaveNumber = getSlaveNumber(arguments);
+				arguments = getSlaveArguments(arguments);
 				if (arguments.length > 1) {
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of the target slave and the name of the target thread.");
 					return;
 				}
-				if (processingStart == -1) {
-					this.reportResult("There is no document processing at the moment");
+				DprSlaveProcessInterface slaveInterface = getTargetSlaveInterface(slaveNumber, this);
+				if (slaveInterface == null)
 					return;
-				}
-				batchInterface.setReportTo(this);
-				batchInterface.wakeThread((arguments.length == 0) ? null : arguments[0]);
-				batchInterface.setReportTo(null);
+				slaveInterface.setReportTo(this);
+				slaveInterface.wakeThread((arguments.length == 0) ? null : arguments[0]);
+				slaveInterface.setReportTo(null);
 			}
 		};
 		cal.add(ca);
@@ -398,24 +451,26 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						PROCESS_KILL_COMMAND + " <threadName>",
+						PROCESS_KILL_COMMAND + " -s <slaveNumber> <threadName>",
 						"Kill the batch processing a document, or a thread therein:",
+						"- <slaveNumber>: The number of the slave to target (optional if only one document is processing)",
 						"- <threadName>: The name of the thread to kill (optional, omitting targets main thread)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
+				String slaveNumber = getSlaveNumber(arguments);
+				arguments = getSlaveArguments(arguments);
 				if (arguments.length > 1) {
-					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no arguments.");
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the number of the target slave and the name of the target thread.");
 					return;
 				}
-				if (processingStart == -1) {
-					this.reportResult("There is no document processing at the moment");
+				DprSlaveProcessInterface slaveInterface = getTargetSlaveInterface(slaveNumber, this);
+				if (slaveInterface == null)
 					return;
-				}
-				batchInterface.setReportTo(this);
-				batchInterface.killThread((arguments.length == 0) ? null : arguments[0]);
-				batchInterface.setReportTo(null);
+				slaveInterface.setReportTo(this);
+				slaveInterface.killThread((arguments.length == 0) ? null : arguments[0]);
+				slaveInterface.setReportTo(null);
 			}
 		};
 		cal.add(ca);
@@ -477,6 +532,49 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 		return ((ComponentAction[]) cal.toArray(new ComponentAction[cal.size()]));
 	}
 	
+	private static String getSlaveNumber(String[] arguments) {
+		return (((arguments.length >= 2) && "-s".equals(arguments[0])) ? arguments[1] : null);
+	}
+	
+	private static String[] getSlaveArguments(String[] arguments) {
+		if ((arguments.length >= 2) && "-s".equals(arguments[0])) {
+			String[] slaveArguments = new String[arguments.length - 2];
+			System.arraycopy(arguments, 2, slaveArguments, 0, slaveArguments.length);
+			return slaveArguments;
+		}
+		else return arguments;
+	}
+	
+	private DprSlaveProcessInterface getTargetSlaveInterface(String slaveNumber, ComponentActionConsole cac) {
+		synchronized (this.idleSlaves) {
+			if (this.busySlaves.isEmpty()) {
+				cac.reportResult("There is no document processing at the moment");
+				return null;
+			}
+			DprSlave slave = null;
+			if (slaveNumber == null) {
+				if (this.busySlaves.size() == 1)
+					slave = ((DprSlave) this.busySlaves.get(0));
+				else {
+					cac.reportError(" There are " + this.busySlaves.size() + " documents processing at the moment, specify the number of the target slave.");
+					return null;
+				}
+			}
+			else for (int s = 0; s < this.busySlaves.size(); s++) {
+				if (slaveNumber.equals("" + ((DprSlave) this.busySlaves.get(s)).number))
+					slave = ((DprSlave) this.busySlaves.get(s));
+			}
+			if (slave == null) {
+				cac.reportError(" There is no slave " + slaveNumber + " processing a document at the moment.");
+				return null;
+			}
+			DprSlaveProcessInterface slaveInterface = slave.processInterface;
+			if (slaveInterface == null)
+				cac.reportResult("Slave " + slave.number + " is starting up at the moment");
+			return slaveInterface;
+		}
+	}
+	
 	private String[][] docProcessorList = null;
 	private void listDocumentProcessors(boolean forceReload, boolean managersOnly, String managerPrefix, ComponentActionConsole cac) {
 		
@@ -557,43 +655,140 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 	
 	private void scheduleProcessing(String docId, String dpName, String userName) {
 		String[] args = {
-			dpName,
+			((dpName == null) ? "" : dpName),
 			((userName == null) ? "" : userName)
 		};
 		this.documentProcessor.enqueueDataAction(docId, args);
 	}
 	
 //	private void processDocument(String docId, String processorName) throws IOException {
-	private void processDocument(String docId, String processorName, String userName) throws IOException {
+	private void processDocument(final String docId, final String processorName, final String userName) throws IOException {
+		
+		//	re-throw failure of asynchronous processing run, so handler records error and retries document later
+		Exception workerError;
+		synchronized (this.workerErrors) {
+			workerError = ((Exception) this.workerErrors.remove(docId));
+		}
+		if (workerError instanceof IOException)
+			throw ((IOException) workerError);
+		else if (workerError instanceof RuntimeException)
+			throw ((RuntimeException) workerError);
+		else if (workerError != null)
+			throw new IOException("Error processing document " + docId + ": " + workerError.getMessage());
+		
+		//	get slave process from pool (waits for one to become available)
+		final DprSlave slave = this.checkoutSlave(docId);
+		
+		//	with a single slave, process document right in handler thread (also has handler record errors)
+		if (this.maxSlaves < 2) {
+			try {
+				this.processDocument(slave, docId, processorName, userName);
+			}
+			finally {
+				this.checkinSlave(slave, docId);
+			}
+			return;
+		}
+		
+		//	process document in worker thread otherwise, so handler can hand next document to next slave
+		this.executeWorkerJob(new Runnable() {
+			public void run() {
+				try {
+					processDocument(slave, docId, processorName, userName);
+				}
+				catch (Exception e) {
+					logError("Error processing document " + docId + ": " + e.getMessage());
+					logError(e);
+					
+					//	record error and re-enqueue document, so handler gets to see the error
+					synchronized (workerErrors) {
+						workerErrors.put(docId, e);
+					}
+					scheduleProcessing(docId, processorName, userName);
+				}
+				finally {
+					checkinSlave(slave, docId);
+				}
+			}
+		});
+	}
+	
+	private void executeWorkerJob(Runnable job) {
+		synchronized (this.workerJobs) {
+			
+			//	start worker threads on first use (we never need more than one per slave, as checking out a slave blocks)
+			if (this.workers == null) {
+				this.workers = new DprWorker[this.maxSlaves];
+				for (int w = 0; w < this.workers.length; w++) {
+					this.workers[w] = new DprWorker(w + 1);
+					this.workers[w].start();
+				}
+			}
+			this.workerJobs.addLast(job);
+			this.workerJobs.notify();
+		}
+	}
+	
+	private void shutdownWorkers() {
+		synchronized (this.workerJobs) {
+			if (this.workers == null)
+				return;
+			for (int w = 0; w < this.workers.length; w++)
+				this.workers[w].run = false;
+			this.workerJobs.notifyAll();
+			this.workers = null;
+		}
+	}
+	
+	private class DprWorker extends Thread {
+		boolean run = true;
+		DprWorker(int number) {
+			super("DprWorker" + number);
+		}
+		public void run() {
+			while (true) {
+				Runnable job;
+				synchronized (workerJobs) {
+					while (this.run && workerJobs.isEmpty()) try {
+						workerJobs.wait();
+					} catch (InterruptedException ie) {}
+					if (workerJobs.isEmpty())
+						return;
+					job = ((Runnable) workerJobs.removeFirst());
+				}
+				job.run();
+			}
+		}
+	}
+	
+	private void processDocument(DprSlave slave, String docId, String processorName, String userName) throws IOException {
 		
 		//	check out document as data, process it, and clean up
 		DocumentReader docIn = null;
 		try {
-			this.processingDocId = docId;
-			this.processingStart = System.currentTimeMillis();
+			slave.docId = docId;
+			slave.processingStart = System.currentTimeMillis();
 			docIn = this.dio.checkoutDocumentAsStream(this.updateUserName, docId);
-			this.processDocument(docId, docIn, processorName, userName);
+			this.processDocument(slave, docId, docIn, processorName, userName);
 		}
 		catch (IOException ioe) {
 			this.dio.releaseDocument(this.updateUserName, docId); // need to release here in case respective code not reached in processing
 			throw ioe;
 		}
 		finally {
-			this.batchRun = null;
-			this.batchInterface = null;
-			this.processingDocId = null;
-			this.processingStart = -1;
-			this.processorName = null;
-			this.processorStart = -1;
-			this.processingStep = null;
-			this.processingStepStart = -1;
-			this.processingInfo = null;
-			this.processingInfoStart = -1;
-			this.processingProgress = -1;
+			slave.docId = null;
+			slave.processingStart = -1;
+			slave.processorName = null;
+			slave.processorStart = -1;
+			slave.processingStep = null;
+			slave.processingStepStart = -1;
+			slave.processingInfo = null;
+			slave.processingInfoStart = -1;
+			slave.processingProgress = -1;
 		}
 	}
 	
-	private void processDocument(String docId, DocumentReader docIn, String processorName, String userName) throws IOException {
+	private void processDocument(DprSlave slave, String docId, DocumentReader docIn, String processorName, String userName) throws IOException {
 		
 		//	preserve original update user (unless user name explicitly specified)
 		String docUpdateUser = ((userName == null) ? ((String) docIn.getAttribute(GoldenGateDIO.UPDATE_USER_ATTRIBUTE, this.updateUserName)) : userName);
@@ -612,45 +807,14 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 		docIn.close();
 		String docHash = docHashOut.getDataHash();
 		
-		//	start batch processor slave process
-		DprSlaveJob dsj = new DprSlaveJob(Gamta.getAnnotationID(), processorName); // TODO use persistent UUID
-		dsj.setDataPath(cacheFile.getAbsolutePath());
-		
-		//	start batch processor slave process
-		this.batchRun = Runtime.getRuntime().exec(dsj.getCommand(null), new String[0], this.workingFolder);
-		
-		//	get output channel
-		this.batchInterface = new DprSlaveProcessInterface(this.batchRun, ("DprBatch" + docId), docId);
-		this.batchInterface.setProgressMonitor(new ProgressMonitor() {
-			public void setStep(String step) {
-				logInfo("DPR: " + step);
-				processingStep = step;
-				processingStepStart = System.currentTimeMillis();
-			}
-			public void setInfo(String info) {
-				logDebug("DPR: " + info);
-				processingInfo = info;
-				processingInfoStart = System.currentTimeMillis();
-			}
-			private int baseProgress = 0;
-			private int maxProgress = 0;
-			public void setBaseProgress(int baseProgress) {
-				this.baseProgress = baseProgress;
-			}
-			public void setMaxProgress(int maxProgress) {
-				this.maxProgress = maxProgress;
-			}
-			public void setProgress(int progress) {
-				processingProgress = (this.baseProgress + (((this.maxProgress - this.baseProgress) * progress) / 100));
-			}
-		});
-		this.batchInterface.start();
-		
-		//	wait for batch process to finish
-		while (true) try {
-			this.batchRun.waitFor();
-			break;
-		} catch (InterruptedException ie) {}
+		//	hand document to slave process and wait for it to finish
+		try {
+			slave.processDocument(cacheFile, processorName);
+		}
+		catch (IOException ioe) {
+			cacheFile.delete();
+			throw ioe;
+		}
 		
 		//	load processed document, computing hash along the way
 		DataHashInputStream pDocHashIn = new DataHashInputStream(new FileInputStream(cacheFile));
@@ -673,6 +837,50 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 		cacheFile.delete();
 	}
 	
+	private DprSlave checkoutSlave(String docId) {
+		synchronized (this.idleSlaves) {
+			
+			//	wait for a slave to become available (and for any other processing run on the same document to finish)
+			while (this.processingDocIds.contains(docId) || (this.idleSlaves.isEmpty() && (this.busySlaves.size() >= Math.max(1, this.maxSlaves)))) try {
+				this.idleSlaves.wait();
+			} catch (InterruptedException ie) {}
+			
+			//	use most recently used slave, or add new one to pool
+			DprSlave slave = (this.idleSlaves.isEmpty() ? new DprSlave(++this.slaveCount) : ((DprSlave) this.idleSlaves.removeFirst()));
+			this.busySlaves.add(slave);
+			this.processingDocIds.add(docId);
+			return slave;
+		}
+	}
+	
+	private void checkinSlave(DprSlave slave, String docId) {
+		
+		//	recycle slave process if it has grown too large or processed too many documents
+		if (slave.needsRecycling())
+			slave.shutdown();
+		
+		//	return slave to pool, and shut down slave processes idle for too long
+		synchronized (this.idleSlaves) {
+			this.busySlaves.remove(slave);
+			this.processingDocIds.remove(docId);
+			this.idleSlaves.addFirst(slave); // most recently used first, so we keep fewer slave processes warm under low load
+			if (this.maxSlaveIdleTime > 0)
+				this.shutdownIdleSlaves(this.maxSlaveIdleTime);
+			this.idleSlaves.notifyAll();
+		}
+	}
+	
+	private void shutdownIdleSlaves(long minIdleTime) {
+		long time = System.currentTimeMillis();
+		synchronized (this.idleSlaves) {
+			for (Iterator sit = this.idleSlaves.iterator(); sit.hasNext();) {
+				DprSlave slave = ((DprSlave) sit.next());
+				if ((slave.process != null) && ((time - slave.lastJobTime) >= minIdleTime))
+					slave.shutdown();
+			}
+		}
+	}
+	
 	private static class DataHashInputStream extends FilterInputStream {
 		private MD5 dataHasher = new MD5();
 		private String dataHash = null;
@@ -759,14 +967,203 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			this.setProperty("CONFNAME", ggConfigName);
 			this.setProperty("DPNAME", ((processorName == null) ? "LISTDPS" : processorName));
 		}
+		DprSlaveJob(String slaveJobId, File jobFile, long maxIdleTime) {
+			super(slaveJobId, "GgServerDprSlave.jar");
+			if (maxSlaveMemory > 512)
+				this.setMaxMemory(maxSlaveMemory);
+			this.setMaxCores(1);
+			this.setLogPath(logFolder.getAbsolutePath());
+			if (ggConfigHost != null)
+				this.setProperty("CONFHOST", ggConfigHost);
+			this.setProperty("CONFNAME", ggConfigName);
+			this.setProperty("JOBFILE", jobFile.getAbsolutePath());
+			this.setProperty("MAXIDLE", ("" + maxIdleTime));
+		}
+	}
+	
+	/* A slave process stays alive from one document to the next, keeping
+	 * GoldenGATE and the document processors loaded. We hand over documents
+	 * by writing a job file the slave polls for, and the slave reports back
+	 * through its output channel. Slaves are checked for being alive before
+	 * each document, pinged if they have been idle for a while, and recycled
+	 * after a number of documents or if their memory usage grows too high. */
+	private static final long SLAVE_PING_INTERVAL = (1000 * 60);
+	private static final long SLAVE_PING_TIMEOUT = (1000 * 10);
+	private static final long SLAVE_EXIT_TIMEOUT = (1000 * 10);
+	
+	private class DprSlave {
+		final int number;
+		final File jobFile;
+		Process process = null;
+		DprSlaveProcessInterface processInterface = null;
+		int jobCount = 0;
+		long lastJobTime = 0;
+		long memoryUsed = 0;
+		long memoryMax = 0;
+		private String jobResult = null;
+		
+		String docId = null;
+		long processingStart = -1;
+		String processorName = null;
+		long processorStart = -1;
+		String processingStep = null;
+		long processingStepStart = -1;
+		String processingInfo = null;
+		long processingInfoStart = -1;
+		int processingProgress = 0;
+		
+		DprSlave(int number) {
+			this.number = number;
+			this.jobFile = new File(cacheFolder, ("slave-" + number + ".job"));
+		}
+		
+		boolean isAlive() {
+			if (this.process == null)
+				return false;
+			try {
+				this.process.exitValue();
+				return false;
+			}
+			catch (IllegalThreadStateException itse) {
+				return true;
+			}
+		}
+		
+		private void start() throws IOException {
+			this.jobFile.delete(); // clean up any leftovers
+			
+			//	start slave process (have it shut down by itself if we fail to do so)
+			DprSlaveJob dsj = new DprSlaveJob(Gamta.getAnnotationID(), this.jobFile, (maxSlaveIdleTime * 2)); // TODO use persistent UUID
+			this.process = Runtime.getRuntime().exec(dsj.getCommand(null), new String[0], workingFolder);
+			this.jobCount = 0;
+			this.lastJobTime = System.currentTimeMillis();
+			this.memoryUsed = 0;
+			this.memoryMax = 0;
+			
+			//	get output channel
+			this.processInterface = new DprSlaveProcessInterface(this.process, ("DprBatch" + this.number), this);
+			this.processInterface.setProgressMonitor(new ProgressMonitor() {
+				public void setStep(String step) {
+					logInfo("DPR: " + step);
+					processingStep = step;
+					processingStepStart = System.currentTimeMillis();
+				}
+				public void setInfo(String info) {
+					logDebug("DPR: " + info);
+					processingInfo = info;
+					processingInfoStart = System.currentTimeMillis();
+				}
+				private int baseProgress = 0;
+				private int maxProgress = 0;
+				public void setBaseProgress(int baseProgress) {
+					this.baseProgress = baseProgress;
+				}
+				public void setMaxProgress(int maxProgress) {
+					this.maxProgress = maxProgress;
+				}
+				public void setProgress(int progress) {
+					processingProgress = (this.baseProgress + (((this.maxProgress - this.baseProgress) * progress) / 100));
+				}
+			});
+			this.processInterface.start();
+			logInfo("DPR: slave " + this.number + " started");
+		}
+		
+		void processDocument(File docFile, String processorName) throws IOException {
+			
+			//	make sure slave process is up and responding
+			if ((this.process != null) && !this.isAlive()) {
+				logWarning("DPR: slave " + this.number + " found dead, restarting");
+				this.process = null;
+				this.processInterface = null;
+			}
+			else if ((this.process != null) && ((System.currentTimeMillis() - this.lastJobTime) > SLAVE_PING_INTERVAL) && !"PONG".equals(this.runJob("PING", SLAVE_PING_TIMEOUT))) {
+				logWarning("DPR: slave " + this.number + " not responding, restarting");
+				this.shutdown();
+			}
+			if (this.process == null)
+				this.start();
+			
+			//	hand over document and wait for slave to finish
+			String result = this.runJob(("DOC" + "\t" + docFile.getAbsolutePath() + "\t" + processorName), maxSlaveJobTime);
+			this.jobCount++;
+			if (result == null) {
+				this.shutdown(); // died or hung, make sure it's gone either way
+				throw new IOException("Slave " + this.number + " failed to process document");
+			}
+			if (result.startsWith("FAIL:"))
+				logWarning("DPR: slave " + this.number + " could not process document");
+		}
+		
+		private String runJob(String job, long timeout) throws IOException {
+			synchronized (this) {
+				this.jobResult = null;
+			}
+			
+			//	write job file (via renaming, so slave never sees partial job)
+			File jobTempFile = new File(this.jobFile.getAbsolutePath() + ".tmp");
+			BufferedWriter jobOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(jobTempFile), "UTF-8"));
+			jobOut.write(job);
+			jobOut.newLine();
+			jobOut.flush();
+			jobOut.close();
+			if (!jobTempFile.renameTo(this.jobFile))
+				throw new IOException("Could not hand job to slave " + this.number);
+			
+			//	wait for result, checking on slave process along the way
+			long jobStart = System.currentTimeMillis();
+			synchronized (this) {
+				while (this.jobResult == null) {
+					if (!this.isAlive())
+						return null;
+					if ((timeout > 0) && ((System.currentTimeMillis() - jobStart) > timeout))
+						return null;
+					try {
+						this.wait(1000);
+					} catch (InterruptedException ie) {}
+				}
+				this.lastJobTime = System.currentTimeMillis();
+				return this.jobResult;
+			}
+		}
+		
+		synchronized void jobFinished(String result) {
+			this.jobResult = result;
+			this.notifyAll();
+		}
+		
+		boolean needsRecycling() {
+			if (this.process == null)
+				return false;
+			if (!this.isAlive())
+				return true;
+			if ((maxSlaveJobs > 0) && (this.jobCount >= maxSlaveJobs))
+				return true;
+			if ((this.memoryMax > 0) && ((this.memoryUsed * 100) > (this.memoryMax * maxSlaveMemoryPercent)))
+				return true;
+			return false;
+		}
+		
+		void shutdown() {
+			if (this.process == null)
+				return;
+			if (this.isAlive()) try {
+				this.runJob("EXIT", SLAVE_EXIT_TIMEOUT); // returns once slave is gone
+			} catch (IOException ioe) {}
+			this.process.destroy();
+			this.process = null;
+			this.processInterface = null;
+			this.jobFile.delete();
+			logInfo("DPR: slave " + this.number + " shut down after " + this.jobCount + " documents");
+		}
 	}
 	
 	private class DprSlaveProcessInterface extends SlaveProcessInterface {
 		private ComponentActionConsole reportTo = null;
-		private String docId;
-		DprSlaveProcessInterface(Process slave, String slaveName, String docId) {
+		private DprSlave slave;
+		DprSlaveProcessInterface(Process slave, String slaveName, DprSlave dprSlave) {
 			super(slave, slaveName);
-			this.docId = docId;
+			this.slave = dprSlave;
 		}
 		void setReportTo(ComponentActionConsole reportTo) {
 			this.reportTo = reportTo;
@@ -775,9 +1172,18 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			if (input.startsWith("PR:")) {
 				input = input.substring("PR:".length());
 				logInfo("Running Document Processor '" + input + "'");
-				processorName = input;
-				processorStart = System.currentTimeMillis();
+				this.slave.processorName = input;
+				this.slave.processorStart = System.currentTimeMillis();
+			}
+			else if (input.startsWith("MEM:")) {
+				input = input.substring("MEM:".length());
+				try {
+					this.slave.memoryUsed = Long.parseLong(input.substring(0, input.indexOf("/")));
+					this.slave.memoryMax = Long.parseLong(input.substring(input.indexOf("/") + "/".length()));
+				} catch (RuntimeException re) {}
 			}
+			else if (input.startsWith("DONE:") || input.startsWith("FAIL:") || "PONG".equals(input))
+				this.slave.jobFinished(input);
 			else logInfo("DPR: " + input);
 		}
 		protected void handleResult(String result) {
@@ -833,7 +1239,7 @@ public class GoldenGateDPR extends AbstractGoldenGateServerComponent {
 			}
 			String[] errorStackTrace = ((String[]) stackTrace.toArray(new String[this.outStackTrace.size()]));
 			stackTrace.clear();
-			SlaveErrorRecorder.recordError(getLetterCode(), this.docId, errorClassName, errorMessage, errorStackTrace);
+			SlaveErrorRecorder.recordError(getLetterCode(), this.slave.docId, errorClassName, errorMessage, errorStackTrace);
 		}
 	}
 }
\ No newline at end of file
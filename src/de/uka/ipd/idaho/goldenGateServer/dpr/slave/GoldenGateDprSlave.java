@@ -32,8 +32,10 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.HashMap;
 import java.util.Properties;
 
 import de.uka.ipd.idaho.gamta.DocumentRoot;
@@ -63,6 +65,13 @@ public class GoldenGateDprSlave implements GoldenGateConstants, SlaveConstants {
 	private static final String CONFIG_NAME_PARAMETER = "CONFNAME";
 	private static final String DOCUMENT_PROCESSOR_NAME_PARAMETER = "DPNAME";
 	private static final String LIST_DOCUMENT_PROCESSORS_NAME = "LISTDPS";
+	private static final String JOB_FILE_PARAMETER = "JOBFILE";
+	private static final String MAX_IDLE_TIME_PARAMETER = "MAXIDLE";
+	
+	private static final String DOCUMENT_JOB = "DOC";
+	private static final String PING_JOB = "PING";
+	private static final String EXIT_JOB = "EXIT";
+	private static final int JOB_POLL_INTERVAL = 25;
 	
 	/**	the main method to run GoldenGATE Imagine as a batch application
 	 */
@@ -120,14 +129,15 @@ public class GoldenGateDprSlave implements GoldenGateConstants, SlaveConstants {
 //			public void write(int b) throws IOException {}
 //		}));
 		
-		//	get list of document processors to apply
+		//	get list of document processors to apply (specified per document if we're running as a pooled slave)
 		String dpNameString = argsMap.getProperty(DOCUMENT_PROCESSOR_NAME_PARAMETER);
-		if (dpNameString == null) {
+		String jobPath = argsMap.getProperty(JOB_FILE_PARAMETER);
+		if ((dpNameString == null) && (jobPath == null)) {
 			mpi.sendError("No Dcoument Processor configured to run, check parameter " + DOCUMENT_PROCESSOR_NAME_PARAMETER);
 //			System.exit(0);
 			return;
 		}
-		String[] dpNames = dpNameString.split("\\+");
+		String[] dpNames = ((dpNameString == null) ? new String[0] : dpNameString.split("\\+"));
 		
 		//	set up logging (if we have a folder)
 		SlaveRuntimeUtils.setUpLogFiles(argsMap, "DprSlaveBatch");
@@ -171,6 +181,17 @@ public class GoldenGateDprSlave implements GoldenGateConstants, SlaveConstants {
 			return;
 		}
 		
+		//	process documents handed over by master process one after another, keeping document processors loaded
+		if (jobPath != null) {
+			SlaveRuntimeUtils.setUpMaxCores(argsMap);
+			long maxIdleTime = 0;
+			try {
+				maxIdleTime = Long.parseLong(argsMap.getProperty(MAX_IDLE_TIME_PARAMETER, "0"));
+			} catch (NumberFormatException nfe) {}
+			processJobs(mpi, goldenGate, new File(jobPath), maxIdleTime);
+			return;
+		}
+		
 		//	get individual image markup tools
 		DocumentProcessor[] dps = new DocumentProcessor[dpNames.length];
 		for (int t = 0; t < dpNames.length; t++) {
@@ -192,10 +213,17 @@ public class GoldenGateDprSlave implements GoldenGateConstants, SlaveConstants {
 		
 		//	process document
 		String docPath = argsMap.getProperty(DATA_PATH_PARAMETER);
+		processDocument(mpi, dps, new File(docPath));
+//		
+//		//	shut down whatever threads are left
+//		System.exit(0);
+	}
+	
+	private static boolean processDocument(MasterProcessInterface mpi, DocumentProcessor[] dps, File docFile) {
 		try {
 			
 			//	load document
-			BufferedReader docIn = new BufferedReader(new InputStreamReader(new FileInputStream(new File(docPath)), "UTF-8"));
+			BufferedReader docIn = new BufferedReader(new InputStreamReader(new FileInputStream(docFile), "UTF-8"));
 			DocumentRoot doc = GenericGamtaXML.readDocument(docIn);
 			docIn.close();
 			
@@ -211,21 +239,97 @@ public class GoldenGateDprSlave implements GoldenGateConstants, SlaveConstants {
 			}
 			
 			//	store updates
-			BufferedWriter docOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(docPath)), "UTF-8"));
+			BufferedWriter docOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(docFile), "UTF-8"));
 			GenericGamtaXML.storeDocument(doc, docOut);
 			docOut.flush();
 			docOut.close();
 			
 			//	TODO maybe compute document hash on saving and return as result (saves loading in master if document unchanged)
+			return true;
 		}
 		
 		//	catch and log whatever might go wrong
 		catch (Throwable t) {
 			mpi.sendError("Error processing document: " + t.getMessage());
 			mpi.sendError(t);
+			return false;
+		}
+	}
+	
+	/* In pooled mode, the master process hands over documents by writing a
+	 * job file (atomically, via renaming), which we consume, and we report
+	 * back through our output channel. Document processors stay loaded from
+	 * one document to the next, which saves JVM startup and initialization
+	 * for every document after the first one. */
+	private static void processJobs(MasterProcessInterface mpi, GoldenGATE goldenGate, File jobFile, long maxIdleTime) {
+		HashMap dpsByName = new HashMap();
+		long lastJobTime = System.currentTimeMillis();
+		while (true) {
+			
+			//	wait for next job (shut down if master process doesn't hand over any for too long)
+			if (!jobFile.exists()) {
+				if ((maxIdleTime > 0) && ((System.currentTimeMillis() - lastJobTime) > maxIdleTime))
+					return;
+				try {
+					Thread.sleep(JOB_POLL_INTERVAL);
+				} catch (InterruptedException ie) {}
+				continue;
+			}
+			
+			//	read and consume job
+			String job;
+			try {
+				BufferedReader jobIn = new BufferedReader(new InputStreamReader(new FileInputStream(jobFile), "UTF-8"));
+				job = jobIn.readLine();
+				jobIn.close();
+			}
+			catch (IOException ioe) {
+				mpi.sendError("Error reading job: " + ioe.getMessage());
+				mpi.sendError(ioe);
+				return;
+			}
+			jobFile.delete();
+			if ((job == null) || EXIT_JOB.equals(job))
+				return;
+			if (PING_JOB.equals(job)) {
+				mpi.sendOutput("PONG");
+				lastJobTime = System.currentTimeMillis();
+				continue;
+			}
+			String[] jobData = job.split("\\t");
+			if ((jobData.length < 3) || !DOCUMENT_JOB.equals(jobData[0])) {
+				mpi.sendError("Invalid job: " + job);
+				mpi.sendOutput("FAIL:" + ((jobData.length < 2) ? "" : jobData[1]));
+				continue;
+			}
+			
+			//	get document processors, loading them on first use
+			String[] dpNames = jobData[2].split("\\+");
+			DocumentProcessor[] dps = new DocumentProcessor[dpNames.length];
+			for (int t = 0; t < dpNames.length; t++) {
+				dps[t] = ((DocumentProcessor) dpsByName.get(dpNames[t]));
+				if (dps[t] != null)
+					continue;
+				dps[t] = goldenGate.getDocumentProcessorForName(dpNames[t]);
+				if (dps[t] == null) {
+					mpi.sendError("Document Processor '" + dpNames[t] + "' not found");
+					dps = null;
+					break;
+				}
+				mpi.sendResult("Document Processor '" + dpNames[t] + "' loaded");
+				dpsByName.put(dpNames[t], dps[t]);
+			}
+			
+			//	process document
+			boolean processed = ((dps != null) && processDocument(mpi, dps, new File(jobData[1])));
+			
+			//	report memory usage, so master process can recycle us if we grow too large (includes uncollected garbage, but a full collection per document costs too much)
+			Runtime rt = Runtime.getRuntime();
+			mpi.sendOutput("MEM:" + (rt.totalMemory() - rt.freeMemory()) + "/" + rt.maxMemory());
+			
+			//	report back
+			mpi.sendOutput((processed ? "DONE:" : "FAIL:") + jobData[1]);
+			lastJobTime = System.currentTimeMillis();
 		}
-//		
-//		//	shut down whatever threads are left
-//		System.exit(0);
 	}
 }
\ No newline at end of file
@@ -35,7 +35,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.gamta.MutableAnnotation;
@@ -53,6 +58,7 @@ import de.uka.ipd.idaho.goldenGateServer.client.ServerConnection;
 import de.uka.ipd.idaho.goldenGateServer.client.ServerConnection.Connection;
 import de.uka.ipd.idaho.goldenGateServer.dio.GoldenGateDIO;
 import de.uka.ipd.idaho.goldenGateServer.dio.GoldenGateDioConstants;
+import de.uka.ipd.idaho.goldenGateServer.dio.GoldenGateDioConstants.DioDocumentEvent.DioDocumentEventListener;
 import de.uka.ipd.idaho.goldenGateServer.dio.data.DioDocumentList;
 import de.uka.ipd.idaho.goldenGateServer.res.GoldenGateRES;
 import de.uka.ipd.idaho.goldenGateServer.res.GoldenGateRES.RemoteEventList;
@@ -77,6 +83,8 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 	
 	private static final String GET_DOCUMENT = "DRS_GET_DOCUMENT";
 	private static final String GET_DOCUMENT_LIST = "DRS_GET_DOCUMENT_LIST";
+	private static final String GET_HASH_TREE_NODES = "DRS_GET_HASH_TREE_NODES";
+	private static final String GET_HASH_TREE_BUCKETS = "DRS_GET_HASH_TREE_BUCKETS";
 //	private static final String GET_DOCUMENT_LIST_SHARED = "DRS_GET_DOCUMENT_LIST_SHARED";
 	
 	private static final String defaultPassPhrase = "DRS provides remote access!";
@@ -88,6 +96,9 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 	private String localPassPhrase = null;
 	private Properties remotePassPhrases = new Properties();
 	
+	private DocumentHashTree hashTree;
+	private static final int hashTreeBucketBatchSize = 64;
+	
 	/** Constructor passing 'DRS' as the letter code to super constructor
 	 */
 	public GoldenGateDRS() {
@@ -178,6 +189,19 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 			}
 		});
 		
+		//	keep hash tree up to date with local updates and deletions
+		this.hashTree = new DocumentHashTree(this.dio);
+		this.dio.addDocumentEventListener(new DioDocumentEventListener() {
+			public void documentCheckedOut(DioDocumentEvent dse) {}
+			public void documentUpdated(DioDocumentEvent dse) {
+				hashTree.documentChanged(dse.dataId);
+			}
+			public void documentDeleted(DioDocumentEvent dse) {
+				hashTree.documentChanged(dse.dataId);
+			}
+			public void documentReleased(DioDocumentEvent dse) {}
+		});
+		
 		//	prevent remote document updates from being re-published
 		this.res.addEventFilter(new ResEventFilter() {
 			public boolean allowPublishEvent(GoldenGateServerEvent gse) {
@@ -308,6 +332,142 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 				String remoteAddress = res.getRemoteDomainAddress(remoteDomain);
 				int remotePort = res.getRemoteDomainPort(remoteDomain);
 				
+				//	collect IDs of documents to update or delete, descending hash trees to find differing buckets
+				HashSet updateDocIDs = new HashSet();
+				HashSet deleteDocIDs = new HashSet();
+				try {
+					this.diffHashTrees(remoteDomain, remoteAddress, remotePort, update, delete, updateDocIDs, deleteDocIDs);
+				}
+				
+				//	remote DRS might not provide a hash tree (yet), fall back to comparing full document lists
+				catch (IOException ioe) {
+					this.log("Could not compare hash trees with " + remoteDomain + " (" + ioe.getMessage() + "), comparing full document lists");
+					updateDocIDs.clear();
+					deleteDocIDs.clear();
+					this.diffDocumentLists(remoteAddress, remotePort, update, delete, updateDocIDs, deleteDocIDs);
+				}
+				
+				//	do updates and deletions
+				int updateCount = updateDocIDs.size();
+				int deleteCount = deleteDocIDs.size();
+				this.enteringMainLoop("Compared document lists with " + remoteDomain + ", " + updateCount + " updates, " + deleteCount + " deletions");
+				while (this.continueAction() && ((updateDocIDs.size() + deleteDocIDs.size()) != 0)) {
+					
+					//	do deletions first ...
+					if (deleteDocIDs.size() != 0) {
+						String docId = ((String) deleteDocIDs.iterator().next());
+						deleteDocIDs.remove(docId);
+						this.reportResult("GoldenGateDRS: forwarding deletion from " + remoteDomain + " (" + remoteAddress + ":" + remotePort + ") ...");
+						try {
+							
+							//	get update user, and reuse if starting with 'DRS.'
+							Properties docAttributes = dio.getDocumentAttributes(docId);
+							String updateUser = docAttributes.getProperty(UPDATE_USER_ATTRIBUTE);
+							if ((updateUser == null) || !updateUser.startsWith("DRS."))
+								updateUser = ("DRS." + remoteDomain);
+							
+							//	delete document
+							dio.deleteDocument(updateUser, docId, null);
+						}
+						catch (IOException ioe) {
+							this.reportError("GoldenGateDRS: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while deleting document " + docId + ".");
+							this.reportError(ioe);
+						}
+					}
+					
+					//	... and updates second
+					else if (updateDocIDs.size() != 0) {
+						String docId = ((String) updateDocIDs.iterator().next());
+						updateDocIDs.remove(docId);
+						this.reportResult("GoldenGateDRS: getting update from " + remoteDomain + " (" + remoteAddress + ":" + remotePort + ") ...");
+						dataUpdated(docId, false, remoteDomain, PRIORITY_LOW);
+					}
+					
+					//	update status
+					this.loopRoundComplete("Handled " + (updateCount - updateDocIDs.size()) + " of " + updateCount + " updates, " + (deleteCount - deleteDocIDs.size()) + " of " + deleteCount + " deletions.");
+				}
+			}
+			
+			private void diffHashTrees(String remoteDomain, String remoteAddress, int remotePort, boolean update, boolean delete, HashSet updateDocIDs, HashSet deleteDocIDs) throws IOException {
+				
+				//	descend hash trees level by level, collecting prefixes of leaf buckets that differ
+				ArrayList diffLeafPrefixes = new ArrayList();
+				ArrayList prefixes = new ArrayList();
+				prefixes.add("");
+				for (int depth = 0; this.continueAction() && (prefixes.size() != 0); depth++) {
+					TreeMap remoteHashes = getHashTreeNodes(remoteAddress, remotePort, prefixes);
+					TreeMap localHashes = hashTree.getChildHashes(prefixes);
+					TreeSet childPrefixes = new TreeSet(remoteHashes.keySet());
+					childPrefixes.addAll(localHashes.keySet());
+					prefixes = new ArrayList();
+					for (Iterator cpit = childPrefixes.iterator(); cpit.hasNext();) {
+						String childPrefix = ((String) cpit.next());
+						Long remoteHash = ((Long) remoteHashes.get(childPrefix));
+						if ((remoteHash != null) && remoteHash.equals(localHashes.get(childPrefix)))
+							continue;
+						if (DocumentHashTree.isLeafPrefix(childPrefix, depth))
+							diffLeafPrefixes.add(childPrefix);
+						else prefixes.add(childPrefix);
+					}
+					this.log("Compared " + childPrefixes.size() + " hash tree nodes at depth " + (depth + 1) + " with " + remoteDomain + ", " + diffLeafPrefixes.size() + " buckets differing so far");
+				}
+				
+				//	compare differing buckets in batches
+				for (int b = 0; this.continueAction() && (b < diffLeafPrefixes.size()); b += hashTreeBucketBatchSize) {
+					List leafPrefixes = diffLeafPrefixes.subList(b, Math.min((b + hashTreeBucketBatchSize), diffLeafPrefixes.size()));
+					
+					//	get bucket lists from remote domain, and index document records by ID
+					DioDocumentList remoteDl = getHashTreeBuckets(remoteAddress, remotePort, leafPrefixes);
+					HashMap remoteDlesById = new HashMap();
+					while (remoteDl.hasNextDocument()) {
+						DocumentListElement dle = remoteDl.getNextDocument();
+						remoteDlesById.put(((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE)), dle);
+					}
+					
+					//	iterate over local bucket lists, collecting IDs of documents to update or delete
+					DioDocumentList localDl = hashTree.getBucketList(leafPrefixes);
+					while (localDl.hasNextDocument()) {
+						DocumentListElement localDle = localDl.getNextDocument();
+						String docId = ((String) localDle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
+						DocumentListElement remoteDle = ((DocumentListElement) remoteDlesById.remove(docId));
+						
+						//	this one doesn't even exist in the remote domain
+						if (remoteDle == null) {
+							if (delete)
+								deleteDocIDs.add(docId);
+							continue;
+						}
+						
+						//	content is the same, no matter the update timestamps
+						String localChecksum = ((String) localDle.getAttribute(DOCUMENT_CHECKSUM_ATTRIBUTE, ""));
+						if ((localChecksum.length() != 0) && localChecksum.equals(remoteDle.getAttribute(DOCUMENT_CHECKSUM_ATTRIBUTE)))
+							continue;
+						
+						//	extract update timestamps for comparison
+						long localUpdateTime;
+						long remoteUpdateTime;
+						try {
+							localUpdateTime = Long.parseLong((String) localDle.getAttribute(UPDATE_TIME_ATTRIBUTE));
+							remoteUpdateTime = Long.parseLong((String) remoteDle.getAttribute(UPDATE_TIME_ATTRIBUTE));
+						}
+						catch (Exception e) {
+							this.log(("Could not parse update timestamps for document '" + docId + "'"), e);
+							continue;
+						}
+						
+						//	remote version is newer than local one, even with a one second tolerance), mark for update
+						if (update && ((localUpdateTime + 1000) < remoteUpdateTime))
+							updateDocIDs.add(docId);
+					}
+					
+					//	add updates for new document not yet available locally
+					if (update)
+						updateDocIDs.addAll(remoteDlesById.keySet());
+				}
+			}
+			
+			private void diffDocumentLists(String remoteAddress, int remotePort, boolean update, boolean delete, HashSet updateDocIDs, HashSet deleteDocIDs) throws IOException {
+				
 				//	get document list from remote domain, and index document records by ID
 //				DocumentList remoteDl = getDocumentList(remoteAddress, remotePort);
 //				DioDocumentList remoteDl = getDocumentListShared(remoteAddress, remotePort);
@@ -319,8 +479,6 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 				}
 				
 				//	iterate over local document list, collecting IDs of documents to update or delete
-				HashSet updateDocIDs = new HashSet();
-				HashSet deleteDocIDs = new HashSet();
 //				DioDocumentList localDl = dio.getDocumentListFull();
 				DocumentListBuffer localDlb = new DocumentListBuffer(dio.getDocumentListFull());
 //				while (localDl.hasNextDocument()) {
@@ -359,46 +517,6 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 				//	add updates for new document not yet available locally
 				if (update)
 					updateDocIDs.addAll(remoteDlesById.keySet());
-				
-				//	do updates and deletions
-				int updateCount = updateDocIDs.size();
-				int deleteCount = deleteDocIDs.size();
-				this.enteringMainLoop("Got event list from " + remoteDomain + ", " + updateCount + " updates, " + deleteCount + " deletions");
-				while (this.continueAction() && ((updateDocIDs.size() + deleteDocIDs.size()) != 0)) {
-					
-					//	do deletions first ...
-					if (deleteDocIDs.size() != 0) {
-						String docId = ((String) deleteDocIDs.iterator().next());
-						deleteDocIDs.remove(docId);
-						this.reportResult("GoldenGateDRS: forwarding deletion from " + remoteDomain + " (" + remoteAddress + ":" + remotePort + ") ...");
-						try {
-							
-							//	get update user, and reuse if starting with 'DRS.'
-							Properties docAttributes = dio.getDocumentAttributes(docId);
-							String updateUser = docAttributes.getProperty(UPDATE_USER_ATTRIBUTE);
-							if ((updateUser == null) || !updateUser.startsWith("DRS."))
-								updateUser = ("DRS." + remoteDomain);
-							
-							//	delete document
-							dio.deleteDocument(updateUser, docId, null);
-						}
-						catch (IOException ioe) {
-							this.reportError("GoldenGateDRS: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while deleting document " + docId + ".");
-							this.reportError(ioe);
-						}
-					}
-					
-					//	... and updates second
-					else if (updateDocIDs.size() != 0) {
-						String docId = ((String) updateDocIDs.iterator().next());
-						updateDocIDs.remove(docId);
-						this.reportResult("GoldenGateDRS: getting update from " + remoteDomain + " (" + remoteAddress + ":" + remotePort + ") ...");
-						dataUpdated(docId, false, remoteDomain, PRIORITY_LOW);
-					}
-					
-					//	update status
-					this.loopRoundComplete("Handled " + (updateCount - updateDocIDs.size()) + " of " + updateCount + " updates, " + (deleteCount - deleteDocIDs.size()) + " of " + deleteCount + " deletions.");
-				}
 			}
 		};
 	}
@@ -619,6 +737,44 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 			}
 		};
 		cal.add(ca);
+		
+		//	request for hash tree nodes
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_HASH_TREE_NODES;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				ArrayList prefixes = readPrefixes(input);
+				TreeMap childHashes = hashTree.getChildHashes(prefixes);
+				
+				output.write(GET_HASH_TREE_NODES);
+				output.newLine();
+				
+				for (Iterator cpit = childHashes.keySet().iterator(); cpit.hasNext();) {
+					String childPrefix = ((String) cpit.next());
+					output.write(childPrefix + "\t" + Long.toString(((Long) childHashes.get(childPrefix)).longValue(), 16));
+					output.newLine();
+				}
+			}
+		};
+		cal.add(ca);
+		
+		//	request for hash tree bucket lists
+		ca = new ComponentActionNetwork() {
+			public String getActionCommand() {
+				return GET_HASH_TREE_BUCKETS;
+			}
+			public void performActionNetwork(BufferedReader input, BufferedWriter output) throws IOException {
+				ArrayList leafPrefixes = readPrefixes(input);
+				DioDocumentList dl = hashTree.getBucketList(leafPrefixes);
+				
+				output.write(GET_HASH_TREE_BUCKETS);
+				output.newLine();
+				
+				dl.writeData(output);
+			}
+		};
+		cal.add(ca);
 //		
 //		//	request for document list
 //		ca = new ComponentActionNetwork() {
@@ -743,6 +899,239 @@ public class GoldenGateDRS extends GoldenGateAEP implements GoldenGateDioConstan
 			throw new IOException(error);
 		}
 	}
+	
+	private TreeMap getHashTreeNodes(String remoteAddress, int remotePort, List prefixes) throws IOException {
+		ServerConnection sc = ((remotePort == -1) ? ServerConnection.getServerConnection(remoteAddress) : ServerConnection.getServerConnection(remoteAddress, remotePort));
+		Connection con = null;
+		try {
+			con = sc.getConnection();
+			BufferedWriter bw = con.getWriter();
+			
+			bw.write(GET_HASH_TREE_NODES);
+			bw.newLine();
+			writePrefixes(bw, prefixes);
+			bw.flush();
+			
+			BufferedReader br = con.getReader();
+			String error = br.readLine();
+			if (!GET_HASH_TREE_NODES.equals(error))
+				throw new IOException(error);
+			
+			TreeMap childHashes = new TreeMap();
+			for (String line; (line = br.readLine()) != null;) {
+				int split = line.lastIndexOf('\t');
+				if (split != -1)
+					childHashes.put(line.substring(0, split), new Long(Long.parseLong(line.substring(split + 1), 16)));
+			}
+			return childHashes;
+		}
+		finally {
+			if (con != null)
+				con.close();
+		}
+	}
+	
+	private DioDocumentList getHashTreeBuckets(String remoteAddress, int remotePort, List leafPrefixes) throws IOException {
+		ServerConnection sc = ((remotePort == -1) ? ServerConnection.getServerConnection(remoteAddress) : ServerConnection.getServerConnection(remoteAddress, remotePort));
+		Connection con = sc.getConnection();
+		BufferedWriter bw = con.getWriter();
+		
+		bw.write(GET_HASH_TREE_BUCKETS);
+		bw.newLine();
+		writePrefixes(bw, leafPrefixes);
+		bw.flush();
+		
+		BufferedReader br = con.getReader();
+		String error = br.readLine();
+		if (GET_HASH_TREE_BUCKETS.equals(error))
+			return DioDocumentList.readDocumentList(br);
+		else {
+			con.close();
+			throw new IOException(error);
+		}
+	}
+	
+	private static void writePrefixes(BufferedWriter bw, List prefixes) throws IOException {
+		bw.write("" + prefixes.size());
+		bw.newLine();
+		for (int p = 0; p < prefixes.size(); p++) {
+			bw.write((String) prefixes.get(p));
+			bw.newLine();
+		}
+	}
+	
+	private static ArrayList readPrefixes(BufferedReader br) throws IOException {
+		int prefixCount = Integer.parseInt(br.readLine().trim());
+		ArrayList prefixes = new ArrayList(prefixCount);
+		for (int p = 0; p < prefixCount; p++)
+			prefixes.add(br.readLine());
+		return prefixes;
+	}
+	
+	/**
+	 * Hash tree over the documents in the local DIO, for finding documents
+	 * that differ from a remote DRS without exchanging full document lists.
+	 * Leaf buckets are keyed by document ID prefix, and the hash of each leaf
+	 * combines the hashes of the IDs and checksums of the documents in it. The
+	 * hash of an inner node covers the prefixes and hashes of all the leaves
+	 * below it. The tree is built in a single pass over the DIO on first
+	 * access, and afterwards, leaves are re-computed on demand after document
+	 * updates or deletions have marked them dirty.
+	 * 
+	 * @author sautter
+	 */
+	private static class DocumentHashTree {
+		private static final int leafPrefixLength = 3;
+		private static final String[] bucketListFieldNames = {
+			DOCUMENT_ID_ATTRIBUTE,
+			UPDATE_TIME_ATTRIBUTE,
+			DOCUMENT_VERSION_ATTRIBUTE,
+			DOCUMENT_CHECKSUM_ATTRIBUTE,
+		};
+		
+		private GoldenGateDIO dio;
+		private TreeMap leafHashes = null;
+		private HashSet dirtyLeafPrefixes = new HashSet();
+		
+		DocumentHashTree(GoldenGateDIO dio) {
+			this.dio = dio;
+		}
+		
+		void documentChanged(String docId) {
+			synchronized (this.dirtyLeafPrefixes) {
+				this.dirtyLeafPrefixes.add(getLeafPrefix(docId));
+			}
+		}
+		
+		synchronized TreeMap getChildHashes(List prefixes) {
+			this.validate();
+			
+			//	group leaves by child prefix (leaves are sorted, so ones belonging to same child are adjacent)
+			TreeMap childHashes = new TreeMap();
+			for (int p = 0; p < prefixes.size(); p++) {
+				String prefix = ((String) prefixes.get(p));
+				SortedMap prefixLeafHashes = this.leafHashes.subMap(prefix, (prefix + '\uFFFF'));
+				String childPrefix = null;
+				long childHash = 0;
+				for (Iterator lpit = prefixLeafHashes.keySet().iterator(); lpit.hasNext();) {
+					String leafPrefix = ((String) lpit.next());
+					String leafChildPrefix = leafPrefix.substring(0, Math.min(leafPrefix.length(), (prefix.length() + 1)));
+					if (!leafChildPrefix.equals(childPrefix)) {
+						if (childPrefix != null)
+							childHashes.put(childPrefix, new Long(childHash));
+						childPrefix = leafChildPrefix;
+						childHash = 0xcbf29ce484222325L;
+					}
+					childHash = hash(childHash, leafPrefix);
+					childHash = hash(childHash, ("\t" + Long.toString(((Long) prefixLeafHashes.get(leafPrefix)).longValue(), 16) + "\n"));
+				}
+				if (childPrefix != null)
+					childHashes.put(childPrefix, new Long(childHash));
+			}
+			return childHashes;
+		}
+		
+		private void validate() {
+			
+			//	build leaves in one pass over the DIO
+			if (this.leafHashes == null) {
+				TreeMap leafHashes = new TreeMap();
+				DioDocumentList dl = this.dio.getDocumentChecksumList(null);
+				while (dl.hasNextDocument()) {
+					DocumentListElement dle = dl.getNextDocument();
+					String leafPrefix = getLeafPrefix((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
+					Long leafHash = ((Long) leafHashes.get(leafPrefix));
+					leafHashes.put(leafPrefix, new Long(((leafHash == null) ? 0 : leafHash.longValue()) ^ getDocumentHash(dle)));
+				}
+				this.leafHashes = leafHashes;
+			}
+			
+			//	re-compute dirty leaves
+			String[] dirtyLeafPrefixes;
+			synchronized (this.dirtyLeafPrefixes) {
+				dirtyLeafPrefixes = ((String[]) this.dirtyLeafPrefixes.toArray(new String[this.dirtyLeafPrefixes.size()]));
+				this.dirtyLeafPrefixes.clear();
+			}
+			for (int l = 0; l < dirtyLeafPrefixes.length; l++) {
+				DioDocumentList dl = this.getBucketList(Arrays.asList(new String[] {dirtyLeafPrefixes[l]}));
+				if (dl.hasNextDocument()) {
+					long leafHash = 0;
+					while (dl.hasNextDocument())
+						leafHash ^= getDocumentHash(dl.getNextDocument());
+					this.leafHashes.put(dirtyLeafPrefixes[l], new Long(leafHash));
+				}
+				else this.leafHashes.remove(dirtyLeafPrefixes[l]);
+			}
+		}
+		
+		DioDocumentList getBucketList(List leafPrefixes) {
+			final String[] leafPrefixArray = ((String[]) leafPrefixes.toArray(new String[leafPrefixes.size()]));
+			final GoldenGateDIO dio = this.dio;
+			return new DioDocumentList(bucketListFieldNames) {
+				int leaf = 0;
+				DioDocumentList leafDl = null;
+				DocumentListElement next = null;
+				public boolean hasNextDocument() {
+					while (this.next == null) {
+						
+						//	filter documents, as database might match LIKE case insensitively
+						if ((this.leafDl != null) && this.leafDl.hasNextDocument()) {
+							DocumentListElement dle = this.leafDl.getNextDocument();
+							if (getLeafPrefix((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE)).equals(leafPrefixArray[this.leaf - 1]))
+								this.next = dle;
+						}
+						
+						//	move on to next bucket
+						else if (this.leaf < leafPrefixArray.length)
+							this.leafDl = dio.getDocumentChecksumList(leafPrefixArray[this.leaf++]);
+						
+						//	we're done
+						else return false;
+					}
+					return true;
+				}
+				public DocumentListElement getNextDocument() {
+					if (!this.hasNextDocument()) return null;
+					DocumentListElement next = this.next;
+					this.next = null;
+					return next;
+				}
+			};
+		}
+		
+		/* a prefix is a leaf if it has full leaf prefix length, or if it did
+		 * not get any longer than its parent, i.e., comes from a document ID
+		 * shorter than the leaf prefix length */
+		static boolean isLeafPrefix(String prefix, int parentPrefixLength) {
+			return ((prefix.length() >= leafPrefixLength) || (prefix.length() <= parentPrefixLength));
+		}
+		
+		static String getLeafPrefix(String docId) {
+			return ((docId.length() > leafPrefixLength) ? docId.substring(0, leafPrefixLength) : docId);
+		}
+		
+		/* 64 bit FNV-1a hash over document ID and checksum, falling back to
+		 * version and update time for documents stored without checksum (the
+		 * latter are local to each DIO, so such documents are always compared
+		 * in detail) */
+		private static long getDocumentHash(DocumentListElement dle) {
+			long hash = 0xcbf29ce484222325L;
+			hash = hash(hash, ((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE)));
+			String checksum = ((String) dle.getAttribute(DOCUMENT_CHECKSUM_ATTRIBUTE, ""));
+			if (checksum.length() == 0)
+				hash = hash(hash, ("\t" + dle.getAttribute(DOCUMENT_VERSION_ATTRIBUTE) + "\t" + dle.getAttribute(UPDATE_TIME_ATTRIBUTE)));
+			else hash = hash(hash, ("\t" + checksum));
+			return hash;
+		}
+		
+		private static long hash(long hash, String str) {
+			for (int c = 0; c < str.length(); c++) {
+				hash ^= str.charAt(c);
+				hash *= 0x100000001b3L;
+			}
+			return hash;
+		}
+	}
 //	
 //	private DioDocumentList getDocumentListShared(String remoteAddress, int remotePort) throws IOException {
 //		ServerConnection sc = ((remotePort == -1) ? ServerConnection.getServerConnection(remoteAddress) : ServerConnection.getServerConnection(remoteAddress, remotePort));
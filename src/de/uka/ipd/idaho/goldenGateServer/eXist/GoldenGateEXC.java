@@ -29,11 +29,12 @@ package de.uka.ipd.idaho.goldenGateServer.eXist;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -43,20 +44,18 @@ import java.util.Iterator;
 import java.util.Properties;
 import java.util.TreeMap;
 
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.easyIO.sql.TableColumnDefinition;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
-import de.uka.ipd.idaho.gamta.util.AnnotationInputStream;
 import de.uka.ipd.idaho.goldenGateServer.exp.GoldenGateEXP;
 import de.uka.ipd.idaho.goldenGateServer.util.Base64;
-import de.uka.ipd.idaho.htmlXmlUtil.accessories.XsltUtils;
+import de.uka.ipd.idaho.goldenGateServer.util.XsltChain;
 import de.uka.ipd.idaho.stringUtils.StringVector;
 
 /**
@@ -86,7 +85,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 			this.outputUrl = outputUrl;
 		}
 		
-		void handleUpdate(String rawDocumentName, QueriableAnnotation document) throws IOException {
+		void handleUpdate(String docId, String rawDocumentName, QueriableAnnotation document) throws IOException {
 			
 			//	build document base name
 			String documentBaseName = this.buildDocumentBaseName(rawDocumentName);
@@ -106,11 +105,10 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					documentName += ".xml";
 					logDebug("        - document name is '" + documentName + "'");
 					
-					//	prepare upload URL
-					HttpURLConnection putCon = this.getConnection(documentName, "PUT");
-					
-					//	do upload
-					BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(putCon.getOutputStream(), "UTF-8"));
+					//	render document, computing digest (including document name, so renamed documents are uploaded even if content unchanged)
+					ByteArrayOutputStream docBytes = new ByteArrayOutputStream();
+					DigestingOutputStream docOut = new DigestingOutputStream(docBytes, documentName);
+					BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(docOut, "UTF-8"));
 					
 					//	no XSLT transformer, send plain data
 					if (sf.xsltUrls.length == 0)
@@ -121,41 +119,49 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					else {
 						
 						//	build transformer chain
-						InputStream is = new AnnotationInputStream(document, "  ", "utf-8"); 
-						for (int x = 0; x < (sf.xsltUrls.length - 1); x++) {
-							Transformer xslt = this.getTransformer(sf.xsltUrls[x]);
-							if (xslt == null) {
-								logError("        - could not instantiate transformer from XSLT at '" + sf.xsltUrls[x] + "'");
-								throw new IOException("XSLT transformer chain broken at '" + sf.xsltUrls[x] + "'");
-							}
-							else {
-								logDebug("        - chained in transformer from XSLT at '" + sf.xsltUrls[x] + "'");
-								is = XsltUtils.chain(is, xslt);
-							}
+						Templates[] xslts = new Templates[sf.xsltUrls.length];
+						for (int x = 0; x < sf.xsltUrls.length; x++) try {
+							xslts[x] = this.getTemplates(sf.xsltUrls[x]);
+							logDebug("        - chained in transformer from XSLT at '" + sf.xsltUrls[x] + "'");
 						}
-						
-						//	build last transformer
-						Transformer xslt = this.getTransformer(sf.xsltUrls[sf.xsltUrls.length-1]);
-						if (xslt == null) {
-							logError("        - could not instantiate transformer from XSLT at '" + sf.xsltUrls[sf.xsltUrls.length-1] + "'");
-							throw new IOException("XSLT transformer chain broken at '" + sf.xsltUrls[sf.xsltUrls.length-1] + "'");
+						catch (IOException ioe) {
+							logError("        - could not instantiate transformer from XSLT at '" + sf.xsltUrls[x] + "': " + ioe.getMessage());
+							throw new IOException("XSLT transformer chain broken at '" + sf.xsltUrls[x] + "'");
 						}
 						
-						//	process data
+						//	process data, handing it from stage to stage as SAX events
 						try {
-							xslt.transform(new StreamSource(is), new StreamResult(bw));
+							new XsltChain(xslts).transform(document, "  ", null, new StreamResult(bw));
 						}
 						catch (TransformerException te) {
 							throw new IOException(te.getMessageAndLocation());
 						}						
 					}
 					
+					bw.flush();
+					
+					//	check if eXist server already has this very content
+					String exportFormat = (this.name + "." + sf.name);
+					String docDigest = docOut.getDigest();
+					if ((docId != null) && docDigest.equals(getExportDigest(docId, exportFormat))) {
+						logDebug("        - document unchanged, skipping upload");
+						continue;
+					}
+					
+					//	do upload
+					HttpURLConnection putCon = this.getConnection(documentName, "PUT");
+					putCon.setFixedLengthStreamingMode(docBytes.size());
+					OutputStream putOut = putCon.getOutputStream();
+					docBytes.writeTo(putOut);
+					putOut.flush();
 					logInfo("      - document uploaded");
 					
-					//	print server's response
-					bw.flush();
-					logInfo(putCon.getResponseCode() + ": " + putCon.getResponseMessage());
-					bw.close();
+					//	print server's response, and remember digest if upload successful
+					int responseCode = putCon.getResponseCode();
+					logInfo(responseCode + ": " + putCon.getResponseMessage());
+					putOut.close();
+					if ((docId != null) && (200 <= responseCode) && (responseCode < 300))
+						storeExportDigest(docId, exportFormat, docDigest);
 				}
 				
 				catch (IOException ioe) {
@@ -204,10 +210,10 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 			}
 		}
 		
-		private Transformer getTransformer(String xsltUrl) throws IOException {
+		private Templates getTemplates(String xsltUrl) throws IOException {
 			if (xsltUrl.startsWith("http://") || xsltUrl.startsWith("https://"))
-				return XsltUtils.getTransformer(xsltUrl);
-			else return XsltUtils.getTransformer(new File(dataPath, xsltUrl));
+				return XsltChain.getTemplates(new URL(xsltUrl), true);
+			else return XsltChain.getTemplates(new File(dataPath, xsltUrl), true);
 		}
 		
 		private HttpURLConnection getConnection(String documentName, String httpMethod) throws IOException {
@@ -258,6 +264,16 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 		super(letterCode, existName);
 	}
 	
+	/**
+	 * This implementation returns true, so documents whose rendition in a given
+	 * storage format is the same as in the previous upload are not sent to the
+	 * connected eXist servers again.
+	 * @see de.uka.ipd.idaho.goldenGateServer.exp.GoldenGateEXP#recordExportDigests()
+	 */
+	protected boolean recordExportDigests() {
+		return true;
+	}
+	
 	/**
 	 * This implementation adds a column for the document name on the connected
 	 * eXist servers. Sub classes overwriting this method thus have to make the
@@ -360,6 +376,11 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 		return ((EXistConnection) this.eXistConnections.get(name));
 	}
 	
+	private void clearExportDigests(EXistConnection eXistConnection) {
+		for (Iterator fit = eXistConnection.storageFormats.keySet().iterator(); fit.hasNext();)
+			this.clearExportDigests(null, (eXistConnection.name + "." + fit.next()));
+	}
+	
 	private void storeEXistConnection(EXistConnection eXistConnection) throws IOException {
 		Settings connectionSettings = new Settings();
 		
@@ -483,8 +504,8 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					
 					for (int x = 0; x < sf.xsltUrls.length; x++) try {
 						if (sf.xsltUrls[x].startsWith("http://") || sf.xsltUrls[x].startsWith("https://"))
-							XsltUtils.getTransformer(sf.xsltUrls[x], false);
-						else XsltUtils.getTransformer(new File(dataPath, sf.xsltUrls[x]), false);
+							XsltChain.getTemplates(new URL(sf.xsltUrls[x]), false);
+						else XsltChain.getTemplates(new File(dataPath, sf.xsltUrls[x]), false);
 					}
 					catch (IOException ioe) {
 						this.reportError(" Error loading XSLT staylesheet from " + sf.xsltUrls[x] + ": " + ioe.getMessage());
@@ -565,6 +586,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					if (ec == null)
 						this.reportError(" Invalid connection name '" + arguments[0] + "'");
 					else if (ec.storageFormats.remove(arguments[1]) != null) {
+						clearExportDigests(null, (ec.name + "." + arguments[1]));
 						try {
 							storeEXistConnection(ec);
 							this.reportResult(" Format '" + arguments[1] + "' dropped successfully");
@@ -693,6 +715,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					String changed;
 					if (arguments.length == 2) {
 						ec.outputUrl = arguments[1];
+						clearExportDigests(ec);
 						changed = "URL of connection";
 					}
 					
@@ -709,6 +732,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 					
 					else {
 						ec.outputUrl = arguments[1];
+						clearExportDigests(ec);
 						ec.user = arguments[2];
 						ec.pswd = arguments[3];
 						String authentication = (ec.user + ":" + ec.pswd);
@@ -753,6 +777,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 						this.reportError(" Invalid connection name '" + arguments[0] + "'");
 					else {
 						eXistConnections.remove(arguments[0]);
+						clearExportDigests(ec);
 						this.reportResult(" Connection '" + arguments[0] + "' dropped successfully");
 					}
 				}
@@ -815,7 +840,7 @@ public abstract class GoldenGateEXC extends GoldenGateEXP {
 			for (Iterator cit = this.eXistConnections.values().iterator(); cit.hasNext();) {
 				EXistConnection ec = ((EXistConnection) cit.next());
 				this.logInfo("      - forwarding update to '" + ec.name + "'");
-				ec.handleUpdate(docAttributes.getProperty(DOCUMENT_NAME_COLUMN_NAME), doc);
+				ec.handleUpdate(((String) doc.getAttribute(DOCUMENT_ID_ATTRIBUTE)), docAttributes.getProperty(DOCUMENT_NAME_COLUMN_NAME), doc);
 			}
 			this.logInfo("  - update forwarded");
 		}
@@ -30,8 +30,12 @@ package de.uka.ipd.idaho.goldenGateServer.exp;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +90,11 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 	/** the value in the 'Deleted' column indicating that a document is deleted */
 	protected static final char DELETED_MARKER = 'D';
 	
+	private final String DIGEST_TABLE_NAME;
+	private static final String EXPORT_FORMAT_COLUMN_NAME = "ExportFormat";
+	private static final int EXPORT_FORMAT_COLUMN_LENGTH = 64;
+	private static final String EXPORT_DIGEST_COLUMN_NAME = "ExportDigest";
+	
 	private TableColumnDefinition[] indexFields;
 	
 	/** the binding to the underlying document repository */
@@ -100,6 +109,7 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 	protected GoldenGateEXP(String letterCode, String exporterName) {
 		super(letterCode, exporterName);
 		this.DATA_TABLE_NAME = (exporterName + "Data");
+		this.DIGEST_TABLE_NAME = (exporterName + "Digests");
 	}
 	
 	/**
@@ -149,6 +159,22 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 		return null;
 	}
 	
+	/**
+	 * Indicate whether or not this exporter records digests of the content it
+	 * exports, to be able to skip sending renditions of a document that are
+	 * the same as in the previous export, e.g. after metadata-only updates. If
+	 * this method returns true, the database table for storing the digests is
+	 * created on initialization, and the <code>getExportDigest()</code>,
+	 * <code>storeExportDigest()</code>, and <code>clearExportDigests()</code>
+	 * methods become usable. This default implementation returns false, sub
+	 * classes are welcome to overwrite it as needed. Implementations must not
+	 * depend on any configuration parameters.
+	 * @return true if export digests are recorded, false otherwise
+	 */
+	protected boolean recordExportDigests() {
+		return false;
+	}
+	
 	/**
 	 * This method establishes the database connection as well as the table for
 	 * keeping track of documents. Sub classes overwriting this method thus
@@ -189,6 +215,17 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 		for (int f = 0; f < this.indexFields.length; f++)
 			this.io.indexColumn(DATA_TABLE_NAME, this.indexFields[f].getColumnName());
 		
+		//	ensure export digest table if required
+		if (this.recordExportDigests()) {
+			TableDefinition dtd = new TableDefinition(DIGEST_TABLE_NAME);
+			dtd.addColumn(DOCUMENT_ID_ATTRIBUTE, TableDefinition.VARCHAR_DATATYPE, 32);
+			dtd.addColumn(EXPORT_FORMAT_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, EXPORT_FORMAT_COLUMN_LENGTH);
+			dtd.addColumn(EXPORT_DIGEST_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 32);
+			if (!this.io.ensureTable(dtd, true))
+				throw new RuntimeException(this.getExporterName() + " cannot work without database access.");
+			this.io.indexColumn(DIGEST_TABLE_NAME, DOCUMENT_ID_ATTRIBUTE);
+		}
+		
 		//	read filters
 		this.loadFilters(this);
 	}
@@ -285,6 +322,7 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 	private static final String UPDATE_ALL_COMMAND = "updateAll";
 	private static final String UPDATE_DELETE_COMMAND = "updateDel";
 	private static final String DIFF_DOCS_COMMAND = "diffDocs";
+	private static final String CLEAR_DIGESTS_COMMAND = "clearDigests";
 	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.GoldenGateServerComponent#getActions()
@@ -638,6 +676,32 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 		};
 		cal.add(ca);
 		
+		//	forget export digests
+		if (this.recordExportDigests()) {
+			ca = new ComponentActionConsole() {
+				public String getActionCommand() {
+					return CLEAR_DIGESTS_COMMAND;
+				}
+				public String[] getExplanation() {
+					String[] explanation = {
+							CLEAR_DIGESTS_COMMAND + " <format>",
+							"Forget the digests of exported content, so subsequent updates export documents even if unchanged:",
+							"- <format>: the export format to forget the digests for (optional, forgets all digests if omitted)"
+						};
+					return explanation;
+				}
+				public void performActionConsole(String[] arguments) {
+					if (arguments.length > 1)
+						this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify at most the export format.");
+					else {
+						clearExportDigests(null, ((arguments.length == 0) ? null : arguments[0]));
+						this.reportResult("Export digests cleared.");
+					}
+				}
+			};
+			cal.add(ca);
+		}
+		
 		//	re-investigate whole collection
 		ca = this.binding.getReingestAction();
 		if (ca != null)
@@ -998,6 +1062,10 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 	 */
 	protected void doDelete(String dataId, String user, Properties dataAttributes, long params) throws IOException {
 		this.doDelete(dataId, dataAttributes);
+		
+		//	make sure document is exported if it comes back
+		if (this.recordExportDigests())
+			this.clearExportDigests(dataId, null);
 	}
 	
 	/**
@@ -1010,6 +1078,199 @@ public abstract class GoldenGateEXP extends GoldenGateAEP implements LiteratureC
 	 */
 	protected void doDelete(String docId, Properties docAttributes) throws IOException {};
 	
+	/**
+	 * Retrieve the digest of the content last exported for a document in a
+	 * given export format. Sub classes can compare this digest to the digest
+	 * of a fresh rendition of the document to skip sending the latter to the
+	 * export destination if it has not changed. If export digests are not
+	 * recorded, this method returns null.
+	 * @param docId the ID of the document
+	 * @param exportFormat the name of the export format
+	 * @return the digest of the last exported content, or null if there is
+	 *            none
+	 */
+	protected String getExportDigest(String docId, String exportFormat) {
+		if (!this.recordExportDigests())
+			return null;
+		String digestQuery = "SELECT " + EXPORT_DIGEST_COLUMN_NAME + 
+				" FROM " + DIGEST_TABLE_NAME + 
+				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + EXPORT_FORMAT_COLUMN_NAME + " = '" + EasyIO.sqlEscape(this.getExportFormatKey(exportFormat)) + "'" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(digestQuery);
+			return (sqr.next() ? sqr.getString(0) : null);
+		}
+		catch (SQLException sqle) {
+			this.logError(this.getExporterName() + ": " + sqle.getMessage() + " while loading export digest.");
+			this.logError("  query was " + digestQuery);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	/**
+	 * Record the digest of the content exported for a document in a given
+	 * export format. Sub classes should invoke this method only after the
+	 * content was successfully sent to the export destination. If export
+	 * digests are not recorded, this method does nothing.
+	 * @param docId the ID of the document
+	 * @param exportFormat the name of the export format
+	 * @param digest the digest of the exported content
+	 */
+	protected void storeExportDigest(String docId, String exportFormat, String digest) {
+		if (!this.recordExportDigests())
+			return;
+		String updateQuery = "UPDATE " + DIGEST_TABLE_NAME + 
+				" SET " + EXPORT_DIGEST_COLUMN_NAME + " = '" + EasyIO.sqlEscape(digest) + "'" +
+				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docId) + "'" +
+					" AND " + EXPORT_FORMAT_COLUMN_NAME + " = '" + EasyIO.sqlEscape(this.getExportFormatKey(exportFormat)) + "'" +
+				";";
+		try {
+			if (this.io.executeUpdateQuery(updateQuery) != 0)
+				return;
+		}
+		catch (SQLException sqle) {
+			this.logError(this.getExporterName() + ": " + sqle.getMessage() + " while updating export digest.");
+			this.logError("  query was " + updateQuery);
+			return;
+		}
+		String insertQuery = "INSERT INTO " + DIGEST_TABLE_NAME + 
+				" (" + DOCUMENT_ID_ATTRIBUTE + ", " + EXPORT_FORMAT_COLUMN_NAME + ", " + EXPORT_DIGEST_COLUMN_NAME + ")" +
+				" VALUES" +
+				" ('" + EasyIO.sqlEscape(docId) + "', '" + EasyIO.sqlEscape(this.getExportFormatKey(exportFormat)) + "', '" + EasyIO.sqlEscape(digest) + "')" +
+				";";
+		try {
+			this.io.executeUpdateQuery(insertQuery);
+		}
+		catch (SQLException sqle) {
+			this.logError(this.getExporterName() + ": " + sqle.getMessage() + " while storing export digest.");
+			this.logError("  query was " + insertQuery);
+		}
+	}
+	
+	/**
+	 * Forget the digests of the content exported for a document, in a given
+	 * export format, or both. Specifying null for either argument acts as a
+	 * wildcard, so specifying null for both arguments forgets all digests. Sub
+	 * classes should invoke this method whenever the content held by an export
+	 * destination might have changed or been lost, e.g. if the destination is
+	 * changed. If export digests are not recorded, this method does nothing.
+	 * @param docId the ID of the document
+	 * @param exportFormat the name of the export format
+	 */
+	protected void clearExportDigests(String docId, String exportFormat) {
+		if (!this.recordExportDigests())
+			return;
+		String deleteQuery = "DELETE FROM " + DIGEST_TABLE_NAME + 
+				" WHERE 1=1" +
+					((docId == null) ? "" : (" AND " + DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(docId) + "'")) +
+					((exportFormat == null) ? "" : (" AND " + EXPORT_FORMAT_COLUMN_NAME + " = '" + EasyIO.sqlEscape(this.getExportFormatKey(exportFormat)) + "'")) +
+				";";
+		try {
+			this.io.executeUpdateQuery(deleteQuery);
+		}
+		catch (SQLException sqle) {
+			this.logError(this.getExporterName() + ": " + sqle.getMessage() + " while clearing export digests.");
+			this.logError("  query was " + deleteQuery);
+		}
+	}
+	
+	private String getExportFormatKey(String exportFormat) {
+		if (exportFormat.length() <= EXPORT_FORMAT_COLUMN_LENGTH)
+			return exportFormat;
+		
+		//	hash overly long export format names (truncating might make them collide)
+		try {
+			MessageDigest digester = MessageDigest.getInstance("MD5");
+			return toHex(digester.digest(exportFormat.getBytes("UTF-8")));
+		}
+		catch (IOException ioe) {
+			throw new RuntimeException(ioe); // UTF-8 is a required encoding, so this should never happen
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new RuntimeException(nsae); // MD5 is a required algorithm, so this should never happen
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer();
+		for (int b = 0; b < bytes.length; b++) {
+			int bi = (bytes[b] & 0xFF);
+			hex.append("0123456789ABCDEF".charAt(bi >>> 4));
+			hex.append("0123456789ABCDEF".charAt(bi & 0xF));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Output stream computing an MD5 digest of all the bytes written through
+	 * it, for sub classes to render documents through before comparing to the
+	 * digest of the previous export.
+	 * 
+	 * @author sautter
+	 */
+	protected static class DigestingOutputStream extends FilterOutputStream {
+		private MessageDigest digester;
+		private String digest = null;
+		
+		/**
+		 * Constructor
+		 * @param out the output stream to wrap
+		 */
+		public DigestingOutputStream(OutputStream out) {
+			this(out, null);
+		}
+		
+		/**
+		 * Constructor
+		 * @param out the output stream to wrap
+		 * @param target the name of the export target, e.g. a file name or
+		 *            URL, to include in the digest, so the digest changes if
+		 *            the target name does, even with the same content
+		 */
+		public DigestingOutputStream(OutputStream out, String target) {
+			super(out);
+			try {
+				this.digester = MessageDigest.getInstance("MD5");
+				if (target != null) {
+					this.digester.update(target.getBytes("UTF-8"));
+					this.digester.update((byte) 0);
+				}
+			}
+			catch (IOException ioe) {
+				throw new RuntimeException(ioe); // UTF-8 is a required encoding, so this should never happen
+			}
+			catch (NoSuchAlgorithmException nsae) {
+				throw new RuntimeException(nsae); // MD5 is a required algorithm, so this should never happen
+			}
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.digester.update((byte) b);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.digester.update(b, off, len);
+		}
+		
+		/**
+		 * Retrieve the digest of the bytes written through this stream, as a
+		 * hex string. After the first invocation of this method, the digest
+		 * does not change any further.
+		 * @return the digest of the bytes written through this stream
+		 */
+		public String getDigest() {
+			if (this.digest == null)
+				this.digest = toHex(this.digester.digest());
+			return this.digest;
+		}
+	}
+	
 	/**
 	 * A GoldenGATE Server EXP Binding hooks up GoldenGATE Server EXP to other
 	 * server components that store documents and issue update events.
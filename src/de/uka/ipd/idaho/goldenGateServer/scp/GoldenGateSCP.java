@@ -27,23 +27,31 @@
  */
 package de.uka.ipd.idaho.goldenGateServer.scp;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.channels.Channels;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -51,21 +59,23 @@ import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipException;
 
 import javax.xml.transform.ErrorListener;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.AnnotationUtils.XmlOutputOptions;
 import de.uka.ipd.idaho.gamta.Gamta;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
-import de.uka.ipd.idaho.gamta.util.AnnotationInputStream;
 import de.uka.ipd.idaho.gamta.util.GenericQueriableAnnotationWrapper;
 import de.uka.ipd.idaho.gamta.util.gPath.GPath;
 import de.uka.ipd.idaho.gamta.util.gPath.GPathExpression;
@@ -80,7 +90,7 @@ import de.uka.ipd.idaho.goldenGateServer.srs.GoldenGateSrsConstants;
 import de.uka.ipd.idaho.goldenGateServer.srs.GoldenGateSrsConstants.SrsDocumentEvent.SrsDocumentEventListener;
 import de.uka.ipd.idaho.goldenGateServer.srs.data.DocumentList;
 import de.uka.ipd.idaho.goldenGateServer.srs.data.DocumentListElement;
-import de.uka.ipd.idaho.htmlXmlUtil.accessories.XsltUtils;
+import de.uka.ipd.idaho.goldenGateServer.util.XsltChain;
 
 /**
  * GoldenGATE SRS Collection Packer manages dumps of the document collection
@@ -108,6 +118,9 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 	
 	private Dump[] dumps = new Dump[0];
 	
+	private int renderThreads = Runtime.getRuntime().availableProcessors();
+	private int maxPendingDocs = 0;
+	
 	private File dumpIndexFile;
 	private DumpIndexEntry[] dumpIndexEntries = new DumpIndexEntry[0];
 	
@@ -134,15 +147,20 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 		final String name;
 		final File dumpFile;
 		final XmlOutputOptions options;
-		final Transformer xslt;
+		final XsltChain xslt;
 		final String fileExtension;
+		final boolean incremental;
+		final long configTime;
 		long exportDue;
-		Dump(String name, File dumpFile, XmlOutputOptions options, Transformer xslt, String fileExtension) {
+		boolean fullExportDue = false;
+		Dump(String name, File dumpFile, XmlOutputOptions options, XsltChain xslt, String fileExtension, boolean incremental, long configTime) {
 			this.name = name;
 			this.dumpFile = dumpFile;
 			this.options = options;
 			this.xslt = xslt;
 			this.fileExtension = fileExtension;
+			this.incremental = incremental;
+			this.configTime = configTime;
 			if (this.dumpFile.exists())
 				this.exportDue = (this.dumpFile.lastModified() + millisPerWeek);
 			else this.exportDue = System.currentTimeMillis();
@@ -190,6 +208,18 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			ioe.printStackTrace(System.out);
 		}
 		
+		//	get number of threads rendering documents for dumps in parallel
+		try {
+			this.renderThreads = Integer.parseInt(this.configuration.getSetting("renderThreads", ("" + this.renderThreads)));
+		} catch (RuntimeException re) {}
+		this.renderThreads = Math.max(1, this.renderThreads);
+		
+		//	get number of documents to hold in memory between rendering and writing (limits heap usage)
+		try {
+			this.maxPendingDocs = Integer.parseInt(this.configuration.getSetting("maxPendingDocs", ("" + (this.renderThreads * 8))));
+		} catch (RuntimeException re) {}
+		this.maxPendingDocs = Math.max(this.renderThreads, this.maxPendingDocs);
+		
 		//	load export configuration
 		this.readExportConfig(this);
 	}
@@ -252,11 +282,25 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			NameSetFilter dIncludeIdTypes = this.parseNameSetFilter(dumpSet.getSetting("includeIdTypes"));
 			if (dIncludeIdTypes != null)
 				dOptions.setIncludeIdTypes(dIncludeIdTypes.filterSet, dIncludeIdTypes.invert);
-			String dXsltName = dumpSet.getSetting("xslt");
 			String dFileExtension = dumpSet.getSetting("fileExtension", "xml");
 			while (dFileExtension.startsWith("."))
 				dFileExtension = dFileExtension.substring(".".length());
-			dumps.add(new Dump(dName, new File(dFile), dOptions, ((dXsltName == null) ? null : this.getTransformer(dXsltName)), dFileExtension));
+			boolean dIncremental = "true".equals(dumpSet.getSetting("incremental", "true"));
+			long dConfigTime = dumpFiles[d].lastModified();
+			
+			//	get XSLT chain ('xslt' for single stylesheet, followed by any 'xslt.1', 'xslt.2', etc. for further stages)
+			ArrayList dXsltNames = new ArrayList();
+			String dXsltName = dumpSet.getSetting("xslt");
+			if (dXsltName != null)
+				dXsltNames.add(dXsltName);
+			for (int x = 1; (dXsltName = dumpSet.getSetting("xslt." + x)) != null; x++)
+				dXsltNames.add(dXsltName);
+			String[] dXsltNameArray = (dXsltNames.isEmpty() ? null : ((String[]) dXsltNames.toArray(new String[dXsltNames.size()])));
+			if (dXsltNameArray != null) {
+				for (int x = 0; x < dXsltNameArray.length; x++)
+					dConfigTime = Math.max(dConfigTime, this.getStylesheetTime(dXsltNameArray[x]));
+			}
+			dumps.add(new Dump(dName, new File(dFile), dOptions, ((dXsltNameArray == null) ? null : this.getXsltChain(dXsltNameArray)), dFileExtension, dIncremental, dConfigTime));
 		}
 		catch (IOException ioe) {
 			log.logError("SRS Collection Packer: could not load dump definition from " + dumpFiles[d].getName());
@@ -318,33 +362,39 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 		return (names.isEmpty() ? null : new NameSetFilter(new HashSet(names), invert));
 	}
 	
-	private HashSet cachedStylesheets = new HashSet();
-	private Transformer getTransformer(String xsltName) throws IOException {
-		Transformer xslt;
+	private long getStylesheetTime(String xsltName) {
 		if (xsltName.indexOf("://") != -1)
-			xslt = XsltUtils.getTransformer(xsltName, !this.cachedStylesheets.add(xsltName));
-		else if (xsltName.startsWith("/") || (xsltName.indexOf(":") != -1))
-			xslt = XsltUtils.getTransformer(new File(xsltName), !this.cachedStylesheets.add(xsltName));
-		else xslt = XsltUtils.getTransformer(new File(this.dataPath, xsltName), !this.cachedStylesheets.add(xsltName));
-		if (xslt == null)
-			throw new IOException("XSLT transformer chain broken at '" + xsltName + "'");
+			return 0; // we cannot tell if a remote stylesheet changed, full repack has to be triggered manually
+		File xsltFile;
+		if (xsltName.startsWith("/") || (xsltName.indexOf(":") != -1))
+			xsltFile = new File(xsltName);
+		else xsltFile = new File(this.dataPath, xsltName);
+		return xsltFile.lastModified();
+	}
+	
+	private HashSet cachedStylesheets = new HashSet();
+	private XsltChain getXsltChain(String[] xsltNames) throws IOException {
+		Templates[] xslts = new Templates[xsltNames.length];
+		for (int x = 0; x < xsltNames.length; x++) try {
+			xslts[x] = XsltChain.getTemplates(xsltNames[x], this.dataPath, !this.cachedStylesheets.add(xsltNames[x]));
+		}
+		catch (IOException ioe) {
+			throw new IOException("XSLT transformer chain broken at '" + xsltNames[x] + "': " + ioe.getMessage());
+		}
 		
-		final ErrorListener xsltErrorListener = xslt.getErrorListener();
+		//	transformer handlers are created per document, so render threads never share transformer instances
+		XsltChain xslt = new XsltChain(xslts);
 		xslt.setErrorListener(new ErrorListener() {
 			public void warning(TransformerException exception) throws TransformerException {
 				logWarning("TransformerWarning: " + exception.getMessage());
-				if (xsltErrorListener != null)
-					xsltErrorListener.warning(exception);
 			}
 			public void error(TransformerException exception) throws TransformerException {
 				logError("TransformerError: " + exception.getMessage());
-				if (xsltErrorListener != null)
-					xsltErrorListener.error(exception);
+				throw exception;
 			}
 			public void fatalError(TransformerException exception) throws TransformerException {
 				logError("TransformerFatalError: " + exception.getMessage());
-				if (xsltErrorListener != null)
-					xsltErrorListener.fatalError(exception);
+				throw exception;
 			}
 		});
 		
@@ -492,26 +542,31 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			}
 			public String[] getExplanation() {
 				String[] explanation = {
-						REPACK_DUMP_COMMAND + " <name>",
+						REPACK_DUMP_COMMAND + " <full> <name>",
 						"Trigger repacking one or all dumps of the document collection:",
+						"- <full>: set to '-f' to re-render all documents instead of only new and updated ones (optional)",
 						"- <name>: the name of the dump to repack (optional, omitting repacks all)"
 					};
 				return explanation;
 			}
 			public void performActionConsole(String[] arguments) {
-				if (arguments.length <= 1) {
+				boolean full = ((arguments.length != 0) && "-f".equals(arguments[0]));
+				String dumpName = ((arguments.length > (full ? 1 : 0)) ? arguments[full ? 1 : 0] : null);
+				if (arguments.length <= (full ? 2 : 1)) {
 					long time = System.currentTimeMillis();
-					boolean dumpFound = (arguments.length == 0);
+					boolean dumpFound = (dumpName == null);
 					for (int d = 0; d < dumps.length; d++)
-						if ((arguments.length == 0) || dumps[d].name.startsWith(arguments[0])) {
+						if ((dumpName == null) || dumps[d].name.startsWith(dumpName)) {
 							dumps[d].exportDue = time;
+							if (full)
+								dumps[d].fullExportDue = true;
 							dumpFound = true;
 						}
-					if ((arguments.length == 0) || dumpFound)
+					if (dumpFound)
 						scheduleExports(true);
-					else this.reportError(" Invalid dump name '" + arguments[0] + "', use '" + LIST_DUMPS_COMMAND + "' to list installed dumps.");
+					else this.reportError(" Invalid dump name '" + dumpName + "', use '" + LIST_DUMPS_COMMAND + "' to list installed dumps.");
 				}
-				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify only the name of the dump to repack.");
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify only the full repack flag and the name of the dump to repack.");
 			}
 		};
 		cal.add(ca);
@@ -652,83 +707,116 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 		//	get dumps due for export
 		ArrayList dumps = new ArrayList();
 		ArrayList dumpWriters = new ArrayList();
-		startTime = System.currentTimeMillis();
-		for (int d = 0; d < this.dumps.length; d++)
-			if (this.dumps[d].exportDue <= time) {
-				dumps.add(this.dumps[d]);
-				dumpWriters.add(new DumpWriter(this.dumps[d].name, this.dumps[d].dumpFile, this.dumps[d].options, this.dumps[d].xslt, this.dumps[d].fileExtension));
-			}
-		this.setExportStatus((" - " + dumpWriters.size() + " dump writers created in " + (System.currentTimeMillis() - startTime) + "ms"), true);
-		
-		//	build collection writer
-		CollectionWriter collectionWriter = new CollectionWriter(indexWriter, this.srs, ((DumpWriter[]) dumpWriters.toArray(new DumpWriter[dumpWriters.size()])));
-		this.setExportStatus(" - collection writer created", true);
-		
-		//	get document list from SRS
-		startTime = System.currentTimeMillis();
-		DocumentList srsDocList = this.srs.getDocumentListFull("-" + UPDATE_TIME_ATTRIBUTE);
-		
-		//	cache document list locally, so we don't block database table for all too long
-		LinkedList docList = new LinkedList();
-		while (srsDocList.hasNextElement())
-			docList.addLast(srsDocList.getNextElement());
-		this.setExportStatus((" - document list retrieved in " + (System.currentTimeMillis() - startTime) + "ms, got " + docList.size() + " documents to export"), true);
-		
-		//	filter document list
-		DocumentListElementWrapper dleWrapper = new DocumentListElementWrapper();
 		int fDocCount = 0;
-		startTime = System.currentTimeMillis();
-		for (Iterator dleit = docList.iterator(); dleit.hasNext();) {
-			dleWrapper.setDocumentListElement((DocumentListElement) dleit.next());
-			if (this.filterOut(dleWrapper)) {
-				dleit.remove();
-				fDocCount++;
-			}
-		}
-		this.setExportStatus((" - document list filtered in " + (System.currentTimeMillis() - startTime) + "ms, retained " + docList.size() + " documents to export, filtered out " + fDocCount), true);
-		
-		//	write documents
 		int pDocCount = 0;
-		int wDocCount = 0;
 		int eDocCount = 0;
-		HashSet errorMessages = new HashSet();
-		while (docList.size() != 0) {
-			this.setExportStatus(("   - processed " + pDocCount + " documents in " + ((System.currentTimeMillis() - time) / 1000) + " sec, exported " + wDocCount + ", got errors on " + eDocCount),  ((pDocCount != 0) && ((pDocCount % 1000) == 0)));
-			pDocCount++;
+		CollectionWriter collectionWriter = null;
+		boolean exported = false;
+		try {
+			startTime = System.currentTimeMillis();
+			int iDumpCount = 0;
+			for (int d = 0; d < this.dumps.length; d++)
+				if (this.dumps[d].exportDue <= time) {
+					dumps.add(this.dumps[d]);
+					DumpArchive previousDump = this.getPreviousDump(this.dumps[d]);
+					if (previousDump != null)
+						iDumpCount++;
+					try {
+						dumpWriters.add(new DumpWriter(this.dumps[d].name, this.dumps[d].dumpFile, this.dumps[d].options, this.dumps[d].xslt, this.dumps[d].fileExtension, previousDump));
+					}
+					catch (IOException ioe) {
+						if (previousDump != null)
+							previousDump.close();
+						throw ioe;
+					}
+				}
+			this.setExportStatus((" - " + dumpWriters.size() + " dump writers created in " + (System.currentTimeMillis() - startTime) + "ms, " + iDumpCount + " of them incremental"), true);
 			
-			//	are we being shut down?
-			if (!exporter.run) {
-				this.logWarning("Collection export interrupted by shutdown");
-				return;
-			}
+			//	build collection writer
+			collectionWriter = new CollectionWriter(indexWriter, this.srs, ((DumpWriter[]) dumpWriters.toArray(new DumpWriter[dumpWriters.size()])), this.renderThreads, this.maxPendingDocs);
+			this.setExportStatus((" - collection writer created with " + this.renderThreads + " render threads"), true);
 			
-			//	write next document
-			DocumentListElement dle = ((DocumentListElement) docList.removeFirst());
-			String docId = ((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
-			try {
-				long updateTime = Long.parseLong((String) dle.getAttribute(UPDATE_TIME_ATTRIBUTE));
-				collectionWriter.write(docId, updateTime, dle);
-				wDocCount++;
-			}
-			catch (RuntimeException re) {
-				eDocCount++;
+			//	get document list from SRS
+			startTime = System.currentTimeMillis();
+			DocumentList srsDocList = this.srs.getDocumentListFull("-" + UPDATE_TIME_ATTRIBUTE);
+			
+			//	cache document list locally, so we don't block database table for all too long
+			LinkedList docList = new LinkedList();
+			while (srsDocList.hasNextElement())
+				docList.addLast(srsDocList.getNextElement());
+			this.setExportStatus((" - document list retrieved in " + (System.currentTimeMillis() - startTime) + "ms, got " + docList.size() + " documents to export"), true);
+			
+			//	filter document list
+			DocumentListElementWrapper dleWrapper = new DocumentListElementWrapper();
+			startTime = System.currentTimeMillis();
+			for (Iterator dleit = docList.iterator(); dleit.hasNext();) {
+				dleWrapper.setDocumentListElement((DocumentListElement) dleit.next());
+				if (this.filterOut(dleWrapper)) {
+					dleit.remove();
+					fDocCount++;
+				}
 			}
-			catch (Exception e) {
-				eDocCount++;
-				this.logError("Error exporting document '" + docId + "':" + e.getMessage());
-				if (errorMessages.add(e.getMessage()))
-					this.logError(e);
+			this.setExportStatus((" - document list filtered in " + (System.currentTimeMillis() - startTime) + "ms, retained " + docList.size() + " documents to export, filtered out " + fDocCount), true);
+			
+			//	write documents
+			HashSet errorMessages = new HashSet();
+			while (docList.size() != 0) {
+				this.setExportStatus(("   - processed " + pDocCount + " documents in " + ((System.currentTimeMillis() - time) / 1000) + " sec, exported " + collectionWriter.writtenDocCount + ", got errors on " + (eDocCount + collectionWriter.errorDocCount)),  ((pDocCount != 0) && ((pDocCount % 1000) == 0)));
+				pDocCount++;
+				
+				//	are we being shut down?
+				if (!exporter.run) {
+					this.logWarning("Collection export interrupted by shutdown");
+					return;
+				}
+				
+				//	write next document
+				DocumentListElement dle = ((DocumentListElement) docList.removeFirst());
+				String docId = ((String) dle.getAttribute(DOCUMENT_ID_ATTRIBUTE));
+				try {
+					long updateTime = Long.parseLong((String) dle.getAttribute(UPDATE_TIME_ATTRIBUTE));
+					collectionWriter.write(docId, updateTime, dle);
+				}
+				catch (RuntimeException re) {
+					eDocCount++;
+				}
+				catch (Exception e) {
+					eDocCount++;
+					this.logError("Error exporting document '" + docId + "':" + e.getMessage());
+					if (errorMessages.add(e.getMessage()))
+						this.logError(e);
+				}
 			}
+			
+			//	close collection writer
+			collectionWriter.close();
+			exported = true;
 		}
 		
-		//	close collection writer
-		collectionWriter.close();
+		//	stop render workers and discard output files if anything went wrong (also releases previous dumps)
+		finally {
+			if (!exported) {
+				if (collectionWriter != null)
+					collectionWriter.abort();
+				else {
+					indexWriter.abort();
+					for (int d = 0; d < dumpWriters.size(); d++)
+						((DumpWriter) dumpWriters.get(d)).abort();
+				}
+			}
+		}
 		this.setExportStatus(" - collection writer closed", true);
-		this.setExportStatus((" - processed " + pDocCount + " documents in " + ((System.currentTimeMillis() - time) / 1000) + " sec, filtered " + fDocCount + ", exported " + wDocCount + ", got errors on " + eDocCount), true);
+		this.setExportStatus((" - processed " + pDocCount + " documents in " + ((System.currentTimeMillis() - time) / 1000) + " sec, filtered " + fDocCount + ", exported " + collectionWriter.writtenDocCount + ", got errors on " + (eDocCount + collectionWriter.errorDocCount)), true);
+		for (int d = 0; d < dumpWriters.size(); d++) {
+			DumpWriter dumpWriter = ((DumpWriter) dumpWriters.get(d));
+			this.setExportStatus((" - dump " + dumpWriter.name + ": copied " + dumpWriter.copiedEntries + " unchanged entries, rendered " + dumpWriter.renderedEntries + " new or updated ones"), true);
+		}
 		
 		//	reset dump timestamps
-		for (int d = 0; d < dumps.size(); d++)
+		for (int d = 0; d < dumps.size(); d++) {
 			((Dump) dumps.get(d)).exportDue = (time + millisPerWeek);
+			((Dump) dumps.get(d)).fullExportDue = false;
+		}
 		if (dumps.size() != 0)
 			this.setExportStatus(" - dump exports re-scheduled", true);
 		
@@ -739,6 +827,30 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 		this.setExportStatus(null, false);
 	}
 	
+	private DumpArchive getPreviousDump(Dump dump) {
+		
+		//	incremental export switched off, or full export requested
+		if (!dump.incremental || dump.fullExportDue)
+			return null;
+		
+		//	nothing to start from
+		if (!dump.dumpFile.exists())
+			return null;
+		
+		//	dump definition or stylesheet changed since last export, need to re-render everything
+		if (dump.dumpFile.lastModified() <= dump.configTime)
+			return null;
+		
+		//	read central directory of existing dump
+		try {
+			return new DumpArchive(dump.dumpFile);
+		}
+		catch (IOException ioe) {
+			this.logWarning("Could not read previous export of dump '" + dump.name + "', re-rendering all documents: " + ioe.getMessage());
+			return null;
+		}
+	}
+	
 	private String exportStatus = null;
 	private void setExportStatus(String status, boolean print) {
 		this.exportStatus = status;
@@ -870,43 +982,231 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 		private DumpWriter[] dumpWriters;
 		private GoldenGateSRS srs;
 		private HashSet errorMessages = new HashSet();
-		CollectionWriter(IndexWriter indexWriter, GoldenGateSRS srs, DumpWriter[] dumpWriters) {
+		private LinkedList exportDocs = new LinkedList();
+		private LinkedList renderDocs = new LinkedList();
+		private boolean closed = false;
+		private int maxPendingDocs;
+		int writtenDocCount = 0;
+		int errorDocCount = 0;
+		CollectionWriter(IndexWriter indexWriter, GoldenGateSRS srs, DumpWriter[] dumpWriters, int renderThreads, int maxPendingDocs) {
 			this.indexWriter = indexWriter;
 			this.srs = srs;
 			this.dumpWriters = dumpWriters;
+			this.maxPendingDocs = maxPendingDocs;
+			
+			//	start render workers (we don't need any if there are no dumps to write)
+			if (this.dumpWriters.length != 0)
+				for (int w = 0; w < renderThreads; w++)
+					new RenderWorker(this, w).start();
 		}
 		void write(String docId, long updateTime, DocumentListElement dle) throws IOException {
 			
 			//	write document to index file
 			this.indexWriter.write(docId, updateTime, dle);
-			if (this.dumpWriters.length == 0)
+			if (this.dumpWriters.length == 0) {
+				this.writtenDocCount++;
 				return;
+			}
+			
+			//	read unchanged entries from previous dumps, and check if we need to render anything
+			ExportDocument ed = new ExportDocument(docId, updateTime, this.dumpWriters.length);
+			boolean renderAny = false;
+			for (int d = 0; d < this.dumpWriters.length; d++) {
+				ed.previousEntries[d] = this.dumpWriters[d].getUnchanged(docId, updateTime);
+				if (ed.previousEntries[d] != null)
+					ed.previousData[d] = this.dumpWriters[d].readUnchanged(ed.previousEntries[d]);
+				if (ed.previousData[d] == null) {
+					ed.previousEntries[d] = null;
+					ed.render[d] = true;
+					renderAny = true;
+				}
+			}
+			ed.done = !renderAny;
+			
+			//	enqueue document for writing, and for rendering if required
+			synchronized (this.exportDocs) {
+				this.exportDocs.addLast(ed);
+			}
+			if (renderAny) synchronized (this.renderDocs) {
+				this.renderDocs.addLast(ed);
+				this.renderDocs.notify();
+			}
+			
+			//	write whatever is finished, and wait if too many documents are pending
+			this.writeExportDocs(false);
+		}
+		
+		private void writeExportDocs(boolean all) throws IOException {
+			while (true) {
+				ExportDocument ed;
+				synchronized (this.exportDocs) {
+					if (this.exportDocs.isEmpty())
+						return;
+					ed = ((ExportDocument) this.exportDocs.getFirst());
+					while (!ed.done) {
+						if (!all && (this.exportDocs.size() < this.maxPendingDocs))
+							return;
+						try {
+							this.exportDocs.wait();
+						} catch (InterruptedException ie) {}
+					}
+					this.exportDocs.removeFirst();
+				}
+				this.writeExportDoc(ed);
+			}
+		}
+		
+		private void writeExportDoc(ExportDocument ed) throws IOException {
 			
-			//	get document
-			QueriableAnnotation doc = this.srs.getDocument(docId);
+			//	loading or rendering document failed
+			if (ed.error != null) {
+				this.errorDocCount++;
+				if (ed.error instanceof RuntimeException)
+					return;
+				logError("Error exporting document '" + ed.docId + "':" + ed.error.getMessage());
+				if (this.errorMessages.add(ed.error.getMessage()))
+					logError(ed.error);
+				return;
+			}
 			
-			//	remove XML namespace declarations from root element so XSLTs can define their own
-			String[] docAns = doc.getAttributeNames();
-			for (int a = 0; a < docAns.length; a++) {
-				if (docAns[a].startsWith("xmlns:"))
-					doc.removeAttribute(docAns[a]);
+			//	write document to dumps, in document list order
+			for (int d = 0; d < this.dumpWriters.length; d++) {
+				if (ed.previousEntries[d] != null)
+					this.dumpWriters[d].writeUnchanged(ed.previousEntries[d], ed.previousData[d]);
+				else if (ed.entries[d] != null)
+					this.dumpWriters[d].write(ed.entries[d]);
+				else if (ed.errors[d] != null) {
+					logError("Error exporting document '" + ed.docId + "' to '" + this.dumpWriters[d].name + "':" + ed.errors[d].getMessage());
+					if (this.errorMessages.add(ed.errors[d].getMessage()))
+						logError(ed.errors[d]);
+				}
+			}
+			this.writtenDocCount++;
+		}
+		
+		ExportDocument getRenderDoc() {
+			synchronized (this.renderDocs) {
+				while (this.renderDocs.isEmpty()) {
+					if (this.closed)
+						return null;
+					try {
+						this.renderDocs.wait();
+					} catch (InterruptedException ie) {}
+				}
+				return ((ExportDocument) this.renderDocs.removeFirst());
+			}
+		}
+		
+		void render(ExportDocument ed, Deflater deflater, CRC32 crc) {
+			try {
+				
+				//	get document
+				QueriableAnnotation doc = this.srs.getDocument(ed.docId);
+				
+				//	remove XML namespace declarations from root element so XSLTs can define their own
+				String[] docAns = doc.getAttributeNames();
+				for (int a = 0; a < docAns.length; a++) {
+					if (docAns[a].startsWith("xmlns:"))
+						doc.removeAttribute(docAns[a]);
+				}
+				
+				//	render document for dumps that don't have an unchanged entry
+				for (int d = 0; d < this.dumpWriters.length; d++) try {
+					if (ed.render[d])
+						ed.entries[d] = this.dumpWriters[d].render(ed.docId, ed.updateTime, doc, deflater, crc);
+				}
+				catch (TransformerException te) {
+					ed.errors[d] = te;
+				}
+			}
+			catch (Throwable t) {
+				ed.error = t;
 			}
 			
-			//	write document to dumps (if any)
-			for (int d = 0; d < this.dumpWriters.length; d++) try {
-				this.dumpWriters[d].write(docId, updateTime, doc);
+			//	hand document back to writer
+			finally {
+				synchronized (this.exportDocs) {
+					ed.done = true;
+					this.exportDocs.notifyAll();
+				}
+			}
+		}
+		
+		private void stopRenderWorkers() {
+			synchronized (this.renderDocs) {
+				this.closed = true;
+				this.renderDocs.notifyAll();
 			}
-			catch (TransformerException te) {
-				logError("Error exporting document '" + docId + "' to '" + this.dumpWriters[d].name + "':" + te.getMessage());
-				if (this.errorMessages.add(te.getMessage()))
-					logError(te);
-			}						
 		}
+		
 		void close() throws IOException {
+			
+			//	let render workers finish the remaining documents and write them
+			this.stopRenderWorkers();
+			this.writeExportDocs(true);
+			
+			//	finish output
 			this.indexWriter.close();
 			for (int d = 0; d < this.dumpWriters.length; d++)
 				this.dumpWriters[d].close();
 		}
+		void abort() {
+			
+			//	discard pending documents
+			synchronized (this.renderDocs) {
+				this.renderDocs.clear();
+			}
+			this.stopRenderWorkers();
+			synchronized (this.exportDocs) {
+				this.exportDocs.clear();
+			}
+			
+			//	discard output
+			this.indexWriter.abort();
+			for (int d = 0; d < this.dumpWriters.length; d++)
+				this.dumpWriters[d].abort();
+		}
+	}
+	
+	private static class ExportDocument {
+		final String docId;
+		final long updateTime;
+		final boolean[] render;
+		final DumpArchiveEntry[] previousEntries;
+		final byte[][] previousData;
+		final DeflatedEntry[] entries;
+		final TransformerException[] errors;
+		Throwable error = null;
+		boolean done = false;
+		ExportDocument(String docId, long updateTime, int dumpCount) {
+			this.docId = docId;
+			this.updateTime = updateTime;
+			this.render = new boolean[dumpCount];
+			this.previousEntries = new DumpArchiveEntry[dumpCount];
+			this.previousData = new byte[dumpCount][];
+			this.entries = new DeflatedEntry[dumpCount];
+			this.errors = new TransformerException[dumpCount];
+		}
+	}
+	
+	private static class RenderWorker extends Thread {
+		private CollectionWriter collectionWriter;
+		private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		private CRC32 crc = new CRC32();
+		RenderWorker(CollectionWriter collectionWriter, int number) {
+			super("SrsCollectionRenderer" + number);
+			this.collectionWriter = collectionWriter;
+			this.setDaemon(true);
+		}
+		public void run() {
+			try {
+				for (ExportDocument ed; (ed = this.collectionWriter.getRenderDoc()) != null;)
+					this.collectionWriter.render(ed, this.deflater, this.crc);
+			}
+			finally {
+				this.deflater.end();
+			}
+		}
 	}
 	
 	private static class IndexWriter {
@@ -969,17 +1269,26 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			}
 			this.genFile.renameTo(outFile);
 		}
+		void abort() {
+			try {
+				this.out.close();
+			} catch (IOException ioe) {}
+			this.genFile.delete();
+		}
 	}
 	
 	private static class DumpWriter {
 		private String name;
 		private String outFile;
 		private File genFile;
-		private ZipOutputStream out;
-		private Transformer xslt;
+		private DumpArchiveWriter out;
+		private DumpArchive previous;
+		private XsltChain xslt;
 		private String fileExtension;
 		private XmlOutputOptions options;
-		DumpWriter(String name, File dumpFile, XmlOutputOptions options, Transformer xslt, String fileExtension) throws IOException {
+		int copiedEntries = 0;
+		int renderedEntries = 0;
+		DumpWriter(String name, File dumpFile, XmlOutputOptions options, XsltChain xslt, String fileExtension, DumpArchive previous) throws IOException {
 			this.name = name;
 			
 			//	create output facilities
@@ -990,14 +1299,45 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 				this.genFile = new File(this.outFile + ".generating");
 			}
 			this.genFile.getParentFile().mkdirs();
-			this.out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.genFile)));
+			this.out = new DumpArchiveWriter(new BufferedOutputStream(new FileOutputStream(this.genFile)));
+			
+			//	store previous export to copy unchanged entries from (if any)
+			this.previous = previous;
 			
 			//	store content parameters
 			this.options = options;
 			this.xslt = xslt;
 			this.fileExtension = fileExtension;
 		}
-		void write(String docId, long updateTime, QueriableAnnotation doc) throws IOException, TransformerException {
+		DumpArchiveEntry getUnchanged(String docId, long updateTime) {
+			if (this.previous == null)
+				return null;
+			
+			//	check if previous export has entry from same update
+			DumpArchiveEntry dae = this.previous.getEntry(docId + "." + this.fileExtension);
+			if (dae == null)
+				return null;
+			if (dae.dosTime != DumpArchiveEntry.toDosTime(updateTime))
+				return null;
+			return dae;
+		}
+		byte[] readUnchanged(DumpArchiveEntry dae) {
+			
+			//	read compressed data up front (we don't want a broken entry if reading fails, but rather render the document anew)
+			try {
+				return this.previous.readRawData(dae);
+			}
+			catch (IOException ioe) {
+				return null;
+			}
+		}
+		void writeUnchanged(DumpArchiveEntry dae, byte[] data) throws IOException {
+			
+			//	copy entry without inflating and deflating it again
+			this.out.writeRawEntry(dae, data);
+			this.copiedEntries++;
+		}
+		DeflatedEntry render(String docId, long updateTime, QueriableAnnotation doc, Deflater deflater, CRC32 crc) throws IOException, TransformerException {
 			
 			//	write data to buffer first (we might get an XSLT exception, and don't want a zip entry in that case ...)
 			DumpEntryBuffer buffer = new DumpEntryBuffer();
@@ -1006,26 +1346,25 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			if (this.xslt == null)
 				AnnotationUtils.writeXML(doc, buffer, this.options);
 			
-			//	do transformation
-			else this.xslt.transform(new StreamSource(new AnnotationInputStream(doc, null, "utf-8", this.options)), new StreamResult(buffer));
-			
-			//	prepare ZIP entry
-			ZipEntry ze = new ZipEntry(docId + "." + this.fileExtension);
-			ze.setTime(updateTime);
-			this.out.putNextEntry(ze);
-			
-			//	write buffered data
-			buffer.writeData(this.out);
+			//	do transformation, feeding document into XSLT chain as SAX events
+			else this.xslt.transform(doc, null, this.options, new StreamResult(buffer));
 			
-			//	close ZIP entry
-			this.out.closeEntry();
+			//	compress entry right away, so writing it is only I/O
+			return DeflatedEntry.deflate((docId + "." + this.fileExtension), updateTime, buffer, deflater, crc);
+		}
+		void write(DeflatedEntry de) throws IOException {
+			this.out.writeRawEntry(de.entry, de.data);
+			this.renderedEntries++;
 		}
 		void close() throws IOException {
 			
 			//	finish ZIP
-			this.out.flush();
 			this.out.close();
 			
+			//	release previous export
+			if (this.previous != null)
+				this.previous.close();
+			
 			//	switch file live
 			File outFile = new File(this.outFile);
 			if (outFile.exists()) {
@@ -1034,6 +1373,340 @@ public class GoldenGateSCP extends AbstractGoldenGateServerComponent implements
 			}
 			this.genFile.renameTo(outFile);
 		}
+		void abort() {
+			try {
+				this.out.close();
+			} catch (IOException ioe) {}
+			if (this.previous != null) try {
+				this.previous.close();
+			} catch (IOException ioe) {}
+			this.genFile.delete();
+		}
+	}
+	
+	/* We cannot use java.util.zip for incremental dumps, as ZipOutputStream
+	 * insists on deflating entry data itself, and ZipFile does not expose
+	 * where the compressed data of an entry lies in the file. So we read the
+	 * central directory of the previous export and write the new one
+	 * ourselves, copying the compressed bytes of unchanged entries verbatim. */
+	private static class DumpArchiveEntry {
+		static final long LOCAL_SIGNATURE = 0x04034b50L;
+		static final long CENTRAL_SIGNATURE = 0x02014b50L;
+		static final long END_SIGNATURE = 0x06054b50L;
+		static final long ZIP64_END_SIGNATURE = 0x06064b50L;
+		static final long ZIP64_LOCATOR_SIGNATURE = 0x07064b50L;
+		static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+		static final int FLAG_UTF8_NAME = 0x0800;
+		final String name;
+		final byte[] nameBytes;
+		final int flags;
+		final int method;
+		final long dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		long offset;
+		DumpArchiveEntry(String name, byte[] nameBytes, int flags, int method, long dosTime, long crc, long compressedSize, long size, long offset) {
+			this.name = name;
+			this.nameBytes = nameBytes;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+		}
+		
+		static long toDosTime(long time) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(time);
+			int year = cal.get(Calendar.YEAR);
+			if (year < 1980)
+				return ((1 << 21) | (1 << 16));
+			return ((((long) (year - 1980)) << 25) | ((cal.get(Calendar.MONTH) + 1) << 21) | (cal.get(Calendar.DAY_OF_MONTH) << 16) | (cal.get(Calendar.HOUR_OF_DAY) << 11) | (cal.get(Calendar.MINUTE) << 5) | (cal.get(Calendar.SECOND) >> 1));
+		}
+		
+		static int readShort(byte[] bytes, int offset) {
+			return ((bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8));
+		}
+		static long readInt(byte[] bytes, int offset) {
+			return (readShort(bytes, offset) | (((long) readShort(bytes, (offset + 2))) << 16));
+		}
+		static long readLong(byte[] bytes, int offset) {
+			return (readInt(bytes, offset) | (readInt(bytes, (offset + 4)) << 32));
+		}
+	}
+	
+	private static class DumpArchive {
+		private RandomAccessFile raf;
+		private HashMap entries = new HashMap();
+		DumpArchive(File file) throws IOException {
+			this.raf = new RandomAccessFile(file, "r");
+			try {
+				this.readCentralDirectory();
+			}
+			catch (IOException ioe) {
+				this.raf.close();
+				throw ioe;
+			}
+		}
+		private void readCentralDirectory() throws IOException {
+			
+			//	find end of central directory record (22 bytes, plus up to 64KB of archive comment)
+			long length = this.raf.length();
+			int tailLength = ((int) Math.min(length, (22 + 0xFFFF)));
+			byte[] tail = new byte[tailLength];
+			this.raf.seek(length - tailLength);
+			this.raf.readFully(tail);
+			int end = -1;
+			for (int t = (tailLength - 22); t >= 0; t--)
+				if (DumpArchiveEntry.readInt(tail, t) == DumpArchiveEntry.END_SIGNATURE) {
+					end = t;
+					break;
+				}
+			if (end == -1)
+				throw new IOException("End of central directory not found");
+			long entryCount = DumpArchiveEntry.readShort(tail, (end + 10));
+			long cdSize = DumpArchiveEntry.readInt(tail, (end + 12));
+			long cdOffset = DumpArchiveEntry.readInt(tail, (end + 16));
+			
+			//	read ZIP64 end of central directory record if any of the values overflowed
+			if ((entryCount == 0xFFFF) || (cdSize == 0xFFFFFFFFL) || (cdOffset == 0xFFFFFFFFL)) {
+				long locatorOffset = (length - tailLength + end - 20);
+				if (locatorOffset < 0)
+					throw new IOException("ZIP64 end of central directory locator not found");
+				byte[] locator = new byte[20];
+				this.raf.seek(locatorOffset);
+				this.raf.readFully(locator);
+				if (DumpArchiveEntry.readInt(locator, 0) != DumpArchiveEntry.ZIP64_LOCATOR_SIGNATURE)
+					throw new IOException("ZIP64 end of central directory locator not found");
+				byte[] zip64End = new byte[56];
+				this.raf.seek(DumpArchiveEntry.readLong(locator, 8));
+				this.raf.readFully(zip64End);
+				if (DumpArchiveEntry.readInt(zip64End, 0) != DumpArchiveEntry.ZIP64_END_SIGNATURE)
+					throw new IOException("ZIP64 end of central directory not found");
+				entryCount = DumpArchiveEntry.readLong(zip64End, 32);
+				cdSize = DumpArchiveEntry.readLong(zip64End, 40);
+				cdOffset = DumpArchiveEntry.readLong(zip64End, 48);
+			}
+			
+			//	read central directory (we must not close the stream, as that would also close the underlying file)
+			InputStream cdIn = new BufferedInputStream(Channels.newInputStream(this.raf.getChannel().position(cdOffset)));
+			byte[] header = new byte[46];
+			for (long e = 0; e < entryCount; e++) {
+				readFully(cdIn, header);
+				if (DumpArchiveEntry.readInt(header, 0) != DumpArchiveEntry.CENTRAL_SIGNATURE)
+					throw new IOException("Invalid central directory entry");
+				int flags = DumpArchiveEntry.readShort(header, 8);
+				int method = DumpArchiveEntry.readShort(header, 10);
+				long dosTime = DumpArchiveEntry.readInt(header, 12);
+				long crc = DumpArchiveEntry.readInt(header, 16);
+				long compressedSize = DumpArchiveEntry.readInt(header, 20);
+				long size = DumpArchiveEntry.readInt(header, 24);
+				byte[] nameBytes = new byte[DumpArchiveEntry.readShort(header, 28)];
+				byte[] extra = new byte[DumpArchiveEntry.readShort(header, 30)];
+				byte[] comment = new byte[DumpArchiveEntry.readShort(header, 32)];
+				long offset = DumpArchiveEntry.readInt(header, 42);
+				readFully(cdIn, nameBytes);
+				readFully(cdIn, extra);
+				readFully(cdIn, comment);
+				
+				//	get overflowed values from ZIP64 extra field
+				for (int x = 0; (x + 4) <= extra.length;) {
+					int xId = DumpArchiveEntry.readShort(extra, x);
+					int xLength = DumpArchiveEntry.readShort(extra, (x + 2));
+					x += 4;
+					if (xId == 0x0001) {
+						int xEnd = (x + xLength);
+						if ((size == 0xFFFFFFFFL) && ((x + 8) <= xEnd)) {
+							size = DumpArchiveEntry.readLong(extra, x);
+							x += 8;
+						}
+						if ((compressedSize == 0xFFFFFFFFL) && ((x + 8) <= xEnd)) {
+							compressedSize = DumpArchiveEntry.readLong(extra, x);
+							x += 8;
+						}
+						if ((offset == 0xFFFFFFFFL) && ((x + 8) <= xEnd))
+							offset = DumpArchiveEntry.readLong(extra, x);
+						break;
+					}
+					x += xLength;
+				}
+				
+				//	store entry
+				String name = new String(nameBytes, "UTF-8");
+				this.entries.put(name, new DumpArchiveEntry(name, nameBytes, flags, method, dosTime, crc, compressedSize, size, offset));
+			}
+		}
+		DumpArchiveEntry getEntry(String name) {
+			return ((DumpArchiveEntry) this.entries.get(name));
+		}
+		synchronized byte[] readRawData(DumpArchiveEntry dae) throws IOException {
+			byte[] header = new byte[30];
+			this.raf.seek(dae.offset);
+			this.raf.readFully(header);
+			if (DumpArchiveEntry.readInt(header, 0) != DumpArchiveEntry.LOCAL_SIGNATURE)
+				throw new IOException("Invalid local header for entry '" + dae.name + "'");
+			if (dae.compressedSize > Integer.MAX_VALUE)
+				throw new IOException("Entry '" + dae.name + "' too large to copy");
+			this.raf.seek(dae.offset + 30 + DumpArchiveEntry.readShort(header, 26) + DumpArchiveEntry.readShort(header, 28));
+			byte[] data = new byte[(int) dae.compressedSize];
+			this.raf.readFully(data);
+			return data;
+		}
+		void close() throws IOException {
+			this.raf.close();
+		}
+		private static void readFully(InputStream in, byte[] bytes) throws IOException {
+			for (int r = 0; r < bytes.length;) {
+				int read = in.read(bytes, r, (bytes.length - r));
+				if (read == -1)
+					throw new EOFException("Unexpected end of central directory");
+				r += read;
+			}
+		}
+	}
+	
+	private static class DeflatedEntry {
+		final DumpArchiveEntry entry;
+		final byte[] data;
+		DeflatedEntry(DumpArchiveEntry entry, byte[] data) {
+			this.entry = entry;
+			this.data = data;
+		}
+		static DeflatedEntry deflate(String name, long time, DumpEntryBuffer buffer, Deflater deflater, CRC32 crc) throws IOException {
+			
+			//	deflate data, computing checksum along the way
+			deflater.reset();
+			crc.reset();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressed, deflater);
+			buffer.writeData(new CheckedOutputStream(deflaterOut, crc));
+			deflaterOut.finish();
+			
+			//	create entry (we only need the flag for non-ASCII names, just as ZipOutputStream)
+			byte[] nameBytes = name.getBytes("UTF-8");
+			int flags = ((nameBytes.length == name.length()) ? 0 : DumpArchiveEntry.FLAG_UTF8_NAME);
+			byte[] data = compressed.toByteArray();
+			return new DeflatedEntry(new DumpArchiveEntry(name, nameBytes, flags, ZipEntry.DEFLATED, DumpArchiveEntry.toDosTime(time), crc.getValue(), data.length, deflater.getBytesRead(), -1), data);
+		}
+	}
+	
+	private static class DumpArchiveWriter {
+		private OutputStream out;
+		private long written = 0;
+		private ArrayList entries = new ArrayList();
+		private HashSet entryNames = new HashSet();
+		DumpArchiveWriter(OutputStream out) {
+			this.out = out;
+		}
+		void writeRawEntry(DumpArchiveEntry source, byte[] data) throws IOException {
+			
+			//	we know the sizes up front, so we never need a data descriptor
+			DumpArchiveEntry dae = new DumpArchiveEntry(source.name, source.nameBytes, (source.flags & ~DumpArchiveEntry.FLAG_DATA_DESCRIPTOR), source.method, source.dosTime, source.crc, source.compressedSize, source.size, this.written);
+			this.writeLocalHeader(dae);
+			this.out.write(data);
+			this.written += data.length;
+		}
+		private void writeLocalHeader(DumpArchiveEntry dae) throws IOException {
+			if (!this.entryNames.add(dae.name))
+				throw new ZipException("duplicate entry: " + dae.name);
+			if ((dae.compressedSize >= 0xFFFFFFFFL) || (dae.size >= 0xFFFFFFFFL))
+				throw new ZipException("entry too large: " + dae.name);
+			this.entries.add(dae);
+			this.writeInt(DumpArchiveEntry.LOCAL_SIGNATURE);
+			this.writeShort(20);
+			this.writeShort(dae.flags);
+			this.writeShort(dae.method);
+			this.writeInt(dae.dosTime);
+			this.writeInt(dae.crc);
+			this.writeInt(dae.compressedSize);
+			this.writeInt(dae.size);
+			this.writeShort(dae.nameBytes.length);
+			this.writeShort(0);
+			this.out.write(dae.nameBytes);
+			this.written += dae.nameBytes.length;
+		}
+		void close() throws IOException {
+			
+			//	write central directory
+			long cdOffset = this.written;
+			for (int e = 0; e < this.entries.size(); e++) {
+				DumpArchiveEntry dae = ((DumpArchiveEntry) this.entries.get(e));
+				boolean zip64 = (dae.offset >= 0xFFFFFFFFL);
+				this.writeInt(DumpArchiveEntry.CENTRAL_SIGNATURE);
+				this.writeShort(zip64 ? 45 : 20);
+				this.writeShort(zip64 ? 45 : 20);
+				this.writeShort(dae.flags);
+				this.writeShort(dae.method);
+				this.writeInt(dae.dosTime);
+				this.writeInt(dae.crc);
+				this.writeInt(dae.compressedSize);
+				this.writeInt(dae.size);
+				this.writeShort(dae.nameBytes.length);
+				this.writeShort(zip64 ? 12 : 0);
+				this.writeShort(0);
+				this.writeShort(0);
+				this.writeShort(0);
+				this.writeInt(0);
+				this.writeInt(zip64 ? 0xFFFFFFFFL : dae.offset);
+				this.out.write(dae.nameBytes);
+				this.written += dae.nameBytes.length;
+				if (zip64) {
+					this.writeShort(0x0001);
+					this.writeShort(8);
+					this.writeLong(dae.offset);
+				}
+			}
+			long cdSize = (this.written - cdOffset);
+			
+			//	write ZIP64 end of central directory record and locator if required
+			if ((this.entries.size() >= 0xFFFF) || (cdOffset >= 0xFFFFFFFFL) || (cdSize >= 0xFFFFFFFFL)) {
+				long zip64EndOffset = this.written;
+				this.writeInt(DumpArchiveEntry.ZIP64_END_SIGNATURE);
+				this.writeLong(44);
+				this.writeShort(45);
+				this.writeShort(45);
+				this.writeInt(0);
+				this.writeInt(0);
+				this.writeLong(this.entries.size());
+				this.writeLong(this.entries.size());
+				this.writeLong(cdSize);
+				this.writeLong(cdOffset);
+				this.writeInt(DumpArchiveEntry.ZIP64_LOCATOR_SIGNATURE);
+				this.writeInt(0);
+				this.writeLong(zip64EndOffset);
+				this.writeInt(1);
+			}
+			
+			//	write end of central directory record
+			this.writeInt(DumpArchiveEntry.END_SIGNATURE);
+			this.writeShort(0);
+			this.writeShort(0);
+			this.writeShort(Math.min(this.entries.size(), 0xFFFF));
+			this.writeShort(Math.min(this.entries.size(), 0xFFFF));
+			this.writeInt(Math.min(cdSize, 0xFFFFFFFFL));
+			this.writeInt(Math.min(cdOffset, 0xFFFFFFFFL));
+			this.writeShort(0);
+			
+			//	finish ZIP
+			this.out.flush();
+			this.out.close();
+		}
+		private void writeShort(int s) throws IOException {
+			this.out.write(s & 0xFF);
+			this.out.write((s >>> 8) & 0xFF);
+			this.written += 2;
+		}
+		private void writeInt(long i) throws IOException {
+			this.writeShort((int) (i & 0xFFFF));
+			this.writeShort((int) ((i >>> 16) & 0xFFFF));
+		}
+		private void writeLong(long l) throws IOException {
+			this.writeInt(l & 0xFFFFFFFFL);
+			this.writeInt(l >>> 32);
+		}
 	}
 	
 	private static class DumpEntryBuffer extends Writer {
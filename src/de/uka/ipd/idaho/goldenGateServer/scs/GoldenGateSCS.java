@@ -83,6 +83,9 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 	
 	private static final String DATA_TABLE_NAME = "GgScsData";
 	
+	private ScsColumnStore data = null;
+	private Object dataLock = new Object();
+	
 	/** Constructor passing 'SCS' as the letter code to super constructor
 	 */
 	public GoldenGateSCS() {
@@ -150,6 +153,9 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 			for (Iterator fit = this.fieldsByName.keySet().iterator(); fit.hasNext();)
 				this.io.indexColumn(DATA_TABLE_NAME, ((String) fit.next()));
 			log.logResult(" - data indexed");
+			
+			//	load data into memory (columns might have changed)
+			this.loadData(log);
 		}
 		else {
 			log.logError(" - database table could not be adjusted");
@@ -157,6 +163,48 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 		}
 	}
 	
+	private void loadData(GoldenGateServerActivityLogger log) {
+		log.logResult("GoldenGateSCS: Loading statistics data ...");
+		Field[] fields = ((Field[]) this.fieldsByName.values().toArray(new Field[this.fieldsByName.size()]));
+		StringVector fieldNames = new StringVector();
+		fieldNames.addElement(DOCUMENT_ID_ATTRIBUTE);
+		for (int f = 0; f < fields.length; f++)
+			fieldNames.addElement(fields[f].fullName);
+		String loadQuery = "SELECT " + fieldNames.concatStrings(", ") +
+				" FROM " + DATA_TABLE_NAME +
+				";";
+		
+		//	make sure no updates come in between reading the table and switching to the new data
+		synchronized (this.dataLock) {
+			SqlQueryResult sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(loadQuery);
+				ScsColumnStore data = new ScsColumnStore(fields);
+				while (sqr.next()) {
+					Properties values = new Properties();
+					for (int f = 0; f < fields.length; f++) {
+						String value = sqr.getString(f + 1);
+						if (value != null)
+							values.setProperty(fields[f].fullName, value);
+					}
+					data.setValues(sqr.getString(0), values);
+				}
+				this.data = data;
+				log.logResult(" - data of " + data.size() + " documents loaded");
+			}
+			catch (SQLException sqle) {
+				this.data = null;
+				log.logError(" - could not load data: " + sqle.getMessage());
+				log.logError("   query was " + loadQuery);
+				log.logError("   ==> computing statistics in database");
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.exp.GoldenGateEXP#exitComponent()
 	 */
@@ -174,6 +222,8 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 	
 	private static final String UPDATE_FIELDS_COMMAND = "updateFields";
 	
+	private static final String RELOAD_DATA_COMMAND = "reloadData";
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.wcs.GoldenGateWCS#getActions()
 	 */
@@ -201,6 +251,26 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 		};
 		cal.add(ca);
 		
+		//	reload statistics data from database
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return RELOAD_DATA_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						RELOAD_DATA_COMMAND,
+						"Reload the statistics data from the database table into memory."
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if (arguments.length == 0)
+					loadData(this);
+				else this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify no argument.");
+			}
+		};
+		cal.add(ca);
+		
 		//	retrieve field definitions
 		ca = new ComponentActionNetwork() {
 			public String getActionCommand() {
@@ -256,69 +326,61 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 		//	get document ID
 		String docId = ((String) doc.getAttribute(DOCUMENT_ID_ATTRIBUTE));
 		
-		//	collect field names
-		StringVector fieldNames = new StringVector();
-		fieldNames.addElementIgnoreDuplicates(DOCUMENT_ID_ATTRIBUTE);
+		//	extract field values (first applicable predicate wins)
+		ArrayList fieldList = new ArrayList();
+		Properties values = new Properties();
 		for (int fs = 0; fs < this.fieldSets.length; fs++) {
 			Field[] fields = this.fieldSets[fs].getFields();
-			for (int f = 0; f < fields.length; f++)
-				fieldNames.addElementIgnoreDuplicates(fields[f].fullName);
+			for (int f = 0; f < fields.length; f++) {
+				fieldList.add(fields[f]);
+				Predicate[] predicates = fields[f].getPredicates();
+				for (int p = 0; p < predicates.length; p++)
+					if (predicates[p].isApplicable(doc)) {
+						GPathObject valueObject = predicates[p].extractData(doc);
+						String value = null;
+						if (Field.STRING_TYPE.equals(fields[f].type)) {
+							value = valueObject.asString().value;
+							if (value.length() > fields[f].length)
+								value = value.substring(0, fields[f].length);
+						}
+						else if (Field.NUMBER_TYPE.equals(fields[f].type))
+							value = ("" + valueObject.asNumber().value);
+						else if (Field.BOOLEAN_TYPE.equals(fields[f].type))
+							value = (valueObject.asBoolean().value ? "T" : "F");
+						if ((value != null) && !values.containsKey(fields[f].fullName))
+							values.setProperty(fields[f].fullName, value);
+						p = predicates.length;
+					}
+			}
 		}
+		Field[] fields = ((Field[]) fieldList.toArray(new Field[fieldList.size()]));
 		
-		//	check if document in data table
-		String checkQuery = "SELECT " + fieldNames.concatStrings(", ") +
-				" FROM " + DATA_TABLE_NAME + 
-				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-				";";
-		
-		SqlQueryResult sqr = null;
-		try {
-			sqr = this.io.executeSelectQuery(checkQuery);
+		synchronized (this.dataLock) {
+			
+			//	get stored field values (might save database update), from memory if possible
+			ScsColumnStore data = this.data;
+			Properties dbValues;
+			if (data == null) try {
+				dbValues = this.loadValues(docId, fields);
+			}
+			catch (SQLException sqle) {
+				this.logError("GoldenGateSCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking table entry.");
+				return;
+			}
+			else dbValues = data.getValues(docId);
 			
 			//	document already in database
-			if (sqr.next()) {
+			if (dbValues != null) {
 				
-				//	collect stored field values (might save database update)
-				Properties dbValues = new Properties();
-				for (int f = 0; f < fieldNames.size(); f++)
-					dbValues.setProperty(fieldNames.get(f), sqr.getString(f));
+				//	collect changed field values
+				Properties updateValues = new Properties();
 				StringVector updates = new StringVector();
-				
-				//	collect new field values
-				for (int fs = 0; fs < this.fieldSets.length; fs++) {
-					Field[] fields = this.fieldSets[fs].getFields();
-					for (int f = 0; f < fields.length; f++) {
-						Predicate[] predicates = fields[f].getPredicates();
-						for (int p = 0; p < predicates.length; p++)
-							if (predicates[p].isApplicable(doc)) {
-								GPathObject valueObject = predicates[p].extractData(doc);
-								String value = null;
-								if (Field.STRING_TYPE.equals(fields[f].type)) {
-									value = valueObject.asString().value;
-									if (value.length() > fields[f].length)
-										value = value.substring(0, fields[f].length);
-									if (value.equals(dbValues.getProperty(fields[f].fullName)))
-										value = null;
-									else value = ("'" + EasyIO.sqlEscape(value) + "'");
-								}
-								else if (Field.NUMBER_TYPE.equals(fields[f].type)) {
-									value = ("" + valueObject.asNumber().value);
-									if (value.equals(dbValues.getProperty(fields[f].fullName)))
-										value = null;
-								}
-								else if (Field.BOOLEAN_TYPE.equals(fields[f].type)) {
-									value = (valueObject.asBoolean().value ? "T" : "F");
-									if (value.equals(dbValues.getProperty(fields[f].fullName)))
-										value = null;
-									else value = ("'" + value + "'");
-								}
-								
-								if (value != null)
-									updates.addElementIgnoreDuplicates(fields[f].fullName + " = " + value);
-								
-								p = predicates.length;
-							}
-					}
+				for (int f = 0; f < fields.length; f++) {
+					String value = values.getProperty(fields[f].fullName);
+					if ((value == null) || value.equals(dbValues.getProperty(fields[f].fullName)) || updateValues.containsKey(fields[f].fullName))
+						continue;
+					updateValues.setProperty(fields[f].fullName, value);
+					updates.addElementIgnoreDuplicates(fields[f].fullName + " = " + getSqlValue(fields[f], value));
 				}
 				
 				//	no updates, we're done
@@ -326,71 +388,50 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 					return;
 				
 				//	updates to store in database
-				else {
-					String updateQuery = "UPDATE " + DATA_TABLE_NAME +
-							" SET " + updates.concatStrings(", ") +
-							" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
-							";";
-					try {
-						this.io.executeUpdateQuery(updateQuery);
-					}
-					catch (SQLException sqle) {
-						this.logError("GoldenGateSCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating table entry.");
-						this.logError("  query was " + updateQuery);
-					}
+				String updateQuery = "UPDATE " + DATA_TABLE_NAME +
+						" SET " + updates.concatStrings(", ") +
+						" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+						";";
+				try {
+					this.io.executeUpdateQuery(updateQuery);
+					if (data != null)
+						data.setValues(docId, updateValues);
+				}
+				catch (SQLException sqle) {
+					this.logError("GoldenGateSCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while updating table entry.");
+					this.logError("  query was " + updateQuery);
 				}
 			}
 			
 			//	document not yet in database, insert it
 			else {
 				
-				//	collect field values
-				Properties values = new Properties();
-				for (int fs = 0; fs < this.fieldSets.length; fs++) {
-					Field[] fields = this.fieldSets[fs].getFields();
-					for (int f = 0; f < fields.length; f++) {
-						String value = null;
-						Predicate[] predicates = fields[f].getPredicates();
-						for (int p = 0; p < predicates.length; p++)
-							if (predicates[p].isApplicable(doc)) {
-								GPathObject valueObject = predicates[p].extractData(doc);
-								if (Field.STRING_TYPE.equals(fields[f].type)) {
-									value = valueObject.asString().value;
-									if (value.length() > fields[f].length)
-										value = value.substring(0, fields[f].length);
-									value = ("'" + EasyIO.sqlEscape(value) + "'");
-								}
-								else if (Field.NUMBER_TYPE.equals(fields[f].type)) {
-									value = ("" + valueObject.asNumber().value);
-								}
-								else if (Field.BOOLEAN_TYPE.equals(fields[f].type)) {
-									value = (valueObject.asBoolean().value ? "T" : "F");
-									value = ("'" + value + "'");
-								}
-								p = predicates.length;
-							}
-						if (value == null) {
-							if (Field.STRING_TYPE.equals(fields[f].type))
-								value = "''";
-							else if (Field.NUMBER_TYPE.equals(fields[f].type))
-								value = "0";
-							else if (Field.BOOLEAN_TYPE.equals(fields[f].type))
-								value = "F";
-						}
-						if (value != null)
-							values.setProperty(fields[f].fullName, value);
-					}
-				}
-				
-				//	assemble query
+				//	fill in defaults for fields without value
+				StringVector fieldNames = new StringVector();
+				fieldNames.addElement(DOCUMENT_ID_ATTRIBUTE);
 				StringVector fieldValues = new StringVector();
 				fieldValues.addElement("'" + docId + "'");
-				for (int f = 1; f < fieldNames.size(); f++) {
-					String value = values.getProperty(fieldNames.get(f));
+				Properties insertValues = new Properties();
+				for (int f = 0; f < fields.length; f++) {
+					if (insertValues.containsKey(fields[f].fullName))
+						continue;
+					String value = values.getProperty(fields[f].fullName);
+					if (value == null) {
+						if (Field.STRING_TYPE.equals(fields[f].type))
+							value = "";
+						else if (Field.NUMBER_TYPE.equals(fields[f].type))
+							value = "0";
+						else if (Field.BOOLEAN_TYPE.equals(fields[f].type))
+							value = "F";
+					}
 					if (value == null)
-						fieldNames.remove(f--);
-					else fieldValues.addElement(value);
+						continue;
+					insertValues.setProperty(fields[f].fullName, value);
+					fieldNames.addElement(fields[f].fullName);
+					fieldValues.addElement(getSqlValue(fields[f], value));
 				}
+				
+				//	assemble query
 				String insertQuery = "INSERT INTO " + DATA_TABLE_NAME +
 						" (" + fieldNames.concatStrings(", ") + ")" +
 						" VALUES" +
@@ -400,6 +441,8 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 				//	execute query
 				try {
 					this.io.executeUpdateQuery(insertQuery);
+					if (data != null)
+						data.setValues(docId, insertValues);
 				}
 				catch (SQLException sqle) {
 					this.logError("GoldenGateSCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while creating table entry.");
@@ -407,9 +450,29 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 				}
 			}
 		}
-		catch (SQLException sqle) {
-			this.logError("GoldenGateSCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking table entry.");
-			this.logError("  query was " + checkQuery);
+	}
+	
+	private Properties loadValues(String docId, Field[] fields) throws SQLException {
+		StringVector fieldNames = new StringVector();
+		fieldNames.addElement(DOCUMENT_ID_ATTRIBUTE);
+		for (int f = 0; f < fields.length; f++)
+			fieldNames.addElementIgnoreDuplicates(fields[f].fullName);
+		String checkQuery = "SELECT " + fieldNames.concatStrings(", ") +
+				" FROM " + DATA_TABLE_NAME + 
+				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(checkQuery);
+			if (!sqr.next())
+				return null;
+			Properties dbValues = new Properties();
+			for (int f = 0; f < fieldNames.size(); f++) {
+				String value = sqr.getString(f);
+				if (value != null)
+					dbValues.setProperty(fieldNames.get(f), value);
+			}
+			return dbValues;
 		}
 		finally {
 			if (sqr != null)
@@ -417,6 +480,12 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 		}
 	}
 	
+	private static String getSqlValue(Field field, String value) {
+		if (Field.NUMBER_TYPE.equals(field.type))
+			return value;
+		else return ("'" + EasyIO.sqlEscape(value) + "'");
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.exp.GoldenGateEXP#doDelete(java.lang.String, java.util.Properties)
 	 */
@@ -424,16 +493,31 @@ public class GoldenGateSCS extends GoldenGateEXP implements GoldenGateScsConstan
 		String deleteQuery = "DELETE FROM " + DATA_TABLE_NAME + 
 				" WHERE " + DOCUMENT_ID_ATTRIBUTE + " LIKE '" + EasyIO.sqlEscape(docId) + "'" +
 				";";
-		try {
-			io.executeUpdateQuery(deleteQuery);
-		}
-		catch (SQLException sqle) {
-			this.logError("PlaziWCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting table entry.");
-			this.logError("  query was " + deleteQuery);
+		synchronized (this.dataLock) {
+			try {
+				io.executeUpdateQuery(deleteQuery);
+				if (this.data != null)
+					this.data.remove(docId);
+			}
+			catch (SQLException sqle) {
+				this.logError("PlaziWCS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting table entry.");
+				this.logError("  query was " + deleteQuery);
+			}
 		}
 	}
 	
 	private Statistics getStatistics(QueryField[] queryFields) throws IOException {
+		
+		//	use in-memory data if available
+		ScsColumnStore data = this.data;
+		if (data != null)
+			return data.getStatistics(queryFields);
+		
+		//	compute statistics in database otherwise
+		else return this.getDatabaseStatistics(queryFields);
+	}
+	
+	private Statistics getDatabaseStatistics(QueryField[] queryFields) throws IOException {
 		ArrayList resQueryFields = new ArrayList();
 		
 		//	collect fields, aggregates, and filter predicates
@@ -0,0 +1,715 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.scs;
+
+import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import de.uka.ipd.idaho.easyIO.EasyIO;
+import de.uka.ipd.idaho.goldenGateServer.scs.GoldenGateScsConstants.Aggregate;
+import de.uka.ipd.idaho.goldenGateServer.scs.GoldenGateScsConstants.Field;
+import de.uka.ipd.idaho.goldenGateServer.scs.GoldenGateScsConstants.QueryField;
+import de.uka.ipd.idaho.goldenGateServer.scs.GoldenGateScsConstants.Statistics;
+import de.uka.ipd.idaho.stringUtils.csvHandler.StringTupel;
+
+/**
+ * In-memory copy of the SCS data table, holding one column per statistics
+ * field: string fields as dictionary codes, number fields as double arrays,
+ * and boolean fields as bit sets. Statistics are computed by scanning these
+ * columns, which is a lot faster than a GROUP BY query against the database.
+ * Filtering, grouping, aggregation, and sorting follow the semantics of the
+ * SQL queries SCS used before, with NULL values sorting last. Strings compare
+ * by the collator of the default locale, like the database does with its
+ * locale specific collation, and sums and averages are rounded to the single
+ * precision of the REAL columns in the data table.<br>
+ * Values are handed in and out in the string form used in the data table,
+ * i.e., numbers as produced by string concatenation, and booleans as 'T' or
+ * 'F'. All methods are synchronized, so a column store can be used by
+ * multiple threads concurrently.
+ * 
+ * @author sautter
+ */
+public class ScsColumnStore {
+	
+	private HashMap rowsByDocId = new HashMap();
+	private String[] docIds = new String[1024];
+	private long[] liveRows = new long[16];
+	private int rowCount = 0;
+	private LinkedList freeRows = new LinkedList();
+	
+	private DataColumn[] columns;
+	private HashMap columnsByName = new HashMap();
+	
+	/** Constructor
+	 * @param fields the statistics fields to create columns for
+	 */
+	public ScsColumnStore(Field[] fields) {
+		this.columns = new DataColumn[fields.length];
+		for (int f = 0; f < fields.length; f++) {
+			if (Field.NUMBER_TYPE.equals(fields[f].type))
+				this.columns[f] = new NumberColumn(fields[f]);
+			else if (Field.BOOLEAN_TYPE.equals(fields[f].type))
+				this.columns[f] = new BooleanColumn(fields[f]);
+			else this.columns[f] = new StringColumn(fields[f]);
+			this.columns[f].ensureCapacity(this.docIds.length);
+			this.columnsByName.put(fields[f].fullName, this.columns[f]);
+		}
+	}
+	
+	/**
+	 * Retrieve the number of documents in the store.
+	 * @return the number of documents
+	 */
+	public synchronized int size() {
+		return this.rowsByDocId.size();
+	}
+	
+	/**
+	 * Retrieve the field values stored for a document.
+	 * @param docId the ID of the document
+	 * @return the field values of the document, or null if the document is
+	 *         not in the store
+	 */
+	public synchronized Properties getValues(String docId) {
+		Integer row = ((Integer) this.rowsByDocId.get(docId));
+		if (row == null)
+			return null;
+		Properties values = new Properties();
+		for (int c = 0; c < this.columns.length; c++) {
+			String value = this.columns[c].getValue(row.intValue());
+			if (value != null)
+				values.setProperty(this.columns[c].field.fullName, value);
+		}
+		return values;
+	}
+	
+	/**
+	 * Store field values for a document. Fields not contained in the argument
+	 * values keep their current value, or are NULL if the document is new to
+	 * the store.
+	 * @param docId the ID of the document
+	 * @param values the field values to store
+	 */
+	public synchronized void setValues(String docId, Properties values) {
+		Integer row = ((Integer) this.rowsByDocId.get(docId));
+		if (row == null) {
+			row = this.addRow(docId);
+			for (int c = 0; c < this.columns.length; c++)
+				this.columns[c].setValue(row.intValue(), values.getProperty(this.columns[c].field.fullName));
+		}
+		else for (int c = 0; c < this.columns.length; c++) {
+			String value = values.getProperty(this.columns[c].field.fullName);
+			if (value != null)
+				this.columns[c].setValue(row.intValue(), value);
+		}
+	}
+	
+	private Integer addRow(String docId) {
+		Integer row;
+		if (this.freeRows.isEmpty()) {
+			if (this.rowCount == this.docIds.length) {
+				String[] docIds = new String[this.docIds.length * 2];
+				System.arraycopy(this.docIds, 0, docIds, 0, this.docIds.length);
+				this.docIds = docIds;
+				long[] liveRows = new long[this.liveRows.length * 2];
+				System.arraycopy(this.liveRows, 0, liveRows, 0, this.liveRows.length);
+				this.liveRows = liveRows;
+				for (int c = 0; c < this.columns.length; c++)
+					this.columns[c].ensureCapacity(this.docIds.length);
+			}
+			row = new Integer(this.rowCount++);
+		}
+		else row = ((Integer) this.freeRows.removeFirst());
+		this.docIds[row.intValue()] = docId;
+		this.liveRows[row.intValue() >> 6] |= (1L << (row.intValue() & 63));
+		this.rowsByDocId.put(docId, row);
+		return row;
+	}
+	
+	/**
+	 * Remove a document from the store.
+	 * @param docId the ID of the document
+	 */
+	public synchronized void remove(String docId) {
+		Integer row = ((Integer) this.rowsByDocId.remove(docId));
+		if (row == null)
+			return;
+		this.docIds[row.intValue()] = null;
+		this.liveRows[row.intValue() >> 6] &= ~(1L << (row.intValue() & 63));
+		for (int c = 0; c < this.columns.length; c++)
+			this.columns[c].setValue(row.intValue(), null);
+		this.freeRows.addLast(row);
+	}
+	
+	/**
+	 * Compute a statistics from the data in the store.
+	 * @param queryFields the fields to group, aggregate, filter, and sort by
+	 * @return the statistics
+	 * @throws IOException
+	 */
+	public synchronized Statistics getStatistics(QueryField[] queryFields) throws IOException {
+		ArrayList resQueryFields = new ArrayList();
+		
+		//	collect result columns, grouping columns, and sort order, and apply filters
+		ArrayList results = new ArrayList();
+		ArrayList groupColumns = new ArrayList();
+		TreeMap sortOrderResults = new TreeMap();
+		long[] selected = ((long[]) this.liveRows.clone());
+		for (int f = 0; f < queryFields.length; f++) {
+			if ("count".equals(queryFields[f].name)) {
+				ResultColumn rc = new ResultColumn("count", Aggregate.COUNT_TYPE, null);
+				results.add(rc);
+				if (queryFields[f].sortPriority > -1)
+					sortOrderResults.put(new Integer(queryFields[f].sortPriority), rc);
+				resQueryFields.add(new QueryField(Field.COUNT_FIELD, Aggregate.COUNT_TYPE, null, queryFields[f].sortPriority));
+			}
+			
+			DataColumn column = ((DataColumn) this.columnsByName.get(queryFields[f].name));
+			if (column == null)
+				continue;
+			
+			if (QueryField.GROUP_OPERATION.equals(queryFields[f].operation)) {
+				ResultColumn rc = new ResultColumn(queryFields[f].name, QueryField.GROUP_OPERATION, column);
+				results.add(rc);
+				if (queryFields[f].sortPriority > -1)
+					sortOrderResults.put(new Integer(queryFields[f].sortPriority), rc);
+				if (!groupColumns.contains(column))
+					groupColumns.add(column);
+				resQueryFields.add(queryFields[f]);
+			}
+			else if (!Aggregate.IGNORE_TYPE.equals(queryFields[f].operation)) {
+				if (Aggregate.SUM_TYPE.equals(queryFields[f].operation) || Aggregate.AVERAGE_TYPE.equals(queryFields[f].operation)) {
+					if (!(column instanceof NumberColumn))
+						throw new IOException("Could not create statistics: cannot compute " + queryFields[f].operation + " of " + column.field.type + " field " + queryFields[f].name);
+				}
+				else if (!Aggregate.COUNT_TYPE.equals(queryFields[f].operation) && !Aggregate.MIN_TYPE.equals(queryFields[f].operation) && !Aggregate.MAX_TYPE.equals(queryFields[f].operation))
+					throw new IOException("Could not create statistics: unknown aggregate " + queryFields[f].operation);
+				ResultColumn rc = new ResultColumn(queryFields[f].name, queryFields[f].operation, column);
+				results.add(rc);
+				if (queryFields[f].sortPriority > -1)
+					sortOrderResults.put(new Integer(queryFields[f].sortPriority), rc);
+				resQueryFields.add(queryFields[f]);
+			}
+			
+			if (queryFields[f].filter != null)
+				column.filter(queryFields[f].filter, selected, this.rowCount);
+		}
+		
+		if (results.isEmpty())
+			throw new IOException("Cannot create empty statistics. Use at least on field.");
+		
+		//	group selected rows
+		int[] groups = new int[this.rowCount];
+		Arrays.fill(groups, -1);
+		IntList groupRows = new IntList();
+		if (groupColumns.isEmpty()) {
+			for (int r = nextRow(selected, 0, this.rowCount); r != -1; r = nextRow(selected, (r+1), this.rowCount))
+				groups[r] = 0;
+			groupRows.add(-1); // aggregating without grouping yields a single result even if no rows are selected
+		}
+		else this.groupRows(((DataColumn[]) groupColumns.toArray(new DataColumn[groupColumns.size()])), selected, groups, groupRows);
+		
+		//	compute result values, one column at a time
+		Object[][] resultValues = new Object[results.size()][];
+		for (int rc = 0; rc < results.size(); rc++)
+			resultValues[rc] = ((ResultColumn) results.get(rc)).getValues(groups, groupRows, this.rowCount);
+		
+		//	sort groups
+		Integer[] groupOrder = new Integer[groupRows.size()];
+		for (int g = 0; g < groupOrder.length; g++)
+			groupOrder[g] = new Integer(g);
+		if (sortOrderResults.size() != 0) {
+			final ArrayList sortResults = new ArrayList();
+			for (Iterator sit = sortOrderResults.values().iterator(); sit.hasNext();) {
+				Object sortResult = sit.next();
+				if (!sortResults.contains(sortResult))
+					sortResults.add(sortResult);
+			}
+			final Object[][] sortValues = new Object[sortResults.size()][];
+			for (int s = 0; s < sortResults.size(); s++)
+				sortValues[s] = resultValues[results.indexOf(sortResults.get(s))];
+			Arrays.sort(groupOrder, new Comparator() {
+				public int compare(Object obj1, Object obj2) {
+					int g1 = ((Integer) obj1).intValue();
+					int g2 = ((Integer) obj2).intValue();
+					for (int s = 0; s < sortValues.length; s++) {
+						int c = compareValues(sortValues[s][g1], sortValues[s][g2]);
+						if (c != 0)
+							return c;
+					}
+					return 0;
+				}
+			});
+		}
+		
+		//	generate result
+		Statistics stat = new Statistics((QueryField[]) resQueryFields.toArray(new QueryField[resQueryFields.size()]));
+		for (int g = 0; g < groupOrder.length; g++) {
+			StringTupel st = new StringTupel();
+			for (int rc = 0; rc < results.size(); rc++) {
+				Object value = resultValues[rc][groupOrder[g].intValue()];
+				if (value != null)
+					st.setValue(((ResultColumn) results.get(rc)).name, formatValue(value));
+			}
+			stat.addElement(st);
+		}
+		return stat;
+	}
+	
+	/*
+	 * Assign selected rows to groups by their values in the argument columns.
+	 * The group keys are computed from the per column group codes in mixed
+	 * radix, falling back to string keys only if the number of possible value
+	 * combinations exceeds the range of a long.
+	 */
+	private void groupRows(DataColumn[] groupColumns, long[] selected, int[] groups, IntList groupRows) {
+		int[][] groupCodes = new int[groupColumns.length][];
+		int[] groupCodeCounts = new int[groupColumns.length];
+		boolean useLongKeys = true;
+		long keyRange = 1;
+		for (int c = 0; c < groupColumns.length; c++) {
+			groupCodes[c] = groupColumns[c].getGroupCodes(selected, this.rowCount);
+			groupCodeCounts[c] = (groupColumns[c].getGroupCodeCount() + 1);
+			if (useLongKeys && (keyRange > (Long.MAX_VALUE / groupCodeCounts[c])))
+				useLongKeys = false;
+			else keyRange *= groupCodeCounts[c];
+		}
+		HashMap groupsByKey = new HashMap();
+		for (int r = nextRow(selected, 0, this.rowCount); r != -1; r = nextRow(selected, (r+1), this.rowCount)) {
+			Object key;
+			if (useLongKeys) {
+				long longKey = 0;
+				for (int c = 0; c < groupColumns.length; c++)
+					longKey = ((longKey * groupCodeCounts[c]) + groupCodes[c][r]);
+				key = new Long(longKey);
+			}
+			else {
+				StringBuffer stringKey = new StringBuffer();
+				for (int c = 0; c < groupColumns.length; c++)
+					stringKey.append(groupCodes[c][r] + ";");
+				key = stringKey.toString();
+			}
+			Integer group = ((Integer) groupsByKey.get(key));
+			if (group == null) {
+				group = new Integer(groupRows.size());
+				groupsByKey.put(key, group);
+				groupRows.add(r);
+			}
+			groups[r] = group.intValue();
+		}
+	}
+	
+	private static int nextRow(long[] rows, int from, int rowCount) {
+		for (int w = (from >> 6); (w << 6) < rowCount; w++) {
+			long bits = ((w == (from >> 6)) ? (rows[w] & (-1L << (from & 63))) : rows[w]);
+			if (bits != 0) {
+				int row = ((w << 6) + Long.numberOfTrailingZeros(bits));
+				return ((row < rowCount) ? row : -1);
+			}
+		}
+		return -1;
+	}
+	
+	private static int compareValues(Object value1, Object value2) {
+		if (value1 == null)
+			return ((value2 == null) ? 0 : 1);
+		else if (value2 == null)
+			return -1;
+		else return ((Comparable) value1).compareTo(value2);
+	}
+	
+	private static String formatValue(Object value) {
+		if (value instanceof Double)
+			return formatNumber(((Double) value).doubleValue());
+		else if (value instanceof Float)
+			return formatNumber(((Float) value).floatValue());
+		else if (value instanceof CollationKey)
+			return ((CollationKey) value).getSourceString();
+		else if (value instanceof Boolean)
+			return (((Boolean) value).booleanValue() ? "T" : "F");
+		else return value.toString();
+	}
+	
+	private static String formatNumber(double number) {
+		if ((number == Math.rint(number)) && (Math.abs(number) < 1e15))
+			return ("" + ((long) number));
+		else return ("" + number);
+	}
+	
+	private static String formatNumber(float number) {
+		if ((number == Math.rint(number)) && (Math.abs(number) < 1e15))
+			return ("" + ((long) number));
+		else return ("" + number); // float to string conversion omits noise digits beyond single precision
+	}
+	
+	private static class IntList {
+		private int[] ints = new int[16];
+		private int size = 0;
+		void add(int i) {
+			if (this.size == this.ints.length) {
+				int[] ints = new int[this.ints.length * 2];
+				System.arraycopy(this.ints, 0, ints, 0, this.ints.length);
+				this.ints = ints;
+			}
+			this.ints[this.size++] = i;
+		}
+		int get(int index) {
+			return this.ints[index];
+		}
+		int size() {
+			return this.size;
+		}
+	}
+	
+	/*
+	 * A column of the statistics result, i.e., a grouping column, the overall
+	 * count, or an aggregate over a data column.
+	 */
+	private static class ResultColumn {
+		final String name;
+		final String operation;
+		final DataColumn column;
+		ResultColumn(String name, String operation, DataColumn column) {
+			this.name = name;
+			this.operation = operation;
+			this.column = column;
+		}
+		Object[] getValues(int[] groups, IntList groupRows, int rowCount) {
+			Object[] values = new Object[groupRows.size()];
+			
+			//	value of grouping column is the same for all rows in a group
+			if (QueryField.GROUP_OPERATION.equals(this.operation)) {
+				for (int g = 0; g < values.length; g++)
+					values[g] = this.column.getSortValue(groupRows.get(g));
+				return values;
+			}
+			
+			//	count rows, or non-NULL values
+			if (Aggregate.COUNT_TYPE.equals(this.operation)) {
+				long[] counts = new long[values.length];
+				for (int r = 0; r < rowCount; r++) {
+					if ((groups[r] != -1) && ((this.column == null) || !this.column.isNull(r)))
+						counts[groups[r]]++;
+				}
+				for (int g = 0; g < values.length; g++)
+					values[g] = new Long(counts[g]);
+				return values;
+			}
+			
+			//	sum up numbers (NULL if there are no values, as in SQL)
+			if (Aggregate.SUM_TYPE.equals(this.operation) || Aggregate.AVERAGE_TYPE.equals(this.operation)) {
+				double[] numbers = ((NumberColumn) this.column).numbers;
+				double[] sums = new double[values.length];
+				long[] counts = new long[values.length];
+				for (int r = 0; r < rowCount; r++) {
+					if ((groups[r] != -1) && !Double.isNaN(numbers[r])) {
+						sums[groups[r]] += numbers[r];
+						counts[groups[r]]++;
+					}
+				}
+				boolean average = Aggregate.AVERAGE_TYPE.equals(this.operation);
+				for (int g = 0; g < values.length; g++) {
+					if (counts[g] != 0)
+						values[g] = new Float((float) (average ? (sums[g] / counts[g]) : sums[g])); // round to precision of REAL column
+				}
+				return values;
+			}
+			
+			//	find minimum or maximum
+			boolean max = Aggregate.MAX_TYPE.equals(this.operation);
+			int[] extremeRows = new int[values.length];
+			Arrays.fill(extremeRows, -1);
+			for (int r = 0; r < rowCount; r++) {
+				if ((groups[r] == -1) || this.column.isNull(r))
+					continue;
+				int er = extremeRows[groups[r]];
+				if (er == -1)
+					extremeRows[groups[r]] = r;
+				else {
+					int c = this.column.compareRows(r, er);
+					if (max ? (c > 0) : (c < 0))
+						extremeRows[groups[r]] = r;
+				}
+			}
+			for (int g = 0; g < values.length; g++) {
+				if (extremeRows[g] != -1)
+					values[g] = this.column.getSortValue(extremeRows[g]);
+			}
+			return values;
+		}
+	}
+	
+	private static abstract class DataColumn {
+		final Field field;
+		DataColumn(Field field) {
+			this.field = field;
+		}
+		abstract void ensureCapacity(int capacity);
+		abstract void setValue(int row, String value);
+		abstract String getValue(int row);
+		abstract boolean isNull(int row);
+		abstract Object getSortValue(int row);
+		abstract int compareRows(int row1, int row2);
+		abstract void filter(String filter, long[] selected, int rowCount);
+		abstract int[] getGroupCodes(long[] selected, int rowCount);
+		abstract int getGroupCodeCount();
+		static void deselect(long[] selected, int row) {
+			selected[row >> 6] &= ~(1L << (row & 63));
+		}
+	}
+	
+	private static final Collator stringCollator = Collator.getInstance();
+	
+	private static class StringColumn extends DataColumn {
+		private HashMap codesByValue = new HashMap();
+		private ArrayList values = new ArrayList();
+		private ArrayList sortKeys = new ArrayList();
+		private int[] codes = new int[0];
+		StringColumn(Field field) {
+			super(field);
+		}
+		void ensureCapacity(int capacity) {
+			int[] codes = new int[capacity];
+			System.arraycopy(this.codes, 0, codes, 0, this.codes.length);
+			Arrays.fill(codes, this.codes.length, codes.length, -1);
+			this.codes = codes;
+		}
+		void setValue(int row, String value) {
+			if (value == null) {
+				this.codes[row] = -1;
+				return;
+			}
+			Integer code = ((Integer) this.codesByValue.get(value));
+			if (code == null) {
+				code = new Integer(this.values.size());
+				this.codesByValue.put(value, code);
+				this.values.add(value);
+			}
+			this.codes[row] = code.intValue();
+		}
+		String getValue(int row) {
+			return ((this.codes[row] == -1) ? null : ((String) this.values.get(this.codes[row])));
+		}
+		boolean isNull(int row) {
+			return (this.codes[row] == -1);
+		}
+		Object getSortValue(int row) {
+			return ((this.codes[row] == -1) ? null : this.getSortKey(this.codes[row]));
+		}
+		private CollationKey getSortKey(int code) {
+			
+			//	compute collation keys lazily, only once per distinct value
+			while (this.sortKeys.size() <= code)
+				this.sortKeys.add(stringCollator.getCollationKey((String) this.values.get(this.sortKeys.size())));
+			return ((CollationKey) this.sortKeys.get(code));
+		}
+		int compareRows(int row1, int row2) {
+			return ((this.codes[row1] == this.codes[row2]) ? 0 : this.getSortKey(this.codes[row1]).compareTo(this.getSortKey(this.codes[row2])));
+		}
+		void filter(String filter, long[] selected, int rowCount) {
+			
+			//	match LIKE pattern against dictionary only once per distinct value
+			Pattern pattern = getLikePattern(EasyIO.prepareForLIKE(filter) + "%");
+			boolean[] codeMatches = new boolean[this.values.size()];
+			for (int c = 0; c < codeMatches.length; c++)
+				codeMatches[c] = pattern.matcher((String) this.values.get(c)).matches();
+			for (int r = nextRow(selected, 0, rowCount); r != -1; r = nextRow(selected, (r+1), rowCount)) {
+				if ((this.codes[r] == -1) || !codeMatches[this.codes[r]])
+					deselect(selected, r);
+			}
+		}
+		int[] getGroupCodes(long[] selected, int rowCount) {
+			int[] groupCodes = new int[rowCount];
+			for (int r = 0; r < rowCount; r++)
+				groupCodes[r] = (this.codes[r] + 1);
+			return groupCodes;
+		}
+		int getGroupCodeCount() {
+			return (this.values.size() + 1);
+		}
+	}
+	
+	private static Pattern getLikePattern(String like) {
+		StringBuffer regEx = new StringBuffer();
+		int literalStart = 0;
+		for (int c = 0; c < like.length(); c++) {
+			char ch = like.charAt(c);
+			if ((ch != '%') && (ch != '_'))
+				continue;
+			if (literalStart < c)
+				regEx.append(Pattern.quote(like.substring(literalStart, c)));
+			regEx.append((ch == '%') ? ".*" : ".");
+			literalStart = (c + 1);
+		}
+		if (literalStart < like.length())
+			regEx.append(Pattern.quote(like.substring(literalStart)));
+		return Pattern.compile(regEx.toString(), Pattern.DOTALL);
+	}
+	
+	private static class NumberColumn extends DataColumn {
+		double[] numbers = new double[0];
+		NumberColumn(Field field) {
+			super(field);
+		}
+		void ensureCapacity(int capacity) {
+			double[] numbers = new double[capacity];
+			System.arraycopy(this.numbers, 0, numbers, 0, this.numbers.length);
+			Arrays.fill(numbers, this.numbers.length, numbers.length, Double.NaN);
+			this.numbers = numbers;
+		}
+		void setValue(int row, String value) {
+			if (value == null)
+				this.numbers[row] = Double.NaN;
+			else try {
+				this.numbers[row] = Double.parseDouble(value.trim());
+			}
+			catch (NumberFormatException nfe) {
+				this.numbers[row] = Double.NaN;
+			}
+		}
+		String getValue(int row) {
+			return (Double.isNaN(this.numbers[row]) ? null : ("" + this.numbers[row]));
+		}
+		boolean isNull(int row) {
+			return Double.isNaN(this.numbers[row]);
+		}
+		Object getSortValue(int row) {
+			return (Double.isNaN(this.numbers[row]) ? null : new Double(this.numbers[row]));
+		}
+		int compareRows(int row1, int row2) {
+			return Double.compare(this.numbers[row1], this.numbers[row2]);
+		}
+		void filter(String filter, long[] selected, int rowCount) {
+			double number;
+			try {
+				number = Double.parseDouble(filter);
+			}
+			catch (NumberFormatException nfe) {
+				return; // ignored by database query as well
+			}
+			for (int r = nextRow(selected, 0, rowCount); r != -1; r = nextRow(selected, (r+1), rowCount)) {
+				if (this.numbers[r] != number)
+					deselect(selected, r);
+			}
+		}
+		private int groupCodeCount = 0;
+		int[] getGroupCodes(long[] selected, int rowCount) {
+			HashMap codesByNumber = new HashMap();
+			int[] groupCodes = new int[rowCount];
+			for (int r = nextRow(selected, 0, rowCount); r != -1; r = nextRow(selected, (r+1), rowCount)) {
+				if (Double.isNaN(this.numbers[r]))
+					continue;
+				Double number = new Double(this.numbers[r]);
+				Integer code = ((Integer) codesByNumber.get(number));
+				if (code == null) {
+					code = new Integer(codesByNumber.size() + 1);
+					codesByNumber.put(number, code);
+				}
+				groupCodes[r] = code.intValue();
+			}
+			this.groupCodeCount = (codesByNumber.size() + 1);
+			return groupCodes;
+		}
+		int getGroupCodeCount() {
+			return this.groupCodeCount;
+		}
+	}
+	
+	private static class BooleanColumn extends DataColumn {
+		private long[] values = new long[0];
+		private long[] nonNull = new long[0];
+		BooleanColumn(Field field) {
+			super(field);
+		}
+		void ensureCapacity(int capacity) {
+			long[] values = new long[(capacity + 63) / 64];
+			System.arraycopy(this.values, 0, values, 0, this.values.length);
+			this.values = values;
+			long[] nonNull = new long[(capacity + 63) / 64];
+			System.arraycopy(this.nonNull, 0, nonNull, 0, this.nonNull.length);
+			this.nonNull = nonNull;
+		}
+		void setValue(int row, String value) {
+			long bit = (1L << (row & 63));
+			value = ((value == null) ? null : value.trim());
+			if ("T".equals(value)) {
+				this.values[row >> 6] |= bit;
+				this.nonNull[row >> 6] |= bit;
+			}
+			else if ("F".equals(value)) {
+				this.values[row >> 6] &= ~bit;
+				this.nonNull[row >> 6] |= bit;
+			}
+			else {
+				this.values[row >> 6] &= ~bit;
+				this.nonNull[row >> 6] &= ~bit;
+			}
+		}
+		private boolean isTrue(int row) {
+			return ((this.values[row >> 6] & (1L << (row & 63))) != 0);
+		}
+		String getValue(int row) {
+			return (this.isNull(row) ? null : (this.isTrue(row) ? "T" : "F"));
+		}
+		boolean isNull(int row) {
+			return ((this.nonNull[row >> 6] & (1L << (row & 63))) == 0);
+		}
+		Object getSortValue(int row) {
+			return (this.isNull(row) ? null : new Boolean(this.isTrue(row)));
+		}
+		int compareRows(int row1, int row2) {
+			return ((this.isTrue(row1) == this.isTrue(row2)) ? 0 : (this.isTrue(row1) ? 1 : -1));
+		}
+		void filter(String filter, long[] selected, int rowCount) {
+			boolean value = !((filter.length() == 0) || "false".equalsIgnoreCase(filter) || "f".equalsIgnoreCase(filter) || "0".equals(filter));
+			
+			//	filter whole words at a time
+			for (int w = 0; w < selected.length; w++)
+				selected[w] &= (this.nonNull[w] & (value ? this.values[w] : ~this.values[w]));
+		}
+		int[] getGroupCodes(long[] selected, int rowCount) {
+			int[] groupCodes = new int[rowCount];
+			for (int r = 0; r < rowCount; r++)
+				groupCodes[r] = (this.isNull(r) ? 0 : (this.isTrue(r) ? 2 : 1));
+			return groupCodes;
+		}
+		int getGroupCodeCount() {
+			return 3;
+		}
+	}
+}
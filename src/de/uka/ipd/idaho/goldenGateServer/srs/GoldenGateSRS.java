@@ -28,14 +28,27 @@
 package de.uka.ipd.idaho.goldenGateServer.srs;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.net.URLDecoder;
 import java.sql.SQLException;
 import java.text.ParseException;
@@ -54,6 +67,9 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import de.uka.ipd.idaho.easyIO.EasyIO;
 import de.uka.ipd.idaho.easyIO.IoProvider;
@@ -119,7 +135,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	private static final String DOCUMENT_UUID_HASH_COLUMN_NAME = "docUuidHash";
 	
 	private Indexer[] indexers = new Indexer[0];
-	private IndexerServiceThread indexerService = null;
+	private IndexerService indexerService = null;
 	private AsynchronousWorkQueue indexerServiceMonitor = null;
 	private IdentifierKeyedDataObjectStore indexDataStore;
 	private CountingSet queriedIndexerFields = new CountingSet(new TreeMap(String.CASE_INSENSITIVE_ORDER));
@@ -313,20 +329,42 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		this.indexDataStore = new IdentifierKeyedDataObjectStore("SrsIndexData", indexDataFolder, ".xml", false, this);
 		System.out.println("  - got index data cache");
 		
-		//	start indexer service thread
-		synchronized (this.indexerActionQueue) {
-			this.indexerService = new IndexerServiceThread();
-			this.indexerService.start();
-			try {
-				this.indexerActionQueue.wait();
-			} catch (InterruptedException ie) {}
-			this.indexerServiceMonitor = new AsynchronousWorkQueue("SrsIndexerService") {
-				public String getStatus() {
-					return (this.name + " indexing actions: " + allIndexerActionStats.toString());
-				}
-			};
+		//	read index data storage format (reading works with either format)
+		this.useBinaryIndexData = !XML_INDEX_DATA_FORMAT.equals(this.configuration.getSetting(INDEX_DATA_FORMAT_SETTING_NAME, BINARY_INDEX_DATA_FORMAT));
+		System.out.println("  - storing index data as " + (this.useBinaryIndexData ? BINARY_INDEX_DATA_FORMAT : XML_INDEX_DATA_FORMAT));
+		
+		//	create in-memory cache for parsed index data, and re-load most recently used entries in the background
+		String indexDataCacheSize = this.configuration.getSetting(INDEX_DATA_CACHE_SIZE_SETTING_NAME);
+		int indexDataCacheKb = DEFAULT_INDEX_DATA_CACHE_SIZE;
+		try {
+			indexDataCacheKb = Integer.parseInt(indexDataCacheSize);
+		} catch (Exception e) {}
+		if (indexDataCacheKb > 0) {
+			this.indexDataCache = new IndexDataCache(indexDataCacheKb * 1024L);
+			System.out.println("  - got index data memory cache of " + indexDataCacheKb + "KB");
+			this.warmUpIndexDataCache();
 		}
-		System.out.println("  - indexer service started");
+		
+		//	start indexer service threads
+		String indexerThreads = this.configuration.getSetting(INDEXER_THREADS_SETTING_NAME);
+		this.indexerThreadCount = Math.min((this.indexers.length + 1), Runtime.getRuntime().availableProcessors());
+		try {
+			this.indexerThreadCount = Integer.parseInt(indexerThreads);
+		} catch (Exception e) {}
+		this.indexerService = new IndexerService(this.indexerThreadCount);
+		this.indexerService.start();
+		this.indexerServiceMonitor = new AsynchronousWorkQueue("SrsIndexerService") {
+			public String getStatus() {
+				IndexerService indexerService = GoldenGateSRS.this.indexerService;
+				StringBuffer status = new StringBuffer(this.name + " indexing actions: " + allIndexerActionStats.toString());
+				status.append(", " + indexerService.getRunningCount() + " of " + indexerService.getThreadCount() + " threads busy");
+				ArrayList iiss = new ArrayList(indexerStats.values());
+				for (int s = 0; s < iiss.size(); s++)
+					status.append("\n  - " + iiss.get(s));
+				return status.toString();
+			}
+		};
+		System.out.println("  - indexer service started with " + this.indexerThreadCount + " threads");
 		
 		
 		//	read search configuration
@@ -348,8 +386,24 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		catch (Exception e) {
 			this.configuration.setSetting(RESULT_PIVOT_INDEX_SETTING_NAME, ("" + DEFAULT_RESULT_PIVOT_INDEX));
 		}
+		
+		String queryThreads = this.configuration.getSetting(QUERY_THREADS_SETTING_NAME);
+		int queryThreadCount = Math.min(this.indexers.length, Runtime.getRuntime().availableProcessors());
+		try {
+			queryThreadCount = Integer.parseInt(queryThreads);
+		} catch (Exception e) {}
+		String indexerQueryTimeout = this.configuration.getSetting(INDEXER_QUERY_TIMEOUT_SETTING_NAME);
+		try {
+			this.indexerQueryTimeout = Integer.parseInt(indexerQueryTimeout);
+		} catch (Exception e) {}
 		System.out.println("  - query configuration read");
 		
+		//	start indexer query executor (pointless with a single thread or indexer)
+		if ((queryThreadCount > 1) && (this.indexers.length > 1)) {
+			this.indexerQueryExecutor = new IndexerQueryExecutor(queryThreadCount);
+			System.out.println("  - indexer query executor started with " + queryThreadCount + " threads");
+		}
+		
 		
 		//	set annotation nesting order for data model
 		Gamta.setAnnotationNestingOrder(this.configuration.getSetting(ANNOTATION_NESTING_ORDER_SETTING, Gamta.getAnnotationNestingOrder()));
@@ -498,13 +552,8 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 					}
 				}
 				finally {
-					synchronized (indexerActionQueue) {
-						indexerService = new IndexerServiceThread();
-						indexerService.start();
-						try {
-							indexerActionQueue.wait();
-						} catch (InterruptedException ie) {}
-					}
+					indexerService = new IndexerService(indexerThreadCount);
+					indexerService.start();
 					this.log("  - index update service restarted");
 				}
 			}
@@ -639,7 +688,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 					else if (cacheOnlyMode)
 						this.log("      - no index entries found");
 					else {
-						enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, indexer) {
+						enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, indexer, docNr) {
 							void performAction() {
 								if (reIndexDocIoe[0] == null) try {
 									if (reIndexDoc[0] == null)
@@ -682,7 +731,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 					return;
 				
 				//	check document data as well
-				enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME) {
+				enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, docNr) {
 					void performAction() {
 						if (reIndexDocIoe[0] != null)
 							return;
@@ -693,7 +742,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 							setIndexDataDocAttributes(reIndexData[0], docAttributes);
 					}
 				});
-				enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME) {
+				enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME, docNr) {
 					void performAction() {
 						if ((reIndexDocIoe[0] == null) && (reIndexData[0] != null))
 							storeIndexData(reIndexData[0]);
@@ -702,6 +751,73 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 		};
 		
+		//	create index data conversion action
+		this.convertIndexDataAction = new AsynchronousConsoleAction(CONVERT_INDEX_DATA_COMMAND, "Convert cached index data for the document collection managed by this GoldenGATE SRS to the configured or a specific storage format", "index data", this.dataPath, "SrsIndexDataConversionLog") {
+			protected String[] getArgumentNames() {
+				String[] argumentNames = {"format"};
+				return argumentNames;
+			}
+			protected String[] getArgumentExplanation(String argument) {
+				if ("format".equals(argument)) {
+					String[] explanation = {
+							"The target format, '" + BINARY_INDEX_DATA_FORMAT + "' or '" + XML_INDEX_DATA_FORMAT + "' (optional parameter, defaults to configured format if omitted)"
+						};
+					return explanation;
+				}
+				else return super.getArgumentExplanation(argument);
+			}
+			protected String checkArguments(String[] arguments) {
+				if (arguments.length == 0)
+					return null;
+				else if (arguments.length > 1)
+					return ("Specify no arguments, or at most the target format.");
+				else if (BINARY_INDEX_DATA_FORMAT.equals(arguments[0]) || XML_INDEX_DATA_FORMAT.equals(arguments[0]))
+					return null;
+				else return ("Invalid target format '" + arguments[0] + "', use '" + BINARY_INDEX_DATA_FORMAT + "' or '" + XML_INDEX_DATA_FORMAT + "'.");
+			}
+			protected String getActionName() {
+				return (getLetterCode() + "." + super.getActionName());
+			}
+			protected void performAction(String[] arguments) throws Exception {
+				
+				//	get target format
+				boolean toBinary = ((arguments.length == 0) ? useBinaryIndexData : BINARY_INDEX_DATA_FORMAT.equals(arguments[0]));
+				
+				//	start log
+				this.log("GoldenGateSRS: start converting cached index data of document collection to " + (toBinary ? BINARY_INDEX_DATA_FORMAT : XML_INDEX_DATA_FORMAT) + " ...");
+				
+				//	process collection
+				DocumentNumberResolver docNumberResolver = getDocumentNumberResolver();
+				this.enteringMainLoop("0 of " + docNumberResolver.size() + " documents done");
+				
+				//	process documents
+				int convertDocCount = 0;
+				int convertedDocCount = 0;
+				for (int d = 0; d < docNumberResolver.size(); d++) {
+					long docNr = docNumberResolver.documentNumberAt(d);
+					String docId = docNumberResolver.documentIdAt(d);
+					try {
+						if (isBinaryIndexData(docNr) != toBinary) {
+							IndexData indexData = getIndexData(docNr, null);
+							if (indexData != null) {
+								storeIndexData(indexData, toBinary);
+								convertedDocCount++;
+							}
+						}
+					}
+					catch (Exception e) {
+						this.log(("GoldenGateSRS: " + e.getClass().getName() + " (" + e.getMessage() + ") while converting index data of document " + docId), e);
+					}
+					catch (Error e) {
+						this.log(("GoldenGateSRS: " + e.getClass().getName() + " (" + e.getMessage() + ") while converting index data of document " + docId), new Exception(e));
+					}
+					
+					//	update status info
+					this.loopRoundComplete((++convertDocCount) + " of " + docNumberResolver.size() + " documents done, " + convertedDocCount + " converted");
+				}
+			}
+		};
+		
 		//	make sure to load modification time
 		this.getLastModified();
 		
@@ -712,8 +828,11 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 					this.notify();
 				}
 				synchronized (docIdentifierResolverLock) {
-					initDocumentIdentifierResolvers();
+					if (!loadDocumentIdentifierResolvers())
+						initDocumentIdentifierResolvers();
 				}
+				startDocumentIdentifierResolverSnapshotWriter();
+				getCollectionStatisticsCounters();
 			}
 		};
 		synchronized (docIdResolverBuilder) {
@@ -797,6 +916,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.masterDocIdMapper = masterDocIdMapper.cloneToSize();
 			masterDocIdsToNrs.clear(); // helps garbage collection
 			System.out.println(" - master document ID mapper finished after " + (System.currentTimeMillis() - start) + "ms");
+			this.docIdentifierResolverModCount++; // make sure to write snapshot
 		}
 		catch (SQLException sqle) {
 			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while initializing document identifier mappings.");
@@ -814,10 +934,25 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	protected void exitComponent() {
 		System.out.println("GoldenGateSRS: shutting down ...");
 		
+		if (this.docIdResolverSnapshotWriter != null) {
+			this.docIdResolverSnapshotWriter.interrupt();
+			this.docIdResolverSnapshotWriter = null;
+		}
+		this.storeDocumentIdentifierResolverSnapshot();
+		System.out.println("  - document identifier resolver snapshot stored");
+		this.storeCollectionStatisticsCheckpoint();
+		System.out.println("  - collection statistics checkpoint stored");
+		
 		this.indexerServiceMonitor.dispose();
 		this.indexerService.shutdown();
 		System.out.println("  - indexer service shut down");
 		
+		if (this.indexerQueryExecutor != null) {
+			this.indexerQueryExecutor.shutdown();
+			this.indexerQueryExecutor = null;
+			System.out.println("  - indexer query executor shut down");
+		}
+		
 		for (int i = 0; i < this.indexers.length; i++)
 			this.indexers[i].exit();
 		this.indexers = new Indexer[0];
@@ -826,6 +961,11 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		this.indexDataStore.shutdown();
 		System.out.println("  - index data store shut down");
 		
+		if (this.indexDataCache != null) {
+			this.storeIndexDataCacheDocNumbers();
+			System.out.println("  - index data memory cache shut down, " + this.indexDataCache.getStatus());
+		}
+		
 		if (this.dstCache != null) {
 			this.dstCache.shutdown();
 			System.out.println("  - document cache shut down");
@@ -870,8 +1010,13 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	
 	private static final String ISSUE_EVENTS_COMMAND = "issueEvents";
 	
+	private static final String INDEX_DATA_CACHE_STATS_COMMAND = "idxCacheStats";
+	
+	private static final String CONVERT_INDEX_DATA_COMMAND = "convertIndexData";
+	
 	private AsynchronousConsoleAction reIndexAction;
 	private AsynchronousConsoleAction checkIndexAction;
+	private AsynchronousConsoleAction convertIndexDataAction;
 	
 	/* (non-Javadoc)
 	 * @see de.goldenGateScf.ServerComponent#getActions()
@@ -1447,6 +1592,10 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				this.reportResult("Indexer background service actions enqueued and executed since startup:");
 				for (int s = 0; s < iass.size(); s++)
 					this.reportResult(" - " + iass.get(s));
+				ArrayList iiss = new ArrayList(indexerStats.values());
+				this.reportResult("Indexer background service actions by indexer (" + indexerService.getRunningCount() + " of " + indexerService.getThreadCount() + " threads busy):");
+				for (int s = 0; s < iiss.size(); s++)
+					this.reportResult(" - " + iiss.get(s));
 			}
 		};
 		cal.add(ca);
@@ -1509,7 +1658,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 						final String docId = dnr.getDocumentId(docNr);
 						if (dstCache.isDataObjectAvailable(docId))
 							continue;
-						enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME) {
+						enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME, docNr) {
 							void performAction() {
 								if (dstCache.isDataObjectAvailable(docId))
 									return;
@@ -1756,12 +1905,44 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		};
 		cal.add(ca);
 		
+		//	show index data memory cache statistics
+		ca = new ComponentActionConsole() {
+			public String getActionCommand() {
+				return INDEX_DATA_CACHE_STATS_COMMAND;
+			}
+			public String[] getExplanation() {
+				String[] explanation = {
+						INDEX_DATA_CACHE_STATS_COMMAND + " <reset>",
+						"Show statistics of the in-memory cache of parsed index data:",
+						"- <reset>: set to '-r' to reset hit and miss counters (optional)"
+					};
+				return explanation;
+			}
+			public void performActionConsole(String[] arguments) {
+				if ((arguments.length > 1) || ((arguments.length == 1) && !"-r".equals(arguments[0])))
+					this.reportError(" Invalid arguments for '" + this.getActionCommand() + "', specify '-r' or no arguments.");
+				else if (indexDataCache == null)
+					this.reportResult(" Index data memory cache is disabled.");
+				else {
+					this.reportResult(" Index data memory cache: " + indexDataCache.getStatus());
+					if (arguments.length == 1) {
+						indexDataCache.resetCounters();
+						this.reportResult(" Hit and miss counters reset.");
+					}
+				}
+			}
+		};
+		cal.add(ca);
+		
 		//	re-index collection
 		cal.add(this.reIndexAction);
 		
 		//	check index data
 		cal.add(this.checkIndexAction);
 		
+		//	convert index data storage format
+		cal.add(this.convertIndexDataAction);
+		
 		//	get actions from document store (prefixing with "doc" and upper-casing first command letter)
 		ComponentAction[] dstActions = this.dst.getActions();
 		for (int a = 0; a < dstActions.length; a++) {
@@ -1881,7 +2062,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		for (int i = 0; i < this.indexers.length; i++) {
 			if ((indexerName != null) && !indexerName.equals(this.indexers[i].getIndexName()))
 				continue;
-			this.enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, this.indexers[i]) {
+			this.enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, this.indexers[i], docNr) {
 				void performAction() {
 					if (docIoe[0] == null) try {
 						if (doc[0] == null)
@@ -1904,7 +2085,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			updateIndexData = true;
 		}
 		if ((indexerName == null) || "doc".equals(indexerName)) {
-			this.enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME) {
+			this.enqueueIndexerAction(new IndexerAction(IndexerAction.RE_INDEX_NAME, docNr) {
 				void performAction() {
 					if (docIoe[0] != null)
 						return;
@@ -1917,7 +2098,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			updateIndexData = true;
 		}
 		if (updateIndexData)
-			this.enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME) {
+			this.enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME, docNr) {
 				void performAction() {
 					if (docIoe[0] == null)
 						storeIndexData(indexData);
@@ -1990,100 +2171,139 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 		catch (NumberFormatException nfe) {
 			if (GET_STATISTICS_LAST_YEAR.equals(sinceString))
-				since = (System.currentTimeMillis() - (1000 * 60 * 60 * 24 * 365));
+				since = (System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 365));
 			else if (GET_STATISTICS_LAST_HALF_YEAR.equals(sinceString))
-				since = (System.currentTimeMillis() - (1000 * 60 * 60 * 24 * 183));
+				since = (System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 183));
 			else if (GET_STATISTICS_LAST_THREE_MONTHS.equals(sinceString))
-				since = (System.currentTimeMillis() - (1000 * 60 * 60 * 24 * 91));
+				since = (System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 91));
 			else if (GET_STATISTICS_LAST_MONTH.equals(sinceString))
-				since = (System.currentTimeMillis() - (1000 * 60 * 60 * 24 * 30));
+				since = (System.currentTimeMillis() - (1000L * 60 * 60 * 24 * 30));
 		}
 		
-		//	do cache lookup
-		Long cacheKey = new Long(since / (1000 * 60 * 10));
-		synchronized (this.collectionsStatisticsCache) {
-			CacheCollectionStatistics cachedStats = ((CacheCollectionStatistics) this.collectionsStatisticsCache.get(cacheKey));
-			if (cachedStats != null)
-				return cachedStats.getCollectionStatistics(sinceString);
+		//	get statistics from counters
+		CollectionStatisticsCounters csc = this.getCollectionStatisticsCounters();
+		if (csc == null)
+			return null;
+		synchronized (this.collectionStatisticsLock) {
+			return csc.getCollectionStatistics(since, sinceString);
+		}
+	}
+	
+	/*
+	 * Collection statistics are kept in running counters, overall and per
+	 * checkin user, which are updated from the document table rows of each
+	 * master document that is stored or deleted. Besides totals, the counters
+	 * hold histograms over checkin time buckets, so the statistics for any
+	 * 'since' window add up the buckets from the window start onward. The
+	 * counters are checkpointed to a file along with the document identifier
+	 * resolver snapshot. On startup, we only re-read master documents updated
+	 * after the checkpoint was written, and scan the whole document table only
+	 * if the checkpoint is missing or inconsistent with the database.
+	 *
+	 * Checkpoint file layout (all numbers big endian, strings modified UTF-8):
+	 * - magic number (4 bytes) and format version (4 bytes)
+	 * - checkpoint timestamp (8 bytes)
+	 * - number of master documents (4 bytes)
+	 * - per master document: master document ID, number of document table
+	 *   rows (4 bytes), and per row checkin user, checkin time (8 bytes), and
+	 *   document size (4 bytes)
+	 * - CRC32 checksum (8 bytes) of all preceding bytes
+	 */
+	private static final long STATISTICS_TIME_BUCKET_LENGTH = (1000 * 60 * 10);
+	private static final String COLLECTION_STATISTICS_CHECKPOINT_FILE_NAME = "CollectionStatistics.checkpoint";
+	private static final int COLLECTION_STATISTICS_CHECKPOINT_MAGIC = 0x53525343; // 'SRSC'
+	private static final int COLLECTION_STATISTICS_CHECKPOINT_VERSION = 1;
+	private static final long COLLECTION_STATISTICS_DELTA_TIME_MARGIN = (1000 * 60 * 10); // tolerate some clock skew and long running updates
+	private static final int COLLECTION_STATISTICS_DELTA_MAX_MASTER_DOCS = 1000; // full table scan is faster beyond this
+	private final Object collectionStatisticsLock = new Object();
+	private CollectionStatisticsCounters collectionStatistics = null;
+	private int collectionStatisticsCheckpointModCount = -1;
+	
+	private CollectionStatisticsCounters getCollectionStatisticsCounters() {
+		synchronized (this.collectionStatisticsLock) {
+			if (this.collectionStatistics == null) {
+				CollectionStatisticsCounters csc = this.loadCollectionStatistics();
+				if (csc == null)
+					csc = this.initCollectionStatistics();
+				this.collectionStatistics = csc;
+			}
+			return this.collectionStatistics;
 		}
+	}
+	
+	private void updateCollectionStatistics(String masterDocId) {
+		synchronized (this.collectionStatisticsLock) {
+			if (this.collectionStatistics == null)
+				return; // will read current data on initialization
+			MasterDocumentStatistics mds = this.loadMasterDocumentStatistics(masterDocId);
+			if (mds == null)
+				this.collectionStatistics = null; // re-initialize on next request rather than deliver wrong counts
+			else this.collectionStatistics.setMasterDocumentStatistics(masterDocId, mds);
+		}
+	}
+	
+	private MasterDocumentStatistics loadMasterDocumentStatistics(String masterDocId) {
+		String query = "SELECT " + CHECKIN_USER_ATTRIBUTE +
+				", " + CHECKIN_TIME_ATTRIBUTE +
+				", " + DOCUMENT_SIZE_ATTRIBUTE +
+				" FROM " + DOCUMENT_TABLE_NAME +
+				" WHERE " + MASTER_DOCUMENT_ID_HASH_COLUMN_NAME + " = " + masterDocId.hashCode() + "" +
+				" AND " + MASTER_DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(masterDocId) + "'" +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query, true);
+			MasterDocumentStatisticsBuilder mdsb = new MasterDocumentStatisticsBuilder();
+			while (sqr.next())
+				mdsb.addRow(sqr.getString(0), sqr.getLong(1), sqr.getInt(2));
+			return mdsb.build();
+		}
+		catch (SQLException sqle) {
+			this.logError("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading master document statistics.");
+			this.logError("  Query was " + query);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private CollectionStatisticsCounters initCollectionStatistics() {
 		
-		//	create statistics from database (better one table scan here than four in database, with peculiar assembly)
-		String statQuery = "SELECT " + CHECKIN_USER_ATTRIBUTE + 
-				", " + CHECKIN_TIME_ATTRIBUTE + 
-				", " + MASTER_DOCUMENT_ID_ATTRIBUTE + 
-				", " + DOCUMENT_SIZE_ATTRIBUTE + 
+		//	read statistics relevant data from database (better one table scan here than four in database, with peculiar assembly)
+		String statQuery = "SELECT " + CHECKIN_USER_ATTRIBUTE +
+				", " + CHECKIN_TIME_ATTRIBUTE +
+				", " + MASTER_DOCUMENT_ID_ATTRIBUTE +
+				", " + DOCUMENT_SIZE_ATTRIBUTE +
 				" FROM " + DOCUMENT_TABLE_NAME +
 				";";
 		SqlQueryResult sqr = null;
 		try {
-			sqr = this.io.executeSelectQuery(statQuery);
-			
-			//	gather statistics
-			CacheCollectionStatistics cachingStats = new CacheCollectionStatistics();
-			HashSet masterDocIDs = new HashSet();
-			HashSet masterDocIDsSince = new HashSet();
-			HashMap cachingUserStats = new HashMap();
+			System.out.println("GoldenGateSRS: initializing collection statistics.");
+			long start = System.currentTimeMillis();
+			sqr = this.io.executeSelectQuery(statQuery, true);
+			HashMap masterDocStatBuilders = new HashMap();
 			while (sqr.next()) {
-				
-				//	overall ...
-				masterDocIDs.add(sqr.getString(2));
-				cachingStats.docCount++;
-				cachingStats.wordCount += sqr.getInt(3);
-				
-				//	..., user specific, ...
-				CacheUserStatistics cachingUserStat = ((CacheUserStatistics) cachingUserStats.get(sqr.getString(0)));
-				if (cachingUserStat == null) {
-					cachingUserStat = new CacheUserStatistics(sqr.getString(0));
-					cachingUserStats.put(cachingUserStat.checkinUser, cachingUserStat);
-				}
-				cachingUserStat.masterDocIDs.add(sqr.getString(2));
-				cachingUserStat.docCount++;
-				cachingUserStat.wordCount += sqr.getInt(3);
-				
-				//	..., and time specific
-				if (since <= sqr.getLong(1)) {
-					masterDocIDsSince.add(sqr.getString(2));
-					cachingStats.docCountSince++;
-					cachingStats.wordCountSince += sqr.getInt(3);
-					cachingUserStat.masterDocIDsSince.add(sqr.getString(2));
-					cachingUserStat.docCountSince++;
-					cachingUserStat.wordCountSince += sqr.getInt(3);
+				MasterDocumentStatisticsBuilder mdsb = ((MasterDocumentStatisticsBuilder) masterDocStatBuilders.get(sqr.getString(2)));
+				if (mdsb == null) {
+					mdsb = new MasterDocumentStatisticsBuilder();
+					masterDocStatBuilders.put(sqr.getString(2), mdsb);
 				}
+				mdsb.addRow(sqr.getString(0), sqr.getLong(1), sqr.getInt(3));
 			}
 			
-			//	finish overall statistics
-			cachingStats.masterDocCount = masterDocIDs.size();
-			cachingStats.masterDocCountSince = masterDocIDsSince.size();
-			
-			//	sort users and add them to cached statistics
-			ArrayList cachingUserStatList = new ArrayList(cachingUserStats.values());
-			Collections.sort(cachingUserStatList, new Comparator() {
-				public int compare(Object o1, Object o2) {
-					CacheUserStatistics userStat1 = ((CacheUserStatistics) o1);
-					CacheUserStatistics userStat2 = ((CacheUserStatistics) o2);
-					int c;
-					c = (userStat2.docCountSince - userStat1.docCountSince);
-					if (c != 0)
-						return c;
-					c = (userStat2.docCount - userStat1.docCount);
-					if (c != 0)
-						return c;
-					return userStat1.checkinUser.compareToIgnoreCase(userStat2.checkinUser);
-				}
-			});
-			for (int u = 0; u < cachingUserStatList.size(); u++)
-				cachingStats.entries.add(((CacheUserStatistics) cachingUserStatList.get(u)).getUserCollectionStatistics());
-			
-			//	cache statistics
-			synchronized (this.collectionsStatisticsCache) {
-				this.collectionsStatisticsCache.put(cacheKey, cachingStats);
+			//	count master documents
+			CollectionStatisticsCounters csc = new CollectionStatisticsCounters();
+			for (Iterator mdidit = masterDocStatBuilders.keySet().iterator(); mdidit.hasNext();) {
+				String masterDocId = ((String) mdidit.next());
+				csc.setMasterDocumentStatistics(masterDocId, ((MasterDocumentStatisticsBuilder) masterDocStatBuilders.get(masterDocId)).build());
 			}
-			
-			//	finally ...
-			return cachingStats.getCollectionStatistics(sinceString);
+			System.out.println(" - collection statistics initialized after " + (System.currentTimeMillis() - start) + "ms, " + csc.overall.docCount + " documents");
+			return csc;
 		}
 		catch (SQLException sqle) {
-			this.logError("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading top 10 user statistics.");
+			this.logError("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while initializing collection statistics.");
 			this.logError("  Query was " + statQuery);
 			return null;
 		}
@@ -2093,48 +2313,295 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
-	private LinkedHashMap collectionsStatisticsCache = new LinkedHashMap(16, 0.9f, true) {
-		protected boolean removeEldestEntry(Entry eldest) {
-			return (this.size() > 64);
+	private void storeCollectionStatisticsCheckpoint() {
+		
+		//	get current per master document statistics (they are immutable, so we only need to copy the references)
+		String[] masterDocIds;
+		MasterDocumentStatistics[] masterDocStats;
+		int modCount;
+		long time;
+		synchronized (this.collectionStatisticsLock) {
+			if (this.collectionStatistics == null)
+				return; // not initialized (yet)
+			modCount = this.collectionStatistics.modCount;
+			if (modCount == this.collectionStatisticsCheckpointModCount)
+				return; // nothing changed since last checkpoint
+			masterDocIds = ((String[]) this.collectionStatistics.masterDocStats.keySet().toArray(new String[this.collectionStatistics.masterDocStats.size()]));
+			masterDocStats = new MasterDocumentStatistics[masterDocIds.length];
+			for (int m = 0; m < masterDocIds.length; m++)
+				masterDocStats[m] = ((MasterDocumentStatistics) this.collectionStatistics.masterDocStats.get(masterDocIds[m]));
+			time = System.currentTimeMillis();
+		}
+		
+		//	write checkpoint to temporary file
+		File checkpointFile = new File(this.dataPath, COLLECTION_STATISTICS_CHECKPOINT_FILE_NAME);
+		File tempCheckpointFile = new File(this.dataPath, (COLLECTION_STATISTICS_CHECKPOINT_FILE_NAME + ".temp"));
+		long start = System.currentTimeMillis();
+		try {
+			CRC32 checksum = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempCheckpointFile), (1024 * 64)), checksum));
+			try {
+				out.writeInt(COLLECTION_STATISTICS_CHECKPOINT_MAGIC);
+				out.writeInt(COLLECTION_STATISTICS_CHECKPOINT_VERSION);
+				out.writeLong(time);
+				out.writeInt(masterDocIds.length);
+				for (int m = 0; m < masterDocIds.length; m++) {
+					out.writeUTF(masterDocIds[m]);
+					out.writeInt(masterDocStats[m].size());
+					for (int r = 0; r < masterDocStats[m].size(); r++) {
+						out.writeUTF(masterDocStats[m].checkinUsers[r]);
+						out.writeLong(masterDocStats[m].checkinTimes[r]);
+						out.writeInt(masterDocStats[m].docSizes[r]);
+					}
+				}
+				out.flush();
+				out.writeLong(checksum.getValue());
+				out.flush();
+			}
+			finally {
+				out.close();
+			}
+			
+			//	replace existing checkpoint
+			if (checkpointFile.exists() && !checkpointFile.delete())
+				throw new IOException("Could not replace collection statistics checkpoint");
+			if (!tempCheckpointFile.renameTo(checkpointFile))
+				throw new IOException("Could not activate collection statistics checkpoint");
+			this.collectionStatisticsCheckpointModCount = modCount;
+			this.logInfo("GoldenGateSRS: collection statistics checkpoint stored in " + (System.currentTimeMillis() - start) + "ms, " + masterDocIds.length + " master documents");
 		}
-	};
+		catch (IOException ioe) {
+			this.logError("GoldenGateSRS: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing collection statistics checkpoint.");
+			this.logError(ioe);
+			tempCheckpointFile.delete();
+		}
+	}
 	
-	private static abstract class CacheStatisticsElement {
-		int docCount = 0;
-		int wordCount = 0;
-		int docCountSince = 0;
-		int wordCountSince = 0;
+	private CollectionStatisticsCounters loadCollectionStatistics() {
+		File checkpointFile = new File(this.dataPath, COLLECTION_STATISTICS_CHECKPOINT_FILE_NAME);
+		if (!checkpointFile.exists())
+			return null;
+		
+		System.out.println("GoldenGateSRS: loading collection statistics from checkpoint.");
+		long start = System.currentTimeMillis();
+		CollectionStatisticsCounters csc = new CollectionStatisticsCounters();
+		long checkpointTime;
+		
+		//	read checkpoint file and verify checksum
+		DataInputStream in = null;
+		try {
+			CRC32 checksum = new CRC32();
+			in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), (1024 * 64)), checksum));
+			if (in.readInt() != COLLECTION_STATISTICS_CHECKPOINT_MAGIC)
+				throw new IOException("Invalid checkpoint file");
+			int version = in.readInt();
+			if (version != COLLECTION_STATISTICS_CHECKPOINT_VERSION)
+				throw new IOException("Unsupported checkpoint version " + version);
+			checkpointTime = in.readLong();
+			int masterDocCount = in.readInt();
+			for (int m = 0; m < masterDocCount; m++) {
+				String masterDocId = in.readUTF();
+				int rows = in.readInt();
+				MasterDocumentStatisticsBuilder mdsb = new MasterDocumentStatisticsBuilder();
+				for (int r = 0; r < rows; r++)
+					mdsb.addRow(in.readUTF(), in.readLong(), in.readInt());
+				csc.setMasterDocumentStatistics(masterDocId, mdsb.build());
+			}
+			long computedChecksum = checksum.getValue();
+			if (in.readLong() != computedChecksum)
+				throw new IOException("Checkpoint checksum mismatch");
+			if (in.read() != -1)
+				throw new IOException("Checkpoint size mismatch");
+			System.out.println(" - checkpoint of " + masterDocCount + " master documents loaded after " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch (Exception e) {
+			System.out.println("GoldenGateSRS: " + e.getClass().getName() + " (" + e.getMessage() + ") while loading collection statistics checkpoint, rebuilding.");
+			return null;
+		}
+		finally {
+			if (in != null) try {
+				in.close();
+			} catch (IOException ioe) {}
+		}
+		
+		//	replay master documents modified since checkpoint was taken
+		HashSet modifiedMasterDocIds = new HashSet();
+		String deltaQuery = "SELECT DISTINCT " + MASTER_DOCUMENT_ID_ATTRIBUTE +
+				" FROM " + DOCUMENT_TABLE_NAME +
+				" WHERE " + UPDATE_TIME_ATTRIBUTE + " >= " + (checkpointTime - COLLECTION_STATISTICS_DELTA_TIME_MARGIN) +
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(deltaQuery, true);
+			while (sqr.next())
+				modifiedMasterDocIds.add(sqr.getString(0));
+		}
+		catch (SQLException sqle) {
+			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading collection statistics changes, rebuilding.");
+			System.out.println("  Query was " + deltaQuery);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		if (modifiedMasterDocIds.size() > COLLECTION_STATISTICS_DELTA_MAX_MASTER_DOCS) {
+			System.out.println(" - " + modifiedMasterDocIds.size() + " master documents modified since checkpoint, rebuilding.");
+			return null;
+		}
+		for (Iterator mdidit = modifiedMasterDocIds.iterator(); mdidit.hasNext();) {
+			String masterDocId = ((String) mdidit.next());
+			MasterDocumentStatistics mds = this.loadMasterDocumentStatistics(masterDocId);
+			if (mds == null)
+				return null;
+			csc.setMasterDocumentStatistics(masterDocId, mds);
+		}
+		
+		//	remove master documents deleted since checkpoint was taken (they have no rows left to show up above)
+		int deletedMasterDocCount = 0;
+		MasterDocumentIdMapper mdim = this.getMasterDocumentIdMapper();
+		if (mdim != null) {
+			String[] masterDocIds = ((String[]) csc.masterDocStats.keySet().toArray(new String[csc.masterDocStats.size()]));
+			for (int m = 0; m < masterDocIds.length; m++)
+				if (mdim.getDocumentCount(masterDocIds[m]) == -1) {
+					csc.setMasterDocumentStatistics(masterDocIds[m], MasterDocumentStatistics.EMPTY);
+					deletedMasterDocCount++;
+				}
+		}
+		System.out.println(" - " + modifiedMasterDocIds.size() + " modified and " + deletedMasterDocCount + " deleted master documents replayed after " + (System.currentTimeMillis() - start) + "ms");
+		
+		//	check document count (catches changes we cannot see in update timestamps)
+		String countQuery = "SELECT count(*)" +
+				" FROM " + DOCUMENT_TABLE_NAME +
+				";";
+		sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(countQuery, true);
+			int docCount = (sqr.next() ? sqr.getInt(0) : -1);
+			if (docCount != csc.overall.docCount) {
+				System.out.println(" - document count mismatch (" + docCount + " in database, " + csc.overall.docCount + " in checkpoint), rebuilding.");
+				return null;
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking document count, rebuilding.");
+			System.out.println("  Query was " + countQuery);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	we're good
+		System.out.println(" - collection statistics loaded from checkpoint after " + (System.currentTimeMillis() - start) + "ms");
+		return csc;
 	}
 	
-	private static class CacheUserStatistics extends CacheStatisticsElement {
-		String checkinUser;
-		HashSet masterDocIDs = new HashSet();
-		HashSet masterDocIDsSince = new HashSet();
-		CacheUserStatistics(String checkinUser) {
-			this.checkinUser = checkinUser;
+	private static class MasterDocumentStatistics {
+		static final MasterDocumentStatistics EMPTY = new MasterDocumentStatistics(new String[0], new long[0], new int[0]);
+		final String[] checkinUsers;
+		final long[] checkinTimes;
+		final int[] docSizes;
+		MasterDocumentStatistics(String[] checkinUsers, long[] checkinTimes, int[] docSizes) {
+			this.checkinUsers = checkinUsers;
+			this.checkinTimes = checkinTimes;
+			this.docSizes = docSizes;
 		}
-		SrsSearchResultElement getUserCollectionStatistics() {
-			SrsSearchResultElement ssre = new SrsSearchResultElement();
-			ssre.setAttribute(CHECKIN_USER_ATTRIBUTE, this.checkinUser);
-			ssre.setAttribute(MASTER_DOCUMENT_COUNT_ATTRIBUTE, ("" + this.masterDocIDs.size()));
-			ssre.setAttribute(DOCUMENT_COUNT_ATTRIBUTE, ("" + this.docCount));
-			ssre.setAttribute(WORD_COUNT_ATTRIBUTE, ("" + this.wordCount));
-			ssre.setAttribute(MASTER_DOCUMENT_COUNT_SINCE_ATTRIBUTE, ("" + this.masterDocIDsSince.size()));
-			ssre.setAttribute(DOCUMENT_COUNT_SINCE_ATTRIBUTE, ("" + this.docCountSince));
-			ssre.setAttribute(WORD_COUNT_SINCE_ATTRIBUTE, ("" + this.wordCountSince));
-			return ssre;
+		int size() {
+			return this.checkinUsers.length;
+		}
+	}
+	
+	private static class MasterDocumentStatisticsBuilder {
+		private ArrayList checkinUsers = new ArrayList(2);
+		private ArrayList checkinTimes = new ArrayList(2);
+		private ArrayList docSizes = new ArrayList(2);
+		void addRow(String checkinUser, long checkinTime, int docSize) {
+			this.checkinUsers.add((checkinUser == null) ? "" : checkinUser);
+			this.checkinTimes.add(new Long(checkinTime));
+			this.docSizes.add(new Integer(docSize));
+		}
+		MasterDocumentStatistics build() {
+			if (this.checkinUsers.isEmpty())
+				return MasterDocumentStatistics.EMPTY;
+			String[] checkinUsers = ((String[]) this.checkinUsers.toArray(new String[this.checkinUsers.size()]));
+			long[] checkinTimes = new long[checkinUsers.length];
+			int[] docSizes = new int[checkinUsers.length];
+			for (int r = 0; r < checkinUsers.length; r++) {
+				checkinTimes[r] = ((Long) this.checkinTimes.get(r)).longValue();
+				docSizes[r] = ((Integer) this.docSizes.get(r)).intValue();
+			}
+			return new MasterDocumentStatistics(checkinUsers, checkinTimes, docSizes);
 		}
 	}
 	
-	private static class CacheCollectionStatistics extends CacheStatisticsElement {
+	private static class CollectionStatisticsCounters {
 		private static final String[] statisticsFieldNames = {CHECKIN_USER_ATTRIBUTE, MASTER_DOCUMENT_COUNT_ATTRIBUTE, DOCUMENT_COUNT_ATTRIBUTE, WORD_COUNT_ATTRIBUTE, GET_STATISTICS_SINCE_PARAMETER, MASTER_DOCUMENT_COUNT_SINCE_ATTRIBUTE, DOCUMENT_COUNT_SINCE_ATTRIBUTE, WORD_COUNT_SINCE_ATTRIBUTE};
-		int masterDocCount = 0;
-		int masterDocCountSince = 0;
-		final ArrayList entries = new ArrayList();
-		CacheCollectionStatistics() {}
-		CollectionStatistics getCollectionStatistics(String since) {
-			final Iterator entryInterator = this.entries.iterator();
-			return new CollectionStatistics(statisticsFieldNames, this.masterDocCount, this.docCount, this.wordCount, since, this.masterDocCountSince, this.docCountSince, this.wordCountSince) {
+		final HashMap masterDocStats = new HashMap();
+		final StatisticsCounters overall = new StatisticsCounters(null);
+		final HashMap userStats = new HashMap();
+		int modCount = 0;
+		void setMasterDocumentStatistics(String masterDocId, MasterDocumentStatistics mds) {
+			MasterDocumentStatistics exMds;
+			if (mds.size() == 0)
+				exMds = ((MasterDocumentStatistics) this.masterDocStats.remove(masterDocId));
+			else exMds = ((MasterDocumentStatistics) this.masterDocStats.put(masterDocId, mds));
+			if (exMds != null)
+				this.count(exMds, -1);
+			if (mds.size() != 0)
+				this.count(mds, 1);
+			this.modCount++;
+		}
+		private void count(MasterDocumentStatistics mds, int sign) {
+			this.overall.count(mds, null, sign);
+			HashSet checkinUsers = new HashSet(Arrays.asList(mds.checkinUsers));
+			for (Iterator cuit = checkinUsers.iterator(); cuit.hasNext();) {
+				String checkinUser = ((String) cuit.next());
+				StatisticsCounters userStat = ((StatisticsCounters) this.userStats.get(checkinUser));
+				if (userStat == null) {
+					userStat = new StatisticsCounters(checkinUser);
+					this.userStats.put(checkinUser, userStat);
+				}
+				userStat.count(mds, checkinUser, sign);
+				if (userStat.docCount == 0)
+					this.userStats.remove(checkinUser);
+			}
+		}
+		CollectionStatistics getCollectionStatistics(long since, String sinceString) {
+			Long sinceBucket = new Long(Math.max(0, (since / STATISTICS_TIME_BUCKET_LENGTH)));
+			
+			//	add up user counters for time window, and sort users
+			final HashMap userCountsSince = new HashMap();
+			ArrayList userStatList = new ArrayList(this.userStats.values());
+			for (int u = 0; u < userStatList.size(); u++) {
+				StatisticsCounters userStat = ((StatisticsCounters) userStatList.get(u));
+				userCountsSince.put(userStat, userStat.getCountsSince(sinceBucket));
+			}
+			Collections.sort(userStatList, new Comparator() {
+				public int compare(Object o1, Object o2) {
+					StatisticsCounters userStat1 = ((StatisticsCounters) o1);
+					StatisticsCounters userStat2 = ((StatisticsCounters) o2);
+					int c;
+					c = (((int[]) userCountsSince.get(userStat2))[1] - ((int[]) userCountsSince.get(userStat1))[1]);
+					if (c != 0)
+						return c;
+					c = (userStat2.docCount - userStat1.docCount);
+					if (c != 0)
+						return c;
+					return userStat1.checkinUser.compareToIgnoreCase(userStat2.checkinUser);
+				}
+			});
+			final ArrayList entries = new ArrayList(userStatList.size());
+			for (int u = 0; u < userStatList.size(); u++) {
+				StatisticsCounters userStat = ((StatisticsCounters) userStatList.get(u));
+				entries.add(userStat.getUserCollectionStatistics((int[]) userCountsSince.get(userStat)));
+			}
+			
+			//	wrap up
+			int[] countsSince = this.overall.getCountsSince(sinceBucket);
+			final Iterator entryInterator = entries.iterator();
+			return new CollectionStatistics(statisticsFieldNames, this.overall.masterDocCount, this.overall.docCount, this.overall.wordCount, sinceString, countsSince[0], countsSince[1], countsSince[2]) {
 				public boolean hasNextElement() {
 					return entryInterator.hasNext();
 				}
@@ -2145,6 +2612,69 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
+	private static class StatisticsCounters {
+		final String checkinUser;
+		int masterDocCount = 0;
+		int docCount = 0;
+		int wordCount = 0;
+		private final TreeMap timeBucketCounts = new TreeMap(); // checkin time bucket number to master document, document, and word count
+		StatisticsCounters(String checkinUser) {
+			this.checkinUser = checkinUser;
+		}
+		void count(MasterDocumentStatistics mds, String checkinUser, int sign) {
+			long latestBucket = Long.MIN_VALUE;
+			for (int r = 0; r < mds.size(); r++) {
+				if ((checkinUser != null) && !checkinUser.equals(mds.checkinUsers[r]))
+					continue;
+				long bucket = (mds.checkinTimes[r] / STATISTICS_TIME_BUCKET_LENGTH);
+				this.docCount += sign;
+				this.wordCount += (sign * mds.docSizes[r]);
+				this.countBucket(bucket, 0, sign, (sign * mds.docSizes[r]));
+				latestBucket = Math.max(latestBucket, bucket);
+			}
+			
+			//	count master document in bucket of its latest checkin, as it counts toward any time window including that
+			if (latestBucket == Long.MIN_VALUE)
+				return;
+			this.masterDocCount += sign;
+			this.countBucket(latestBucket, sign, 0, 0);
+		}
+		private void countBucket(long bucket, int masterDocs, int docs, int words) {
+			Long bucketKey = new Long(bucket);
+			int[] counts = ((int[]) this.timeBucketCounts.get(bucketKey));
+			if (counts == null) {
+				counts = new int[3];
+				this.timeBucketCounts.put(bucketKey, counts);
+			}
+			counts[0] += masterDocs;
+			counts[1] += docs;
+			counts[2] += words;
+			if ((counts[0] == 0) && (counts[1] == 0) && (counts[2] == 0))
+				this.timeBucketCounts.remove(bucketKey);
+		}
+		int[] getCountsSince(Long sinceBucket) {
+			int[] countsSince = new int[3];
+			for (Iterator cit = this.timeBucketCounts.tailMap(sinceBucket).values().iterator(); cit.hasNext();) {
+				int[] counts = ((int[]) cit.next());
+				countsSince[0] += counts[0];
+				countsSince[1] += counts[1];
+				countsSince[2] += counts[2];
+			}
+			return countsSince;
+		}
+		SrsSearchResultElement getUserCollectionStatistics(int[] countsSince) {
+			SrsSearchResultElement ssre = new SrsSearchResultElement();
+			ssre.setAttribute(CHECKIN_USER_ATTRIBUTE, this.checkinUser);
+			ssre.setAttribute(MASTER_DOCUMENT_COUNT_ATTRIBUTE, ("" + this.masterDocCount));
+			ssre.setAttribute(DOCUMENT_COUNT_ATTRIBUTE, ("" + this.docCount));
+			ssre.setAttribute(WORD_COUNT_ATTRIBUTE, ("" + this.wordCount));
+			ssre.setAttribute(MASTER_DOCUMENT_COUNT_SINCE_ATTRIBUTE, ("" + countsSince[0]));
+			ssre.setAttribute(DOCUMENT_COUNT_SINCE_ATTRIBUTE, ("" + countsSince[1]));
+			ssre.setAttribute(WORD_COUNT_SINCE_ATTRIBUTE, ("" + countsSince[2]));
+			return ssre;
+		}
+	}
+	
 	private String resolveDocumentId(String docId) {
 		//	TODO use lookup data structures instead
 		
@@ -2614,6 +3144,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 			synchronized (this.docIdentifierResolverLock) {
 				this.docNumberResolver = this.docNumberResolver.cloneForChanges(newDocIDs, removedDocNrs);
+				this.documentIdentifierResolversModified();
 			}
 			this.logInfo(" - document number resolver updated in " + (System.currentTimeMillis() - storageStepStart) + " ms");
 		}
@@ -2623,6 +3154,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			storageStepStart = System.currentTimeMillis();
 			synchronized (this.docIdentifierResolverLock) {
 				this.docUuidResolver = this.docUuidResolver.cloneForChanges(validDocUuidsToNrs, removedDocUuids);
+				this.documentIdentifierResolversModified();
 			}
 			this.logInfo(" - document UUID resolver updated in " + (System.currentTimeMillis() - storageStepStart) + " ms");
 		}
@@ -2643,10 +3175,18 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 			synchronized (this.docIdentifierResolverLock) {
 				this.masterDocIdMapper = this.masterDocIdMapper.cloneForChanges(masterDocId, docNrs);
+				this.documentIdentifierResolversModified();
 			}
 			this.logInfo(" - master document ID mapper updated in " + (System.currentTimeMillis() - storageStepStart) + " ms");
 		}
 		
+		//	update collection statistics
+		if ((newDocCount != 0) || (updateDocCount != 0) || (deleteDocCount != 0)) {
+			storageStepStart = System.currentTimeMillis();
+			this.updateCollectionStatistics(masterDocId);
+			this.logInfo(" - collection statistics updated in " + (System.currentTimeMillis() - storageStepStart) + " ms");
+		}
+		
 		//	enqueue 'finish master document' indexer action
 		if ((newDocCount != 0) || (updateDocCount != 0) || (deleteDocCount != 0))
 			for (int i = 0; i < this.indexers.length; i++) {
@@ -2971,13 +3511,6 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			deleteIndexData(docNr);
 		}
 		
-		//	invalidate collection statistics
-		storageStepStart = System.currentTimeMillis();
-		synchronized (this.collectionsStatisticsCache) {
-			this.collectionsStatisticsCache.clear();
-		}
-		this.logInfo("   - statistics cache cleared in " + (System.currentTimeMillis() - storageStepStart) + " ms");
-		
 		//	store document
 		storageStepStart = System.currentTimeMillis();
 		final int version = this.dst.storeDocument(doc, docId);
@@ -2997,7 +3530,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		storageStepStart = System.currentTimeMillis();
 		final IndexData indexData = getIndexData(docNr, docId);
 		for (int i = 0; i < this.indexers.length; i++) {
-			this.enqueueIndexerAction(new IndexerAction(((exDocData == null) ? IndexerAction.INDEX_NAME : IndexerAction.RE_INDEX_NAME), this.indexers[i]) {
+			this.enqueueIndexerAction(new IndexerAction(((exDocData == null) ? IndexerAction.INDEX_NAME : IndexerAction.RE_INDEX_NAME), this.indexers[i], docNr) {
 				void performAction() {
 					IndexResult ir = ((exDocData == null) ? this.indexer.index(doc, docNr) : this.indexer.reIndex(doc, docNr));
 					if ((ir == null) || !ir.hasNextElement())
@@ -3006,7 +3539,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				}
 			});
 		}
-		this.enqueueIndexerAction(new IndexerAction(IndexerAction.INDEX_NAME) {
+		this.enqueueIndexerAction(new IndexerAction(IndexerAction.INDEX_NAME, docNr) {
 			void performAction() {
 				for (int a = 0; a < IndexData.documentAttributeNames.length; a++) {
 					String value = defaultDocumentAttribute(IndexData.documentAttributeNames[a], ((String) doc.getAttribute(IndexData.documentAttributeNames[a])));
@@ -3014,7 +3547,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				}
 			}
 		});
-		this.enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME) {
+		this.enqueueIndexerAction(new IndexerAction(IndexerAction.CACHE_INDEX_NAME, docNr) {
 			void performAction() {
 				storeIndexData(indexData);
 			}
@@ -3059,7 +3592,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				
 				//	un-index document
 				for (int i = 0; i < this.indexers.length; i++)
-					this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i]) {
+					this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i], edd.docNumber) {
 						void performAction() {
 							this.indexer.deleteDocument(edd.docNumber);
 						}
@@ -3102,11 +3635,6 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 		}
 		
-		//	invalidate collection statistics
-		synchronized (this.collectionsStatisticsCache) {
-			this.collectionsStatisticsCache.clear();
-		}
-		
 		//	report
 		return masterDeleteDocCount;
 	}
@@ -3145,7 +3673,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				
 				//	remove part from indices
 				for (int i = 0; i < this.indexers.length; i++) {
-					this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i]) {
+					this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i], docNr) {
 						void performAction() {
 							this.indexer.deleteDocument(docNr);
 						}
@@ -3193,10 +3721,8 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.logError("  Query was " + query);
 		}
 		
-		//	invalidate collection statistics
-		synchronized (this.collectionsStatisticsCache) {
-			this.collectionsStatisticsCache.clear();
-		}
+		//	update collection statistics
+		this.updateCollectionStatistics(masterDocId);
 		
 		return deleteCount;
 	}
@@ -3208,55 +3734,193 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		static final String CACHE_INDEX_NAME = "CacheIndex";
 		static final String DELETE_NAME = "Delete";
 		static final String CHECK_DOCUMENT = "CheckDocument";
+		static final long NO_DOC_NR = -1;
 		final String name;
 		final Indexer indexer;
+		final long docNr;
 		long startTime;
 		IndexerAction(String name) {
-			this(name, null);
+			this(name, null, NO_DOC_NR);
+		}
+		IndexerAction(String name, long docNr) {
+			this(name, null, docNr);
 		}
 		IndexerAction(String name, Indexer indexer) {
+			this(name, indexer, NO_DOC_NR);
+		}
+		IndexerAction(String name, Indexer indexer, long docNr) {
 			this.name = name;
 			this.indexer = indexer;
+			this.docNr = docNr;
 		}
 		abstract void performAction();
 	}
 	
-	private class IndexerServiceThread extends Thread {
+	/*
+	 * Pool of threads working off the indexer action queue. Actions for the
+	 * same document number are executed in the order they were enqueued in,
+	 * as are the actions for the same indexer, which both keeps the order of
+	 * the indexing steps for each individual document, and frees indexers
+	 * from having to be thread safe. This also makes 'finish' actions work
+	 * as barriers, as they run only after all preceding actions for their
+	 * indexer. Actions bound to neither a document nor an indexer run in
+	 * isolation, i.e., only after all preceding actions are finished, and
+	 * before any subsequent ones start.
+	 */
+	private class IndexerService {
+		private IndexerServiceThread[] threads;
+		private HashSet runningDocNrs = new HashSet();
+		private HashSet runningIndexers = new HashSet();
+		private int runningCount = 0;
+		private int startedCount = 0;
 		private boolean keepRunning = true;
-		public void run() {
-			
-			//	complete handshake with creator thread
+		IndexerService(int threadCount) {
+			this.threads = new IndexerServiceThread[Math.max(1, threadCount)];
+		}
+		
+		void start() {
 			synchronized (indexerActionQueue) {
-				indexerActionQueue.notify();
-			}
-			
-			//	run until shutdown() is called
-			while (this.keepRunning) {
+				for (int t = 0; t < this.threads.length; t++) {
+					this.threads[t] = new IndexerServiceThread(this, ("SrsIndexerService" + t));
+					this.threads[t].start();
+				}
 				
-				//	check if indexer action waiting
-				IndexerAction indexerAction;
-				synchronized (indexerActionQueue) {
+				//	wait for all threads to come up (idle workers wait on the same monitor, so we need to count rather than rely on a single notification)
+				while (this.startedCount < this.threads.length) try {
+					indexerActionQueue.wait();
+				} catch (InterruptedException ie) {}
+			}
+		}
+		
+		void threadStarted() {
+			synchronized (indexerActionQueue) {
+				this.startedCount++;
+				indexerActionQueue.notifyAll();
+			}
+		}
+		
+		IndexerAction getNextAction() {
+			synchronized (indexerActionQueue) {
+				while (true) {
 					if (indexerActionQueue.isEmpty()) {
-						try {
-							indexerActionQueue.wait();
-						} catch (InterruptedException ie) {}
+						if (!this.keepRunning)
+							return null; // shutting down, and nothing left to do
+					}
+					else {
+						IndexerAction ia = this.removeNextExecutableAction();
+						if (ia != null) {
+							this.actionStarting(ia);
+							return ia;
+						}
 					}
-					if (indexerActionQueue.isEmpty())
-						return; // woken up despite empty queue ==> shutdown
-					else indexerAction = ((IndexerAction) indexerActionQueue.removeFirst());
+					try {
+						indexerActionQueue.wait();
+					} catch (InterruptedException ie) {}
 				}
+			}
+		}
+		
+		private IndexerAction removeNextExecutableAction() {
+			if (this.runningDocNrs.contains(ALL_RUNNING))
+				return null; // isolated action running
+			
+			//	find first action whose document and indexer are not busy with a running or preceding pending action
+			HashSet blockedDocNrs = new HashSet(this.runningDocNrs);
+			HashSet blockedIndexers = new HashSet(this.runningIndexers);
+			int checked = 0;
+			for (Iterator iait = indexerActionQueue.iterator(); iait.hasNext() && (checked < MAX_INDEXER_ACTION_LOOKAHEAD); checked++) {
+				IndexerAction ia = ((IndexerAction) iait.next());
+				Long docNr = ((ia.docNr == IndexerAction.NO_DOC_NR) ? null : new Long(ia.docNr));
 				
-				//	execute index action
-				this.performIndexerAction(indexerAction);
+				//	isolated action, only executable if nothing is running or waiting before it
+				if ((docNr == null) && (ia.indexer == null)) {
+					if ((checked == 0) && (this.runningCount == 0)) {
+						iait.remove();
+						return ia;
+					}
+					return null;
+				}
 				
-				//	give a little time to the others
-				if (this.keepRunning)
-					Thread.yield();
+				//	check for conflicts, and block document and indexer for subsequent actions
+				boolean executable = (((docNr == null) || !blockedDocNrs.contains(docNr)) && ((ia.indexer == null) || !blockedIndexers.contains(ia.indexer)));
+				if (executable) {
+					iait.remove();
+					return ia;
+				}
+				if (docNr != null)
+					blockedDocNrs.add(docNr);
+				if (ia.indexer != null)
+					blockedIndexers.add(ia.indexer);
+			}
+			return null;
+		}
+		
+		private void actionStarting(IndexerAction ia) {
+			if ((ia.docNr == IndexerAction.NO_DOC_NR) && (ia.indexer == null))
+				this.runningDocNrs.add(ALL_RUNNING);
+			if (ia.docNr != IndexerAction.NO_DOC_NR)
+				this.runningDocNrs.add(new Long(ia.docNr));
+			if (ia.indexer != null)
+				this.runningIndexers.add(ia.indexer);
+			this.runningCount++;
+		}
+		
+		void actionFinished(IndexerAction ia) {
+			synchronized (indexerActionQueue) {
+				if ((ia.docNr == IndexerAction.NO_DOC_NR) && (ia.indexer == null))
+					this.runningDocNrs.remove(ALL_RUNNING);
+				if (ia.docNr != IndexerAction.NO_DOC_NR)
+					this.runningDocNrs.remove(new Long(ia.docNr));
+				if (ia.indexer != null)
+					this.runningIndexers.remove(ia.indexer);
+				this.runningCount--;
+				indexerActionQueue.notifyAll(); // might have unblocked more than one action
+			}
+		}
+		
+		int getThreadCount() {
+			return this.threads.length;
+		}
+		
+		int getRunningCount() {
+			synchronized (indexerActionQueue) {
+				return this.runningCount;
+			}
+		}
+		
+		void shutdown() {
+			synchronized (indexerActionQueue) {
+				this.keepRunning = false;
+				indexerActionQueue.notifyAll();
 			}
+			for (int t = 0; t < this.threads.length; t++) try {
+				this.threads[t].join();
+			} catch (InterruptedException ie) {}
+		}
+	}
+	private static final Object ALL_RUNNING = "ALL";
+	private static final int MAX_INDEXER_ACTION_LOOKAHEAD = 1024;
+	
+	private class IndexerServiceThread extends Thread {
+		private IndexerService service;
+		IndexerServiceThread(IndexerService service, String name) {
+			super(name);
+			this.service = service;
+		}
+		public void run() {
 			
-			//	work off remaining index actions
-			while (indexerActionQueue.size() != 0)
-				this.performIndexerAction(((IndexerAction) indexerActionQueue.removeFirst()));
+			//	complete handshake with creator thread
+			this.service.threadStarted();
+			
+			//	run until shutdown() is called and queue is empty
+			for (IndexerAction indexerAction; (indexerAction = this.service.getNextAction()) != null;) {
+				try {
+					this.performIndexerAction(indexerAction);
+				}
+				finally {
+					this.service.actionFinished(indexerAction);
+				}
+			}
 		}
 		
 		private void performIndexerAction(IndexerAction ia) {
@@ -3272,53 +3936,60 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				indexerActionFinished(ia);
 			}
 		}
-		
-		void shutdown() {
-			synchronized (indexerActionQueue) {
-				this.keepRunning = false;
-				indexerActionQueue.notify();
-			}
-			try {
-				this.join();
-			} catch (InterruptedException ie) {}
-		}
 	}
 	
 	LinkedList indexerActionQueue = new LinkedList();
 	Map indexerActionStats = Collections.synchronizedMap(new TreeMap());
+	Map indexerStats = Collections.synchronizedMap(new TreeMap());
 	IndexerActionStats allIndexerActionStats = new IndexerActionStats(null);
 	void enqueueIndexerAction(IndexerAction ia) {
 		IndexerActionStats ias;
+		IndexerActionStats iis;
 		synchronized (this.indexerActionQueue) {
 			this.indexerActionQueue.addLast(ia);
-			this.indexerActionQueue.notify();
-			ias = ((IndexerActionStats) this.indexerActionStats.get(ia.name));
-			if (ias == null) {
-				ias = new IndexerActionStats(ia.name);
-				this.indexerActionStats.put(ia.name, ias);
-			}
+			this.indexerActionQueue.notifyAll(); // creator thread might be waiting on queue as well during start()
+			ias = this.getIndexerActionStats(this.indexerActionStats, ia.name, true);
+			iis = ((ia.indexer == null) ? null : this.getIndexerActionStats(this.indexerStats, ia.indexer.getIndexName(), true));
 		}
 		ias.actionEnqueued(); // need to do this here, as it synchronizes on the stats object
+		if (iis != null)
+			iis.actionEnqueued();
 		this.allIndexerActionStats.actionEnqueued();
 	}
+	private IndexerActionStats getIndexerActionStats(Map statsMap, String name, boolean create) {
+		IndexerActionStats ias = ((IndexerActionStats) statsMap.get(name));
+		if ((ias == null) && create) {
+			ias = new IndexerActionStats(name);
+			statsMap.put(name, ias);
+		}
+		return ias;
+	}
 	void indexerActionStarted(IndexerAction ia) {
 		IndexerActionStats ias;
+		IndexerActionStats iis;
 		synchronized (this.indexerActionQueue) {
-			ias = ((IndexerActionStats) this.indexerActionStats.get(ia.name));
+			ias = this.getIndexerActionStats(this.indexerActionStats, ia.name, false);
+			iis = ((ia.indexer == null) ? null : this.getIndexerActionStats(this.indexerStats, ia.indexer.getIndexName(), false));
 		}
 		if (ias != null)
 			ias.actionStarted(); // need to do this here, as it synchronizes on the stats object
+		if (iis != null)
+			iis.actionStarted();
 		this.allIndexerActionStats.actionStarted();
 		ia.startTime = System.currentTimeMillis();
 	}
 	void indexerActionFinished(IndexerAction ia) {
 		IndexerActionStats ias;
+		IndexerActionStats iis;
 		synchronized (this.indexerActionQueue) {
-			ias = ((IndexerActionStats) this.indexerActionStats.get(ia.name));
+			ias = this.getIndexerActionStats(this.indexerActionStats, ia.name, false);
+			iis = ((ia.indexer == null) ? null : this.getIndexerActionStats(this.indexerStats, ia.indexer.getIndexName(), false));
 		}
 		int iaExecTime = ((int) (System.currentTimeMillis() - ia.startTime));
 		if (ias != null)
 			ias.actionFinished(iaExecTime); // need to do this here, as it synchronizes on the stats object
+		if (iis != null)
+			iis.actionFinished(iaExecTime);
 		this.allIndexerActionStats.actionFinished(iaExecTime);
 	}
 	private static class IndexerActionStats {
@@ -3328,6 +3999,9 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		long execTimeSum = 0;
 		int minExecTime = Integer.MAX_VALUE;
 		int maxExecTime = 0;
+		long rateWindowStart = System.currentTimeMillis();
+		int rateWindowExecCount = 0;
+		int execsPerMinute = -1;
 		IndexerActionStats(String name) {
 			this.name = name;
 		}
@@ -3342,9 +4016,18 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.execTimeSum += execTime;
 			this.minExecTime = Math.min(this.minExecTime, execTime);
 			this.maxExecTime = Math.max(this.maxExecTime, execTime);
+			
+			//	update throughput (measured over windows of at least a minute)
+			this.rateWindowExecCount++;
+			long time = System.currentTimeMillis();
+			if ((time - this.rateWindowStart) >= (1000 * 60)) {
+				this.execsPerMinute = ((int) ((this.rateWindowExecCount * 1000L * 60) / (time - this.rateWindowStart)));
+				this.rateWindowStart = time;
+				this.rateWindowExecCount = 0;
+			}
 		}
-		public String toString() {
-			return (((this.name == null) ? "" : (this.name + ": " )) + this.pendingCount + " pending, " + this.execCount + " executed" + ((this.execCount == 0) ? "" : (" (" + (this.execTimeSum / this.execCount) + "ms on average [" + this.minExecTime + "," + this.maxExecTime + "])")));
+		public synchronized String toString() {
+			return (((this.name == null) ? "" : (this.name + ": " )) + this.pendingCount + " pending, " + this.execCount + " executed" + ((this.execCount == 0) ? "" : (" (" + (this.execTimeSum / this.execCount) + "ms on average [" + this.minExecTime + "," + this.maxExecTime + "])")) + ((this.execsPerMinute < 0) ? "" : (", " + this.execsPerMinute + "/min")));
 		}
 	}
 	
@@ -3354,12 +4037,39 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	}
 	
 	IndexData getIndexData(long docNr, String docId) {
+		
+		//	check memory cache first
+		IndexDataCache indexDataCache = this.indexDataCache;
+		long indexDataCacheStamp = 0;
+		if (indexDataCache != null) {
+			byte[] idBytes = indexDataCache.get(docNr);
+			if (idBytes != null) try {
+				return decodeIndexData(idBytes);
+			}
+			catch (IOException ioe) {
+				this.logError("Error decoding memory cached index data for document " + docNr + ": " + ioe.getMessage());
+				this.logError(ioe);
+				indexDataCache.remove(docNr);
+			}
+			indexDataCacheStamp = indexDataCache.getInvalidationCount();
+		}
+		
 		String idId = getIndexDataId(docNr);
 		DataObjectInputStream idIn = null;
 		try {
 			idIn = this.indexDataStore.getInputStream(idId);
 			long idLoadStart = System.currentTimeMillis();
-			IndexData id = this.readIndexData(new BufferedReader(new InputStreamReader(idIn, "UTF-8")));
+			
+			//	read binary or XML data, depending on what we find
+			BufferedInputStream idBis = new BufferedInputStream(idIn);
+			byte[] idBytes = null;
+			IndexData id;
+			if (isBinaryIndexData(idBis)) {
+				idBytes = readBinaryIndexData(idBis, idIn.getDataObjectSize());
+				id = decodeIndexData(idBytes);
+			}
+			else id = this.readIndexData(new BufferedReader(new InputStreamReader(idBis, "UTF-8")));
+			
 			long idLoadTime = (System.currentTimeMillis() - idLoadStart);
 			if (idLoadTime > 800)
 				this.logWarning("Cached index data loaded SLOW (in " + idLoadTime + "ms) for document " + docNr + " (" + idId + "), " + idIn.getDataObjectSize() + " bytes at " + (idIn.getDataObjectSize() / idLoadTime) + " bytes/ms");
@@ -3373,6 +4083,15 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				this.logWarning("Cached index data loaded slow (in " + idLoadTime + "ms) for document " + docNr + " (" + idId + "), " + idIn.getDataObjectSize() + " bytes at " + (idIn.getDataObjectSize() / idLoadTime) + " bytes/ms");
 			if ((docId == null) /* only if not loading for update ... */ && this.checkIndexDataDocAttributes(id, id.docId))
 				return this.getIndexData(docNr, docId); // need to reload from disk, as storing reads through contained index results
+			
+			//	put binary data in memory cache (encoding reads through contained index results, so we decode a fresh copy)
+			if (indexDataCache != null) {
+				if (idBytes == null) {
+					idBytes = encodeIndexData(id);
+					id = decodeIndexData(idBytes);
+				}
+				indexDataCache.put(docNr, idBytes, indexDataCacheStamp);
+			}
 			return id;
 		}
 		catch (DataObjectNotFoundException donf) {
@@ -3539,24 +4258,316 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	}
 	
 	void storeIndexData(IndexData indexData) {
+		this.storeIndexData(indexData, this.useBinaryIndexData);
+	}
+	
+	private void storeIndexData(IndexData indexData, boolean binary) {
 		String idId = getIndexDataId(indexData.docNr);
-		BufferedWriter idBw = null;
+		
+		//	store as XML if configured (or asked) that way
+		if (!binary) {
+			BufferedWriter idBw = null;
+			try {
+				idBw = new BufferedWriter(new OutputStreamWriter(this.indexDataStore.getOutputStream(idId), "UTF-8"));
+				this.writeIndexData(indexData, idBw);
+				idBw.flush();
+			}
+			catch (IOException ioe) {
+				this.logError("Error caching index data for document " + indexData.docNr + " (" + idId + "): " + ioe.getMessage());
+				this.logError(ioe);
+			}
+			finally {
+				if (idBw != null) try {
+					idBw.close();
+				} catch (IOException ioe) {}
+			}
+			
+			//	invalidate memory cache only after writing, so no concurrent read re-caches the old data
+			if (this.indexDataCache != null)
+				this.indexDataCache.remove(indexData.docNr);
+			return;
+		}
+		
+		//	store binary data, and put it in memory cache right away
+		OutputStream idOut = null;
 		try {
-			idBw = new BufferedWriter(new OutputStreamWriter(this.indexDataStore.getOutputStream(idId), "UTF-8"));
-			this.writeIndexData(indexData, idBw);
-			idBw.flush();
+			byte[] idBytes = encodeIndexData(indexData);
+			idOut = this.indexDataStore.getOutputStream(idId);
+			idOut.write(idBytes);
+			idOut.flush();
+			idOut.close();
+			idOut = null;
+			if (this.indexDataCache != null)
+				this.indexDataCache.update(indexData.docNr, idBytes);
 		}
 		catch (IOException ioe) {
+			if (this.indexDataCache != null)
+				this.indexDataCache.remove(indexData.docNr);
 			this.logError("Error caching index data for document " + indexData.docNr + " (" + idId + "): " + ioe.getMessage());
 			this.logError(ioe);
 		}
 		finally {
-			if (idBw != null) try {
-				idBw.close();
+			if (idOut != null) try {
+				idOut.close();
 			} catch (IOException ioe) {}
 		}
 	}
 	
+	/*
+	 * Binary index data format (version 1):
+	 * - magic number (4 bytes) and format version (1 byte)
+	 * - document number (8 bytes) and document ID (string)
+	 * - string table: number of strings (varint), then strings, holding
+	 *   attribute names, index names and labels, result fields, and element
+	 *   types, which are referenced by their index in the table (varint)
+	 * - document attributes: count (varint), then name ID and value string
+	 * - sub results: count (varint), then for each index name ID, label ID,
+	 *   field count and IDs, and the length of the element block (4 bytes),
+	 *   so element blocks of sub results nobody looks at can be skipped
+	 * - element block: element count (varint), then for each element type
+	 *   ID, value string, attribute count, and name ID and value string for
+	 *   each attribute
+	 * Strings are encoded as length of UTF-8 bytes (varint, 0 for null,
+	 * length + 1 otherwise) followed by the bytes.
+	 */
+	private static final int BINARY_INDEX_DATA_MAGIC = 0x00494442; // '\0IDB', can never start an XML file
+	private static final int BINARY_INDEX_DATA_VERSION = 1;
+	
+	private boolean isBinaryIndexData(long docNr) throws IOException {
+		DataObjectInputStream idIn = this.indexDataStore.getInputStream(getIndexDataId(docNr));
+		try {
+			return isBinaryIndexData(new BufferedInputStream(idIn, 16));
+		}
+		finally {
+			idIn.close();
+		}
+	}
+	
+	private static boolean isBinaryIndexData(BufferedInputStream in) throws IOException {
+		in.mark(4);
+		int magic = 0;
+		for (int b = 0; b < 4; b++) {
+			int i = in.read();
+			if (i == -1) {
+				in.reset();
+				return false;
+			}
+			magic = ((magic << 8) | i);
+		}
+		in.reset();
+		return (magic == BINARY_INDEX_DATA_MAGIC);
+	}
+	
+	private static byte[] readBinaryIndexData(InputStream in, long size) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream((size > 0) ? ((int) size) : 1024);
+		byte[] buffer = new byte[4096];
+		for (int r; (r = in.read(buffer, 0, buffer.length)) != -1;)
+			baos.write(buffer, 0, r);
+		return baos.toByteArray();
+	}
+	
+	private static byte[] encodeIndexData(IndexData indexData) throws IOException {
+		ArrayList strings = new ArrayList();
+		HashMap stringIds = new HashMap();
+		
+		//	encode document attributes and sub results first, collecting string table on the fly
+		ByteArrayOutputStream bodyBaos = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bodyBaos);
+		if (indexData.docData == null)
+			writeVarInt(body, 0);
+		else {
+			writeVarInt(body, indexData.docData.size());
+			for (Iterator anit = indexData.docData.keySet().iterator(); anit.hasNext();) {
+				String an = ((String) anit.next());
+				writeVarInt(body, getStringId(an, strings, stringIds));
+				writeString(body, indexData.docData.getProperty(an));
+			}
+		}
+		IndexResult[] subResults = indexData.getIndexResults();
+		ArrayList subResultElementLists = new ArrayList(subResults.length);
+		for (int s = 0; s < subResults.length; s++) {
+			ArrayList subResultElements = new ArrayList();
+			while (subResults[s].hasNextElement())
+				subResultElements.add(subResults[s].getNextIndexResultElement());
+			if (subResultElements.isEmpty())
+				continue; // skipped in XML reading as well
+			Collections.sort(subResultElements, subResults[s].getSortOrder()); // saves sorting on every read
+			subResultElementLists.add(subResultElements);
+		}
+		writeVarInt(body, subResultElementLists.size());
+		ByteArrayOutputStream elementBaos = new ByteArrayOutputStream();
+		DataOutputStream elements = new DataOutputStream(elementBaos);
+		for (int s = 0, l = 0; s < subResults.length; s++) {
+			if (l == subResultElementLists.size())
+				break;
+			ArrayList subResultElements = ((ArrayList) subResultElementLists.get(l));
+			writeVarInt(body, getStringId(subResults[s].indexName, strings, stringIds));
+			writeVarInt(body, getStringId(subResults[s].indexLabel, strings, stringIds));
+			writeVarInt(body, subResults[s].resultAttributes.length);
+			for (int f = 0; f < subResults[s].resultAttributes.length; f++)
+				writeVarInt(body, getStringId(subResults[s].resultAttributes[f], strings, stringIds));
+			elementBaos.reset();
+			writeVarInt(elements, subResultElements.size());
+			for (int e = 0; e < subResultElements.size(); e++) {
+				IndexResultElement ire = ((IndexResultElement) subResultElements.get(e));
+				writeVarInt(elements, getStringId(ire.getType(), strings, stringIds));
+				writeString(elements, ire.getValue());
+				String[] ans = ire.getAttributeNames();
+				int ac = 0;
+				for (int a = 0; a < ans.length; a++) {
+					Object av = ire.getAttribute(ans[a]);
+					if ((av != null) && (av.toString().length() != 0))
+						ac++;
+				}
+				writeVarInt(elements, ac);
+				for (int a = 0; a < ans.length; a++) {
+					Object av = ire.getAttribute(ans[a]);
+					if ((av == null) || (av.toString().length() == 0))
+						continue; // skipped in XML reading as well
+					writeVarInt(elements, getStringId(ans[a], strings, stringIds));
+					writeString(elements, av.toString());
+				}
+			}
+			elements.flush();
+			body.writeInt(elementBaos.size());
+			elementBaos.writeTo(body);
+			l++;
+		}
+		body.flush();
+		
+		//	assemble data
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(bodyBaos.size() + (strings.size() * 16) + 64);
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(BINARY_INDEX_DATA_MAGIC);
+		out.writeByte(BINARY_INDEX_DATA_VERSION);
+		out.writeLong(indexData.docNr);
+		writeString(out, indexData.docId);
+		writeVarInt(out, strings.size());
+		for (int s = 0; s < strings.size(); s++)
+			writeString(out, ((String) strings.get(s)));
+		bodyBaos.writeTo(out);
+		out.flush();
+		return baos.toByteArray();
+	}
+	
+	private static int getStringId(String str, ArrayList strings, HashMap stringIds) {
+		Integer id = ((Integer) stringIds.get(str));
+		if (id == null) {
+			id = new Integer(strings.size());
+			strings.add(str);
+			stringIds.put(str, id);
+		}
+		return id.intValue();
+	}
+	
+	private static IndexData decodeIndexData(final byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readInt() != BINARY_INDEX_DATA_MAGIC)
+			throw new IOException("Invalid binary index data");
+		int version = in.readUnsignedByte();
+		if (version != BINARY_INDEX_DATA_VERSION)
+			throw new IOException("Unsupported binary index data version " + version);
+		IndexData indexData = new IndexData(in.readLong(), readString(in));
+		final String[] strings = new String[readVarInt(in)];
+		for (int s = 0; s < strings.length; s++)
+			strings[s] = readString(in);
+		int docAttributeCount = readVarInt(in);
+		for (int a = 0; a < docAttributeCount; a++) {
+			String an = strings[readVarInt(in)];
+			indexData.setDocAttribute(an, readString(in));
+		}
+		int subResultCount = readVarInt(in);
+		final long docNr = indexData.docNr;
+		for (int s = 0; s < subResultCount; s++) {
+			String indexName = strings[readVarInt(in)];
+			String indexLabel = strings[readVarInt(in)];
+			String[] fieldNames = new String[readVarInt(in)];
+			for (int f = 0; f < fieldNames.length; f++)
+				fieldNames[f] = strings[readVarInt(in)];
+			final int elementBlockLength = in.readInt();
+			final int elementBlockStart = (data.length - in.available());
+			in.skipBytes(elementBlockLength);
+			
+			//	decode elements only when sub result is actually read
+			indexData.addIndexResult(new IndexResult(fieldNames, indexName, indexLabel) {
+				private DataInputStream elementIn = null;
+				private int elementsLeft = -1;
+				public boolean hasNextElement() {
+					this.ensureOpen();
+					return (this.elementsLeft > 0);
+				}
+				public SrsSearchResultElement getNextElement() {
+					this.ensureOpen();
+					if (this.elementsLeft <= 0)
+						return null;
+					this.elementsLeft--;
+					try {
+						IndexResultElement ire = new IndexResultElement(docNr, strings[readVarInt(this.elementIn)], readString(this.elementIn));
+						int attributeCount = readVarInt(this.elementIn);
+						for (int a = 0; a < attributeCount; a++) {
+							String an = strings[readVarInt(this.elementIn)];
+							ire.setAttribute(an, readString(this.elementIn));
+						}
+						return ire;
+					}
+					catch (IOException ioe) {
+						this.elementsLeft = 0;
+						throw new RuntimeException(ioe); // never gonna happen with byte array, unless data is corrupted
+					}
+				}
+				private void ensureOpen() {
+					if (this.elementIn != null)
+						return;
+					this.elementIn = new DataInputStream(new ByteArrayInputStream(data, elementBlockStart, elementBlockLength));
+					try {
+						this.elementsLeft = readVarInt(this.elementIn);
+					}
+					catch (IOException ioe) {
+						this.elementsLeft = 0;
+					}
+				}
+			});
+		}
+		return indexData;
+	}
+	
+	private static void writeVarInt(DataOutputStream out, int i) throws IOException {
+		while ((i & ~0x7F) != 0) {
+			out.writeByte((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		out.writeByte(i);
+	}
+	
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int i = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			i |= ((b & 0x7F) << shift);
+			if ((b & 0x80) == 0)
+				return i;
+		}
+	}
+	
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = str.getBytes("UTF-8");
+		writeVarInt(out, (bytes.length + 1));
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length == 0)
+			return null;
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
 	private void writeIndexData(IndexData indexData, BufferedWriter out) throws IOException {
 		out.write("<" + DocumentRoot.DOCUMENT_TYPE + 
 				" " + IndexResultElement.DOCUMENT_NUMBER_ATTRIBUTE + "=\"" + indexData.docNr + "\"" +
@@ -3611,6 +4622,10 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.logError("Error deleting cached index data for document " + docNr + " (" + idId + "): " + ioe.getMessage());
 			this.logError(ioe);
 		}
+		
+		//	invalidate memory cache only after deleting, so no concurrent read re-caches the old data
+		if (this.indexDataCache != null)
+			this.indexDataCache.remove(docNr);
 	}
 	
 	private static String getIndexDataId(long docNr) {
@@ -3743,6 +4758,154 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
+	private static final String INDEX_DATA_FORMAT_SETTING_NAME = "INDEX_DATA_FORMAT";
+	private static final String BINARY_INDEX_DATA_FORMAT = "binary";
+	private static final String XML_INDEX_DATA_FORMAT = "xml";
+	private boolean useBinaryIndexData = true; // reading handles both formats, this only controls writing
+	
+	private static final String INDEX_DATA_CACHE_SIZE_SETTING_NAME = "INDEX_DATA_CACHE_SIZE";
+	private static final int DEFAULT_INDEX_DATA_CACHE_SIZE = (32 * 1024); // in KB, 0 deactivates cache
+	private static final String INDEX_DATA_CACHE_DOC_NUMBERS_FILE_NAME = "IndexDataCache.docNrs.txt";
+	private IndexDataCache indexDataCache = null;
+	
+	/*
+	 * Size bounded LRU cache of index data. As IndexData objects are consumed
+	 * by reading their index results, and their result elements are modified
+	 * by indexers, the cache holds the binary encoding and hands out freshly
+	 * decoded objects, which is still a lot cheaper than reading the file,
+	 * and only decodes the sub results that are actually used. Entry weights
+	 * are the length of the binary encoding.
+	 */
+	private static class IndexDataCache {
+		private LinkedHashMap entries = new LinkedHashMap(256, 0.75f, true);
+		private long maxWeight;
+		private long weight = 0;
+		private long invalidationCount = 0;
+		private long hits = 0;
+		private long misses = 0;
+		private long evictions = 0;
+		IndexDataCache(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+		synchronized byte[] get(long docNr) {
+			byte[] data = ((byte[]) this.entries.get(new Long(docNr)));
+			if (data == null)
+				this.misses++;
+			else this.hits++;
+			return data;
+		}
+		synchronized long getInvalidationCount() {
+			return this.invalidationCount;
+		}
+		synchronized void put(long docNr, byte[] data, long invalidationCount) {
+			
+			//	index data modified or deleted while we were loading it, don't cache possibly stale data
+			if (invalidationCount != this.invalidationCount)
+				return;
+			this.doPut(docNr, data);
+		}
+		synchronized void update(long docNr, byte[] data) {
+			this.invalidationCount++;
+			this.doPut(docNr, data);
+		}
+		private void doPut(long docNr, byte[] data) {
+			
+			//	add entry, and evict least recently used ones until we're within bounds
+			byte[] oldData = ((byte[]) this.entries.put(new Long(docNr), data));
+			if (oldData != null)
+				this.weight -= oldData.length;
+			this.weight += data.length;
+			for (Iterator dit = this.entries.values().iterator(); (this.weight > this.maxWeight) && dit.hasNext();) {
+				byte[] evictData = ((byte[]) dit.next());
+				if (evictData == data)
+					break;
+				dit.remove();
+				this.weight -= evictData.length;
+				this.evictions++;
+			}
+		}
+		synchronized void remove(long docNr) {
+			byte[] data = ((byte[]) this.entries.remove(new Long(docNr)));
+			if (data != null)
+				this.weight -= data.length;
+			this.invalidationCount++;
+		}
+		synchronized long[] getDocNumbers() {
+			long[] docNrs = new long[this.entries.size()];
+			int d = 0;
+			for (Iterator dnit = this.entries.keySet().iterator(); dnit.hasNext();)
+				docNrs[d++] = ((Long) dnit.next()).longValue();
+			return docNrs; // least recently used first
+		}
+		synchronized boolean isFull() {
+			return (this.weight >= this.maxWeight);
+		}
+		synchronized void resetCounters() {
+			this.hits = 0;
+			this.misses = 0;
+			this.evictions = 0;
+		}
+		synchronized String getStatus() {
+			long lookups = (this.hits + this.misses);
+			return (this.entries.size() + " entries, " + (this.weight / 1024) + " of " + (this.maxWeight / 1024) + "KB used, " + this.hits + " hits, " + this.misses + " misses" + ((lookups == 0) ? "" : (" (" + ((this.hits * 100) / lookups) + "% hit rate)")) + ", " + this.evictions + " evictions");
+		}
+	}
+	
+	private void storeIndexDataCacheDocNumbers() {
+		long[] docNrs = this.indexDataCache.getDocNumbers();
+		File docNrFile = new File(this.dataPath, INDEX_DATA_CACHE_DOC_NUMBERS_FILE_NAME);
+		try {
+			BufferedWriter docNrBw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(docNrFile), "UTF-8"));
+			for (int d = (docNrs.length - 1); d >= 0; d--) { // most recently used first
+				docNrBw.write("" + docNrs[d]);
+				docNrBw.newLine();
+			}
+			docNrBw.flush();
+			docNrBw.close();
+		}
+		catch (IOException ioe) {
+			System.out.println("  - error storing index data cache document numbers: " + ioe.getMessage());
+			ioe.printStackTrace(System.out);
+		}
+	}
+	
+	private void warmUpIndexDataCache() {
+		final File docNrFile = new File(this.dataPath, INDEX_DATA_CACHE_DOC_NUMBERS_FILE_NAME);
+		if (!docNrFile.exists())
+			return;
+		Thread warmUpThread = new Thread("SrsIndexDataCacheWarmUp") {
+			public void run() {
+				int loaded = 0;
+				try {
+					BufferedReader docNrBr = new BufferedReader(new InputStreamReader(new FileInputStream(docNrFile), "UTF-8"));
+					for (String docNrStr; (docNrStr = docNrBr.readLine()) != null;) {
+						IndexDataCache indexDataCache = GoldenGateSRS.this.indexDataCache;
+						if ((indexDataCache == null) || indexDataCache.isFull())
+							break;
+						long docNr;
+						try {
+							docNr = Long.parseLong(docNrStr.trim());
+						}
+						catch (NumberFormatException nfe) {
+							continue;
+						}
+						if (isIndexDataCached(docNr) && (getIndexData(docNr, null) != null))
+							loaded++;
+					}
+					docNrBr.close();
+				}
+				catch (IOException ioe) {
+					logError("Error warming up index data cache: " + ioe.getMessage());
+					logError(ioe);
+				}
+				logInfo("Index data cache warmed up with " + loaded + " entries");
+			}
+		};
+		warmUpThread.setDaemon(true);
+		warmUpThread.setPriority(Thread.MIN_PRIORITY);
+		warmUpThread.start();
+	}
+	
 	private static final String[] masterDocumentListFields = {
 			DOCUMENT_ID_ATTRIBUTE,
 			MASTER_DOCUMENT_ID_ATTRIBUTE,
@@ -4136,6 +5299,15 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	private static final int DEFAULT_RESULT_MERRGE_MODE = QueryResult.USE_AVERAGE;
 	private int resultMergeMode = DEFAULT_RESULT_MERRGE_MODE;
 	
+	private static final String INDEXER_THREADS_SETTING_NAME = "INDEXER_THREADS";
+	private int indexerThreadCount = 1;
+	
+	private static final String QUERY_THREADS_SETTING_NAME = "QUERY_THREADS";
+	private static final String INDEXER_QUERY_TIMEOUT_SETTING_NAME = "INDEXER_QUERY_TIMEOUT";
+	private static final int DEFAULT_INDEXER_QUERY_TIMEOUT = 30000;
+	private int indexerQueryTimeout = DEFAULT_INDEXER_QUERY_TIMEOUT; // maximum time (in milliseconds) to wait for an individual indexer's result, 0 means no limit
+	private IndexerQueryExecutor indexerQueryExecutor = null;
+	
 	private static final String[] documentSearchResultAttributes = {
 		DOCUMENT_ID_ATTRIBUTE,
 		DOCUMENT_TYPE_ATTRIBUTE,
@@ -4922,16 +6094,15 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		fixedResultDocIDs.removeDuplicateElements(false);
 		this.logActivity("  - got " + fixedResultDocIDs.size() + " fixed IDs");
 		
-		//	process query
-		for (int i = 0; i < this.indexers.length; i++) {
-			query.setIndexNameMask(this.indexers[i].getIndexName());
-			QueryResult qr = this.indexers[i].processQuery(query);
-			if (qr != null) {
-				query.addPartialResult(qr);
-				this.logActivity("  - got " + qr.size() + " results from " + this.indexers[i].getIndexName());
+		//	process query (adding partial results in indexer order keeps merge deterministic)
+		Indexer[] indexers = this.indexers;
+		QueryResult[] indexerResults = this.processIndexerQueries(query, indexers);
+		for (int i = 0; i < indexers.length; i++) {
+			if (indexerResults[i] != null) {
+				query.addPartialResult(indexerResults[i]);
+				this.logActivity("  - got " + indexerResults[i].size() + " results from " + indexers[i].getIndexName());
 			}
-			else this.logActivity("  - got no results from " + this.indexers[i].getIndexName());
-			query.setIndexNameMask(null);
+			else this.logActivity("  - got no results from " + indexers[i].getIndexName());
 		}
 		
 		//	retrieve timestamp filters
@@ -5094,14 +6265,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			
 			//	merge retrieval results from individual indexers
 			this.logActivity("  - merging " + partialDocNrResults.size() + " partial results, mode is " + queryResultMergeMode);
-			while (partialDocNrResults.size() > 1) {
-				QueryResult qr1 = ((QueryResult) partialDocNrResults.removeFirst());
-				QueryResult qr2 = ((QueryResult) partialDocNrResults.removeFirst());
-				QueryResult mqr = QueryResult.merge(qr1, qr2, queryResultMergeMode, 0);
-				this.logActivity("  - got " + mqr.size() + " document numbers in merge result");
-				partialDocNrResults.addLast(mqr);
-			}
-			QueryResult result = ((QueryResult) partialDocNrResults.removeFirst());
+			QueryResult result = QueryResult.merge(((QueryResult[]) partialDocNrResults.toArray(new QueryResult[partialDocNrResults.size()])), queryResultMergeMode, 0);
 			this.logActivity("  - got " + result.size() + " document numbers in final merge result");
 			
 			//	apply user and timestamp filter if given
@@ -5125,52 +6289,218 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
-	private QueryResult doRelevanceElimination(QueryResult baseResult, double minRelevance, int resultPivotIndex) {
-		if (baseResult.size() == 0)
-			return baseResult;
-		
-		baseResult.sortByRelevance(true);
-		if (resultPivotIndex <= 0)
-			resultPivotIndex = baseResult.size();
+	private QueryResult[] processIndexerQueries(Query query, Indexer[] indexers) throws IOException {
+		QueryResult[] indexerResults = new QueryResult[indexers.length];
 		
-		HashSet resultDocNumbers = new HashSet();
-		QueryResult reducedResult = new QueryResult();
-		double lastRelevance = 1;
-		for (int r = 0; r < baseResult.size(); r++) {
-			QueryResultElement qre = baseResult.getResult(r);
-			
-			//	no more QREs with sufficiently high relevance to expect, we're done here
-			if (qre.relevance < minRelevance)
-				break;
-			
-			//	we're beyond the pivot QRE, and current QRE is less relevant than latter, we're done here
-			if ((resultPivotIndex <= reducedResult.size()) && (qre.relevance < lastRelevance))
-				break;
-			
-			//	we're beyond 100 and beyond thrice the pivot index, this is enough
-			if ((100 <= reducedResult.size()) && ((resultPivotIndex * 3) <= reducedResult.size()))
-				break;
-			
-			//	avoid duplicates
-			if (resultDocNumbers.add(new Long(qre.docNr))) {
-				
-				//	store result element
-				reducedResult.addResultElement(qre);
-				
-				//	remember last relevance for delaying cutoff
-				lastRelevance = qre.relevance;
+		//	no executor, query indexers one by one (we cannot interrupt an indexer, but we fail the query the same way on timeout)
+		IndexerQueryExecutor indexerQueryExecutor = this.indexerQueryExecutor;
+		if (indexerQueryExecutor == null) {
+			long deadline = ((this.indexerQueryTimeout < 1) ? Long.MAX_VALUE : (System.currentTimeMillis() + this.indexerQueryTimeout));
+			for (int i = 0; i < indexers.length; i++) {
+				indexerResults[i] = indexers[i].processQuery(query.getIndexView(indexers[i].getIndexName()));
+				if (deadline < System.currentTimeMillis())
+					throw this.indexerQueryTimedOut(indexers[i]);
 			}
+			return indexerResults;
 		}
 		
-		//	return remaining documents
-		return reducedResult;
+		//	hand indexer queries to executor
+		IndexerQueryTask[] indexerQueryTasks = new IndexerQueryTask[indexers.length];
+		for (int i = 0; i < indexers.length; i++) {
+			indexerQueryTasks[i] = new IndexerQueryTask(indexers[i], query.getIndexView(indexers[i].getIndexName()));
+			indexerQueryExecutor.execute(indexerQueryTasks[i]);
+		}
+		
+		//	collect results, failing the whole query if any indexer fails or exceeds its timeout (dropping its restriction would widen the result)
+		try {
+			for (int i = 0; i < indexers.length; i++) {
+				if (!indexerQueryTasks[i].waitForResult(this.indexerQueryTimeout))
+					throw this.indexerQueryTimedOut(indexers[i]);
+				if (indexerQueryTasks[i].error == null) {
+					indexerResults[i] = indexerQueryTasks[i].result;
+					continue;
+				}
+				Throwable error = indexerQueryTasks[i].error;
+				this.logError("GoldenGateSRS: " + error.getClass().getName() + " (" + error.getMessage() + ") while processing query in " + indexers[i].getIndexName());
+				this.logError(error);
+				if (error instanceof RuntimeException)
+					throw ((RuntimeException) error);
+				else if (error instanceof Error)
+					throw ((Error) error);
+				else throw new IOException("Could not process query in " + indexers[i].getIndexName() + ": " + error.getMessage());
+			}
+			return indexerResults;
+		}
+		finally {
+			
+			//	cancel whatever is still pending after a failure (no-op for finished tasks)
+			for (int i = 0; i < indexers.length; i++)
+				indexerQueryTasks[i].cancel();
+		}
 	}
 	
-	private IndexResult searchIndex(final Query query) throws IOException {
-		this.logActivity("GgSRS Index Search ...");
-		this.logActivity("  - query is " + query.toString());
-		
-		//	get index ID
+	private IOException indexerQueryTimedOut(Indexer indexer) {
+		this.logWarning("GoldenGateSRS: query timed out in " + indexer.getIndexName() + " after " + this.indexerQueryTimeout + "ms");
+		return new IOException("Query timed out in " + indexer.getIndexName() + " after " + this.indexerQueryTimeout + "ms");
+	}
+	
+	private class IndexerQueryTask {
+		final Indexer indexer;
+		final Query query;
+		private long createTime = System.currentTimeMillis();
+		private boolean cancelled = false;
+		private boolean finished = false;
+		QueryResult result = null;
+		Throwable error = null;
+		IndexerQueryTask(Indexer indexer, Query query) {
+			this.indexer = indexer;
+			this.query = query;
+		}
+		void execute() {
+			synchronized (this) {
+				if (this.cancelled)
+					return; // timed out waiting for a thread, no use running it
+			}
+			QueryResult result = null;
+			Throwable error = null;
+			try {
+				result = this.indexer.processQuery(this.query);
+			}
+			catch (Throwable t) {
+				error = t;
+			}
+			synchronized (this) {
+				this.result = result;
+				this.error = error;
+				this.finished = true;
+				this.notify();
+			}
+		}
+		synchronized boolean waitForResult(int timeout) {
+			while (!this.finished) {
+				long wait = ((timeout < 1) ? 0 : ((this.createTime + timeout) - System.currentTimeMillis()));
+				if ((timeout > 0) && (wait < 1))
+					break;
+				try {
+					this.wait(wait);
+				} catch (InterruptedException ie) {}
+			}
+			return this.finished;
+		}
+		synchronized void cancel() {
+			if (this.finished)
+				return;
+			this.cancelled = true;
+			this.result = null; // no use holding on to late result
+		}
+	}
+	
+	private class IndexerQueryExecutor {
+		private LinkedList taskQueue = new LinkedList();
+		private IndexerQueryThread[] threads;
+		private AsynchronousWorkQueue monitor;
+		private boolean shutdown = false;
+		IndexerQueryExecutor(int threadCount) {
+			this.threads = new IndexerQueryThread[threadCount];
+			for (int t = 0; t < this.threads.length; t++) {
+				this.threads[t] = new IndexerQueryThread(this, ("SrsIndexerQuery" + t));
+				this.threads[t].start();
+			}
+			this.monitor = new AsynchronousWorkQueue("SrsIndexerQueries") {
+				public String getStatus() {
+					return (this.name + ": " + taskQueue.size() + " indexer queries pending, " + threads.length + " threads");
+				}
+			};
+		}
+		void execute(IndexerQueryTask iqt) {
+			synchronized (this.taskQueue) {
+				if (!this.shutdown) {
+					this.taskQueue.addLast(iqt);
+					this.taskQueue.notify();
+					return;
+				}
+			}
+			iqt.execute(); // shutting down, run in calling thread
+		}
+		IndexerQueryTask getNextTask() {
+			synchronized (this.taskQueue) {
+				while (this.taskQueue.isEmpty() && !this.shutdown) try {
+					this.taskQueue.wait();
+				} catch (InterruptedException ie) {}
+				return (this.taskQueue.isEmpty() ? null : ((IndexerQueryTask) this.taskQueue.removeFirst()));
+			}
+		}
+		void shutdown() {
+			synchronized (this.taskQueue) {
+				this.shutdown = true;
+				this.taskQueue.notifyAll();
+			}
+			for (int t = 0; t < this.threads.length; t++) try {
+				this.threads[t].join();
+			} catch (InterruptedException ie) {}
+			this.monitor.dispose();
+		}
+	}
+	
+	private static class IndexerQueryThread extends Thread {
+		private IndexerQueryExecutor executor;
+		IndexerQueryThread(IndexerQueryExecutor executor, String name) {
+			super(name);
+			this.executor = executor;
+			this.setDaemon(true);
+		}
+		public void run() {
+			for (IndexerQueryTask iqt; (iqt = this.executor.getNextTask()) != null;)
+				iqt.execute();
+		}
+	}
+	
+	private QueryResult doRelevanceElimination(QueryResult baseResult, double minRelevance, int resultPivotIndex) {
+		if (baseResult.size() == 0)
+			return baseResult;
+		
+		baseResult.sortByRelevance(true);
+		if (resultPivotIndex <= 0)
+			resultPivotIndex = baseResult.size();
+		
+		HashSet resultDocNumbers = new HashSet();
+		QueryResult reducedResult = new QueryResult();
+		double lastRelevance = 1;
+		for (int r = 0; r < baseResult.size(); r++) {
+			QueryResultElement qre = baseResult.getResult(r);
+			
+			//	no more QREs with sufficiently high relevance to expect, we're done here
+			if (qre.relevance < minRelevance)
+				break;
+			
+			//	we're beyond the pivot QRE, and current QRE is less relevant than latter, we're done here
+			if ((resultPivotIndex <= reducedResult.size()) && (qre.relevance < lastRelevance))
+				break;
+			
+			//	we're beyond 100 and beyond thrice the pivot index, this is enough
+			if ((100 <= reducedResult.size()) && ((resultPivotIndex * 3) <= reducedResult.size()))
+				break;
+			
+			//	avoid duplicates
+			if (resultDocNumbers.add(new Long(qre.docNr))) {
+				
+				//	store result element
+				reducedResult.addResultElement(qre);
+				
+				//	remember last relevance for delaying cutoff
+				lastRelevance = qre.relevance;
+			}
+		}
+		
+		//	return remaining documents
+		return reducedResult;
+	}
+	
+	private IndexResult searchIndex(final Query query) throws IOException {
+		this.logActivity("GgSRS Index Search ...");
+		this.logActivity("  - query is " + query.toString());
+		
+		//	get index ID
 		String searchIndexName = query.getValue(INDEX_NAME);
 		if (searchIndexName == null)
 			throw new IOException("No such index.");
@@ -5605,14 +6935,14 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			return;
 		}
 		for (int i = 0; i < this.indexers.length; i++) {
-			this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i]) {
+			this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, this.indexers[i], docNr) {
 				void performAction() {
 					this.indexer.deleteDocument(docNr);
 				}
 			});
 			this.logInfo(" - enqueued un-indexing from " + this.indexers[i].getIndexName() + " after " + (System.currentTimeMillis() - time) + "ms");
 		}
-		this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME) {
+		this.enqueueIndexerAction(new IndexerAction(IndexerAction.DELETE_NAME, docNr) {
 			void performAction() {
 				deleteIndexData(docNr);
 			}
@@ -5622,6 +6952,319 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 	}
 	
 	private Object docIdentifierResolverLock = new Object();
+	private int docIdentifierResolverModCount = 0;
+	private int docIdentifierResolverSnapshotModCount = -1;
+	private Object docIdentifierResolverSnapshotLock = new Object();
+	
+	/*
+	 * Document identifier resolver snapshot file format (version 1):
+	 * - magic number (4 bytes), format version (4 bytes), and timestamp
+	 *   (8 bytes) up to which document table changes are contained
+	 * - document number resolver: size, index array, data array
+	 * - document UUID resolver: size, high and low index arrays, data array
+	 * - master document ID mapper: size, data size, high and low index
+	 *   arrays, data offset array, data array
+	 * - CRC32 checksum (8 bytes) of all preceding bytes
+	 */
+	private static final String DOC_ID_RESOLVER_SNAPSHOT_FILE_NAME = "DocIdResolvers.snapshot";
+	private static final int DOC_ID_RESOLVER_SNAPSHOT_MAGIC = 0x53524453; // 'SRDS'
+	private static final int DOC_ID_RESOLVER_SNAPSHOT_VERSION = 1;
+	private static final long DOC_ID_RESOLVER_SNAPSHOT_INTERVAL = (1000 * 60 * 30);
+	private static final long DOC_ID_RESOLVER_DELTA_TIME_MARGIN = (1000 * 60 * 10); // tolerate some clock skew and long running updates
+	private static final int DOC_ID_RESOLVER_DELTA_MAX_MASTER_DOCS = 1000; // full rebuild is faster beyond this
+	private volatile Thread docIdResolverSnapshotWriter = null;
+	
+	private void startDocumentIdentifierResolverSnapshotWriter() {
+		Thread snapshotWriter = new Thread("SrsDocIdResolverSnapshotWriter") {
+			public void run() {
+				while (GoldenGateSRS.this.docIdResolverSnapshotWriter == this) {
+					try {
+						sleep(DOC_ID_RESOLVER_SNAPSHOT_INTERVAL);
+					}
+					catch (InterruptedException ie) {
+						return; // shutting down
+					}
+					if (GoldenGateSRS.this.docIdResolverSnapshotWriter == this) {
+						storeDocumentIdentifierResolverSnapshot();
+						storeCollectionStatisticsCheckpoint();
+					}
+				}
+			}
+		};
+		snapshotWriter.setDaemon(true);
+		synchronized (this.docIdentifierResolverLock) {
+			this.docIdResolverSnapshotWriter = snapshotWriter;
+		}
+		snapshotWriter.start();
+	}
+	
+	private void storeDocumentIdentifierResolverSnapshot() {
+		synchronized (this.docIdentifierResolverSnapshotLock) {
+			this.doStoreDocumentIdentifierResolverSnapshot();
+		}
+	}
+	private void doStoreDocumentIdentifierResolverSnapshot() {
+		
+		//	get current resolvers (we're only ever replacing them, or modifying single entries, so no need to block anyone while writing)
+		DocumentNumberResolver dnr;
+		DocumentUuidResolver dur;
+		MasterDocumentIdMapper mdim;
+		int modCount;
+		long time;
+		synchronized (this.docIdentifierResolverLock) {
+			dnr = this.docNumberResolver;
+			dur = this.docUuidResolver;
+			mdim = this.masterDocIdMapper;
+			modCount = this.docIdentifierResolverModCount;
+			time = System.currentTimeMillis();
+		}
+		if ((dnr == null) || (dur == null) || (mdim == null))
+			return; // not initialized (yet)
+		if (modCount == this.docIdentifierResolverSnapshotModCount)
+			return; // nothing changed since last snapshot
+		dnr = dnr.compact();
+		dur = dur.compact();
+		mdim = mdim.compact();
+		
+		//	write snapshot to temporary file
+		File snapshotFile = new File(this.dataPath, DOC_ID_RESOLVER_SNAPSHOT_FILE_NAME);
+		File tempSnapshotFile = new File(this.dataPath, (DOC_ID_RESOLVER_SNAPSHOT_FILE_NAME + ".temp"));
+		long start = System.currentTimeMillis();
+		try {
+			CRC32 checksum = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempSnapshotFile), (1024 * 64)), checksum));
+			try {
+				out.writeInt(DOC_ID_RESOLVER_SNAPSHOT_MAGIC);
+				out.writeInt(DOC_ID_RESOLVER_SNAPSHOT_VERSION);
+				out.writeLong(time);
+				out.writeInt(dnr.size);
+				writeLongs(out, dnr.index, dnr.size);
+				writeLongs(out, dnr.data, (dnr.size * 2));
+				out.writeInt(dur.size);
+				writeLongs(out, dur.indexHigh, dur.size);
+				writeLongs(out, dur.indexLow, dur.size);
+				writeLongs(out, dur.data, dur.size);
+				out.writeInt(mdim.size);
+				out.writeInt(mdim.dataSize);
+				writeLongs(out, mdim.indexHigh, mdim.size);
+				writeLongs(out, mdim.indexLow, mdim.size);
+				for (int o = 0; o < mdim.size; o++)
+					out.writeInt(mdim.dataOffsets[o]);
+				writeLongs(out, mdim.data, mdim.dataSize);
+				out.flush();
+				out.writeLong(checksum.getValue());
+				out.flush();
+			}
+			finally {
+				out.close();
+			}
+			
+			//	replace existing snapshot
+			if (snapshotFile.exists() && !snapshotFile.delete())
+				throw new IOException("Could not replace document identifier resolver snapshot");
+			if (!tempSnapshotFile.renameTo(snapshotFile))
+				throw new IOException("Could not activate document identifier resolver snapshot");
+			this.docIdentifierResolverSnapshotModCount = modCount;
+			this.logInfo("GoldenGateSRS: document identifier resolver snapshot stored in " + (System.currentTimeMillis() - start) + "ms, " + dnr.size + " documents");
+		}
+		catch (IOException ioe) {
+			this.logError("GoldenGateSRS: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing document identifier resolver snapshot.");
+			this.logError(ioe);
+			tempSnapshotFile.delete();
+		}
+	}
+	
+	private static void writeLongs(DataOutputStream out, long[] longs, int length) throws IOException {
+		for (int l = 0; l < length; l++)
+			out.writeLong(longs[l]);
+	}
+	
+	private boolean loadDocumentIdentifierResolvers() {
+		File snapshotFile = new File(this.dataPath, DOC_ID_RESOLVER_SNAPSHOT_FILE_NAME);
+		if (!snapshotFile.exists())
+			return false;
+		
+		System.out.println("GoldenGateSRS: loading document identifier mappings from snapshot.");
+		long start = System.currentTimeMillis();
+		DocumentNumberResolver dnr;
+		DocumentUuidResolver dur;
+		MasterDocumentIdMapper mdim;
+		long snapshotTime;
+		
+		//	map in snapshot file, verify checksum, and read data
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(snapshotFile, "r");
+			FileChannel fc = raf.getChannel();
+			ByteBuffer snapshot = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			if (snapshot.limit() < (4 + 4 + 8 + 8))
+				throw new IOException("Snapshot file truncated");
+			CRC32 checksum = new CRC32();
+			byte[] buffer = new byte[1024 * 64];
+			snapshot.limit(snapshot.capacity() - 8);
+			while (snapshot.hasRemaining()) {
+				int r = Math.min(buffer.length, snapshot.remaining());
+				snapshot.get(buffer, 0, r);
+				checksum.update(buffer, 0, r);
+			}
+			snapshot.limit(snapshot.capacity());
+			if (snapshot.getLong() != checksum.getValue())
+				throw new IOException("Snapshot checksum mismatch");
+			snapshot.position(0);
+			if (snapshot.getInt() != DOC_ID_RESOLVER_SNAPSHOT_MAGIC)
+				throw new IOException("Invalid snapshot file");
+			int version = snapshot.getInt();
+			if (version != DOC_ID_RESOLVER_SNAPSHOT_VERSION)
+				throw new IOException("Unsupported snapshot version " + version);
+			snapshotTime = snapshot.getLong();
+			int dnrSize = snapshot.getInt();
+			long[] dnrIndex = readLongs(snapshot, dnrSize);
+			long[] dnrData = readLongs(snapshot, (dnrSize * 2));
+			dnr = new DocumentNumberResolver(dnrIndex, dnrData, dnrSize);
+			int durSize = snapshot.getInt();
+			long[] durIndexHigh = readLongs(snapshot, durSize);
+			long[] durIndexLow = readLongs(snapshot, durSize);
+			long[] durData = readLongs(snapshot, durSize);
+			dur = new DocumentUuidResolver(durIndexHigh, durIndexLow, durData, durSize);
+			int mdimSize = snapshot.getInt();
+			int mdimDataSize = snapshot.getInt();
+			long[] mdimIndexHigh = readLongs(snapshot, mdimSize);
+			long[] mdimIndexLow = readLongs(snapshot, mdimSize);
+			int[] mdimDataOffsets = new int[mdimSize];
+			snapshot.asIntBuffer().get(mdimDataOffsets);
+			snapshot.position(snapshot.position() + (mdimSize * 4));
+			long[] mdimData = readLongs(snapshot, mdimDataSize);
+			mdim = new MasterDocumentIdMapper(mdimIndexHigh, mdimIndexLow, mdimDataOffsets, mdimSize, mdimData, mdimDataSize);
+			if (snapshot.remaining() != 8)
+				throw new IOException("Snapshot size mismatch");
+			System.out.println(" - snapshot of " + dnrSize + " documents loaded after " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch (Exception e) {
+			System.out.println("GoldenGateSRS: " + e.getClass().getName() + " (" + e.getMessage() + ") while loading document identifier resolver snapshot, rebuilding.");
+			return false;
+		}
+		finally {
+			if (raf != null) try {
+				raf.close();
+			} catch (IOException ioe) {}
+		}
+		
+		//	replay document table rows modified since snapshot was taken
+		HashSet addedDocIds = new HashSet();
+		HashMap addedDocUuidsToNrs = new HashMap();
+		HashSet modifiedMasterDocIds = new HashSet();
+		String deltaQuery = "SELECT " + DOC_NUMBER_COLUMN_NAME + ", " + DOCUMENT_ID_ATTRIBUTE + ", " + DOCUMENT_UUID_ATTRIBUTE + ", " + MASTER_DOCUMENT_ID_ATTRIBUTE + 
+				" FROM " + DOCUMENT_TABLE_NAME +
+				" WHERE " + UPDATE_TIME_ATTRIBUTE + " >= " + (snapshotTime - DOC_ID_RESOLVER_DELTA_TIME_MARGIN) + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = io.executeSelectQuery(deltaQuery, true);
+			while (sqr.next()) {
+				long docNr = sqr.getLong(0);
+				String docId = sqr.getString(1);
+				if (!dnr.containsDocumentNumber(docNr))
+					addedDocIds.add(docId);
+				String docUuid = sqr.getString(2);
+				if (docUuid != null) {
+					docUuid = docUuid.trim();
+					if (docUuid.length() != 0)
+						addedDocUuidsToNrs.put(docUuid, new Long(docNr));
+				}
+				modifiedMasterDocIds.add(sqr.getString(3));
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading document identifier mapping changes, rebuilding.");
+			System.out.println("  Query was " + deltaQuery);
+			return false;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		if (modifiedMasterDocIds.size() > DOC_ID_RESOLVER_DELTA_MAX_MASTER_DOCS) {
+			System.out.println(" - " + modifiedMasterDocIds.size() + " master documents modified since snapshot, rebuilding.");
+			return false;
+		}
+		dnr = dnr.cloneForChanges(addedDocIds, new long[0]);
+		dur = dur.cloneForChanges(addedDocUuidsToNrs, new HashSet());
+		for (Iterator mdidit = modifiedMasterDocIds.iterator(); mdidit.hasNext();) {
+			String masterDocId = ((String) mdidit.next());
+			long[] docNrs = this.loadMasterDocumentNumbers(masterDocId);
+			if (docNrs == null)
+				return false;
+			mdim = mdim.cloneForChanges(masterDocId, docNrs);
+		}
+		System.out.println(" - " + addedDocIds.size() + " documents and " + modifiedMasterDocIds.size() + " master documents modified since snapshot replayed after " + (System.currentTimeMillis() - start) + "ms");
+		
+		//	check document count (catches deletions and modifications with stale update timestamps)
+		String countQuery = "SELECT count(*)" +
+				" FROM " + DOCUMENT_TABLE_NAME +
+				";";
+		sqr = null;
+		try {
+			sqr = io.executeSelectQuery(countQuery, true);
+			int docCount = (sqr.next() ? sqr.getInt(0) : -1);
+			if (docCount != dnr.size()) {
+				System.out.println(" - document count mismatch (" + docCount + " in database, " + dnr.size() + " in snapshot), rebuilding.");
+				return false;
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while checking document count, rebuilding.");
+			System.out.println("  Query was " + countQuery);
+			return false;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	we're good
+		this.docNumberResolver = dnr;
+		this.docUuidResolver = dur;
+		this.masterDocIdMapper = mdim;
+		this.docIdentifierResolverModCount++; // make sure to write replayed changes to snapshot
+		System.out.println(" - document identifier mappings loaded from snapshot after " + (System.currentTimeMillis() - start) + "ms");
+		return true;
+	}
+	
+	private static long[] readLongs(ByteBuffer buffer, int length) {
+		long[] longs = new long[length];
+		buffer.asLongBuffer().get(longs);
+		buffer.position(buffer.position() + (length * 8));
+		return longs;
+	}
+	
+	private long[] loadMasterDocumentNumbers(String masterDocId) {
+		String query = "SELECT " + DOC_NUMBER_COLUMN_NAME + 
+				" FROM " + DOCUMENT_TABLE_NAME +
+				" WHERE " + MASTER_DOCUMENT_ID_HASH_COLUMN_NAME + " = " + masterDocId.hashCode() + "" +
+				" AND " + MASTER_DOCUMENT_ID_ATTRIBUTE + " = '" + EasyIO.sqlEscape(masterDocId) + "'" +
+				" ORDER BY " + DOC_NUMBER_COLUMN_NAME + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = io.executeSelectQuery(query, true);
+			ArrayList docNrs = new ArrayList();
+			while (sqr.next())
+				docNrs.add(new Long(sqr.getLong(0)));
+			long[] masterDocNrs = new long[docNrs.size()];
+			for (int d = 0; d < docNrs.size(); d++)
+				masterDocNrs[d] = ((Long) docNrs.get(d)).longValue();
+			return masterDocNrs;
+		}
+		catch (SQLException sqle) {
+			System.out.println("GoldenGateSRS: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading master document numbers.");
+			System.out.println("  Query was " + query);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
 	
 	private DocumentNumberResolver docNumberResolver;
 	private DocumentNumberResolver getDocumentNumberResolver() {
@@ -5644,58 +7287,252 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 	}
 	
+	/*
+	 * The document identifier resolvers below consist of immutable base arrays
+	 * plus a small sorted overlay of changes (a ResolverDelta), so applying
+	 * the changes from a document update only copies the overlay rather than
+	 * the base arrays. Once the overlay grows beyond a threshold relative to
+	 * the base, a background thread merges both into new base arrays, and
+	 * then rebases whatever resolver is current by that time onto them. As
+	 * all parts are immutable, lookups need no synchronization.
+	 */
+	private static final int MIN_RESOLVER_DELTA_COMPACTION_SIZE = 1024;
+	private static int getResolverDeltaCompactionSize(int baseSize) {
+		return Math.max(MIN_RESOLVER_DELTA_COMPACTION_SIZE, (baseSize / 64));
+	}
+	
+	private boolean docIdentifierResolverCompactionRunning = false;
+	
+	private void documentIdentifierResolversModified() {
+		this.docIdentifierResolverModCount++;
+		if (this.docIdentifierResolverCompactionRunning)
+			return;
+		if (!this.docNumberResolver.needsCompaction() && !this.docUuidResolver.needsCompaction() && !this.masterDocIdMapper.needsCompaction())
+			return;
+		this.docIdentifierResolverCompactionRunning = true;
+		Thread docIdResolverCompactor = new Thread("SrsDocIdResolverCompactor") {
+			public void run() {
+				try {
+					compactDocumentIdentifierResolvers();
+				}
+				finally {
+					synchronized (docIdentifierResolverLock) {
+						docIdentifierResolverCompactionRunning = false;
+					}
+				}
+			}
+		};
+		docIdResolverCompactor.setDaemon(true);
+		docIdResolverCompactor.start();
+	}
+	
+	private void compactDocumentIdentifierResolvers() {
+		DocumentNumberResolver dnr;
+		DocumentUuidResolver dur;
+		MasterDocumentIdMapper mdim;
+		synchronized (this.docIdentifierResolverLock) {
+			dnr = this.docNumberResolver;
+			dur = this.docUuidResolver;
+			mdim = this.masterDocIdMapper;
+		}
+		
+		//	compact outside lock, so updates can proceed meanwhile
+		long start = System.currentTimeMillis();
+		DocumentNumberResolver cDnr = (dnr.needsCompaction() ? dnr.compact() : null);
+		DocumentUuidResolver cDur = (dur.needsCompaction() ? dur.compact() : null);
+		MasterDocumentIdMapper cMdim = (mdim.needsCompaction() ? mdim.compact() : null);
+		
+		//	rebase current resolvers (which might have received further changes) onto compacted ones
+		synchronized (this.docIdentifierResolverLock) {
+			if (cDnr != null)
+				this.docNumberResolver = this.docNumberResolver.rebase(dnr, cDnr);
+			if (cDur != null)
+				this.docUuidResolver = this.docUuidResolver.rebase(dur, cDur);
+			if (cMdim != null)
+				this.masterDocIdMapper = this.masterDocIdMapper.rebase(mdim, cMdim);
+		}
+		this.logInfo("GoldenGateSRS: document identifier resolvers compacted in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	private static class ResolverDelta {
+		static final ResolverDelta EMPTY = new ResolverDelta(new long[0], new long[0], new Object[0]);
+		static final Comparator keyOrder = new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				long[] key1 = ((long[]) obj1);
+				long[] key2 = ((long[]) obj2);
+				return ResolverDelta.compare(key1[0], key1[1], key2[0], key2[1]);
+			}
+		};
+		static int compare(long high1, long low1, long high2, long low2) {
+			if (high1 != high2)
+				return ((high1 < high2) ? -1 : 1);
+			if (low1 != low2)
+				return ((low1 < low2) ? -1 : 1);
+			return 0;
+		}
+		static long[] key(long high, long low) {
+			long[] key = {high, low};
+			return key;
+		}
+		final long[] keysHigh;
+		final long[] keysLow;
+		final Object[] values; // null marks removal
+		private ResolverDelta(long[] keysHigh, long[] keysLow, Object[] values) {
+			this.keysHigh = keysHigh;
+			this.keysLow = keysLow;
+			this.values = values;
+		}
+		int size() {
+			return this.values.length;
+		}
+		int find(long high, long low) {
+			int l = 0;
+			int h = (this.values.length - 1);
+			while (l <= h) {
+				int m = ((l + h) >>> 1);
+				int c = compare(this.keysHigh[m], this.keysLow[m], high, low);
+				if (c < 0)
+					l = (m + 1);
+				else if (c > 0)
+					h = (m - 1);
+				else return m;
+			}
+			return -1;
+		}
+		ResolverDelta with(TreeMap changes) {
+			if (changes.isEmpty())
+				return this;
+			long[] cKeysHigh = new long[this.values.length + changes.size()];
+			long[] cKeysLow = new long[cKeysHigh.length];
+			Object[] cValues = new Object[cKeysHigh.length];
+			int cn = 0;
+			int n = 0;
+			for (Iterator cit = changes.keySet().iterator(); cit.hasNext();) {
+				long[] key = ((long[]) cit.next());
+				while ((n < this.values.length) && (compare(this.keysHigh[n], this.keysLow[n], key[0], key[1]) < 0)) {
+					cKeysHigh[cn] = this.keysHigh[n];
+					cKeysLow[cn] = this.keysLow[n];
+					cValues[cn++] = this.values[n++];
+				}
+				if ((n < this.values.length) && (this.keysHigh[n] == key[0]) && (this.keysLow[n] == key[1]))
+					n++; // replaced by change
+				cKeysHigh[cn] = key[0];
+				cKeysLow[cn] = key[1];
+				cValues[cn++] = changes.get(key);
+			}
+			while (n < this.values.length) {
+				cKeysHigh[cn] = this.keysHigh[n];
+				cKeysLow[cn] = this.keysLow[n];
+				cValues[cn++] = this.values[n++];
+			}
+			return trimmed(cKeysHigh, cKeysLow, cValues, cn);
+		}
+		ResolverDelta filter(boolean[] keep) {
+			long[] cKeysHigh = new long[this.values.length];
+			long[] cKeysLow = new long[this.values.length];
+			Object[] cValues = new Object[this.values.length];
+			int cn = 0;
+			for (int n = 0; n < this.values.length; n++)
+				if (keep[n]) {
+					cKeysHigh[cn] = this.keysHigh[n];
+					cKeysLow[cn] = this.keysLow[n];
+					cValues[cn++] = this.values[n];
+				}
+			return trimmed(cKeysHigh, cKeysLow, cValues, cn);
+		}
+		private static ResolverDelta trimmed(long[] keysHigh, long[] keysLow, Object[] values, int size) {
+			if (size == 0)
+				return EMPTY;
+			if (size < values.length) {
+				long[] cKeysHigh = new long[size];
+				System.arraycopy(keysHigh, 0, cKeysHigh, 0, size);
+				keysHigh = cKeysHigh;
+				long[] cKeysLow = new long[size];
+				System.arraycopy(keysLow, 0, cKeysLow, 0, size);
+				keysLow = cKeysLow;
+				Object[] cValues = new Object[size];
+				System.arraycopy(values, 0, cValues, 0, size);
+				values = cValues;
+			}
+			return new ResolverDelta(keysHigh, keysLow, values);
+		}
+	}
+	
 	private static class DocumentNumberResolver {
 		private long[] index;
 		private long[] data;
-		private int size;
+		private int size; // size of base arrays
+		private ResolverDelta delta = ResolverDelta.EMPTY; // values are document IDs encoded in long[2]
+		private int totalSize;
+		private DocumentNumberResolver compacted = null;
 		DocumentNumberResolver() {
 			this.index = new long[32];
 			this.data = new long[64];
 			this.size = 0;
+			this.totalSize = 0;
 		}
 		private DocumentNumberResolver(long[] index, long[] data, int size) {
+			this(index, data, size, ResolverDelta.EMPTY, size);
+		}
+		private DocumentNumberResolver(long[] index, long[] data, int size, ResolverDelta delta, int totalSize) {
 			this.index = index;
 			this.data = data;
 			this.size = size;
+			this.delta = delta;
+			this.totalSize = totalSize;
 		}
-		boolean containsDocumentNumber(long docNr) {
+		private int findBasePos(long docNr) {
 			int pos = Arrays.binarySearch(this.index, 0, this.size, docNr);
-			if ((pos < 0) || (this.size <= pos))
-				return false;
-			return (this.index[pos] == docNr);
+			return (((pos < 0) || (this.size <= pos)) ? -1 : pos);
+		}
+		boolean containsDocumentNumber(long docNr) {
+			int d = this.delta.find(docNr, 0);
+			if (d != -1)
+				return (this.delta.values[d] != null);
+			return (this.findBasePos(docNr) != -1);
 		}
 		String getDocumentId(long docNr) {
 			return getDocumentId(docNr, null);
 		}
 		String getDocumentId(long docNr, char[] docId) {
-			int pos = Arrays.binarySearch(this.index, 0, this.size, docNr);
-			if ((pos < 0) || (this.size <= pos))
-				return null;
-			if (this.index[pos] != docNr)
-				return null;
+			long high;
+			long low;
+			int d = this.delta.find(docNr, 0);
+			if (d != -1) {
+				long[] encDocId = ((long[]) this.delta.values[d]);
+				if (encDocId == null)
+					return null;
+				high = encDocId[0];
+				low = encDocId[1];
+			}
+			else {
+				int pos = this.findBasePos(docNr);
+				if (pos == -1)
+					return null;
+				high = this.data[pos * 2];
+				low = this.data[(pos * 2) + 1];
+			}
 			if (docId == null)
 				docId = new char[32];
-			decodeHex(this.data[pos * 2], this.data[(pos * 2) + 1], docId);
+			decodeHex(high, low, docId);
 			return new String(docId);
 		}
-//		String[] getDocumentIDs(long[] docNrs) {
-//			String[] docIds = new String[docNrs.length];
-//			Arrays.fill(docIds, null);
-//			char[] docId = new char[32]; // String constructor copies array content, so we can keep using same helper array over and over and thus save allocating new ones for every document number
-//			for (int n = 0; n < docNrs.length; n++)
-//				docIds[n] = this.getDocumentId(docNrs[n], docId);
-//			return docIds;
-//		}
 		long documentNumberAt(int index) {
-			return this.index[index];
+			return this.getCompacted().index[index];
 		}
 		String documentIdAt(int index) {
+			DocumentNumberResolver dnr = this.getCompacted();
 			char[] docId = new char[32];
-			decodeHex(this.data[index * 2], this.data[(index * 2) + 1], docId);
+			decodeHex(dnr.data[index * 2], dnr.data[(index * 2) + 1], docId);
 			return new String(docId);
 		}
 		int size() {
-			return this.size;
+			return this.totalSize;
+		}
+		private synchronized DocumentNumberResolver getCompacted() {
+			if (this.compacted == null)
+				this.compacted = this.compact(); // positional access only happens in bulk operations, so this pays off
+			return this.compacted;
 		}
 		private static void decodeHex(long high, long low, char[] hex) {
 			for (int hexPos = 15; hexPos >= 0; hexPos--) {
@@ -5715,86 +7552,87 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		}
 		
 		DocumentNumberResolver cloneForChanges(HashSet addedDocIDs, long[] removed) {
+			TreeMap changes = new TreeMap(ResolverDelta.keyOrder);
+			int cTotalSize = this.totalSize;
+			
+			//	line up to-remove document numbers that are contained and will not be added
+			HashSet addedDocNrs = new HashSet();
+			for (Iterator didit = addedDocIDs.iterator(); didit.hasNext();)
+				addedDocNrs.add(new Long(getDocNr((String) didit.next())));
+			for (int r = 0; r < removed.length; r++) {
+				if (addedDocNrs.contains(new Long(removed[r])) || !this.containsDocumentNumber(removed[r]))
+					continue;
+				if (changes.put(ResolverDelta.key(removed[r], 0), null) == null)
+					cTotalSize--;
+			}
 			
-			//	line up to-add document numbers, and filter out ones that are already contained
-			long[] added = new long[addedDocIDs.size()];
-			HashMap addedMapping = new HashMap();
-			int a = 0;
+			//	line up to-add document numbers that are not already contained
 			for (Iterator didit = addedDocIDs.iterator(); didit.hasNext();) {
 				String docId = ((String) didit.next());
 				long docNr = getDocNr(docId);
-				if (this.containsDocumentNumber(docNr)) {
-					long[] cAdded = new long[added.length - 1];
-					System.arraycopy(added, 0, cAdded, 0, a);
-					added = cAdded;
-				}
-				else {
-					added[a++] = docNr;
-					addedMapping.put(new Long(docNr), docId);
-				}
-			}
-			
-			//	filter out to-remove document numbers that are not contained or will be added
-			for (int r = 0; r < removed.length; r++) {
-				if (!addedMapping.containsKey(new Long(removed[r])) && this.containsDocumentNumber(removed[r]))
-					continue; // this one's clear for removal
-				long[] cRemoved = new long[removed.length - 1];
-				System.arraycopy(removed, 0, cRemoved, 0, r);
-				System.arraycopy(removed, (r+1), cRemoved, r, (cRemoved.length - r));
-				removed = cRemoved;
+				if (this.containsDocumentNumber(docNr))
+					continue;
+				long[] encDocId = new long[2];
+				encodeHex(encDocId, 0, docId);
+				if (!changes.containsKey(ResolverDelta.key(docNr, 0)))
+					cTotalSize++;
+				changes.put(ResolverDelta.key(docNr, 0), encDocId);
 			}
 			
-			//	anything left to do at all?
-			if ((added.length == 0) && (removed.length == 0))
+			//	anything to do at all?
+			if (changes.isEmpty())
 				return this;
-			
-			//	sort to-add and to-remove document numbers
-			a = 0;
-			Arrays.sort(added);
-			int r = 0;
-			Arrays.sort(removed);
-			
-			//	merge data into new array (we're only ever reading the main ones, for thread safety)
-			int cSize = (this.size + added.length - removed.length);
-			long[] cIndex = new long[cSize];
-			long[] cData = new long[cSize * 2];
+			return new DocumentNumberResolver(this.index, this.data, this.size, this.delta.with(changes), cTotalSize);
+		}
+		
+		boolean needsCompaction() {
+			return (this.delta.size() > getResolverDeltaCompactionSize(this.size));
+		}
+		DocumentNumberResolver compact() {
+			if (this.delta.size() == 0)
+				return this;
+			long[] cIndex = new long[this.totalSize];
+			long[] cData = new long[this.totalSize * 2];
 			int cn = 0;
-			for (int n = 0; n < this.size; n++) {
+			int n = 0;
+			for (int d = 0; d <= this.delta.size(); d++) {
+				long docNr = ((d < this.delta.size()) ? this.delta.keysHigh[d] : Long.MAX_VALUE);
 				
-				//	handle insertions before current document number
-				while ((a < added.length) && (added[a] < this.index[n])) {
-					String docId = ((String) addedMapping.get(new Long(added[a])));
-					cIndex[cn] = added[a];
-					encodeHex(cData, (cn * 2), docId);
+				//	copy base entries before current delta entry
+				while ((n < this.size) && ((this.index[n] < docNr) || (d == this.delta.size()))) {
+					cIndex[cn] = this.index[n];
+					cData[cn * 2] = this.data[n * 2];
+					cData[(cn * 2) + 1] = this.data[(n * 2) + 1];
 					cn++;
-					a++;
+					n++;
 				}
+				if (d == this.delta.size())
+					break;
 				
-				//	handle removals
-				if (r == removed.length) {} // all removals handled
-				else if (removed[r] == this.index[n]) {
-					r++; // move on to next to-remove document number
-					continue; // skip over copying to-remove document number
-				}
+				//	skip over base entry replaced by current delta entry
+				if ((n < this.size) && (this.index[n] == docNr))
+					n++;
 				
-				//	copy current document number
-				cIndex[cn] = this.index[n];
-				cData[cn * 2] = this.data[n * 2];
-				cData[(cn * 2) + 1] = this.data[(n * 2) + 1];
-				cn++;
-			}
-			
-			//	handle any additions after last document number
-			while (a < added.length) {
-				String docId = ((String) addedMapping.get(new Long(added[a])));
-				cIndex[cn] = added[a];
-				encodeHex(cData, (cn * 2), docId);
+				//	add current delta entry unless it's a removal
+				long[] encDocId = ((long[]) this.delta.values[d]);
+				if (encDocId == null)
+					continue;
+				cIndex[cn] = docNr;
+				cData[cn * 2] = encDocId[0];
+				cData[(cn * 2) + 1] = encDocId[1];
 				cn++;
-				a++;
 			}
-			
-			//	finally ...
-			return new DocumentNumberResolver(cIndex, cData, cSize);
+			return new DocumentNumberResolver(cIndex, cData, cn);
+		}
+		DocumentNumberResolver rebase(DocumentNumberResolver original, DocumentNumberResolver compacted) {
+			if (this.index != original.index)
+				return this; // base replaced by other means since compaction started
+			if (this == original)
+				return compacted;
+			boolean[] keep = new boolean[this.delta.size()];
+			for (int d = 0; d < keep.length; d++)
+				keep[d] = ((this.delta.values[d] == null) == (compacted.findBasePos(this.delta.keysHigh[d]) != -1));
+			return new DocumentNumberResolver(compacted.index, compacted.data, compacted.size, this.delta.filter(keep), this.totalSize);
 		}
 		
 		void mapDocumentNumber(long docNr, String docId) {
@@ -5811,6 +7649,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.index[this.size] = docNr;
 			encodeHex(this.data, (this.size * 2), docId);
 			this.size++;
+			this.totalSize++;
 		}
 		DocumentNumberResolver cloneToSize() {
 			if (this.index.length == this.size)
@@ -5827,21 +7666,28 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		private long[] indexHigh;
 		private long[] indexLow;
 		private long[] data;
-		private int size;
+		private int size; // size of base arrays
+		private ResolverDelta delta = ResolverDelta.EMPTY; // values are document numbers as Long
+		private int totalSize;
 		DocumentUuidResolver() {
 			this.indexHigh = new long[32];
 			this.indexLow = new long[32];
 			this.data = new long[32];
 			this.size = 0;
+			this.totalSize = 0;
 		}
 		private DocumentUuidResolver(long[] indexHigh, long[] indexLow, long[] data, int size) {
+			this(indexHigh, indexLow, data, size, ResolverDelta.EMPTY, size);
+		}
+		private DocumentUuidResolver(long[] indexHigh, long[] indexLow, long[] data, int size, ResolverDelta delta, int totalSize) {
 			this.indexHigh = indexHigh;
 			this.indexLow = indexLow;
 			this.data = data;
 			this.size = size;
+			this.delta = delta;
+			this.totalSize = totalSize;
 		}
-		private int findDocumentUuidPos(String docUuid) {
-			long uuidHigh = encodeHex(docUuid, 0);
+		private int findBasePos(long uuidHigh, long uuidLow) {
 			int pos = Arrays.binarySearch(this.indexHigh, 0, this.size, uuidHigh);
 			if ((pos < 0) || (this.size <= pos))
 				return -1;
@@ -5849,7 +7695,6 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				return -1;
 			while ((pos != 0) && (this.indexHigh[pos-1] == uuidHigh))
 				pos--;
-			long uuidLow = encodeHex(docUuid, 16);
 			while ((pos < this.size) && (this.indexHigh[pos] == uuidHigh)) {
 				if (this.indexLow[pos] < uuidLow)
 					pos++;
@@ -5860,124 +7705,108 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			return -1;
 		}
 		boolean containsDocumentUuid(String docUuid) {
-			return (this.findDocumentUuidPos(docUuid) != -1);
+			long uuidHigh = encodeHex(docUuid, 0);
+			long uuidLow = encodeHex(docUuid, 16);
+			int d = this.delta.find(uuidHigh, uuidLow);
+			if (d != -1)
+				return (this.delta.values[d] != null);
+			return (this.findBasePos(uuidHigh, uuidLow) != -1);
 		}
 		long getDocumentNumber(String docUuid) {
-			int pos = this.findDocumentUuidPos(docUuid);
+			long uuidHigh = encodeHex(docUuid, 0);
+			long uuidLow = encodeHex(docUuid, 16);
+			int d = this.delta.find(uuidHigh, uuidLow);
+			if (d != -1)
+				return ((this.delta.values[d] == null) ? -1 : ((Long) this.delta.values[d]).longValue());
+			int pos = this.findBasePos(uuidHigh, uuidLow);
 			return ((pos == -1) ? -1 : this.data[pos]);
 		}
 		
-		boolean updateDocumentUuidMapping(String docUuid, long docNr) {
-			int pos = this.findDocumentUuidPos(docUuid);
-			if (pos == -1)
-				return false;
-			this.data[pos] = docNr;
-			return true;
-		}
 		DocumentUuidResolver cloneForChanges(HashMap addedDocUuidsToNrs, HashSet removedDocUuids) {
+			TreeMap changes = new TreeMap(ResolverDelta.keyOrder);
+			int cTotalSize = this.totalSize;
 			
-			//	line up to-add document UUIDs
-			String[] added = new String[addedDocUuidsToNrs.size()];
-			int a = 0;
-			for (Iterator duit = addedDocUuidsToNrs.keySet().iterator(); duit.hasNext();) {
-				String docUuid = ((String) duit.next());
-				Long docNr = ((Long) addedDocUuidsToNrs.get(docUuid));
-				if (!this.updateDocumentUuidMapping(docUuid, docNr.longValue()))
-					added[a++] = docUuid;
-			}
-			if (a < added.length) {
-				String[] cAdded = new String[a];
-				System.arraycopy(added, 0, cAdded, 0, a);
-				added = cAdded;
-			}
-			
-			//	filter out to-remove document UUIDs that are not contained or will be added
-			String[] removed = new String[removedDocUuids.size()];
-			int r = 0;
+			//	line up to-remove document UUIDs that are contained and will not be added
 			for (Iterator duit = removedDocUuids.iterator(); duit.hasNext();) {
 				String docUuid = ((String) duit.next());
 				if (addedDocUuidsToNrs.containsKey(docUuid))
 					continue; // this one's being re-added
 				if (!this.containsDocumentUuid(docUuid))
 					continue; // not removing this one
-				removed[r++] = docUuid;
-			}
-			if (r < removed.length) {
-				String[] cRemoved = new String[r];
-				System.arraycopy(removed, 0, cRemoved, 0, r);
-				removed = cRemoved;
-			}
-			
-			//	anything left to do at all?
-			if ((added.length == 0) && (removed.length == 0))
-				return this;
-			
-			//	line up to-add document UUID bytes
-			Arrays.sort(added, signAwareHexStringOrder);
-			long[] addedHigh = new long[added.length];
-			long[] addedLow = new long[added.length];
-			for (a = 0; a < added.length; a++) {
-				addedHigh[a] = encodeHex(added[a], 0);
-				addedLow[a] = encodeHex(added[a], 16);
+				if (changes.put(ResolverDelta.key(encodeHex(docUuid, 0), encodeHex(docUuid, 16)), null) == null)
+					cTotalSize--;
 			}
 			
-			//	line up to-remove document UUID bytes
-			Arrays.sort(removed, signAwareHexStringOrder);
-			long[] removedHigh = new long[removed.length];
-			long[] removedLow = new long[removed.length];
-			for (r = 0; r < removed.length; r++) {
-				removedHigh[r] = encodeHex(removed[r], 0);
-				removedLow[r] = encodeHex(removed[r], 16);
+			//	line up to-add document UUIDs that are new or map to a different document number
+			for (Iterator duit = addedDocUuidsToNrs.keySet().iterator(); duit.hasNext();) {
+				String docUuid = ((String) duit.next());
+				Long docNr = ((Long) addedDocUuidsToNrs.get(docUuid));
+				if (!this.containsDocumentUuid(docUuid))
+					cTotalSize++;
+				else if (this.getDocumentNumber(docUuid) == docNr.longValue())
+					continue;
+				changes.put(ResolverDelta.key(encodeHex(docUuid, 0), encodeHex(docUuid, 16)), docNr);
 			}
 			
-			//	sort to-add and to-remove document numbers
-			a = 0;
-			r = 0;
-			
-			//	merge data into new array (we're only ever reading the main ones, for thread safety)
-			int cSize = (this.size + added.length - removed.length);
-			long[] cIndexHigh = new long[cSize];
-			long[] cIndexLow = new long[cSize];
-			long[] cData = new long[cSize];
+			//	anything to do at all?
+			if (changes.isEmpty())
+				return this;
+			return new DocumentUuidResolver(this.indexHigh, this.indexLow, this.data, this.size, this.delta.with(changes), cTotalSize);
+		}
+		
+		boolean needsCompaction() {
+			return (this.delta.size() > getResolverDeltaCompactionSize(this.size));
+		}
+		DocumentUuidResolver compact() {
+			if (this.delta.size() == 0)
+				return this;
+			long[] cIndexHigh = new long[this.totalSize];
+			long[] cIndexLow = new long[this.totalSize];
+			long[] cData = new long[this.totalSize];
 			int cn = 0;
-			for (int n = 0; n < this.size; n++) {
+			int n = 0;
+			for (int d = 0; d <= this.delta.size(); d++) {
 				
-				//	handle insertions before current document UUID
-				while ((a < added.length) && ((addedHigh[a] < this.indexHigh[n]) || ((addedHigh[a] == this.indexHigh[n]) && (addedLow[a] < this.indexLow[n])))) {
-					Long docNr = ((Long) addedDocUuidsToNrs.get(added[a]));
-					cIndexHigh[cn] = addedHigh[a];
-					cIndexLow[cn] = addedLow[a];
-					cData[cn] = docNr.longValue();
+				//	copy base entries before current delta entry
+				while ((n < this.size) && ((d == this.delta.size()) || (ResolverDelta.compare(this.indexHigh[n], this.indexLow[n], this.delta.keysHigh[d], this.delta.keysLow[d]) < 0))) {
+					cIndexHigh[cn] = this.indexHigh[n];
+					cIndexLow[cn] = this.indexLow[n];
+					cData[cn] = this.data[n];
 					cn++;
-					a++;
+					n++;
 				}
+				if (d == this.delta.size())
+					break;
 				
-				//	handle removals
-				if (r == removed.length) {} // all removals handled
-				else if ((removedHigh[r] == this.indexHigh[n]) && (removedLow[r] == this.indexLow[n])) {
-					r++; // move on to next to-remove document number
-					continue; // skip over copying to-remove document number
-				}
+				//	skip over base entry replaced by current delta entry
+				if ((n < this.size) && (this.indexHigh[n] == this.delta.keysHigh[d]) && (this.indexLow[n] == this.delta.keysLow[d]))
+					n++;
 				
-				//	copy current document UUID
-				cIndexHigh[cn] = this.indexHigh[n];
-				cIndexLow[cn] = this.indexLow[n];
-				cData[cn] = this.data[n];
-				cn++;
-			}
-			
-			//	handle any additions after last document number
-			while (a < added.length) {
-				Long docNr = ((Long) addedDocUuidsToNrs.get(added[a]));
-				cIndexHigh[cn] = addedHigh[a];
-				cIndexLow[cn] = addedLow[a];
+				//	add current delta entry unless it's a removal
+				Long docNr = ((Long) this.delta.values[d]);
+				if (docNr == null)
+					continue;
+				cIndexHigh[cn] = this.delta.keysHigh[d];
+				cIndexLow[cn] = this.delta.keysLow[d];
 				cData[cn] = docNr.longValue();
 				cn++;
-				a++;
 			}
-			
-			//	finally ...
-			return new DocumentUuidResolver(cIndexHigh, cIndexLow, cData, cSize);
+			return new DocumentUuidResolver(cIndexHigh, cIndexLow, cData, cn);
+		}
+		DocumentUuidResolver rebase(DocumentUuidResolver original, DocumentUuidResolver compacted) {
+			if (this.data != original.data)
+				return this; // base replaced by other means since compaction started
+			if (this == original)
+				return compacted;
+			boolean[] keep = new boolean[this.delta.size()];
+			for (int d = 0; d < keep.length; d++) {
+				int pos = compacted.findBasePos(this.delta.keysHigh[d], this.delta.keysLow[d]);
+				Long docNr = ((Long) this.delta.values[d]);
+				if (docNr == null)
+					keep[d] = (pos != -1);
+				else keep[d] = ((pos == -1) || (compacted.data[pos] != docNr.longValue()));
+			}
+			return new DocumentUuidResolver(compacted.indexHigh, compacted.indexLow, compacted.data, compacted.size, this.delta.filter(keep), this.totalSize);
 		}
 		
 		void mapDocumentUuid(String docUuid, long docNr) {
@@ -6003,6 +7832,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.indexLow[this.size] = uuid[1];
 			this.data[this.size] = docNr;
 			this.size++;
+			this.totalSize++;
 		}
 		DocumentUuidResolver cloneToSize() {
 			if (this.data.length == this.size)
@@ -6021,9 +7851,12 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 		private long[] indexHigh;
 		private long[] indexLow;
 		private int[] dataOffsets;
-		private int size;
+		private int size; // size of base arrays
 		private long[] data;
 		private int dataSize;
+		private ResolverDelta delta = ResolverDelta.EMPTY; // values are document number arrays
+		private int totalSize;
+		private int totalDataSize;
 		MasterDocumentIdMapper() {
 			this.indexHigh = new long[32];
 			this.indexLow = new long[32];
@@ -6031,17 +7864,24 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.size = 0;
 			this.data = new long[1024];
 			this.dataSize = 0;
+			this.totalSize = 0;
+			this.totalDataSize = 0;
 		}
 		private MasterDocumentIdMapper(long[] indexHigh, long[] indexLow, int[] dataOffsets, int size, long[] data, int dataSize) {
+			this(indexHigh, indexLow, dataOffsets, size, data, dataSize, ResolverDelta.EMPTY, size, dataSize);
+		}
+		private MasterDocumentIdMapper(long[] indexHigh, long[] indexLow, int[] dataOffsets, int size, long[] data, int dataSize, ResolverDelta delta, int totalSize, int totalDataSize) {
 			this.indexHigh = indexHigh;
 			this.indexLow = indexLow;
 			this.dataOffsets = dataOffsets;
 			this.size = size;
 			this.data = data;
 			this.dataSize = dataSize;
+			this.delta = delta;
+			this.totalSize = totalSize;
+			this.totalDataSize = totalDataSize;
 		}
-		private int findMasterDocumentIdPos(String masterDocId) {
-			long mdidHigh = encodeHex(masterDocId, 0);
+		private int findBasePos(long mdidHigh, long mdidLow) {
 			int pos = Arrays.binarySearch(this.indexHigh, 0, this.size, mdidHigh);
 			if ((pos < 0) || (this.size <= pos))
 				return -1;
@@ -6049,7 +7889,6 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 				return -1;
 			while ((pos != 0) && (this.indexHigh[pos-1] == mdidHigh))
 				pos--;
-			long mdidLow = encodeHex(masterDocId, 16);
 			while ((pos < this.size) && (this.indexHigh[pos] == mdidHigh)) {
 				if (this.indexLow[pos] < mdidLow)
 					pos++;
@@ -6059,135 +7898,136 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 			return -1;
 		}
-//		boolean containsMasterDocumentId(String masterDocId) {
-//			return (this.findMasterDocumentIdPos(masterDocId) != -1);
-//		}
-		long[] getDocumentNumbers(String masterDocId) {
-			int pos = this.findMasterDocumentIdPos(masterDocId);
-			if (pos == -1)
-				return null;
+		private int getBaseDocumentCount(int pos) {
 			int dataStart = this.dataOffsets[pos];
 			int dataEnd = (((pos + 1) < this.size) ? this.dataOffsets[pos + 1] : this.dataSize);
-			long[] docNrs = new long[dataEnd - dataStart];
-			System.arraycopy(this.data, dataStart, docNrs, 0, docNrs.length);
+			return (dataEnd - dataStart);
+		}
+		private long[] getBaseDocumentNumbers(int pos) {
+			long[] docNrs = new long[this.getBaseDocumentCount(pos)];
+			System.arraycopy(this.data, this.dataOffsets[pos], docNrs, 0, docNrs.length);
 			return docNrs;
 		}
+		long[] getDocumentNumbers(String masterDocId) {
+			long mdidHigh = encodeHex(masterDocId, 0);
+			long mdidLow = encodeHex(masterDocId, 16);
+			int d = this.delta.find(mdidHigh, mdidLow);
+			if (d != -1) {
+				long[] docNrs = ((long[]) this.delta.values[d]);
+				if (docNrs == null)
+					return null;
+				long[] cDocNrs = new long[docNrs.length];
+				System.arraycopy(docNrs, 0, cDocNrs, 0, docNrs.length);
+				return cDocNrs;
+			}
+			int pos = this.findBasePos(mdidHigh, mdidLow);
+			return ((pos == -1) ? null : this.getBaseDocumentNumbers(pos));
+		}
 		int getDocumentCount() {
-			return this.dataSize;
+			return this.totalDataSize;
 		}
 		int getDocumentCount(String masterDocId) {
-			int pos = this.findMasterDocumentIdPos(masterDocId);
-			if (pos == -1)
-				return -1;
-			int dataStart = this.dataOffsets[pos];
-			int dataEnd = (((pos + 1) < this.size) ? this.dataOffsets[pos + 1] : this.dataSize);
-			return (dataEnd - dataStart);
+			long mdidHigh = encodeHex(masterDocId, 0);
+			long mdidLow = encodeHex(masterDocId, 16);
+			int d = this.delta.find(mdidHigh, mdidLow);
+			if (d != -1)
+				return ((this.delta.values[d] == null) ? -1 : ((long[]) this.delta.values[d]).length);
+			int pos = this.findBasePos(mdidHigh, mdidLow);
+			return ((pos == -1) ? -1 : this.getBaseDocumentCount(pos));
 		}
 		
-		boolean updateMasterDocumentIdMapping(String masterDocId, long[] docNrs) {
-			int pos = this.findMasterDocumentIdPos(masterDocId);
-			if (pos == -1)
-				return false;
-			int dataStart = this.dataOffsets[pos];
-			int dataEnd = (((pos + 1) < this.size) ? this.dataOffsets[pos + 1] : this.dataSize);
-			if (docNrs.length != (dataEnd - dataStart))
-				return false;
-			System.arraycopy(docNrs, 0, this.data, dataStart, docNrs.length);
-			return true;
-		}
 		MasterDocumentIdMapper cloneForChanges(String masterDocId, long[] docNrs) {
+			long[] exDocNrs = this.getDocumentNumbers(masterDocId);
+			int cTotalSize = this.totalSize;
+			int cTotalDataSize = this.totalDataSize;
 			
-			//	try to perform update in place
-			if ((docNrs != null) && (docNrs.length != 0) && this.updateMasterDocumentIdMapping(masterDocId, docNrs))
-				return this;
-			
-			//	extract binary key, and get number of existing entries
-			int exDocNrCount = this.getDocumentCount(masterDocId);
-			
-			//	no use removing non-existing entry
-			if ((exDocNrCount == -1) && ((docNrs == null) || (docNrs.length == 0)))
-				return this;
-			
-			//	compute size of cloned arrays
-			int cSize;
-			int cDataSize;
-			
-			//	new entry, also need to manipulate index arrays
-			if (exDocNrCount == -1) {
-				cSize = (this.size + 1);
-				cDataSize = (this.dataSize + docNrs.length);
-			}
-			
-			//	removal of existing entry
-			else if ((docNrs == null) || (docNrs.length == 0)) {
-				cSize = (this.size - 1);
-				cDataSize = (this.dataSize - exDocNrCount);
+			//	removal of (existing) entry
+			long[] cDocNrs;
+			if ((docNrs == null) || (docNrs.length == 0)) {
+				if (exDocNrs == null)
+					return this; // no use removing non-existing entry
+				cDocNrs = null;
+				cTotalSize--;
+				cTotalDataSize -= exDocNrs.length;
 			}
 			
-			//	existing entry with changed content
+			//	new entry, or existing entry with changed content
 			else {
-				cSize = this.size;
-				cDataSize = (this.dataSize + docNrs.length - exDocNrCount);
+				if (Arrays.equals(docNrs, exDocNrs))
+					return this; // nothing changed
+				cDocNrs = new long[docNrs.length];
+				System.arraycopy(docNrs, 0, cDocNrs, 0, docNrs.length);
+				if (exDocNrs == null)
+					cTotalSize++;
+				cTotalDataSize += (docNrs.length - ((exDocNrs == null) ? 0 : exDocNrs.length));
 			}
 			
-			//	get the bytes we're aiming for
-			long addedHigh = encodeHex(masterDocId, 0);
-			long addedLow = encodeHex(masterDocId, 16);
-			
-			//	merge data into new array (we're only ever reading the main ones, for thread safety)
-			long[] cIndexHigh = new long[cSize];
-			long[] cIndexLow = new long[cSize];
-			int[] cDataOffsets = new int[cSize];
+			//	add to delta
+			TreeMap changes = new TreeMap(ResolverDelta.keyOrder);
+			changes.put(ResolverDelta.key(encodeHex(masterDocId, 0), encodeHex(masterDocId, 16)), cDocNrs);
+			return new MasterDocumentIdMapper(this.indexHigh, this.indexLow, this.dataOffsets, this.size, this.data, this.dataSize, this.delta.with(changes), cTotalSize, cTotalDataSize);
+		}
+		
+		boolean needsCompaction() {
+			return (this.delta.size() > getResolverDeltaCompactionSize(this.size));
+		}
+		MasterDocumentIdMapper compact() {
+			if (this.delta.size() == 0)
+				return this;
+			long[] cIndexHigh = new long[this.totalSize];
+			long[] cIndexLow = new long[this.totalSize];
+			int[] cDataOffsets = new int[this.totalSize];
 			int cn = 0;
-			long[] cData = new long[cDataSize];
+			long[] cData = new long[this.totalDataSize];
 			int cdn = 0;
-			for (int n = 0; n < this.size; n++) {
+			int n = 0;
+			for (int d = 0; d <= this.delta.size(); d++) {
 				
-				//	handle insertion before current master document ID
-				if ((exDocNrCount == -1) && (addedHigh < this.indexHigh[n]) || ((addedHigh == this.indexHigh[n]) && (addedLow < this.indexLow[n]))) {
-					cIndexHigh[cn] = addedHigh;
-					cIndexLow[cn] = addedLow;
+				//	copy base entries before current delta entry
+				while ((n < this.size) && ((d == this.delta.size()) || (ResolverDelta.compare(this.indexHigh[n], this.indexLow[n], this.delta.keysHigh[d], this.delta.keysLow[d]) < 0))) {
+					int docCount = this.getBaseDocumentCount(n);
+					cIndexHigh[cn] = this.indexHigh[n];
+					cIndexLow[cn] = this.indexLow[n];
 					cDataOffsets[cn] = cdn;
-					System.arraycopy(docNrs, 0, cData, cdn, docNrs.length);
+					System.arraycopy(this.data, this.dataOffsets[n], cData, cdn, docCount);
 					cn++;
-					cdn += docNrs.length;
-					exDocNrCount = docNrs.length; // need to mark as done
+					cdn += docCount;
+					n++;
 				}
+				if (d == this.delta.size())
+					break;
 				
-				//	handle update or skip removal
-				else if ((addedHigh == this.indexHigh[n]) && (addedLow == this.indexLow[n])) {
-					if ((docNrs == null) || (docNrs.length == 0))
-						continue;
-					cDataOffsets[cn] = cdn;
-					System.arraycopy(docNrs, 0, cData, cdn, docNrs.length);
-					cn++;
-					cdn += docNrs.length;
-					continue;
-				}
+				//	skip over base entry replaced by current delta entry
+				if ((n < this.size) && (this.indexHigh[n] == this.delta.keysHigh[d]) && (this.indexLow[n] == this.delta.keysLow[d]))
+					n++;
 				
-				//	copy current master document ID and associated document numbers
-				cIndexHigh[cn] = this.indexHigh[n];
-				cIndexLow[cn] = this.indexLow[n];
-				cDataOffsets[cn] = cdn;
-				int dataStart = this.dataOffsets[n];
-				int dataEnd = (((n + 1) < this.size) ? this.dataOffsets[n + 1] : this.dataSize);
-				System.arraycopy(this.data, dataStart, cData, cdn, (dataEnd - dataStart));
-				cn++;
-				cdn += (dataEnd - dataStart);
-			}
-			
-			//	handle any additions after last document number
-			if (exDocNrCount == -1) {
-				cIndexHigh[cn] = addedHigh;
-				cIndexLow[cn] = addedLow;
+				//	add current delta entry unless it's a removal
+				long[] docNrs = ((long[]) this.delta.values[d]);
+				if (docNrs == null)
+					continue;
+				cIndexHigh[cn] = this.delta.keysHigh[d];
+				cIndexLow[cn] = this.delta.keysLow[d];
 				cDataOffsets[cn] = cdn;
 				System.arraycopy(docNrs, 0, cData, cdn, docNrs.length);
 				cn++;
 				cdn += docNrs.length;
 			}
-			
-			//	finally ...
-			return new MasterDocumentIdMapper(cIndexHigh, cIndexLow, cDataOffsets, cSize, cData, cDataSize);
+			return new MasterDocumentIdMapper(cIndexHigh, cIndexLow, cDataOffsets, cn, cData, cdn);
+		}
+		MasterDocumentIdMapper rebase(MasterDocumentIdMapper original, MasterDocumentIdMapper compacted) {
+			if (this.data != original.data)
+				return this; // base replaced by other means since compaction started
+			if (this == original)
+				return compacted;
+			boolean[] keep = new boolean[this.delta.size()];
+			for (int d = 0; d < keep.length; d++) {
+				int pos = compacted.findBasePos(this.delta.keysHigh[d], this.delta.keysLow[d]);
+				long[] docNrs = ((long[]) this.delta.values[d]);
+				if (docNrs == null)
+					keep[d] = (pos != -1);
+				else keep[d] = ((pos == -1) || !Arrays.equals(docNrs, compacted.getBaseDocumentNumbers(pos)));
+			}
+			return new MasterDocumentIdMapper(compacted.indexHigh, compacted.indexLow, compacted.dataOffsets, compacted.size, compacted.data, compacted.dataSize, this.delta.filter(keep), this.totalSize, this.totalDataSize);
 		}
 		
 		void mapMasterDocumentId(String masterDocId, long[] docNrs) {
@@ -6213,6 +8053,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			this.indexLow[this.size] = mdidLow;
 			this.dataOffsets[this.size] = this.dataSize;
 			this.size++;
+			this.totalSize++;
 			if (this.data.length < (this.dataSize + docNrs.length)) {
 				int scaleUp = 2;
 				while ((this.data.length * scaleUp) < (this.dataSize + docNrs.length))
@@ -6223,6 +8064,7 @@ public class GoldenGateSRS extends AbstractGoldenGateServerComponent implements
 			}
 			System.arraycopy(docNrs, 0, this.data, this.dataSize, docNrs.length);
 			this.dataSize += docNrs.length;
+			this.totalDataSize += docNrs.length;
 		}
 		MasterDocumentIdMapper cloneToSize() {
 			if ((this.dataOffsets.length == this.size) && (this.data.length == this.dataSize))
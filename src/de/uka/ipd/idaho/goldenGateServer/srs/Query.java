@@ -38,23 +38,51 @@ import java.util.Vector;
  *
  */
 public class Query {
-	private Properties variables = new Properties();
+	private Properties variables;
 	private String indexNameMask = null;
+	private Query parent = null;
 	
 	private Vector partialResults = new Vector();
 	private QueryResult result = null;
 	
 	/**	void Constructor
 	 */
-	public Query() {}
+	public Query() {
+		this.variables = new Properties();
+	}
+	
+	/* masked view constructor, sharing variables and partial results with
+	 * the parent query, but having its own index name mask */
+	private Query(Query parent, String indexNameMask) {
+		this.variables = parent.variables;
+		this.partialResults = parent.partialResults;
+		this.parent = parent;
+		this.indexNameMask = indexNameMask;
+	}
+	
+	/**
+	 * Obtain a view of this query that has its index name mask fixed to a
+	 * specific index name. The returned view shares variables and partial
+	 * results with this query, but its index name mask is independent. This
+	 * facilitates handing a query to multiple indexers concurrently, as no
+	 * thread needs to change the index name mask of the shared query.
+	 * @param	indexName	the index name to use as the mask
+	 * @return a view of this query masked to the argument index name
+	 */
+	public Query getIndexView(String indexName) {
+		return new Query(((this.parent == null) ? this : this.parent), indexName);
+	}
 	
 	/** add a variable to this Query
 	 * @param	name	the name of the variable to add
 	 * @param	value	the value of the variable to add
 	 */
 	public void setValue(String name, String value) {
-		this.variables.setProperty(name, value);
-		this.queryString = null;
+		if (this.parent == null) {
+			this.variables.setProperty(name, value);
+			this.queryString = null;
+		}
+		else this.parent.setValue(name, value);
 	}
 	
 	/** add a variable to this Query which is dedicated for some custom indexer
@@ -68,6 +96,8 @@ public class Query {
 	}
 	
 	/**	set the index name mask (this index name will be put before any variable name automatically)
+	 * Note: the mask is a plain field of this query object, so code handing the
+	 * query to multiple indexers concurrently should use getIndexView() instead
 	 * @param	mask	the Indexer ID to use for masking the variable names (null resets the mask)
 	 */
 	public void setIndexNameMask(String mask) {
@@ -100,15 +130,19 @@ public class Query {
 		if (this.indexNameMask == null)
 			return this.variables.size();
 		int size = 0;
-		for (Iterator nit = this.variables.keySet().iterator(); nit.hasNext();) {
-			String name = ((String) nit.next());
-			if (name.startsWith(this.indexNameMask + "."))
-				size++; 
+		synchronized (this.variables) {
+			for (Iterator nit = this.variables.keySet().iterator(); nit.hasNext();) {
+				String name = ((String) nit.next());
+				if (name.startsWith(this.indexNameMask + "."))
+					size++; 
+			}
 		}
 		return size;
 	}
 	
-	/**	add a partial result to the query contained in this Envelope
+	/**	add a partial result to the query contained in this Envelope (this
+	 * method is thread safe, and views obtained from getIndexView() add their
+	 * partial results to the query they were obtained from)
 	 * @param	partialResult	the partial result to be added
 	 */
 	public void addPartialResult(QueryResult partialResult) {
@@ -126,21 +160,28 @@ public class Query {
 	 * @param	result		the QueryResult containing the final result of the query
 	 */
 	public void setResult(QueryResult result) {
-		this.result = result;
+		if (this.parent == null)
+			this.result = result;
+		else this.parent.setResult(result);
 	}
 	
 	/**	@return	the final result of this query
 	 */
 	public QueryResult getResult() {
-		return this.result;
+		return ((this.parent == null) ? this.result : this.parent.getResult());
 	}
 
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
+		if (this.parent != null)
+			return this.parent.toString();
 		if (this.queryString == null) {
-			ArrayList vnl = new ArrayList(this.variables.keySet());
+			ArrayList vnl;
+			synchronized (this.variables) {
+				vnl = new ArrayList(this.variables.keySet());
+			}
 			StringBuffer sb = new StringBuffer();
 			for (int n = 0; n < vnl.size(); n++) {
 				if (sb.length() != 0)
@@ -29,11 +29,16 @@ package de.uka.ipd.idaho.goldenGateServer.srs;
 
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 
 /**
- * The (ranked) result of a query to the SRS 
+ * The (ranked) result of a query to the SRS. Internally, document numbers and
+ * relevance values are stored in parallel primitive arrays, and result
+ * elements are only created on request. The arrays are sorted by relevance
+ * lazily whenever elements are accessed by index, and by document number
+ * whenever results are merged or joined. Results of merges and joins come
+ * out sorted by document number, so chained merges get by without any
+ * further sorting.
  * 
  * @author sautter
  */
@@ -65,10 +70,12 @@ public class QueryResult {
 		}
 	};
 	
-	private QueryResultElement[] elements = new QueryResultElement[16];
+	private long[] docNrs = new long[16];
+	private double[] relevances = new double[16];
 	private int size = 0;
-	private int modCount = 0;
-	private int cleanModCount = 0;
+	
+	private boolean isSortedByDocNr = true;
+	private boolean isSortedByRelevance = true;
 	
 	private int maxSize = 0;
 	private boolean isSortedDescending = true;
@@ -105,22 +112,56 @@ public class QueryResult {
 		this.maxSize = ((maxSize > 0) ? maxSize : 0);
 	}
 	
+	/* constructor wrapping the arrays produced by merges and joins, which are sorted by document number */
+	private QueryResult(long[] docNrs, double[] relevances, int size, int maxSize, int mergeCount) {
+		this(maxSize, true);
+		this.docNrs = docNrs;
+		this.relevances = relevances;
+		this.size = size;
+		this.isSortedByRelevance = (size < 2);
+		this.mergeCount = mergeCount;
+	}
+	
 	/**
 	 * Add a QueryResultElement to this QueryResult
 	 * 	Attention: if a maximum size was specified and the new QueryResultElement causes this QueryResult's size to exceed this limit, the least relevant QueryResultElement will be pruned
 	 */
 	public void addResultElement(QueryResultElement qre) {
+		this.addResultElement(qre.docNr, qre.relevance);
+	}
+	
+	/**
+	 * Add a result element to this QueryResult, without creating a
+	 * QueryResultElement object.
+	 * 	Attention: if a maximum size was specified and the new element causes this QueryResult's size to exceed this limit, the least relevant element will be pruned
+	 * @param docNr the SRS internal number of the result document
+	 * @param relevance the relevance of the result document
+	 */
+	public void addResultElement(long docNr, double relevance) {
 		
 		//	ensure capacity
-		if (this.elements.length == this.size) {
-			QueryResultElement[] elements = new QueryResultElement[this.size * 2];
-			System.arraycopy(this.elements, 0, elements, 0, this.size);
-			this.elements = elements;
+		if (this.docNrs.length == this.size) {
+			long[] docNrs = new long[this.size * 2];
+			System.arraycopy(this.docNrs, 0, docNrs, 0, this.size);
+			this.docNrs = docNrs;
+			double[] relevances = new double[this.size * 2];
+			System.arraycopy(this.relevances, 0, relevances, 0, this.size);
+			this.relevances = relevances;
+		}
+		
+		//	keep track of sort order (appending in order keeps it intact, ties included, as relevance sort is stable)
+		if (this.size != 0) {
+			if (this.docNrs[this.size-1] >= docNr)
+				this.isSortedByDocNr = false;
+			int c = Double.compare(this.relevances[this.size-1], relevance);
+			if (this.isSortedDescending ? (c < 0) : (c > 0))
+				this.isSortedByRelevance = false;
 		}
 		
 		//	add result element
-		this.elements[this.size++] = qre;
-		this.modCount++;
+		this.docNrs[this.size] = docNr;
+		this.relevances[this.size] = relevance;
+		this.size++;
 		
 		//	ensure that size limit is not exceeded by too much
 		if ((0 < this.maxSize) && ((this.maxSize * 3) < (this.size * 2)))
@@ -128,16 +169,18 @@ public class QueryResult {
 	}
 	
 	private void ensureClean() {
-		if (this.modCount == this.cleanModCount)
-			return;
-		Arrays.sort(this.elements, 0, this.size, (this.isSortedDescending ? decreasingRelevanceSortOrder : Collections.reverseOrder(decreasingRelevanceSortOrder)));
+		if (!this.isSortedByRelevance) {
+			sortElements(this.docNrs, this.relevances, this.size, false, this.isSortedDescending);
+			this.isSortedByRelevance = true;
+			this.isSortedByDocNr = (this.size < 2);
+		}
 		if ((0 < this.maxSize) && (this.maxSize < this.size)) {
-			if (!this.isSortedDescending)
-				System.arraycopy(this.elements, (this.size - this.maxSize), this.elements, 0, this.maxSize);
-			Arrays.fill(this.elements, this.maxSize, this.size, null);
+			if (!this.isSortedDescending) {
+				System.arraycopy(this.docNrs, (this.size - this.maxSize), this.docNrs, 0, this.maxSize);
+				System.arraycopy(this.relevances, (this.size - this.maxSize), this.relevances, 0, this.maxSize);
+			}
 			this.size = this.maxSize;
 		}
-		this.cleanModCount = this.modCount;
 	}
 	
 	/**	@return	the index-th QueryResultElement of this QueryResult, or null if the specified index exceeds the number of contained ResultElements
@@ -145,14 +188,45 @@ public class QueryResult {
 	public QueryResultElement getResult(int index) {
 		this.ensureClean();
 		if ((0 <= index) && (index < this.size))
-			return this.elements[index];
+			return new QueryResultElement(this.docNrs[index], this.relevances[index]);
 		else return null;
 	}
 	
+	/**
+	 * Retrieve the document number of the index-th element of this
+	 * QueryResult, without creating a QueryResultElement object.
+	 * @param index the index of the element
+	 * @return the document number of the index-th element
+	 * @throws ArrayIndexOutOfBoundsException if the specified index exceeds
+	 *            the number of contained elements
+	 */
+	public long getDocNr(int index) {
+		this.ensureClean();
+		if ((0 <= index) && (index < this.size))
+			return this.docNrs[index];
+		else throw new ArrayIndexOutOfBoundsException(index);
+	}
+	
+	/**
+	 * Retrieve the relevance of the index-th element of this QueryResult,
+	 * without creating a QueryResultElement object.
+	 * @param index the index of the element
+	 * @return the relevance of the index-th element
+	 * @throws ArrayIndexOutOfBoundsException if the specified index exceeds
+	 *            the number of contained elements
+	 */
+	public double getRelevance(int index) {
+		this.ensureClean();
+		if ((0 <= index) && (index < this.size))
+			return this.relevances[index];
+		else throw new ArrayIndexOutOfBoundsException(index);
+	}
+	
 	/**	@return	the number of QueryResultElement contained in this QueryResult
 	 */
 	public int size() {
-		this.ensureClean();
+		if ((0 < this.maxSize) && (this.maxSize < this.size))
+			this.ensureClean();
 		return this.size;
 	}
 	
@@ -161,7 +235,8 @@ public class QueryResult {
 	public QueryResultElement[] getContentArray() {
 		this.ensureClean();
 		QueryResultElement[] qres = new QueryResultElement[this.size];
-		System.arraycopy(this.elements, 0, qres, 0, this.size);
+		for (int e = 0; e < this.size; e++)
+			qres[e] = new QueryResultElement(this.docNrs[e], this.relevances[e]);
 		return qres;
 	}
 	
@@ -173,15 +248,19 @@ public class QueryResult {
 	public int pruneByRelevance(double threshold) {
 		if ((threshold <= 0) || (1 <= threshold))
 			return 0;
-		this.ensureClean();
+		if ((0 < this.maxSize) && (this.maxSize < this.size))
+			this.ensureClean();
+		
+		//	filtering retains any sort order
 		int removed = 0;
 		for (int e = 0; e < this.size; e++) {
-			if (this.elements[e].relevance < threshold)
+			if (this.relevances[e] < threshold)
 				removed++;
-			else if (removed != 0)
-				this.elements[e - removed] = this.elements[e];
+			else if (removed != 0) {
+				this.docNrs[e - removed] = this.docNrs[e];
+				this.relevances[e - removed] = this.relevances[e];
+			}
 		}
-		Arrays.fill(this.elements, (this.size - removed), this.size, null);
 		this.size -= removed;
 		return removed;
 	}
@@ -211,9 +290,10 @@ public class QueryResult {
 		this.ensureClean();
 		if (this.size <= sizeThreshold)
 			return 0;
-		if (!this.isSortedDescending)
-			System.arraycopy(this.elements, (this.size - sizeThreshold), this.elements, 0, sizeThreshold);
-		Arrays.fill(this.elements, sizeThreshold, this.size, null);
+		if (!this.isSortedDescending) {
+			System.arraycopy(this.docNrs, (this.size - sizeThreshold), this.docNrs, 0, sizeThreshold);
+			System.arraycopy(this.relevances, (this.size - sizeThreshold), this.relevances, 0, sizeThreshold);
+		}
 		int removed = (this.size - sizeThreshold);
 		this.size = sizeThreshold;
 		if (preserveSize && (sizeThreshold < this.maxSize))
@@ -229,7 +309,7 @@ public class QueryResult {
 		if (this.isSortedDescending == descending)
 			return;
 		this.isSortedDescending = descending;
-		this.modCount++;
+		this.isSortedByRelevance = (this.size < 2);
 	}
 	
 	/**	
@@ -240,11 +320,24 @@ public class QueryResult {
 		StringBuffer ret = new StringBuffer();
 		ret.append("<result>");
 		for (int i = 0; i < this.size; i++)
-			ret.append(this.elements[i].toString());
+			ret.append(new QueryResultElement(this.docNrs[i], this.relevances[i]).toString());
 		ret.append("</result>");
 		return ret.toString();
 	}
 	
+	/* get this result sorted by document number, working on copies of the arrays if they are not, so argument results remain untouched */
+	private QueryResult getDocNrSorted() {
+		this.size(); // apply any pending size limit
+		if (this.isSortedByDocNr)
+			return this;
+		long[] docNrs = new long[this.size];
+		System.arraycopy(this.docNrs, 0, docNrs, 0, this.size);
+		double[] relevances = new double[this.size];
+		System.arraycopy(this.relevances, 0, relevances, 0, this.size);
+		sortElements(docNrs, relevances, this.size, true, true);
+		return new QueryResult(docNrs, relevances, this.size, 0, this.mergeCount);
+	}
+	
 	/**
 	 * Merge a QueryResult with this one.
 	 * @param 	qr						the QueryResult to be merged with this one
@@ -350,12 +443,12 @@ public class QueryResult {
 		if (queryResult2 == null)
 			return queryResult1;
 		
-		//	produce result
-		QueryResult result = new QueryResult(maxSize);
-		result.mergeCount = queryResult1.mergeCount + queryResult2.mergeCount;
-		
 		//	check parameter'c content
-		if ((queryResult1.size() == 0) && (queryResult2.size() == 0)) return result;
+		if ((queryResult1.size() == 0) && (queryResult2.size() == 0)) {
+			QueryResult result = new QueryResult(maxSize);
+			result.mergeCount = queryResult1.mergeCount + queryResult2.mergeCount;
+			return result;
+		}
 		
 		//	check if merge computation necessary
 		if (queryResult1.size() == 0) {
@@ -379,46 +472,52 @@ public class QueryResult {
 				return queryResult1;
 		}
 		
-		//	get content arrays
-		QueryResultElement[] qres1 = queryResult1.getContentArray();
-		QueryResultElement[] qres2 = queryResult2.getContentArray();
+		//	get arrays sorted by document number
+		QueryResult qr1 = queryResult1.getDocNrSorted();
+		QueryResult qr2 = queryResult2.getDocNrSorted();
+		long[] docNrs1 = qr1.docNrs;
+		double[] relevances1 = qr1.relevances;
+		int size1 = qr1.size;
+		long[] docNrs2 = qr2.docNrs;
+		double[] relevances2 = qr2.relevances;
+		int size2 = qr2.size;
 		
 		//	perform sort-merge full outer sort join
-		Arrays.sort(qres1, docNumberSortOrder);
-		Arrays.sort(qres2, docNumberSortOrder);
-		for (int index1 = 0, index2 = 0; (index1 < qres1.length) || (index2 < qres2.length);) {
+		long[] docNrs = new long[size1 + size2];
+		double[] relevances = new double[docNrs.length];
+		int size = 0;
+		for (int index1 = 0, index2 = 0; (index1 < size1) || (index2 < size2);) {
 			int c;
-			if ((index1 < qres1.length) && (index2 < qres2.length))
-				c = docNumberSortOrder.compare(qres1[index1], qres2[index2]);
-			else if (index1 < qres1.length)
+			if ((index1 < size1) && (index2 < size2))
+				c = ((docNrs1[index1] == docNrs2[index2]) ? 0 : ((docNrs1[index1] < docNrs2[index2]) ? -1 : 1));
+			else if (index1 < size1)
 				c = -1;
 			else c = 1;
-			QueryResultElement qre;
 			
 			//	ResultElements with matching IDs, join them
 			if (c == 0) {
-				qre = new QueryResultElement(qres1[index1].docNr, getCombinedRelevance(qres1[index1].relevance, queryResult1.mergeCount, qres2[index2].relevance, queryResult2.mergeCount, relevanceCombination));
+				docNrs[size] = docNrs1[index1];
+				relevances[size++] = getCombinedRelevance(relevances1[index1], queryResult1.mergeCount, relevances2[index2], queryResult2.mergeCount, relevanceCombination);
 				index1++;
 				index2++;
 			}
 			
 			//	ID of r1 is smaller QueryResultElement, increment index1
 			else if (c < 0) {
-				qre = new QueryResultElement(qres1[index1].docNr, getCombinedRelevance(qres1[index1].relevance, queryResult1.mergeCount, getMergeDummyRelevance(qres1[index1].relevance, relevanceCombination), 1, relevanceCombination));
+				docNrs[size] = docNrs1[index1];
+				relevances[size++] = getCombinedRelevance(relevances1[index1], queryResult1.mergeCount, getMergeDummyRelevance(relevances1[index1], relevanceCombination), 1, relevanceCombination);
 				index1++;
 			}
 			
 			//	ID of r2 is smaller QueryResultElement, increment index2
 			else {
-				qre = new QueryResultElement(qres2[index2].docNr, getCombinedRelevance(qres2[index2].relevance, queryResult2.mergeCount, getMergeDummyRelevance(qres2[index2].relevance, relevanceCombination), 1, relevanceCombination));
+				docNrs[size] = docNrs2[index2];
+				relevances[size++] = getCombinedRelevance(relevances2[index2], queryResult2.mergeCount, getMergeDummyRelevance(relevances2[index2], relevanceCombination), 1, relevanceCombination);
 				index2++;
 			}
-			
-			//	store combined element
-			result.addResultElement(qre);
 		}
 		
-		return result;
+		return new QueryResult(docNrs, relevances, size, maxSize, (queryResult1.mergeCount + queryResult2.mergeCount));
 	}
 	
 	//	get a dummy value for the relevance of result elements that don't have a merge partner
@@ -433,6 +532,151 @@ public class QueryResult {
 		return 0;
 	}
 	
+	/**
+	 * Merge any number of query results in a single pass, i.e., without
+	 * creating intermediate results. Null arguments are ignored. Relevance
+	 * values are combined over all argument results at once, so the outcome
+	 * does not depend on the order of the argument results. For two argument
+	 * results that do not stem from merges or joins themselves, the outcome
+	 * is the same as the one of the pairwise merge() method; for argument
+	 * results that do, an element missing from some argument results is
+	 * weighted by their actual merge counts in averaging mode, rather than
+	 * as a single missing element.
+	 * @param 	queryResults			the QueryResults to be merged
+	 * @param 	relevanceCombination	the mode to combine the relevance values
+	 * @param 	maxSize					the maximum size for the result
+	 * @return	a new QueryResult that contains all the ResultElements contained in any one of the argument QueryResults
+	 */
+	public static QueryResult merge(QueryResult[] queryResults, int relevanceCombination, int maxSize) {
+		
+		//	collect non-null arguments
+		QueryResult[] qrs = new QueryResult[queryResults.length];
+		int qrCount = 0;
+		int mergeCount = 0;
+		boolean anyEmpty = false;
+		for (int q = 0; q < queryResults.length; q++) {
+			if (queryResults[q] == null)
+				continue;
+			qrs[qrCount++] = queryResults[q];
+			mergeCount += queryResults[q].mergeCount;
+			anyEmpty = (anyEmpty || (queryResults[q].size() == 0));
+		}
+		
+		//	check if merge computation necessary
+		if (qrCount == 0)
+			return null;
+		if (qrCount == 1)
+			return qrs[0];
+		if (qrCount == 2)
+			return merge(qrs[0], qrs[1], relevanceCombination, maxSize);
+		if (anyEmpty && ((relevanceCombination == USE_MIN) || (relevanceCombination == MULTIPLY))) {
+			QueryResult result = new QueryResult(maxSize);
+			result.mergeCount = mergeCount;
+			return result;
+		}
+		
+		//	get arrays sorted by document number
+		int totalSize = 0;
+		for (int q = 0; q < qrCount; q++) {
+			qrs[q] = qrs[q].getDocNrSorted();
+			totalSize += qrs[q].size;
+		}
+		
+		//	initialize heap of argument results, ordered by their current document numbers
+		int[] indexes = new int[qrCount];
+		int[] heap = new int[qrCount];
+		int heapSize = 0;
+		for (int q = 0; q < qrCount; q++) {
+			if (qrs[q].size != 0)
+				heapSize = heapInsert(heap, heapSize, q, qrs, indexes);
+		}
+		
+		//	perform k-way merge
+		long[] docNrs = new long[totalSize];
+		double[] relevances = new double[totalSize];
+		int size = 0;
+		while (heapSize != 0) {
+			long docNr = qrs[heap[0]].docNrs[indexes[heap[0]]];
+			int present = 0;
+			double relevance = 0;
+			double relevanceWeightSum = 0;
+			
+			//	combine relevance values of all argument results containing current document number
+			while ((heapSize != 0) && (qrs[heap[0]].docNrs[indexes[heap[0]]] == docNr)) {
+				int q = heap[0];
+				double r = qrs[q].relevances[indexes[q]];
+				if (present == 0)
+					relevance = ((relevanceCombination == INVERSE_MULTIPLY) ? (1 - r) : r);
+				else switch (relevanceCombination) {
+					case USE_MIN: relevance = ((r < relevance) ? r : relevance); break;
+					case USE_MAX: relevance = ((r > relevance) ? r : relevance); break;
+					case MULTIPLY: relevance *= r; break;
+					case INVERSE_MULTIPLY: relevance *= (1 - r); break;
+				}
+				relevanceWeightSum += (r * qrs[q].mergeCount);
+				present++;
+				
+				//	move on in argument result
+				indexes[q]++;
+				heapSize = heapRemoveFirst(heap, heapSize, qrs, indexes);
+				if (indexes[q] < qrs[q].size)
+					heapSize = heapInsert(heap, heapSize, q, qrs, indexes);
+			}
+			
+			//	finalize relevance (missing elements count as zero in minimum, average, and product)
+			if (relevanceCombination == USE_AVERAGE)
+				relevance = ((relevanceWeightSum > 0) ? (relevanceWeightSum / mergeCount) : 0);
+			else if (relevanceCombination == INVERSE_MULTIPLY)
+				relevance = (1 - relevance);
+			else if ((present < qrCount) && ((relevanceCombination == USE_MIN) || (relevanceCombination == MULTIPLY)))
+				relevance = 0;
+			else if ((relevanceCombination < USE_MIN) || (INVERSE_MULTIPLY < relevanceCombination))
+				relevance = 0;
+			docNrs[size] = docNr;
+			relevances[size++] = relevance;
+		}
+		
+		return new QueryResult(docNrs, relevances, size, maxSize, mergeCount);
+	}
+	
+	/* add an argument result to the heap, sifting it up by its current document number */
+	private static int heapInsert(int[] heap, int heapSize, int q, QueryResult[] qrs, int[] indexes) {
+		int pos = heapSize++;
+		long docNr = qrs[q].docNrs[indexes[q]];
+		while (pos > 0) {
+			int parent = ((pos - 1) / 2);
+			if (qrs[heap[parent]].docNrs[indexes[heap[parent]]] <= docNr)
+				break;
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = q;
+		return heapSize;
+	}
+	
+	/* remove the top of the heap, sifting the last element down */
+	private static int heapRemoveFirst(int[] heap, int heapSize, QueryResult[] qrs, int[] indexes) {
+		heapSize--;
+		if (heapSize == 0)
+			return heapSize;
+		int q = heap[heapSize];
+		long docNr = qrs[q].docNrs[indexes[q]];
+		int pos = 0;
+		while (true) {
+			int child = ((pos * 2) + 1);
+			if (child >= heapSize)
+				break;
+			if (((child + 1) < heapSize) && (qrs[heap[child + 1]].docNrs[indexes[heap[child + 1]]] < qrs[heap[child]].docNrs[indexes[heap[child]]]))
+				child++;
+			if (docNr <= qrs[heap[child]].docNrs[indexes[heap[child]]])
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = q;
+		return heapSize;
+	}
+	
 	/**
 	 * Join two query result, keeping only the elements contained in both of them.
 	 * @param 	queryResult1			the first QueryResult to be joined
@@ -451,37 +695,88 @@ public class QueryResult {
 		if (queryResult2 == null)
 			return new QueryResult(maxSize);
 		
-		//	produce result
-		QueryResult result = new QueryResult(maxSize);
-		result.mergeCount = queryResult1.mergeCount + queryResult2.mergeCount;
-		
-		//	get content arrays
-		QueryResultElement[] qres1 = queryResult1.getContentArray();
-		QueryResultElement[] qres2 = queryResult2.getContentArray();
+		//	get arrays sorted by document number
+		QueryResult qr1 = queryResult1.getDocNrSorted();
+		QueryResult qr2 = queryResult2.getDocNrSorted();
+		long[] docNrs1 = qr1.docNrs;
+		double[] relevances1 = qr1.relevances;
+		int size1 = qr1.size;
+		long[] docNrs2 = qr2.docNrs;
+		double[] relevances2 = qr2.relevances;
+		int size2 = qr2.size;
 		
 		//	perform sort-merge inner sort join
-		Arrays.sort(qres1, docNumberSortOrder);
-		Arrays.sort(qres2, docNumberSortOrder);
-		for (int index1 = 0, index2 = 0; (index1 < qres1.length) && (index2 < qres2.length);) {
-			int c = docNumberSortOrder.compare(qres1[index1], qres2[index2]);
+		long[] docNrs = new long[Math.min(size1, size2)];
+		double[] relevances = new double[docNrs.length];
+		int size = 0;
+		
+		//	sizes very different, gallop through larger result
+		if ((size1 * GALLOP_SIZE_RATIO) < size2) {
+			for (int index1 = 0, index2 = 0; (index1 < size1) && (index2 < size2); index1++) {
+				index2 = gallop(docNrs2, index2, size2, docNrs1[index1]);
+				if ((index2 < size2) && (docNrs2[index2] == docNrs1[index1])) {
+					docNrs[size] = docNrs1[index1];
+					relevances[size++] = getCombinedRelevance(relevances1[index1], queryResult1.mergeCount, relevances2[index2], queryResult2.mergeCount, relevanceCombination);
+					index2++;
+				}
+			}
+		}
+		else if ((size2 * GALLOP_SIZE_RATIO) < size1) {
+			for (int index1 = 0, index2 = 0; (index1 < size1) && (index2 < size2); index2++) {
+				index1 = gallop(docNrs1, index1, size1, docNrs2[index2]);
+				if ((index1 < size1) && (docNrs1[index1] == docNrs2[index2])) {
+					docNrs[size] = docNrs1[index1];
+					relevances[size++] = getCombinedRelevance(relevances1[index1], queryResult1.mergeCount, relevances2[index2], queryResult2.mergeCount, relevanceCombination);
+					index1++;
+				}
+			}
+		}
+		
+		//	sizes similar, do linear merge
+		else for (int index1 = 0, index2 = 0; (index1 < size1) && (index2 < size2);) {
 			
 			//	ResultElements with matching IDs, join them
-			if (c == 0) {
-				QueryResultElement qre = new QueryResultElement(qres1[index1].docNr, getCombinedRelevance(qres1[index1].relevance, queryResult1.mergeCount, qres2[index2].relevance, queryResult2.mergeCount, relevanceCombination));
-				result.addResultElement(qre);
+			if (docNrs1[index1] == docNrs2[index2]) {
+				docNrs[size] = docNrs1[index1];
+				relevances[size++] = getCombinedRelevance(relevances1[index1], queryResult1.mergeCount, relevances2[index2], queryResult2.mergeCount, relevanceCombination);
 				index1++;
 				index2++;
 			}
 			
 			//	ID of r1 is smaller, increment index1
-			else if (c < 0)
+			else if (docNrs1[index1] < docNrs2[index2])
 				index1++;
 			
 			//	ID of r2 is smaller, increment index2
 			else index2++;
 		}
 		
-		return result;
+		return new QueryResult(docNrs, relevances, size, maxSize, (queryResult1.mergeCount + queryResult2.mergeCount));
+	}
+	
+	private static final int GALLOP_SIZE_RATIO = 8;
+	
+	/* find the first index at or after start whose document number is greater than or equal to the argument one, by exponential and then binary search */
+	private static int gallop(long[] docNrs, int start, int size, long docNr) {
+		if ((start >= size) || (docNrs[start] >= docNr))
+			return start;
+		int low = start;
+		int step = 1;
+		while (((low + step) < size) && (docNrs[low + step] < docNr)) {
+			low += step;
+			step *= 2;
+		}
+		int high = Math.min((low + step), size);
+		low++;
+		
+		//	docNrs[low-1] < docNr, and docNrs[high] >= docNr (or high == size)
+		while (low < high) {
+			int mid = ((low + high) >>> 1);
+			if (docNrs[mid] < docNr)
+				low = (mid + 1);
+			else high = mid;
+		}
+		return low;
 	}
 	
 	private static double getCombinedRelevance(double relevance1, int mergeCount1, double relevance2, int mergeCount2, int relevanceCombination) {
@@ -495,4 +790,48 @@ public class QueryResult {
 		}
 		return 0;
 	}
+	
+	/* stable merge sort of parallel arrays, by document number (ascending, any duplicates by relevance) or relevance */
+	private static void sortElements(long[] docNrs, double[] relevances, int size, boolean byDocNr, boolean descending) {
+		if (size < 2)
+			return;
+		long[] tempDocNrs = new long[size];
+		double[] tempRelevances = new double[size];
+		for (int width = 1; width < size; width *= 2) {
+			for (int low = 0; low < size; low += (width * 2)) {
+				int mid = Math.min((low + width), size);
+				int high = Math.min((low + (width * 2)), size);
+				if (mid == high)
+					continue;
+				
+				//	runs already in order, nothing to do
+				if (!isOutOfOrder(docNrs, relevances, (mid - 1), mid, byDocNr, descending))
+					continue;
+				
+				//	merge runs, taking from left run on ties
+				int l = low;
+				int r = mid;
+				for (int t = low; t < high; t++) {
+					if ((r < high) && ((l == mid) || isOutOfOrder(docNrs, relevances, l, r, byDocNr, descending))) {
+						tempDocNrs[t] = docNrs[r];
+						tempRelevances[t] = relevances[r++];
+					}
+					else {
+						tempDocNrs[t] = docNrs[l];
+						tempRelevances[t] = relevances[l++];
+					}
+				}
+				System.arraycopy(tempDocNrs, low, docNrs, low, (high - low));
+				System.arraycopy(tempRelevances, low, relevances, low, (high - low));
+			}
+		}
+	}
+	
+	/* check if the element at index i has to go after the one at index j */
+	private static boolean isOutOfOrder(long[] docNrs, double[] relevances, int i, int j, boolean byDocNr, boolean descending) {
+		if (byDocNr && (docNrs[i] != docNrs[j]))
+			return (docNrs[i] > docNrs[j]);
+		int c = Double.compare(relevances[i], relevances[j]);
+		return (descending ? (c < 0) : (c > 0));
+	}
 }
@@ -30,15 +30,14 @@ package de.uka.ipd.idaho.goldenGateServer.srs.filters;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import de.uka.ipd.idaho.easyIO.EasyIO;
 import de.uka.ipd.idaho.easyIO.settings.Settings;
-import de.uka.ipd.idaho.gamta.Annotation;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
 import de.uka.ipd.idaho.gamta.util.gPath.GPath;
 import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
 import de.uka.ipd.idaho.goldenGateServer.srs.AbstractStorageFilter;
+import de.uka.ipd.idaho.goldenGateServer.util.GPathMatcher;
 import de.uka.ipd.idaho.stringUtils.StringVector;
 
 /**
@@ -73,7 +72,9 @@ import de.uka.ipd.idaho.stringUtils.StringVector;
  * This is more complex than just providing a list of XPath expressions in one
  * file, but on the other hand makes it easier to put individual expressions in
  * and out of use without deleting them. It's just adding or removing the
- * respective file name from useXPath.cnfg.
+ * respective file name from useXPath.cnfg.<br>
+ * All expressions are evaluated together in a single pass over a document or
+ * part, which ends as soon as the first erroneous markup is found.
  * 
  * @author sautter
  */
@@ -85,6 +86,9 @@ public class XPathFilter extends AbstractStorageFilter {
 	private String[] errorPaths = new String[0];
 	private String[] requiredPaths = new String[0];
 	
+	private GPathMatcher pathMatcher = new GPathMatcher(new GPath[0]);
+	private boolean[] stopOnMatch = new boolean[0];
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.srs.AbstractStorageFilter#init()
 	 */
@@ -109,6 +113,7 @@ public class XPathFilter extends AbstractStorageFilter {
 						try {
 							File xPathFile = new File(this.dataPath, xPathFileName);
 							String xPath = EasyIO.readFile(xPathFile);
+							new GPath(xPath); // make sure expression is valid
 							if ("ERROR".equals(use))
 								errorPaths.addElementIgnoreDuplicates(xPath);
 							if ("REQUIRED".equals(use))
@@ -118,11 +123,25 @@ public class XPathFilter extends AbstractStorageFilter {
 							System.out.println("Could not load XPath expression from '" + xPathFileName + "':" + ioe.getMessage());
 							ioe.printStackTrace(System.out);
 						}
+						catch (GPathException gpe) {
+							System.out.println("Could not parse XPath expression from '" + xPathFileName + "':" + gpe.getMessage());
+						}
 					}
 				}
 			}
 			this.errorPaths = errorPaths.toStringArray();
 			this.requiredPaths = requiredPaths.toStringArray();
+			
+			//	compile all expressions into one matcher, stopping on first error
+			GPath[] paths = new GPath[this.errorPaths.length + this.requiredPaths.length];
+			this.stopOnMatch = new boolean[paths.length];
+			for (int e = 0; e < this.errorPaths.length; e++) {
+				paths[e] = new GPath(this.errorPaths[e]);
+				this.stopOnMatch[e] = true;
+			}
+			for (int r = 0; r < this.requiredPaths.length; r++)
+				paths[this.errorPaths.length + r] = new GPath(this.requiredPaths[r]);
+			this.pathMatcher = new GPathMatcher(paths);
 		}
 		catch (IOException ioe) {
 			System.out.println("Could not load XPath list:" + ioe.getMessage());
@@ -154,41 +173,24 @@ public class XPathFilter extends AbstractStorageFilter {
 	}
 	
 	private String validate(QueriableAnnotation doc) {
+		boolean[] matched;
+		try {
+			matched = this.pathMatcher.match(doc, this.stopOnMatch);
+		}
+		catch (GPathException gpe) {
+			return gpe.getMessage();
+		}
 		
 		for (int e = 0; e < this.errorPaths.length; e++) {
-			GPath path = this.getPath(this.errorPaths[e]);
-			try {
-				Annotation[] pathResult = GPath.evaluatePath(doc, path, null);
-				if (pathResult.length != 0)
-					return ("Error found: " + this.errorPaths[e]);
-			}
-			catch (GPathException gpe) {
-				return gpe.getMessage();
-			}
+			if (matched[e])
+				return ("Error found: " + this.errorPaths[e]);
 		}
 		
 		for (int r = 0; r < this.requiredPaths.length; r++) {
-			GPath path = this.getPath(this.requiredPaths[r]);
-			try {
-				Annotation[] pathResult = GPath.evaluatePath(doc, path, null);
-				if (pathResult.length == 0)
-					return ("Requirement not met: " + this.requiredPaths[r]);
-			}
-			catch (GPathException gpe) {
-				return gpe.getMessage();
-			}
+			if (!matched[this.errorPaths.length + r])
+				return ("Requirement not met: " + this.requiredPaths[r]);
 		}
 		
 		return null;
 	}
-	
-	private HashMap paths = new HashMap();
-	private GPath getPath(String path) {
-		GPath gPath = ((GPath) this.paths.get(path));
-		if (gPath == null) {
-			gPath = new GPath(path);
-			this.paths.put(path, gPath);
-		}
-		return gPath;
-	}
 }
@@ -50,8 +50,8 @@ import org.xml.sax.SAXParseException;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
-import de.uka.ipd.idaho.gamta.util.AnnotationInputStream;
 import de.uka.ipd.idaho.goldenGateServer.srs.AbstractStorageFilter;
+import de.uka.ipd.idaho.goldenGateServer.util.AnnotationXmlReader;
 
 /**
  * An XmlSchemaFilter uses XML schema to determine whether or not to store a
@@ -78,6 +78,8 @@ public class XmlSchemaFilter extends AbstractStorageFilter {
 	private boolean filterDocuments = false;
 	private boolean filterDocumentParts = false;
 	
+	private ThreadLocal validators = null;
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.goldenGateServer.srs.AbstractStorageFilter#init()
 	 */
@@ -106,6 +108,14 @@ public class XmlSchemaFilter extends AbstractStorageFilter {
 			} catch (SAXException e) {}
 			is.close();
 		} catch (IOException ioe) {}
+		
+		//	validators are expensive to create, but not thread safe, so we keep one per thread
+		final Schema schema = this.schema;
+		this.validators = new ThreadLocal() {
+			protected Object initialValue() {
+				return schema.newValidator();
+			}
+		};
 	}
 
 	/* (non-Javadoc)
@@ -120,6 +130,8 @@ public class XmlSchemaFilter extends AbstractStorageFilter {
 	 */
 	public QueriableAnnotation[] filter(QueriableAnnotation[] parts, QueriableAnnotation doc) {
 		if (this.filterDocumentParts) {
+			
+			//	validate parts one by one (parts are views of the same document, which is not safe to read from multiple threads)
 			ArrayList partList = new ArrayList();
 			for (int p = 0; p < parts.length; p++) {
 				String error = this.validate(parts[p]);
@@ -136,8 +148,9 @@ public class XmlSchemaFilter extends AbstractStorageFilter {
 		//	set up collecting messages
 		final HashSet errorCollector = new HashSet();
 		
-		//	get validator
-	    final Validator validator = this.schema.newValidator();
+		//	get validator (each thread keeps its own, as validators are not thread safe)
+		Validator validator = ((Validator) this.validators.get());
+		validator.reset();
 		validator.setErrorHandler(new ErrorHandler() {
 			public void error(SAXParseException exception) throws SAXException {
 				errorCollector.add(exception);
@@ -152,10 +165,10 @@ public class XmlSchemaFilter extends AbstractStorageFilter {
 			}
 		});
 		
-		//	do validation
+		//	do validation, feeding document to validator as SAX events right away
 	    try {
 			SAXResult sRes = new SAXResult();
-	        validator.validate(new SAXSource(new InputSource(new AnnotationInputStream(doc, "  ", "utf-8"))), sRes);
+	        validator.validate(new SAXSource(new AnnotationXmlReader(doc, "  ", null), new InputSource()), sRes);
 	    }
 	    catch (SAXException se) {
 			errorCollector.add(se);
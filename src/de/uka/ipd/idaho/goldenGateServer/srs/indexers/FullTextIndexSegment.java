@@ -0,0 +1,704 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.srs.indexers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A segment of the inverted index of the full text indexer, i.e., a single
+ * file holding a sorted term dictionary and the compressed posting lists of
+ * all the terms in the dictionary, plus the numbers of all the documents
+ * indexed in the segment. Segment files are immutable once written and are
+ * accessed via memory mapped I/O, so any number of threads can read from a
+ * segment concurrently.<br>
+ * <br>
+ * File layout:
+ * <ul>
+ * <li>header: magic number and format version (4 bytes each)</li>
+ * <li>posting blocks: number of postings (varint), followed by the postings
+ * in ascending document number order, each consisting of the delta to the
+ * preceding document number (varint, unsigned), the term frequency (1 byte),
+ * and the 2-log of the document length (1 byte)</li>
+ * <li>term dictionary: terms in ascending order, each consisting of the
+ * length of the UTF-8 encoded term (varint), the term bytes, and the offset
+ * of the posting block (varint)</li>
+ * <li>document table: the numbers of the documents indexed in the segment,
+ * in ascending order (8 bytes each)</li>
+ * <li>trailer: offsets of term dictionary and document table (8 bytes each),
+ * term and document count (4 bytes each), and magic number (4 bytes)</li>
+ * </ul>
+ * The main method of this class converts an existing index of one file per
+ * term into a single segment; its arguments are the index root folder and,
+ * optionally, the file to write the segment to.
+ *
+ * @author sautter
+ */
+public class FullTextIndexSegment {
+	static final int MAGIC = 0x46545347; // 'FTSG'
+	static final int VERSION = 1;
+	
+	static final String SEGMENT_FILE_PREFIX = "seg-";
+	static final String SEGMENT_FILE_SUFFIX = ".fts";
+	
+	private static final int TRAILER_SIZE = (8 + 8 + 4 + 4 + 4);
+	private static final int CHUNK_BITS = 30; // map files in 1GB chunks, as a single mapping is limited to 2GB
+	private static final long CHUNK_SIZE = (1L << CHUNK_BITS);
+	
+	/** the number of the segment, ordering segments by age */
+	final int nr;
+	
+	/** the file the segment is stored in */
+	final File file;
+	
+	/** the size of the segment file in bytes */
+	final long size;
+	
+	private MappedByteBuffer[] chunks;
+	private String[] terms;
+	private long[] termOffsets;
+	private long[] docNrs;
+	
+	/**
+	 * Constructor opening a segment file
+	 * @param nr the number of the segment
+	 * @param file the file to open
+	 * @throws IOException
+	 */
+	FullTextIndexSegment(int nr, File file) throws IOException {
+		this.nr = nr;
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			this.size = fc.size();
+			if (this.size < (8 + TRAILER_SIZE))
+				throw new IOException("Invalid full text index segment file: " + file.getName());
+			this.chunks = new MappedByteBuffer[(int) ((this.size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int c = 0; c < this.chunks.length; c++) {
+				long chunkStart = (((long) c) << CHUNK_BITS);
+				this.chunks[c] = fc.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(CHUNK_SIZE, (this.size - chunkStart)));
+			}
+		}
+		finally {
+			raf.close(); // mapping remains valid after closing the channel
+		}
+		
+		//	check header and trailer
+		SegmentReader sr = new SegmentReader(0);
+		if ((sr.readInt() != MAGIC) || (sr.readInt() != VERSION))
+			throw new IOException("Invalid full text index segment file header: " + file.getName());
+		sr = new SegmentReader(this.size - TRAILER_SIZE);
+		long dictOffset = sr.readLong();
+		long docTableOffset = sr.readLong();
+		int termCount = sr.readInt();
+		int docCount = sr.readInt();
+		if (sr.readInt() != MAGIC)
+			throw new IOException("Invalid full text index segment file trailer: " + file.getName());
+		
+		//	load term dictionary
+		this.terms = new String[termCount];
+		this.termOffsets = new long[termCount];
+		sr = new SegmentReader(dictOffset);
+		for (int t = 0; t < termCount; t++) {
+			this.terms[t] = sr.readString();
+			this.termOffsets[t] = sr.readVarLong();
+		}
+		
+		//	load document table
+		this.docNrs = new long[docCount];
+		sr = new SegmentReader(docTableOffset);
+		for (int d = 0; d < docCount; d++)
+			this.docNrs[d] = sr.readLong();
+	}
+	
+	/**
+	 * @return the number of terms in the segment
+	 */
+	int getTermCount() {
+		return this.terms.length;
+	}
+	
+	/**
+	 * Retrieve a term from the dictionary of the segment.
+	 * @param index the index of the term
+	 * @return the term at the argument index
+	 */
+	String getTerm(int index) {
+		return this.terms[index];
+	}
+	
+	/**
+	 * @return the number of documents indexed in the segment
+	 */
+	int getDocumentCount() {
+		return this.docNrs.length;
+	}
+	
+	/**
+	 * Retrieve a document number from the document table of the segment.
+	 * @param index the index of the document number
+	 * @return the document number at the argument index
+	 */
+	long getDocumentNumber(int index) {
+		return this.docNrs[index];
+	}
+	
+	/**
+	 * Check if a document was indexed in this segment.
+	 * @param docNr the number of the document to check
+	 * @return true if the argument document was indexed in this segment
+	 */
+	boolean containsDocument(long docNr) {
+		return (Arrays.binarySearch(this.docNrs, docNr) >= 0);
+	}
+	
+	/**
+	 * Retrieve the postings for a term.
+	 * @param term the term to get the postings for
+	 * @return the postings for the argument term, or null if the term is not
+	 *            in the dictionary of this segment
+	 */
+	Postings getPostings(String term) {
+		int index = Arrays.binarySearch(this.terms, term);
+		return ((index < 0) ? null : this.getPostings(index));
+	}
+	
+	/**
+	 * Retrieve the postings for the term at a given index of the dictionary.
+	 * @param index the index of the term to get the postings for
+	 * @return the postings for the term at the argument index
+	 */
+	Postings getPostings(int index) {
+		SegmentReader sr = new SegmentReader(this.termOffsets[index]);
+		int size = ((int) sr.readVarLong());
+		Postings postings = new Postings(size);
+		long docNr = 0;
+		for (int p = 0; p < size; p++) {
+			docNr += sr.readVarLong(); // initial zero makes first delta the document number proper, and overflow is fine
+			postings.docNrs[p] = docNr;
+			postings.tfs[p] = sr.readByte();
+			postings.docLenLogs[p] = sr.readByte();
+		}
+		postings.size = size;
+		return postings;
+	}
+	
+	private byte getByte(long pos) {
+		return this.chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & (CHUNK_SIZE - 1)));
+	}
+	
+	/* reader with its own position, so concurrent reads don't interfere */
+	private class SegmentReader {
+		private long pos;
+		SegmentReader(long pos) {
+			this.pos = pos;
+		}
+		byte readByte() {
+			return getByte(this.pos++);
+		}
+		int readInt() {
+			int i = 0;
+			for (int b = 0; b < 4; b++)
+				i = ((i << 8) | (this.readByte() & 0xFF));
+			return i;
+		}
+		long readLong() {
+			long l = 0;
+			for (int b = 0; b < 8; b++)
+				l = ((l << 8) | (this.readByte() & 0xFF));
+			return l;
+		}
+		long readVarLong() {
+			long l = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = this.readByte();
+				l |= (((long) (b & 0x7F)) << shift);
+				if ((b & 0x80) == 0)
+					return l;
+			}
+		}
+		String readString() {
+			byte[] bytes = new byte[(int) this.readVarLong()];
+			for (int b = 0; b < bytes.length; b++)
+				bytes[b] = this.readByte();
+			try {
+				return new String(bytes, "UTF-8");
+			}
+			catch (IOException ioe) {
+				return null; // never gonna happen with UTF-8, but Java don't know
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return (this.file.getName() + " (" + this.terms.length + " terms, " + this.docNrs.length + " documents, " + this.size + " bytes)");
+	}
+	
+	/**
+	 * The postings of a single term, i.e., the numbers of the documents the
+	 * term occurs in, with term frequency and 2-log of document length, kept
+	 * in parallel arrays to save objects.
+	 *
+	 * @author sautter
+	 */
+	static class Postings {
+		long[] docNrs;
+		byte[] tfs;
+		byte[] docLenLogs;
+		int size = 0;
+		Postings(int capacity) {
+			this.docNrs = new long[Math.max(capacity, 1)];
+			this.tfs = new byte[this.docNrs.length];
+			this.docLenLogs = new byte[this.docNrs.length];
+		}
+		void add(long docNr, byte tf, byte docLenLog) {
+			if (this.size == this.docNrs.length) {
+				int capacity = (this.size * 2);
+				long[] docNrs = new long[capacity];
+				System.arraycopy(this.docNrs, 0, docNrs, 0, this.size);
+				this.docNrs = docNrs;
+				byte[] tfs = new byte[capacity];
+				System.arraycopy(this.tfs, 0, tfs, 0, this.size);
+				this.tfs = tfs;
+				byte[] docLenLogs = new byte[capacity];
+				System.arraycopy(this.docLenLogs, 0, docLenLogs, 0, this.size);
+				this.docLenLogs = docLenLogs;
+			}
+			this.docNrs[this.size] = docNr;
+			this.tfs[this.size] = tf;
+			this.docLenLogs[this.size] = docLenLog;
+			this.size++;
+		}
+		Postings copy() {
+			Postings copy = new Postings(this.size);
+			System.arraycopy(this.docNrs, 0, copy.docNrs, 0, this.size);
+			System.arraycopy(this.tfs, 0, copy.tfs, 0, this.size);
+			System.arraycopy(this.docLenLogs, 0, copy.docLenLogs, 0, this.size);
+			copy.size = this.size;
+			return copy;
+		}
+		/* sort by document number, keeping the later one of any duplicates */
+		void sort() {
+			boolean sorted = true;
+			for (int p = 1; p < this.size; p++)
+				if (this.docNrs[p] <= this.docNrs[p-1]) {
+					sorted = false;
+					break;
+				}
+			if (sorted)
+				return;
+			Postings sortBuffer = new Postings(this.size);
+			this.mergeSort(0, this.size, sortBuffer);
+			int removed = 0;
+			for (int p = 1; p < this.size; p++) {
+				if (this.docNrs[p] == this.docNrs[p - removed - 1]) {
+					removed++;
+					this.tfs[p - removed] = this.tfs[p];
+					this.docLenLogs[p - removed] = this.docLenLogs[p];
+				}
+				else if (removed != 0) {
+					this.docNrs[p - removed] = this.docNrs[p];
+					this.tfs[p - removed] = this.tfs[p];
+					this.docLenLogs[p - removed] = this.docLenLogs[p];
+				}
+			}
+			this.size -= removed;
+		}
+		private void mergeSort(int from, int to, Postings sortBuffer) {
+			if ((to - from) < 2)
+				return;
+			int middle = ((from + to) / 2);
+			this.mergeSort(from, middle, sortBuffer);
+			this.mergeSort(middle, to, sortBuffer);
+			if (this.docNrs[middle - 1] <= this.docNrs[middle])
+				return; // already in order
+			int l = from;
+			int r = middle;
+			for (int p = from; p < to; p++) {
+				int s = (((r < to) && ((middle <= l) || (this.docNrs[r] < this.docNrs[l]))) ? r++ : l++); // stable, so later duplicates stay later
+				sortBuffer.docNrs[p] = this.docNrs[s];
+				sortBuffer.tfs[p] = this.tfs[s];
+				sortBuffer.docLenLogs[p] = this.docLenLogs[s];
+			}
+			System.arraycopy(sortBuffer.docNrs, from, this.docNrs, from, (to - from));
+			System.arraycopy(sortBuffer.tfs, from, this.tfs, from, (to - from));
+			System.arraycopy(sortBuffer.docLenLogs, from, this.docLenLogs, from, (to - from));
+		}
+		/* union of two sorted postings, the second one taking precedence on duplicates */
+		static Postings union(Postings p1, Postings p2) {
+			Postings p = new Postings(p1.size + p2.size);
+			int i1 = 0;
+			int i2 = 0;
+			while ((i1 < p1.size) || (i2 < p2.size)) {
+				if ((i2 == p2.size) || ((i1 < p1.size) && (p1.docNrs[i1] < p2.docNrs[i2]))) {
+					p.add(p1.docNrs[i1], p1.tfs[i1], p1.docLenLogs[i1]);
+					i1++;
+				}
+				else {
+					if ((i1 < p1.size) && (p1.docNrs[i1] == p2.docNrs[i2]))
+						i1++;
+					p.add(p2.docNrs[i2], p2.tfs[i2], p2.docLenLogs[i2]);
+					i2++;
+				}
+			}
+			return p;
+		}
+	}
+	
+	/**
+	 * Filter deciding which postings remain valid, used in merging segments.
+	 *
+	 * @author sautter
+	 */
+	static interface PostingValidator {
+		
+		/**
+		 * Check if postings for a document from a given segment are valid,
+		 * i.e., if the document has not been deleted or re-indexed in a later
+		 * segment.
+		 * @param docNr the document number to check
+		 * @param segmentNr the number of the segment the postings come from
+		 * @return true if the postings are valid
+		 */
+		public abstract boolean isValid(long docNr, int segmentNr);
+	}
+	
+	/**
+	 * Merge a number of segments into one, dropping all invalid postings.
+	 * @param segments the segments to merge
+	 * @param nr the number for the merged segment
+	 * @param file the file to write the merged segment to
+	 * @param validator the validator deciding which postings to keep
+	 * @return the merged segment
+	 * @throws IOException
+	 */
+	static FullTextIndexSegment merge(FullTextIndexSegment[] segments, int nr, File file, PostingValidator validator) throws IOException {
+		SegmentWriter sw = new SegmentWriter(file);
+		
+		//	do k-way merge over term dictionaries
+		int[] termIndexes = new int[segments.length];
+		while (true) {
+			String term = null;
+			for (int s = 0; s < segments.length; s++) {
+				if (termIndexes[s] == segments[s].terms.length)
+					continue;
+				if ((term == null) || (segments[s].terms[termIndexes[s]].compareTo(term) < 0))
+					term = segments[s].terms[termIndexes[s]];
+			}
+			if (term == null)
+				break;
+			
+			//	collect valid postings (each document is valid in at most one segment, but a union takes care of any duplicates)
+			Postings postings = null;
+			for (int s = 0; s < segments.length; s++) {
+				if ((termIndexes[s] == segments[s].terms.length) || !term.equals(segments[s].terms[termIndexes[s]]))
+					continue;
+				Postings segPostings = segments[s].getPostings(termIndexes[s]++);
+				Postings validPostings = new Postings(segPostings.size);
+				for (int p = 0; p < segPostings.size; p++) {
+					if (validator.isValid(segPostings.docNrs[p], segments[s].nr))
+						validPostings.add(segPostings.docNrs[p], segPostings.tfs[p], segPostings.docLenLogs[p]);
+				}
+				postings = ((postings == null) ? validPostings : Postings.union(postings, validPostings));
+			}
+			if ((postings != null) && (postings.size != 0))
+				sw.addPostings(term, postings);
+		}
+		
+		//	collect valid documents
+		HashSet docNrs = new HashSet();
+		for (int s = 0; s < segments.length; s++)
+			for (int d = 0; d < segments[s].docNrs.length; d++) {
+				if (validator.isValid(segments[s].docNrs[d], segments[s].nr))
+					docNrs.add(new Long(segments[s].docNrs[d]));
+			}
+		
+		//	finish merged segment
+		sw.finish(docNrs);
+		return new FullTextIndexSegment(nr, file);
+	}
+	
+	/**
+	 * Writer for segment files. Posting blocks can be added in any order, the
+	 * term dictionary is sorted before it is written.
+	 *
+	 * @author sautter
+	 */
+	static class SegmentWriter {
+		private CountingOutputStream out;
+		private DataOutputStream dos;
+		private TreeMap dictionary = new TreeMap();
+		
+		SegmentWriter(File file) throws IOException {
+			this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+			this.dos = new DataOutputStream(this.out);
+			this.dos.writeInt(MAGIC);
+			this.dos.writeInt(VERSION);
+		}
+		
+		/**
+		 * Write the postings of a term. The postings have to be sorted.
+		 * @param term the term
+		 * @param postings the postings for the term
+		 * @throws IOException
+		 */
+		void addPostings(String term, Postings postings) throws IOException {
+			this.dos.flush();
+			this.dictionary.put(term, new Long(this.out.count));
+			this.writeVarLong(postings.size);
+			long docNr = 0;
+			for (int p = 0; p < postings.size; p++) {
+				this.writeVarLong(postings.docNrs[p] - docNr); // negative deltas are fine as unsigned, wrapping back around in decoding
+				docNr = postings.docNrs[p];
+				this.dos.writeByte(postings.tfs[p]);
+				this.dos.writeByte(postings.docLenLogs[p]);
+			}
+		}
+		
+		/**
+		 * Write term dictionary, document table, and trailer, and close the
+		 * segment file.
+		 * @param docNrs the numbers of the documents indexed in the segment
+		 * @throws IOException
+		 */
+		void finish(HashSet docNrs) throws IOException {
+			long[] docNrArray = new long[docNrs.size()];
+			int d = 0;
+			for (Iterator dnit = docNrs.iterator(); dnit.hasNext();)
+				docNrArray[d++] = ((Long) dnit.next()).longValue();
+			Arrays.sort(docNrArray);
+			
+			this.dos.flush();
+			long dictOffset = this.out.count;
+			for (Iterator tit = this.dictionary.entrySet().iterator(); tit.hasNext();) {
+				Map.Entry entry = ((Map.Entry) tit.next());
+				byte[] termBytes = ((String) entry.getKey()).getBytes("UTF-8");
+				this.writeVarLong(termBytes.length);
+				this.dos.write(termBytes);
+				this.writeVarLong(((Long) entry.getValue()).longValue());
+			}
+			
+			this.dos.flush();
+			long docTableOffset = this.out.count;
+			for (d = 0; d < docNrArray.length; d++)
+				this.dos.writeLong(docNrArray[d]);
+			
+			this.dos.writeLong(dictOffset);
+			this.dos.writeLong(docTableOffset);
+			this.dos.writeInt(this.dictionary.size());
+			this.dos.writeInt(docNrArray.length);
+			this.dos.writeInt(MAGIC);
+			this.dos.flush();
+			this.dos.close();
+		}
+		
+		private void writeVarLong(long l) throws IOException {
+			while ((l & ~0x7FL) != 0) {
+				this.dos.writeByte((int) ((l & 0x7F) | 0x80));
+				l >>>= 7;
+			}
+			this.dos.writeByte((int) l);
+		}
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+	
+	/**
+	 * Convert an index of one file per term (the former storage format of the
+	 * full text indexer) into a single segment file. Postings of documents
+	 * contained in the argument set of invalid document numbers are dropped.
+	 * @param indexRootPath the root folder of the per-term index files
+	 * @param segmentFile the file to write the segment to
+	 * @param invalidDocNrs the numbers of invalid documents (may be null)
+	 * @return the number of terms converted
+	 * @throws IOException
+	 */
+	static int convertTermFiles(File indexRootPath, File segmentFile, HashSet invalidDocNrs) throws IOException {
+		SegmentWriter sw = new SegmentWriter(segmentFile);
+		HashSet docNrs = new HashSet();
+		int termCount = 0;
+		File[] idxFolders1 = listFolders(indexRootPath);
+		for (int f1 = 0; f1 < idxFolders1.length; f1++) {
+			File[] idxFolders2 = listFolders(idxFolders1[f1]);
+			for (int f2 = 0; f2 < idxFolders2.length; f2++) {
+				File[] idxFolders3 = listFolders(idxFolders2[f2]);
+				for (int f3 = 0; f3 < idxFolders3.length; f3++) {
+					File[] idxFiles = idxFolders3[f3].listFiles(new FileFilter() {
+						public boolean accept(File file) {
+							return (file.isFile() && file.getName().startsWith("idx-") && !file.getName().endsWith(".old"));
+						}
+					});
+					for (int f = 0; f < idxFiles.length; f++) {
+						Postings postings = new Postings(((int) (idxFiles[f].length() / 10)));
+						DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(idxFiles[f])));
+						try {
+							while (dis.available() >= 10) {
+								long docNr = dis.readLong();
+								byte tf = dis.readByte();
+								byte docLenLog = dis.readByte();
+								Long docNrObj = new Long(docNr);
+								if ((invalidDocNrs != null) && invalidDocNrs.contains(docNrObj))
+									continue;
+								postings.add(docNr, tf, docLenLog);
+								docNrs.add(docNrObj);
+							}
+						}
+						finally {
+							dis.close();
+						}
+						postings.sort();
+						if (postings.size == 0)
+							continue;
+						sw.addPostings(idxFiles[f].getName().substring("idx-".length()), postings);
+						termCount++;
+					}
+				}
+			}
+		}
+		sw.finish(docNrs);
+		return termCount;
+	}
+	
+	/**
+	 * Check if a folder contains an index of one file per term, i.e., the
+	 * one letter folders that index used to be stored in.
+	 * @param indexRootPath the folder to check
+	 * @return true if the argument folder contains one letter folders
+	 */
+	static boolean hasTermFiles(File indexRootPath) {
+		return (listFolders(indexRootPath).length != 0);
+	}
+	
+	private static File[] listFolders(File folder) {
+		File[] folders = folder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return (file.isDirectory() && (file.getName().length() == 1));
+			}
+		});
+		return ((folders == null) ? new File[0] : folders);
+	}
+	
+	/**
+	 * Offline conversion of an index of one file per term into a segment
+	 * file. The first argument is the index root folder, the second one (if
+	 * given) is the segment file to create. The latter defaults to the first
+	 * segment file in the 'Segments' sub folder of the index root folder,
+	 * which is where the full text indexer expects it. A file named 'invalid'
+	 * in the index root folder is read as the list of invalid documents.
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: FullTextIndexSegment <indexRootPath> [<segmentFile>]");
+			return;
+		}
+		File indexRootPath = new File(args[0]);
+		File segmentFile;
+		if (args.length < 2) {
+			File segmentFolder = new File(indexRootPath, "Segments");
+			segmentFolder.mkdirs();
+			segmentFile = new File(segmentFolder, getSegmentFileName(0));
+		}
+		else segmentFile = new File(args[1]);
+		HashSet invalidDocNrs = new HashSet();
+		File invalidDocNrFile = new File(indexRootPath, "invalid");
+		if (invalidDocNrFile.exists()) {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(invalidDocNrFile)));
+			while (dis.available() >= 8)
+				invalidDocNrs.add(new Long(dis.readLong()));
+			dis.close();
+		}
+		System.out.println("Converting index in " + indexRootPath.getAbsolutePath() + " ...");
+		long start = System.currentTimeMillis();
+		int termCount = convertTermFiles(indexRootPath, segmentFile, invalidDocNrs);
+		System.out.println("Converted " + termCount + " terms into " + segmentFile.getAbsolutePath() + " (" + segmentFile.length() + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	/**
+	 * Produce the name of a segment file.
+	 * @param nr the segment number
+	 * @return the file name
+	 */
+	static String getSegmentFileName(int nr) {
+		String nrString = ("" + nr);
+		while (nrString.length() < 8)
+			nrString = ("0" + nrString);
+		return (SEGMENT_FILE_PREFIX + nrString + "-" + System.currentTimeMillis() + SEGMENT_FILE_SUFFIX);
+	}
+	
+	/**
+	 * Extract the segment number from a segment file name.
+	 * @param fileName the file name
+	 * @return the segment number, or -1 if the argument is not a segment file
+	 *            name
+	 */
+	static int getSegmentNumber(String fileName) {
+		if (!fileName.startsWith(SEGMENT_FILE_PREFIX) || !fileName.endsWith(SEGMENT_FILE_SUFFIX))
+			return -1;
+		try {
+			return Integer.parseInt(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.indexOf('-', SEGMENT_FILE_PREFIX.length())));
+		}
+		catch (RuntimeException re) {
+			return -1;
+		}
+	}
+}
@@ -40,11 +40,14 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -62,22 +65,26 @@ import de.uka.ipd.idaho.goldenGateServer.srs.QueryResult;
 import de.uka.ipd.idaho.goldenGateServer.srs.QueryResultElement;
 import de.uka.ipd.idaho.goldenGateServer.srs.data.IndexResult;
 import de.uka.ipd.idaho.goldenGateServer.srs.data.ThesaurusResult;
+import de.uka.ipd.idaho.goldenGateServer.srs.indexers.FullTextIndexSegment.Postings;
 import de.uka.ipd.idaho.stringUtils.StringUtils;
 
 /**
- * Indexer for full text search, using file based inverted index lists
+ * Indexer for full text search, using inverted index lists stored in memory
+ * mapped segment files
  * 
  * @author sautter
  */
 public class FullTextIndexer extends AbstractIndexer {
 	
 	/*
-	 * Append document number to index lists for all terms present in the
-	 * document. Keep document numbers sorted in index lists. Leave every
-	 * fourth index entry empty for future insertions.
+	 * Buffer postings of newly indexed documents in memory, and write them to
+	 * a new index segment when the buffer is full or indexing goes idle. Keep
+	 * the number of segments in check by merging them in the background,
+	 * dropping postings of deleted and re-indexed documents on the fly. A
+	 * document is valid in the latest segment (or buffer) it was indexed in,
+	 * its postings in any earlier segments are ignored.
 	 * 
-	 * Index entry = 6 bytes:
-	 * - four bytes document number
+	 * Posting = document number, plus:
 	 * - one byte term frequency
 	 * - one byte 2-log of document length
 	 */
@@ -95,15 +102,32 @@ public class FullTextIndexer extends AbstractIndexer {
 	
 	private TreeSet stopWords = new TreeSet(String.CASE_INSENSITIVE_ORDER);
 	
-	private TreeMap trigramsToIndexTerms = new TreeMap();
+	private TrigramTermDictionary trigramDictionary;
 	
 	private HashMap termIndexCache = new LinkedHashMap();
 	private int termIndexCacheLimit = 512;
 	
-	private HashSet dirtyTermIndexQueue = new LinkedHashSet();
-	private HashMap pendingTermIndexEntryCache = new LinkedHashMap();
-	
+	private Object indexLock = new Object(); // guards all of the below
+	private ArrayList segments = new ArrayList();
+	private int nextSegmentNr = 1;
+	private SegmentBuffer writeBuffer;
+	private LinkedList flushQueue = new LinkedList();
+	private HashMap docValidFromSegmentNrs = new HashMap();
 	private HashSet invalidDocumentNumbers = new HashSet();
+	private int indexGeneration = 0;
+	private long lastIndexTime = 0;
+	
+	private File segmentFolder;
+	private int segmentBufferLimit = 1000000;
+	private int maxSegmentCount = 10;
+	
+	private static final String BOOLEAN_SCORING_MODE = "boolean";
+	private static final String BM25_SCORING_MODE = "bm25";
+	private boolean useBm25Scoring = true;
+	private double bm25k1 = 1.2;
+	private double bm25b = 0.75;
+	private DocumentLengthTable documentLengths = new DocumentLengthTable();
+	private boolean documentLengthsMissing = false;
 	
 	private File indexRootPath;
 	private IndexUpdater indexUpdater;
@@ -133,6 +157,20 @@ public class FullTextIndexer extends AbstractIndexer {
 			try {
 				this.termIndexCacheLimit = Integer.parseInt(config.getSetting("termIndexCacheLimit", ("" + this.termIndexCacheLimit)).trim());
 			} catch (NumberFormatException nfe) {}
+			try {
+				this.segmentBufferLimit = Integer.parseInt(config.getSetting("segmentBufferLimit", ("" + this.segmentBufferLimit)).trim());
+			} catch (NumberFormatException nfe) {}
+			try {
+				this.maxSegmentCount = Integer.parseInt(config.getSetting("maxSegmentCount", ("" + this.maxSegmentCount)).trim());
+			} catch (NumberFormatException nfe) {}
+			String scoringMode = config.getSetting("scoringMode", BM25_SCORING_MODE).trim();
+			this.useBm25Scoring = !BOOLEAN_SCORING_MODE.equalsIgnoreCase(scoringMode);
+			try {
+				this.bm25k1 = Double.parseDouble(config.getSetting("bm25k1", ("" + this.bm25k1)).trim());
+			} catch (NumberFormatException nfe) {}
+			try {
+				this.bm25b = Double.parseDouble(config.getSetting("bm25b", ("" + this.bm25b)).trim());
+			} catch (NumberFormatException nfe) {}
 		}
 		
 		//	make sure we have an index root path
@@ -159,14 +197,16 @@ public class FullTextIndexer extends AbstractIndexer {
 			ioe.printStackTrace(System.out);
 		}
 		
-		//	load invalid document numbers
+		//	load invalid document numbers (used to be loaded from data path, but stored in index root)
 		System.out.println("  - loading invalidated document numbers ...");
-		File invalidDocNrFile = new File(this.dataPath, "invalid");
+		File invalidDocNrFile = new File(this.indexRootPath, "invalid");
+		if (!invalidDocNrFile.exists())
+			invalidDocNrFile = new File(this.dataPath, "invalid");
 		if (invalidDocNrFile.length() > 0) { // replace existing file
 			try {
 				DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(invalidDocNrFile)));
-				synchronized (this.invalidDocumentNumbers) {
-					while (dis.available() >= 4)
+				synchronized (this.indexLock) {
+					while (dis.available() >= 8)
 						this.invalidDocumentNumbers.add(new Long(dis.readLong()));
 				}
 				dis.close();
@@ -182,13 +222,66 @@ public class FullTextIndexer extends AbstractIndexer {
 			}
 		}
 		
+		//	load document lengths (collection statistics for relevance scoring, index updater rebuilds them from segments if missing)
+		System.out.println("  - loading document lengths ...");
+		File docLengthsFile = new File(this.indexRootPath, "docLengths");
+		this.documentLengthsMissing = !docLengthsFile.exists();
+		try {
+			this.documentLengths.load(docLengthsFile);
+			System.out.println("  - got lengths of " + this.documentLengths.size() + " documents");
+		}
+		catch (IOException ioe) {
+			System.out.println("  - " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading document lengths.");
+			ioe.printStackTrace(System.out);
+		}
+		
+		//	load index segments
+		System.out.println("  - loading index segments ...");
+		this.segmentFolder = new File(this.indexRootPath, "Segments");
+		if (!this.segmentFolder.exists())
+			this.segmentFolder.mkdirs();
+		this.loadSegments();
+		System.out.println("  - got " + this.segments.size() + " index segments");
+		
+		//	convert index files from before segments were introduced
+		if (this.segments.isEmpty() && FullTextIndexSegment.hasTermFiles(this.indexRootPath)) try {
+			System.out.println("  - converting index files to segment ...");
+			File segmentFile = new File(this.segmentFolder, FullTextIndexSegment.getSegmentFileName(0));
+			File tempSegmentFile = new File(this.segmentFolder, (segmentFile.getName() + ".tmp"));
+			int termCount = FullTextIndexSegment.convertTermFiles(this.indexRootPath, tempSegmentFile, this.invalidDocumentNumbers);
+			tempSegmentFile.renameTo(segmentFile);
+			this.loadSegments();
+			System.out.println("  - converted index files of " + termCount + " terms, delete the one letter folders from " + this.indexRootPath.getAbsolutePath() + " to reclaim space");
+		}
+		catch (IOException ioe) {
+			System.out.println("  - " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while converting index files.");
+			ioe.printStackTrace(System.out);
+		}
+		this.writeBuffer = new SegmentBuffer(this.nextSegmentNr++);
+		
+		//	load trigram dictionary for wildcard matching (index updater adds terms from any segments written after last storage)
+		System.out.println("  - loading trigram dictionary ...");
+		File trigramDictionaryFile = new File(this.indexRootPath, "trigrams.ftd");
+		try {
+			this.trigramDictionary = new TrigramTermDictionary(trigramDictionaryFile, true);
+		}
+		catch (IOException ioe) {
+			System.out.println("  - " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading trigram dictionary, rebuilding it from index segments.");
+			try {
+				this.trigramDictionary = new TrigramTermDictionary(trigramDictionaryFile, false);
+			} catch (IOException ioe2) { /* not loading any file, so we never get here */ }
+		}
+		System.out.println("  - got " + this.trigramDictionary.size() + " index terms");
+		
 		//	start index updater thread
 		System.out.println("  - starting index updater ...");
 		this.indexUpdater = new IndexUpdater();
 		this.indexUpdater.start();
 		this.indexUpdaterMonitor = new AsynchronousWorkQueue("FullTextIndexUpdater") {
 			public String getStatus() {
-				return (this.name + ": " + dirtyTermIndexQueue.size() + " index files to sort, " + pendingTermIndexEntryCache.size() + " ones to update");
+				synchronized (indexLock) {
+					return (this.name + ": " + segments.size() + " index segments, " + writeBuffer.postingCount + " postings buffered, " + flushQueue.size() + " buffers to write");
+				}
 			}
 		};
 		System.out.println("  - index updater started");
@@ -221,7 +314,7 @@ public class FullTextIndexer extends AbstractIndexer {
 			}
 			invalidDocNrFile.createNewFile();
 			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(invalidDocNrFile, true)));
-			synchronized (this.invalidDocumentNumbers) {
+			synchronized (this.indexLock) {
 				for (Iterator it = this.invalidDocumentNumbers.iterator(); it.hasNext();)
 					dos.writeLong(((Long) it.next()).longValue());
 			}
@@ -232,6 +325,59 @@ public class FullTextIndexer extends AbstractIndexer {
 			System.out.println("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing invalid docNr file.");
 			ioe.printStackTrace(System.out);
 		}
+		
+		//	store document lengths
+		try {
+			this.documentLengths.store(new File(this.indexRootPath, "docLengths"));
+		}
+		catch (IOException ioe) {
+			System.out.println("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing document lengths.");
+			ioe.printStackTrace(System.out);
+		}
+	}
+	
+	private void loadSegments() {
+		
+		//	list segment files, cleaning up after any interrupted writes
+		File[] segmentFiles = this.segmentFolder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				if (file.getName().endsWith(".tmp")) {
+					file.delete();
+					return false;
+				}
+				return (FullTextIndexSegment.getSegmentNumber(file.getName()) != -1);
+			}
+		});
+		
+		//	use latest file of each segment number (older ones might be left over from interrupted merges)
+		TreeMap segmentFilesByNr = new TreeMap();
+		Arrays.sort(segmentFiles); // sorts by time stamp for equal segment numbers
+		for (int f = 0; f < segmentFiles.length; f++) {
+			File oldSegmentFile = ((File) segmentFilesByNr.put(new Integer(FullTextIndexSegment.getSegmentNumber(segmentFiles[f].getName())), segmentFiles[f]));
+			if (oldSegmentFile != null)
+				oldSegmentFile.delete();
+		}
+		
+		//	open segments in ascending order, so documents are valid in latest segment they were indexed in
+		synchronized (this.indexLock) {
+			this.segments.clear();
+			this.docValidFromSegmentNrs.clear();
+			for (Iterator snit = segmentFilesByNr.keySet().iterator(); snit.hasNext();) {
+				Integer segmentNr = ((Integer) snit.next());
+				File segmentFile = ((File) segmentFilesByNr.get(segmentNr));
+				try {
+					FullTextIndexSegment segment = new FullTextIndexSegment(segmentNr.intValue(), segmentFile);
+					this.segments.add(segment);
+					for (int d = 0; d < segment.getDocumentCount(); d++)
+						this.docValidFromSegmentNrs.put(new Long(segment.getDocumentNumber(d)), segmentNr);
+					this.nextSegmentNr = Math.max(this.nextSegmentNr, (segment.nr + 1));
+				}
+				catch (IOException ioe) {
+					System.out.println("  - " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading index segment " + segmentFile.getName());
+					ioe.printStackTrace(System.out);
+				}
+			}
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -285,94 +431,185 @@ public class FullTextIndexer extends AbstractIndexer {
 		//	read match mode
 		String matchMode = query.getValue(MATCH_MODE, PREFIX_MATCH_MODE);
 		
+		//	get collection statistics
+		int docCount;
+		double avgDocLength;
+		synchronized (this.documentLengths) {
+			docCount = this.documentLengths.size();
+			avgDocLength = this.documentLengths.getAverageLength();
+		}
+		
 		//	process query
-		QueryResult result = null;
+		TermScores result = null;
+		int resultTermCount = 0;
 		for (Iterator tit = terms.iterator(); tit.hasNext();) {
 			String term = ((String) tit.next());
 			this.host.logActivity("  - doing query term '" + term + "'");
 			
 			//	assemble result for current term/infix
-			QueryResult termOrInfixResult = null;
+			TermScores termOrInfixResult = null;
 			
 			//	do exact match
 			if (EXACT_MATCH_MODE.equals(matchMode)) {
 				
-				//	get index for term
-				TermIndex termIndex = this.getTermIndex(term);
+				//	get postings for term
+				Postings termPostings = this.getTermPostings(term);
 				
 				//	produce query result
-				termOrInfixResult = new QueryResult();
-				if (termIndex != null) {
-					for (int e = 0; e < termIndex.size(); e++)
-						termOrInfixResult.addResultElement(new QueryResultElement(termIndex.entries[e].docNr, 1.0));
-				}
+				termOrInfixResult = this.scorePostings(termPostings, docCount, avgDocLength);
 			}
 			
 			//	do wildcard lookup
 			else {
 				String infix = term;
-				HashSet infixBearingTerms = null;
 				
-				//	find index terms bearing wildcard match term as infix
-				for (int i = 0; i <= (infix.length() - 3); i++) {
-					HashSet trigramTermSet = ((HashSet) this.trigramsToIndexTerms.get(infix.substring(i, (i+3))));
-					
-					//	we have no index terms including this trigram
-					if (trigramTermSet == null) {
-						if (infixBearingTerms != null)
-							infixBearingTerms.clear();
-						break; // could return empty result right here in boolean AND mode, but not in VSR or other advanced modes
-					}
-					
-					//	first trigram, initialize intersecting
-					if (infixBearingTerms == null)
-						infixBearingTerms = new HashSet(trigramTermSet);
-					
-					//	do intersection with all further sets
-					else infixBearingTerms.retainAll(trigramTermSet);
-				}
+				//	find index terms bearing wildcard match term as infix (empty result does not end query, as we might be in BM25 mode)
+				String[] infixBearingTerms = this.trigramDictionary.getCandidateTerms(infix);
 				
 				//	iterate over terms bearing current infix
-				if (infixBearingTerms == null)
-					continue;
-				for (Iterator it = infixBearingTerms.iterator(); it.hasNext();) {
-					String infixBearingTerm = ((String) it.next());
+				for (int t = 0; t < infixBearingTerms.length; t++) {
+					String infixBearingTerm = infixBearingTerms[t];
 					
 					//	check if actual suffix matches (trigrams are indicators, but no secure evidence)
 					if (INFIX_MATCH_MODE.equals(matchMode) ? (infixBearingTerm.indexOf(infix) != -1) : infixBearingTerm.startsWith(infix)) {
 						this.host.logActivity("    - got " + matchMode + " match term '" + infixBearingTerm + "'");
 						
-						//	get index for wildcard matched term
-						TermIndex infixBearingTermIndex = this.getTermIndex(infixBearingTerm);
+						//	get postings for wildcard matched term
+						Postings infixBearingTermPostings = this.getTermPostings(infixBearingTerm);
 						
 						//	produce query result
-						QueryResult infixBearingTermResult = new QueryResult(false);
-						if (infixBearingTermIndex != null)
-							for (int e = 0; e < infixBearingTermIndex.size(); e++)
-								infixBearingTermResult.addResultElement(new QueryResultElement(infixBearingTermIndex.entries[e].docNr, 1.0));
+						TermScores infixBearingTermResult = this.scorePostings(infixBearingTermPostings, docCount, avgDocLength);
 						
-						//	union with results for other terms bearing current infix
+						//	union with results for other terms bearing current infix (use best matching term for scoring)
 						if (termOrInfixResult == null)
 							termOrInfixResult = infixBearingTermResult;
-						else termOrInfixResult = QueryResult.merge(termOrInfixResult, infixBearingTermResult, QueryResult.USE_MAX, 0);
+						else termOrInfixResult = TermScores.union(termOrInfixResult, infixBearingTermResult);
 					}
 				}
 			}
 			
-			this.host.logActivity("  - got " + ((termOrInfixResult == null) ? "no" : ("" + termOrInfixResult.size())) + " results for '" + term + "'");
+			this.host.logActivity("  - got " + ((termOrInfixResult == null) ? "no" : ("" + termOrInfixResult.size)) + " results for '" + term + "'");
 			
-			//	combine result for current term/infix with results for other terms/infixes (boolean AND, vector space measure, etc)
+			//	combine result for current term/infix with results for other terms/infixes (boolean AND, summing up scores for BM25)
 			if (result == null)
-				result = ((termOrInfixResult == null) ? new QueryResult() : termOrInfixResult); // empty result will cause merge to be fast and final result to be empty in boolean mode
-			else result = QueryResult.join(result, termOrInfixResult, QueryResult.USE_MIN, 0);
+				result = ((termOrInfixResult == null) ? new TermScores(0) : termOrInfixResult); // empty result will cause merge to be fast and final result to be empty in boolean mode
+			else result = TermScores.intersect(result, ((termOrInfixResult == null) ? new TermScores(0) : termOrInfixResult), this.useBm25Scoring);
+			resultTermCount++;
 		}
 		
-		//	return final result
-		return result;
+		//	nothing to work with
+		if (result == null)
+			return null;
+		
+		//	return final result, normalizing BM25 score sums to [0,1] by the number of terms
+		QueryResult queryResult = new QueryResult();
+		for (int r = 0; r < result.size; r++)
+			queryResult.addResultElement(new QueryResultElement(result.docNrs[r], (this.useBm25Scoring ? (result.scores[r] / resultTermCount) : 1.0)));
+		return queryResult;
 	}
 	
-	private TermIndex getTermIndex(String term) {
-		TermIndex termIndex;
+	/*
+	 * Compute the BM25 scores for the postings of a term, normalized to (0,1]
+	 * by dividing by the maximum possible score, i.e., the one of a term
+	 * occurring in a single document. We approximate document lengths with
+	 * the 2-log stored in every posting, which is plenty accurate enough for
+	 * scoring purposes. The document frequency is the number of postings, as
+	 * invalid ones are dropped on loading.
+	 */
+	private TermScores scorePostings(Postings postings, int docCount, double avgDocLength) {
+		TermScores termScores = new TermScores(postings.size);
+		for (int p = 0; p < postings.size; p++)
+			termScores.add(postings.docNrs[p], 1.0);
+		if (!this.useBm25Scoring || (postings.size == 0))
+			return termScores;
+		
+		//	fall back to average over postings for document length if we lack collection statistics
+		if (avgDocLength <= 0) {
+			double docLengthSum = 0;
+			for (int p = 0; p < postings.size; p++)
+				docLengthSum += Math.pow(2, postings.docLenLogs[p]);
+			avgDocLength = (docLengthSum / postings.size);
+		}
+		
+		//	compute inverse document frequency
+		int df = postings.size;
+		int n = Math.max(docCount, df);
+		double idf = Math.log(1 + ((n - df + 0.5) / (df + 0.5)));
+		double maxIdf = Math.log(1 + ((n - 1 + 0.5) / (1 + 0.5)));
+		double idfFactor = ((maxIdf <= 0) ? 1 : (idf / maxIdf));
+		
+		//	score postings
+		for (int p = 0; p < postings.size; p++) {
+			double tf = Math.max(1, postings.tfs[p]);
+			double docLengthNorm = (1 - this.bm25b + (this.bm25b * (Math.pow(2, postings.docLenLogs[p]) / avgDocLength)));
+			termScores.scores[p] = (idfFactor * (tf / (tf + (this.bm25k1 * docLengthNorm))));
+		}
+		return termScores;
+	}
+	
+	/*
+	 * Document numbers of a term or query result in ascending order, with
+	 * parallel scores. This saves wrapping each and every posting in a query
+	 * result element before combining term results.
+	 */
+	private static class TermScores {
+		long[] docNrs;
+		double[] scores;
+		int size = 0;
+		TermScores(int capacity) {
+			this.docNrs = new long[capacity];
+			this.scores = new double[capacity];
+		}
+		void add(long docNr, double score) {
+			this.docNrs[this.size] = docNr;
+			this.scores[this.size] = score;
+			this.size++;
+		}
+		static TermScores union(TermScores ts1, TermScores ts2) {
+			TermScores ts = new TermScores(ts1.size + ts2.size);
+			int i1 = 0;
+			int i2 = 0;
+			while ((i1 < ts1.size) && (i2 < ts2.size)) {
+				if (ts1.docNrs[i1] < ts2.docNrs[i2]) {
+					ts.add(ts1.docNrs[i1], ts1.scores[i1]);
+					i1++;
+				}
+				else if (ts2.docNrs[i2] < ts1.docNrs[i1]) {
+					ts.add(ts2.docNrs[i2], ts2.scores[i2]);
+					i2++;
+				}
+				else {
+					ts.add(ts1.docNrs[i1], Math.max(ts1.scores[i1], ts2.scores[i2]));
+					i1++;
+					i2++;
+				}
+			}
+			for (; i1 < ts1.size; i1++)
+				ts.add(ts1.docNrs[i1], ts1.scores[i1]);
+			for (; i2 < ts2.size; i2++)
+				ts.add(ts2.docNrs[i2], ts2.scores[i2]);
+			return ts;
+		}
+		static TermScores intersect(TermScores ts1, TermScores ts2, boolean sumScores) {
+			TermScores ts = new TermScores(Math.min(ts1.size, ts2.size));
+			int i1 = 0;
+			int i2 = 0;
+			while ((i1 < ts1.size) && (i2 < ts2.size)) {
+				if (ts1.docNrs[i1] < ts2.docNrs[i2])
+					i1++;
+				else if (ts2.docNrs[i2] < ts1.docNrs[i1])
+					i2++;
+				else {
+					ts.add(ts1.docNrs[i1], (sumScores ? (ts1.scores[i1] + ts2.scores[i2]) : Math.min(ts1.scores[i1], ts2.scores[i2])));
+					i1++;
+					i2++;
+				}
+			}
+			return ts;
+		}
+	}
+	
+	private Postings getTermPostings(String term) {
 		
 		//	have to synchronize cache lookup in order to avoid problems with LRU ordering in the face of concurrency
 		synchronized (this.termIndexCache) {
@@ -381,90 +618,65 @@ public class FullTextIndexer extends AbstractIndexer {
 			if (this.termIndexCache.containsKey(term)) {
 				
 				//	have to remove and re-add index to maintain LRU ordering in linked hash map
-				termIndex = ((TermIndex) this.termIndexCache.remove(term));
-				this.termIndexCache.put(term, termIndex);
-				return termIndex;
-			}
-		}
-		
-		//	cache miss, load index from disc
-		termIndex = new TermIndex(term);
-		try {
-			//	get file
-			File indexFile = this.getIndexFile(term, false);
-			if (indexFile == null)
-				return termIndex;
-			
-			//	read file
-			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
-			
-			//	read index data
-			while (dis.available() >= 10) {
-				long docNr = dis.readLong();
-				byte tf = dis.readByte();
-				byte lenLog = dis.readByte();
+				TermIndex termIndex = ((TermIndex) this.termIndexCache.remove(term));
 				
-				//	check if index contains invalid entries
-				synchronized (this.invalidDocumentNumbers) {
-					
-					//	if so, add index to dirty list so file is rewritten
-					if (this.invalidDocumentNumbers.contains(new Long(docNr)))
-						synchronized (this.dirtyTermIndexQueue) {
-							this.dirtyTermIndexQueue.add(termIndex);
-						}
-					
-					//	check if index entries in file are sorted, if not, add index to dirty list so file is rewritten (may happen if updates are appended)  
-					else {
-						int size = termIndex.size();
-						if (
-								termIndex.addEntry(new TermIndexEntry(docNr, tf, lenLog))// ==> sort order violated
-								||
-								(size == termIndex.size())// ==> duplicate entry (adding did not increase index size)
-							) 
-							synchronized (this.dirtyTermIndexQueue) {
-								this.dirtyTermIndexQueue.add(termIndex);
-							}
+				//	index unmodified since loading, we're good
+				synchronized (this.indexLock) {
+					if (termIndex.generation == this.indexGeneration) {
+						this.termIndexCache.put(term, termIndex);
+						return termIndex.postings;
 					}
 				}
 			}
-			dis.close();
-			
-			//	add pending entries
-			synchronized (this.pendingTermIndexEntryCache) {
-				if (this.pendingTermIndexEntryCache.containsKey(term)) {
-					
-					//	add pending entries to index
-					LinkedList pendingEntries = ((LinkedList) this.pendingTermIndexEntryCache.get(term));
-					boolean modified = false;
-					int size = termIndex.size();
-					for (Iterator peit = pendingEntries.iterator(); peit.hasNext();) {
-						if (termIndex.addEntry((TermIndexEntry) peit.next())) {
-							modified = true;
-							size = termIndex.size();
-						}
-						else if (size == termIndex.size()) // remove existing entries so they are not written to file
-							peit.remove();
-					}
-					
-					//	if new entries contradict sorting order of index file, add index to dirty list and remove pending entries
-					if (modified)
-						synchronized (this.dirtyTermIndexQueue) {
-							this.dirtyTermIndexQueue.add(termIndex);
-							this.pendingTermIndexEntryCache.remove(term);
-						}
-				}
+		}
+		
+		//	collect segments and buffers, copying buffered postings, as they are subject to change
+		FullTextIndexSegment[] segments;
+		int[] sourceNrs;
+		Postings[] sourcePostings;
+		int generation;
+		synchronized (this.indexLock) {
+			generation = this.indexGeneration;
+			segments = ((FullTextIndexSegment[]) this.segments.toArray(new FullTextIndexSegment[this.segments.size()]));
+			sourceNrs = new int[segments.length + this.flushQueue.size() + 1];
+			sourcePostings = new Postings[sourceNrs.length];
+			for (int s = 0; s < segments.length; s++)
+				sourceNrs[s] = segments[s].nr;
+			int b = segments.length;
+			for (Iterator sbit = this.flushQueue.iterator(); sbit.hasNext();) {
+				SegmentBuffer sb = ((SegmentBuffer) sbit.next());
+				sourceNrs[b] = sb.nr;
+				sourcePostings[b++] = sb.getPostings(term);
 			}
+			sourceNrs[b] = this.writeBuffer.nr;
+			sourcePostings[b] = this.writeBuffer.getPostings(term);
 		}
-		catch (IOException ioe) {
-			this.host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading index file for '" + term + "'");
-			this.host.logError(ioe);
+		
+		//	decode postings from segments
+		for (int s = 0; s < segments.length; s++)
+			sourcePostings[s] = segments[s].getPostings(term);
+		
+		//	keep only valid postings (each document is valid in at most one segment or buffer)
+		Postings postings = new Postings(0);
+		for (int s = 0; s < sourcePostings.length; s++) {
+			if (sourcePostings[s] == null)
+				continue;
+			sourcePostings[s].sort(); // buffered postings are in indexing order
+			Postings validPostings = new Postings(sourcePostings[s].size);
+			synchronized (this.indexLock) {
+				for (int p = 0; p < sourcePostings[s].size; p++) {
+					if (this.isValid(sourcePostings[s].docNrs[p], sourceNrs[s]))
+						validPostings.add(sourcePostings[s].docNrs[p], sourcePostings[s].tfs[p], sourcePostings[s].docLenLogs[p]);
+				}
+			}
+			postings = ((postings.size == 0) ? validPostings : Postings.union(postings, validPostings));
 		}
 		
 		//	have to synchronize cache modification in order to avoid problems in the face of concurrency
 		synchronized (this.termIndexCache) {
 			
 			//	add index to cache
-			this.termIndexCache.put(term, termIndex);
+			this.termIndexCache.put(term, new TermIndex(postings, generation));
 			
 			//	test cache size limit
 			if (this.termIndexCache.size() > this.termIndexCacheLimit) {
@@ -476,127 +688,50 @@ public class FullTextIndexer extends AbstractIndexer {
 			}
 		}
 		
-		//	return the index
-		return termIndex;
+		//	return the postings
+		return postings;
 	}
 	
-	private File getIndexFile(String term, boolean create) throws IOException {
-		File indexFile = this.indexRootPath;
-		for (int l = 0; l < Math.min(term.length(), 3); l++)
-			indexFile = new File(indexFile, term.substring(l, (l+1)));
-		
-		if (!indexFile.exists()) {
-			if (create)
-				indexFile.mkdirs();
-			else return null;
-		}
-		
-		indexFile = new File(indexFile, ("idx-" + term)); // prevent using forbidden file names like 'con'
-		if (!indexFile.exists()) {
-			if (create) try {
-				indexFile.createNewFile();
-			}
-			catch (IOException ioe) {
-				if ("FileNameTooLong".equalsIgnoreCase(ioe.getMessage().replaceAll("\\s+", ""))) // simply cut overly long file names
-					return this.getIndexFile(term.substring(0, (term.length()-1)), create);
-				else throw ioe;
-			}
-			else return null;
-		}
-		
-		return indexFile;
+	/* check if postings for a document from a given segment are valid, need to hold index lock */
+	private boolean isValid(long docNr, int segmentNr) {
+		Long docNrObj = new Long(docNr);
+		if (this.invalidDocumentNumbers.contains(docNrObj))
+			return false;
+		Integer validFromSegmentNr = ((Integer) this.docValidFromSegmentNrs.get(docNrObj));
+		return ((validFromSegmentNr == null) || (validFromSegmentNr.intValue() <= segmentNr));
 	}
 	
-	/*
-TODO Keep SRS full text index entries as byte[] ...
-... and decode data akin to taxonomic epithet index
-	 */
+	/* postings of a term, with the index generation they were loaded in */
 	private static class TermIndex {
-		private static final int CAPACITY_INCREMENT = 16;
-		final String term;
-		TermIndexEntry[] entries = new TermIndexEntry[CAPACITY_INCREMENT];
-		int size = 0;
-		TermIndex(String term) {
-			this.term = term;
-		}
-		synchronized int size() {
-			return this.size;
+		final Postings postings;
+		final int generation;
+		TermIndex(Postings postings, int generation) {
+			this.postings = postings;
+			this.generation = generation;
 		}
-		/*
-		 * returns true is the new entry was inserted in the middle instead of
-		 * appended ==> sort order in file invalid
-		 */
-		synchronized boolean addEntry(TermIndexEntry entry) {
-			
-			//	check if append operation in order to save binary search
-			if ((this.size != 0) && (this.entries[this.size - 1].docNr >= entry.docNr)) {
-				
-				//	check if entry already present
-				int index = this.find(entry.docNr);
-				
-				//	entry is present ==> update
-				if (index != -1) {
-					boolean modified = ((this.entries[index].tf != entry.tf) || (this.entries[index].docLenLog != entry.docLenLog));
-					if (modified)
-						this.entries[index] = entry;
-					return modified;
-				}
-			}
-			
-			//	have to extend content array (linear increment, for updates are not as frequent)
-			if (this.size == this.entries.length) {
-				TermIndexEntry[] newEntries = new TermIndexEntry[this.entries.length + CAPACITY_INCREMENT];
-				System.arraycopy(this.entries, 0, newEntries, 0, this.entries.length);
-				this.entries = newEntries;
-			}
-			
-			//	append new entry
-			this.entries[this.size++] = entry;
-			
-			/*
-			 * have to re-sort ==> one backward pass of bubble sort will do, for
-			 * all but the last two elements are guaranteed to be sorted (would
-			 * have to shift array anyway for insertion)
-			 */
-			//	TODO use binary search and System.arraycopy instead (swapping gets a bit more finicky with plain arrays, and arraycopy is native)
-			boolean modified = false;
-			for (int i = (this.size - 1); i > 0; i--) {
-				if (this.entries[i-1].docNr < this.entries[i].docNr)
-					break; // break, we're done
-				else { // swap current elements
-					entry = this.entries[i-1]; // use entry as temp
-					this.entries[i-1] = this.entries[i];
-					this.entries[i] = entry;
-					modified = true;
-				}
-			}
-			return modified;
+	}
+	
+	/* postings of newly indexed documents, yet to be written to a segment */
+	private static class SegmentBuffer {
+		final int nr;
+		final HashMap termPostings = new HashMap();
+		final HashSet docNrs = new HashSet();
+		int postingCount = 0;
+		SegmentBuffer(int nr) {
+			this.nr = nr;
 		}
-		private int find(long docNr) {
-			int low = 0;
-			int high = this.size - 1;
-			long midDocNr;
-			while (low <= high) {
-				int middle = ((low + high) / 2);
-				midDocNr = this.entries[middle].docNr;
-				if (midDocNr < docNr)
-					low = middle + 1;
-				else if (midDocNr > docNr)
-					high = middle - 1;
-				else return middle;
+		void addPosting(String term, long docNr, byte tf, byte docLenLog) {
+			Postings postings = ((Postings) this.termPostings.get(term));
+			if (postings == null) {
+				postings = new Postings(4);
+				this.termPostings.put(term, postings);
 			}
-			return -1;
+			postings.add(docNr, tf, docLenLog);
+			this.postingCount++;
 		}
-	}
-	
-	private static class TermIndexEntry {
-		final long docNr;
-		final byte tf;
-		final byte docLenLog;
-		TermIndexEntry(long docNr, byte tf, byte lenLog) {
-			this.docNr = docNr;
-			this.tf = tf;
-			this.docLenLog = lenLog;
+		Postings getPostings(String term) {
+			Postings postings = ((Postings) this.termPostings.get(term));
+			return ((postings == null) ? null : postings.copy());
 		}
 	}
 	
@@ -641,15 +776,6 @@ TODO Keep SRS full text index entries as byte[] ...
 //	public void index(QueriableAnnotation doc, long docNr) {
 	public IndexResult index(QueriableAnnotation doc, long docNr) {
 		
-		//	mark document number as valid
-		synchronized (this.invalidDocumentNumbers) {
-			this.invalidDocumentNumbers.remove(new Long(docNr));
-		}
-		
-		//	catch empty document
-		if (doc.size() == 0)
-			return null;
-		
 		//	extract index terms
 		TokenSequence termTs = Gamta.newTokenSequence(doc, Gamta.NO_INNER_PUNCTUATION_TOKENIZER);
 		CountingSet terms = new CountingSet(new TreeMap(String.CASE_INSENSITIVE_ORDER));
@@ -662,58 +788,52 @@ TODO Keep SRS full text index entries as byte[] ...
 		}
 		
 		//	compute doc size
-		byte docLenLog = ((byte) Math.min(Byte.MAX_VALUE, ((int) Math.round(Math.log(doc.size()) / Math.log(2)))));
+		byte docLenLog = ((byte) Math.min(Byte.MAX_VALUE, ((int) Math.round(Math.log(Math.max(doc.size(), 1)) / Math.log(2)))));
 		
-		//	index terms
+		//	update collection statistics
+		synchronized (this.documentLengths) {
+			this.documentLengths.setLength(docNr, doc.size());
+		}
+		
+		//	add terms to dictionary for wildcard matching
 		for (Iterator tit = terms.iterator(); tit.hasNext();) {
 			String term = ((String) tit.next());
 			if (term.trim().length() == 0)
 				continue;
+			this.trigramDictionary.addTerm(term);
+		}
+		
+		//	buffer postings
+		synchronized (this.indexLock) {
+			Long docNrObj = new Long(docNr);
 			
-			//	map trigrams to terms
-			for (int t = 0; t <= (term.length() - 3); t++) {
-				String trigram = term.substring(t, (t+3));
-				HashSet trigramTermSet = ((HashSet) this.trigramsToIndexTerms.get(trigram));
-				if (trigramTermSet == null) {
-					trigramTermSet = new HashSet();
-					this.trigramsToIndexTerms.put(trigram, trigramTermSet);
-				}
-				trigramTermSet.add(term);
-			}
+			//	mark document number as valid
+			this.invalidDocumentNumbers.remove(docNrObj);
 			
-			//	get term frequency
-			byte tf = ((byte) Math.min(Byte.MAX_VALUE, terms.getCount(term)));
+			//	document re-indexed before buffer written, seal buffer so postings of previous version go to a segment of their own
+			if (this.writeBuffer.docNrs.contains(docNrObj))
+				this.sealWriteBuffer();
 			
-			//	add entries to cached indices (update from pending entries happens only on loading from disc)
-			synchronized (this.termIndexCache) {
-				if (this.termIndexCache.containsKey(term)) {
-					TermIndex termIndex = ((TermIndex) this.termIndexCache.get(term));
-					int size = termIndex.size;
-					
-					//	new entry violates sort order
-					if (termIndex.addEntry(new TermIndexEntry(docNr, tf, docLenLog)))
-						synchronized (this.dirtyTermIndexQueue) {
-							this.dirtyTermIndexQueue.add(termIndex);
-							tf = 0; // indicate index is dirty, no need for pending entry list
-						}
-					
-					//	entry re-added without changing anything, dont't write entry to index file
-					else if (size == termIndex.size)
-						tf = 0;
-				}
-			}
+			//	any postings in earlier segments are invalid from here on
+			this.docValidFromSegmentNrs.put(docNrObj, new Integer(this.writeBuffer.nr));
+			this.writeBuffer.docNrs.add(docNrObj);
 			
-			//	enqueue new entries for persistent storage (if not whole index is scheduled for rewrite)
-			if (tf == 0)
-				continue;
-			synchronized (this.pendingTermIndexEntryCache) {
-				LinkedList pendingEntries = ((LinkedList) this.pendingTermIndexEntryCache.get(term));
-				if (pendingEntries == null) {
-					pendingEntries = new LinkedList();
-					this.pendingTermIndexEntryCache.put(term, pendingEntries);
-				}
-				pendingEntries.add(new TermIndexEntry(docNr, tf, docLenLog));
+			//	add postings
+			for (Iterator tit = terms.iterator(); tit.hasNext();) {
+				String term = ((String) tit.next());
+				if (term.trim().length() == 0)
+					continue;
+				byte tf = ((byte) Math.min(Byte.MAX_VALUE, terms.getCount(term)));
+				this.writeBuffer.addPosting(term, docNr, tf, docLenLog);
 			}
+			
+			//	invalidate cached postings
+			this.indexGeneration++;
+			this.lastIndexTime = System.currentTimeMillis();
+			
+			//	buffer full, have it written
+			if (this.writeBuffer.postingCount >= this.segmentBufferLimit)
+				this.sealWriteBuffer();
 		}
 		
 		return null; // still no support for index search
@@ -726,63 +846,120 @@ TODO Keep SRS full text index entries as byte[] ...
 		/*
 		 * Going through all inverted lists in order to remove document number
 		 * would be too costly. Add document number to list of deleted
-		 * documents, and ignore document number in future searches. Only in
-		 * next maintenance, reorganize index lists and remove the entries for
-		 * all documents marked as deleted.
+		 * documents, and ignore document number in future searches. Postings
+		 * of deleted documents are dropped when the segments containing them
+		 * are merged or purged.
 		 */
-		synchronized (this.invalidDocumentNumbers) {
+		synchronized (this.indexLock) {
 			this.invalidDocumentNumbers.add(new Long(docNr));
+			this.indexGeneration++;
+		}
+		synchronized (this.documentLengths) {
+			this.documentLengths.removeLength(docNr);
+		}
+	}
+	
+	/* hand write buffer to index updater for writing, need to hold index lock */
+	private void sealWriteBuffer() {
+		if (this.writeBuffer.docNrs.isEmpty())
+			return;
+		this.flushQueue.addLast(this.writeBuffer);
+		this.writeBuffer = new SegmentBuffer(this.nextSegmentNr++);
+	}
+	
+	/*
+	 * Lengths of all indexed documents, for computing collection statistics
+	 * required for relevance scoring, namely the number of documents and the
+	 * average document length.
+	 */
+	private static class DocumentLengthTable {
+		private HashMap lengths = new HashMap();
+		private long lengthSum = 0;
+		private boolean dirty = false;
+		int size() {
+			return this.lengths.size();
+		}
+		double getAverageLength() {
+			return (this.lengths.isEmpty() ? 0 : (((double) this.lengthSum) / this.lengths.size()));
+		}
+		void setLength(long docNr, int length) {
+			Integer oldLength = ((Integer) this.lengths.put(new Long(docNr), new Integer(length)));
+			if (oldLength != null)
+				this.lengthSum -= oldLength.intValue();
+			this.lengthSum += length;
+			this.dirty = true;
+		}
+		boolean hasLength(long docNr) {
+			return this.lengths.containsKey(new Long(docNr));
+		}
+		void removeLength(long docNr) {
+			Integer oldLength = ((Integer) this.lengths.remove(new Long(docNr)));
+			if (oldLength == null)
+				return;
+			this.lengthSum -= oldLength.intValue();
+			this.dirty = true;
+		}
+		synchronized void load(File file) throws IOException {
+			if (!file.exists())
+				return;
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (dis.available() >= 12) {
+					long docNr = dis.readLong();
+					int length = dis.readInt();
+					this.setLength(docNr, length);
+				}
+			}
+			finally {
+				dis.close();
+			}
+			this.dirty = false;
+		}
+		synchronized void store(File file) throws IOException {
+			if (!this.dirty)
+				return;
+			File newFile = new File(file.getAbsolutePath() + ".new");
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile, false)));
+			for (Iterator dnit = this.lengths.keySet().iterator(); dnit.hasNext();) {
+				Long docNr = ((Long) dnit.next());
+				dos.writeLong(docNr.longValue());
+				dos.writeInt(((Integer) this.lengths.get(docNr)).intValue());
+			}
+			dos.flush();
+			dos.close();
+			if (file.exists())
+				file.delete();
+			newFile.renameTo(file);
+			this.dirty = false;
 		}
 	}
 	
 	private class IndexUpdater extends Thread {
 		private boolean keepRunning = true;
 		private Object lock = new Object();
+		private long lastDocLengthsStored = System.currentTimeMillis();
+		private long lastSegmentsPurged = System.currentTimeMillis();
+		private long lastTrigramDictionaryStored = System.currentTimeMillis();
 		public void run() {
 			
-			//	initialize wildcard matching helper
-			host.logInfo("  - indexing index terms by trigrams ...");
-			int indexTermCount = 0;
-			File[] idxFolders1 = indexRootPath.listFiles(new FileFilter() {
-				public boolean accept(File file) {
-					return file.isDirectory();
-				}
-			});
-			for (int f1 = 0; f1 < idxFolders1.length; f1++) {
-				File[] idxFolders2 = idxFolders1[f1].listFiles(new FileFilter() {
-					public boolean accept(File file) {
-						return file.isDirectory();
-					}
-				});
-				for (int f2 = 0; f2 < idxFolders2.length; f2++) {
-					File[] idxFolders3 = idxFolders2[f2].listFiles(new FileFilter() {
-						public boolean accept(File file) {
-							return file.isDirectory();
-						}
-					});
-					for (int f3 = 0; f3 < idxFolders3.length; f3++) {
-						File[] idxFiles = idxFolders3[f3].listFiles(new FileFilter() {
-							public boolean accept(File file) {
-								return (file.isFile() && file.getName().startsWith("idx-") && !file.getName().endsWith(".old"));
-							}
-						});
-						for (int f = 0; f < idxFiles.length; f++) {
-							String term = idxFiles[f].getName().substring("idx-".length());
-							indexTermCount ++;
-							for (int t = 0; t <= (term.length() - 3); t++) {
-								String trigram = term.substring(t, (t+3));
-								HashSet trigramTermSet = ((HashSet) trigramsToIndexTerms.get(trigram));
-								if (trigramTermSet == null) {
-									trigramTermSet = new HashSet();
-									trigramsToIndexTerms.put(trigram, trigramTermSet);
-								}
-								trigramTermSet.add(term);
-							}
-						}
-					}
-				}
+			//	add terms of segments written after trigram dictionary was last stored
+			FullTextIndexSegment[] segments;
+			synchronized (indexLock) {
+				segments = ((FullTextIndexSegment[]) FullTextIndexer.this.segments.toArray(new FullTextIndexSegment[FullTextIndexer.this.segments.size()]));
+			}
+			int trigramDictionarySegmentNr = trigramDictionary.getSegmentNumber();
+			for (int s = 0; s < segments.length; s++) {
+				if (segments[s].nr <= trigramDictionarySegmentNr)
+					continue;
+				host.logInfo("  - adding terms from index segment " + segments[s].nr + " to trigram dictionary ...");
+				for (int t = 0; t < segments[s].getTermCount(); t++)
+					trigramDictionary.addTerm(segments[s].getTerm(t));
 			}
-			host.logInfo("  - got " + trigramsToIndexTerms.size() + " trigrams from " + indexTermCount + " index terms");
+			host.logInfo("  - got " + trigramDictionary.size() + " index terms in trigram dictionary");
+			
+			//	rebuild collection statistics if missing (index from before relevance scoring was introduced)
+			if (documentLengthsMissing)
+				this.rebuildDocumentLengths(segments);
 			
 			//	get ready to work
 			while (this.keepRunning) {
@@ -794,91 +971,282 @@ TODO Keep SRS full text index entries as byte[] ...
 					}
 				} catch (InterruptedException ie) {}
 				
+				//	have buffer written if indexing has gone idle
+				synchronized (indexLock) {
+					if ((lastIndexTime + (1000 * 60)) < System.currentTimeMillis())
+						sealWriteBuffer();
+				}
+				
 				//	do the pending work
 				while (this.keepRunning && this.doWork())
 					try {
 						Thread.sleep(100);
 					} catch (InterruptedException ie) {}
+				
+				//	clean up segments with many invalid postings every once in a while
+				if (this.keepRunning && ((lastSegmentsPurged + (1000 * 60 * 10)) < System.currentTimeMillis())) {
+					while (this.keepRunning && this.purgeSegment()) {}
+					lastSegmentsPurged = System.currentTimeMillis();
+				}
+				
+				//	persist trigram dictionary every once in a while
+				if (this.keepRunning && ((lastTrigramDictionaryStored + (1000 * 60 * 10)) < System.currentTimeMillis())) {
+					this.storeTrigramDictionary();
+					lastTrigramDictionaryStored = System.currentTimeMillis();
+				}
+				
+				//	persist collection statistics every once in a while
+				if (this.keepRunning && ((lastDocLengthsStored + (1000 * 60 * 10)) < System.currentTimeMillis())) try {
+					documentLengths.store(new File(indexRootPath, "docLengths"));
+					lastDocLengthsStored = System.currentTimeMillis();
+				}
+				catch (IOException ioe) {
+					host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing document lengths");
+					host.logError(ioe);
+				}
 			}
 			
 			//	work off the rest before shutdown
-			host.logInfo("IndexUpdater shutting down, working off remaining queues ...");
-			while (this.doWork()) {}
+			host.logInfo("IndexUpdater shutting down, writing remaining buffers ...");
+			synchronized (indexLock) {
+				sealWriteBuffer();
+			}
+			while (this.flushBuffer()) {}
+			this.storeTrigramDictionary();
+		}
+		
+		private void rebuildDocumentLengths(FullTextIndexSegment[] segments) {
+			host.logInfo("  - rebuilding document lengths from index segments ...");
+			HashMap docLenLogs = new HashMap();
+			
+			//	go through segments latest first, as documents are valid in latest segment they were indexed in
+			for (int s = (segments.length - 1); s >= 0; s--) {
+				
+				//	collect document lengths from postings, until we have all the documents of the segment
+				HashMap segmentDocLenLogs = new HashMap();
+				for (int t = 0; (t < segments[s].getTermCount()) && (segmentDocLenLogs.size() < segments[s].getDocumentCount()); t++) {
+					Postings postings = segments[s].getPostings(t);
+					for (int p = 0; p < postings.size; p++)
+						segmentDocLenLogs.put(new Long(postings.docNrs[p]), new Byte(postings.docLenLogs[p]));
+				}
+				
+				//	keep lengths of documents valid in this segment
+				synchronized (indexLock) {
+					for (Iterator dnit = segmentDocLenLogs.keySet().iterator(); dnit.hasNext();) {
+						Long docNr = ((Long) dnit.next());
+						if (!docLenLogs.containsKey(docNr) && isValid(docNr.longValue(), segments[s].nr))
+							docLenLogs.put(docNr, segmentDocLenLogs.get(docNr));
+					}
+				}
+			}
+			
+			//	add lengths (postings only hold the 2-log), keeping those of documents indexed or deleted in the meantime
+			int rebuilt = 0;
+			synchronized (indexLock) {
+				synchronized (documentLengths) {
+					for (Iterator dnit = docLenLogs.keySet().iterator(); dnit.hasNext();) {
+						Long docNr = ((Long) dnit.next());
+						if (documentLengths.hasLength(docNr.longValue()) || invalidDocumentNumbers.contains(docNr))
+							continue;
+						documentLengths.setLength(docNr.longValue(), ((int) Math.round(Math.pow(2, ((Byte) docLenLogs.get(docNr)).byteValue()))));
+						rebuilt++;
+					}
+				}
+			}
+			documentLengthsMissing = false;
+			host.logInfo("  - rebuilt lengths of " + rebuilt + " documents");
+			
+			//	persist right away
+			try {
+				documentLengths.store(new File(indexRootPath, "docLengths"));
+			}
+			catch (IOException ioe) {
+				host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing document lengths");
+				host.logError(ioe);
+			}
+		}
+		
+		private void storeTrigramDictionary() {
+			if (!trigramDictionary.isDirty())
+				return;
+			
+			//	get latest segment number before storing, as terms of all existing segments are in dictionary
+			int segmentNr = -1;
+			synchronized (indexLock) {
+				for (int s = 0; s < segments.size(); s++)
+					segmentNr = Math.max(segmentNr, ((FullTextIndexSegment) segments.get(s)).nr);
+			}
+			try {
+				host.logDebug("  - storing trigram dictionary with " + trigramDictionary.size() + " index terms");
+				trigramDictionary.store(segmentNr);
+				host.logDebug("    - done");
+			}
+			catch (IOException ioe) {
+				host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing trigram dictionary");
+				host.logError(ioe);
+			}
 		}
 		
 		private boolean doWork() {
 			
-			//	write dirty term index
-			synchronized (dirtyTermIndexQueue) {
-				if (dirtyTermIndexQueue.size() != 0) {
-					Iterator it = dirtyTermIndexQueue.iterator();
-					TermIndex termIndex = ((TermIndex) it.next());
-					synchronized (termIndex) {
-						try {
-							host.logDebug("  - storing index file for '" + termIndex.term + "'");
-							File termIndexFile = getIndexFile(termIndex.term, true);
-							if (termIndexFile.length() > 0) { // replace existing file
-								File oldTif = new File(termIndexFile.getAbsolutePath() + ".old");
-								if (oldTif.exists())
-									oldTif.delete();
-								termIndexFile.renameTo(new File(termIndexFile.getAbsolutePath() + ".old"));
-								termIndexFile = getIndexFile(termIndex.term, true);
-							}
-							host.logDebug("    - writing " + termIndex.size + " entries");
-							DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(termIndexFile, false)));
-							for (int e = 0; e < termIndex.size; e++) {
-								TermIndexEntry tie = termIndex.entries[e];
-								dos.writeLong(tie.docNr);
-								dos.writeByte(tie.tf);
-								dos.writeByte(tie.docLenLog);
-							}
-							dos.flush();
-							dos.close();
-							it.remove();
-							host.logDebug("    - done");
-							return true;
+			//	write sealed buffers first, as they hold on to memory
+			if (this.flushBuffer())
+				return true;
+			
+			//	merge smallest segments if we have too many
+			FullTextIndexSegment[] toMerge = null;
+			synchronized (indexLock) {
+				if (segments.size() > maxSegmentCount) {
+					ArrayList bySize = new ArrayList(segments);
+					Collections.sort(bySize, new Comparator() {
+						public int compare(Object obj1, Object obj2) {
+							long s1 = ((FullTextIndexSegment) obj1).size;
+							long s2 = ((FullTextIndexSegment) obj2).size;
+							return ((s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1));
 						}
-						catch (IOException ioe) {
-							host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing index file for '" + termIndex.term + "'");
-							host.logError(ioe);
+					});
+					toMerge = new FullTextIndexSegment[Math.max(2, (segments.size() - maxSegmentCount + 1))];
+					for (int s = 0; s < toMerge.length; s++)
+						toMerge[s] = ((FullTextIndexSegment) bySize.get(s));
+				}
+			}
+			if (toMerge != null)
+				return this.mergeSegments(toMerge);
+			
+			//	nothing to do
+			return false;
+		}
+		
+		private boolean flushBuffer() {
+			SegmentBuffer sb;
+			synchronized (indexLock) {
+				if (flushQueue.isEmpty())
+					return false;
+				sb = ((SegmentBuffer) flushQueue.getFirst());
+			}
+			
+			//	buffer is sealed, so we can write it without holding the lock
+			File segmentFile = new File(segmentFolder, FullTextIndexSegment.getSegmentFileName(sb.nr));
+			File tempSegmentFile = new File(segmentFolder, (segmentFile.getName() + ".tmp"));
+			try {
+				host.logDebug("  - writing index segment " + sb.nr + " with " + sb.postingCount + " postings of " + sb.docNrs.size() + " documents");
+				FullTextIndexSegment.SegmentWriter sw = new FullTextIndexSegment.SegmentWriter(tempSegmentFile);
+				for (Iterator tit = sb.termPostings.keySet().iterator(); tit.hasNext();) {
+					String term = ((String) tit.next());
+					Postings postings = ((Postings) sb.termPostings.get(term));
+					postings.sort();
+					sw.addPostings(term, postings);
+				}
+				sw.finish(sb.docNrs);
+				if (!tempSegmentFile.renameTo(segmentFile))
+					throw new IOException("Could not rename " + tempSegmentFile.getName() + " to " + segmentFile.getName());
+				FullTextIndexSegment segment = new FullTextIndexSegment(sb.nr, segmentFile);
+				
+				//	replace buffer with segment (postings are identical, so no need to invalidate cache)
+				synchronized (indexLock) {
+					segments.add(segment);
+					flushQueue.removeFirst();
+				}
+				host.logDebug("    - done");
+				return true;
+			}
+			catch (IOException ioe) {
+				tempSegmentFile.delete();
+				host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while writing index segment " + sb.nr);
+				host.logError(ioe);
+				return false;
+			}
+		}
+		
+		private boolean mergeSegments(FullTextIndexSegment[] toMerge) {
+			
+			/* use highest input segment number for merge result, as newer
+			 * segments cannot contain any of its valid documents, and older
+			 * ones only hold postings invalidated by the merge result */
+			int nr = -1;
+			for (int s = 0; s < toMerge.length; s++)
+				nr = Math.max(nr, toMerge[s].nr);
+			File segmentFile = new File(segmentFolder, FullTextIndexSegment.getSegmentFileName(nr));
+			File tempSegmentFile = new File(segmentFolder, (segmentFile.getName() + ".tmp"));
+			try {
+				host.logDebug("  - merging " + toMerge.length + " index segments into segment " + nr);
+				FullTextIndexSegment merged = FullTextIndexSegment.merge(toMerge, nr, tempSegmentFile, new FullTextIndexSegment.PostingValidator() {
+					public boolean isValid(long docNr, int segmentNr) {
+						synchronized (indexLock) {
+							return FullTextIndexer.this.isValid(docNr, segmentNr);
 						}
 					}
+				});
+				if (!tempSegmentFile.renameTo(segmentFile))
+					throw new IOException("Could not rename " + tempSegmentFile.getName() + " to " + segmentFile.getName());
+				merged = new FullTextIndexSegment(nr, segmentFile);
+				
+				//	swap in merged segment
+				synchronized (indexLock) {
+					for (int s = 0; s < toMerge.length; s++)
+						segments.remove(toMerge[s]);
+					
+					//	documents valid in any merged segment are now valid from the merge result onward
+					for (int d = 0; d < merged.getDocumentCount(); d++) {
+						Long docNrObj = new Long(merged.getDocumentNumber(d));
+						Integer validFromSegmentNr = ((Integer) docValidFromSegmentNrs.get(docNrObj));
+						if ((validFromSegmentNr == null) || (validFromSegmentNr.intValue() < nr))
+							docValidFromSegmentNrs.put(docNrObj, new Integer(nr));
+					}
+					
+					//	keep segments ordered by number
+					int insertPos = 0;
+					while ((insertPos < segments.size()) && (((FullTextIndexSegment) segments.get(insertPos)).nr < nr))
+						insertPos++;
+					segments.add(insertPos, merged);
+					indexGeneration++;
+				}
+				
+				//	clean up input files (mapped files cannot be deleted right away on some platforms)
+				for (int s = 0; s < toMerge.length; s++) {
+					if (!toMerge[s].file.equals(segmentFile) && !toMerge[s].file.delete())
+						toMerge[s].file.deleteOnExit();
 				}
+				host.logDebug("    - done, " + merged.getTermCount() + " terms in " + merged.getDocumentCount() + " documents");
+				return true;
+			}
+			catch (IOException ioe) {
+				tempSegmentFile.delete();
+				host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while merging index segments into segment " + nr);
+				host.logError(ioe);
+				return false;
 			}
+		}
+		
+		private boolean purgeSegment() {
 			
-			//	add pending entries to term index
-			synchronized (pendingTermIndexEntryCache) {
-				if (pendingTermIndexEntryCache.size() != 0) {
-					Iterator it = pendingTermIndexEntryCache.keySet().iterator();
-					String term = it.next().toString();
-					LinkedList pendingEntries = ((LinkedList) pendingTermIndexEntryCache.get(term));
-					try {
-						host.logDebug("  - extending index file for '" + term + "'");
-						File termIndexFile = getIndexFile(term, true);
-						host.logDebug("    - writing " + pendingEntries.size() + " entries");
-						DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(termIndexFile, true)));
-						while (pendingEntries.size() != 0) {
-							TermIndexEntry tie = ((TermIndexEntry) pendingEntries.removeFirst());
-							dos.writeLong(tie.docNr);
-							dos.writeByte(tie.tf);
-							dos.writeByte(tie.docLenLog);
-						}
-						dos.flush();
-						dos.close();
-						it.remove();
-						host.logDebug("    - done");
-						return true;
+			//	find segment with largest fraction of invalid documents
+			FullTextIndexSegment toPurge = null;
+			double maxInvalidFraction = 0.3;
+			synchronized (indexLock) {
+				for (int s = 0; s < segments.size(); s++) {
+					FullTextIndexSegment segment = ((FullTextIndexSegment) segments.get(s));
+					if (segment.getDocumentCount() == 0)
+						continue;
+					int invalidDocCount = 0;
+					for (int d = 0; d < segment.getDocumentCount(); d++) {
+						if (!isValid(segment.getDocumentNumber(d), segment.nr))
+							invalidDocCount++;
 					}
-					catch (IOException ioe) {
-						host.logError("FullTextIndexer: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while extending index file for '" + term + "'");
-						host.logError(ioe);
+					double invalidFraction = (((double) invalidDocCount) / segment.getDocumentCount());
+					if (invalidFraction > maxInvalidFraction) {
+						toPurge = segment;
+						maxInvalidFraction = invalidFraction;
 					}
 				}
 			}
 			
-			//	nothing to do
-			return false;
+			//	re-write segment without invalid postings
+			if (toPurge == null)
+				return false;
+			return this.mergeSegments(new FullTextIndexSegment[] {toPurge});
 		}
+		
 		private void shutdown() {
 			this.keepRunning = false;
 			synchronized (this.lock) {
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.srs.indexers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Dictionary of the terms of the full text index, indexed by their trigrams
+ * for prefix and infix lookups. Terms are identified by integer IDs, and
+ * each trigram maps to a sorted array of the IDs of the terms containing
+ * it, so finding the terms that might contain an infix comes down to
+ * intersecting sorted integer arrays.<br>
+ * <br>
+ * The bulk of the dictionary lives in a memory mapped file, with terms in
+ * lexicographical order, so term IDs coincide with sort order. Terms added
+ * after the file was written go to an in-memory delta with IDs following the
+ * ones from the file; the delta is merged into a new file whenever the
+ * dictionary is stored. Terms are never removed, as the ones that are no
+ * longer in the index simply have no postings.<br>
+ * <br>
+ * File layout:
+ * <ul>
+ * <li>header: magic number, format version, number of the latest index
+ * segment whose terms are included, term count, and trigram count (4 bytes
+ * each)</li>
+ * <li>term table: offsets of the term strings (4 bytes each)</li>
+ * <li>trigram table: trigrams in ascending order, each consisting of the
+ * three characters packed into a long (8 bytes), and the start index and
+ * number of its term IDs (4 bytes each)</li>
+ * <li>term ID array: the term IDs of all trigrams (4 bytes each)</li>
+ * <li>term strings: length of UTF-8 encoding (2 bytes) and bytes</li>
+ * <li>trailer: magic number (4 bytes)</li>
+ * </ul>
+ *
+ * @author sautter
+ */
+public class TrigramTermDictionary {
+	static final int MAGIC = 0x46545444; // 'FTTD'
+	static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = (4 * 5);
+	private static final int TRIGRAM_ENTRY_SIZE = (8 + 4 + 4);
+	
+	private File file;
+	private int fileVersion = 0;
+	
+	private MappedByteBuffer base;
+	private int baseSegmentNr = -1;
+	private int baseTermCount = 0;
+	private int baseTrigramCount = 0;
+	private int trigramTableOffset;
+	private int termIdArrayOffset;
+	
+	private ArrayList deltaTerms = new ArrayList();
+	private HashMap deltaTermIds = new HashMap();
+	private HashMap deltaTrigramTermIds = new HashMap();
+	
+	/**
+	 * Constructor loading the dictionary from a file. The dictionary is
+	 * stored in versioned files named after the argument file, so a new
+	 * version can be written while the previous one is still mapped, which
+	 * some platforms do not allow to delete or overwrite. If no file exists,
+	 * or if the <code>load</code> argument is false, the dictionary starts
+	 * out empty. If the latest file is not a valid dictionary file, this
+	 * constructor throws an exception, and the dictionary has to be rebuilt
+	 * from the index segments.
+	 * @param file the file to load the dictionary from
+	 * @param load load the latest dictionary file (if false, any existing
+	 *            files are replaced on the next storage)
+	 * @throws IOException
+	 */
+	TrigramTermDictionary(File file, boolean load) throws IOException {
+		this.file = file;
+		File[] files = this.getDictionaryFiles();
+		if (files.length == 0)
+			return;
+		this.fileVersion = getFileVersion(files[files.length - 1]);
+		if (load)
+			this.loadBase(files[files.length - 1]);
+		
+		//	clean up older versions left over from previous runs
+		this.cleanupFiles();
+	}
+	
+	/* the unversioned file dates from before versioning, so we treat it as
+	 * version 0 */
+	private File getVersionFile(int version) {
+		return ((version == 0) ? this.file : new File(this.file.getAbsolutePath() + "." + version));
+	}
+	
+	private File[] getDictionaryFiles() {
+		final String versionPrefix = (this.file.getName() + ".");
+		File[] files = this.file.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return (file.isFile() && (file.getName().equals(TrigramTermDictionary.this.file.getName()) || (file.getName().startsWith(versionPrefix) && file.getName().substring(versionPrefix.length()).matches("[0-9]+"))));
+			}
+		});
+		if (files == null)
+			return new File[0];
+		Arrays.sort(files, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				return (getFileVersion((File) obj1) - getFileVersion((File) obj2));
+			}
+		});
+		return files;
+	}
+	
+	private int getFileVersion(File file) {
+		if (file.getName().equals(this.file.getName()))
+			return 0;
+		return Integer.parseInt(file.getName().substring(this.file.getName().length() + ".".length()));
+	}
+	
+	private void cleanupFiles() {
+		File[] files = this.getDictionaryFiles();
+		for (int f = 0; f < files.length; f++) {
+			
+			//	mapped files cannot be deleted right away on some platforms
+			if ((getFileVersion(files[f]) < this.fileVersion) && !files[f].delete())
+				files[f].deleteOnExit();
+		}
+	}
+	
+	private void loadBase(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			long size = fc.size();
+			if ((size < (HEADER_SIZE + 4)) || (size > Integer.MAX_VALUE))
+				throw new IOException("Invalid trigram dictionary file: " + file.getName());
+			this.base = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		finally {
+			raf.close(); // mapping remains valid after closing the channel
+		}
+		if ((this.base.getInt(0) != MAGIC) || (this.base.getInt(4) != VERSION) || (this.base.getInt(this.base.capacity() - 4) != MAGIC)) {
+			this.base = null;
+			throw new IOException("Invalid trigram dictionary file: " + file.getName());
+		}
+		this.baseSegmentNr = this.base.getInt(8);
+		this.baseTermCount = this.base.getInt(12);
+		this.baseTrigramCount = this.base.getInt(16);
+		this.trigramTableOffset = (HEADER_SIZE + (this.baseTermCount * 4));
+		this.termIdArrayOffset = (this.trigramTableOffset + (this.baseTrigramCount * TRIGRAM_ENTRY_SIZE));
+	}
+	
+	/**
+	 * Retrieve the number of the latest index segment whose terms are known
+	 * to be included in the dictionary file. Terms of any later segments have
+	 * to be added after loading, as they might have been indexed after the
+	 * dictionary was last stored.
+	 * @return the segment number
+	 */
+	synchronized int getSegmentNumber() {
+		return this.baseSegmentNr;
+	}
+	
+	/**
+	 * @return the number of terms in the dictionary
+	 */
+	synchronized int size() {
+		return (this.baseTermCount + this.deltaTerms.size());
+	}
+	
+	/**
+	 * @return true if the dictionary contains terms not yet stored to disc
+	 */
+	synchronized boolean isDirty() {
+		return (this.deltaTerms.size() != 0);
+	}
+	
+	/**
+	 * Add a term to the dictionary. If the term is already present, this
+	 * method does nothing.
+	 * @param term the term to add
+	 */
+	synchronized void addTerm(String term) {
+		if (term.length() < 3)
+			return;
+		if (this.deltaTermIds.containsKey(term) || (this.getBaseTermId(term) != -1))
+			return;
+		int termId = (this.baseTermCount + this.deltaTerms.size());
+		this.deltaTerms.add(term);
+		this.deltaTermIds.put(term, new Integer(termId));
+		for (int c = 0; c <= (term.length() - 3); c++) {
+			Long trigram = new Long(getTrigramKey(term, c));
+			IntArray termIds = ((IntArray) this.deltaTrigramTermIds.get(trigram));
+			if (termIds == null) {
+				termIds = new IntArray(2);
+				this.deltaTrigramTermIds.put(trigram, termIds);
+			}
+			if ((termIds.size == 0) || (termIds.ints[termIds.size-1] != termId)) // trigram might occur multiple times in term
+				termIds.add(termId);
+		}
+	}
+	
+	/**
+	 * Find the terms that might contain a given infix, i.e., the ones that
+	 * contain all the trigrams of the infix. As this is a necessary, but no
+	 * sufficient condition, client code has to check the actual match.
+	 * @param infix the infix to find the terms for
+	 * @return an array holding the terms that contain all trigrams of the
+	 *            argument infix
+	 */
+	synchronized String[] getCandidateTerms(String infix) {
+		int[] termIds = null;
+		int termIdCount = 0;
+		for (int c = 0; c <= (infix.length() - 3); c++) {
+			int[] trigramTermIds = this.getTermIds(getTrigramKey(infix, c));
+			
+			//	first trigram, initialize intersecting
+			if (termIds == null) {
+				termIds = trigramTermIds;
+				termIdCount = termIds.length;
+			}
+			
+			//	do intersection with all further arrays (both are sorted)
+			else {
+				int i = 0;
+				int ti = 0;
+				for (int tti = 0; (ti < termIdCount) && (tti < trigramTermIds.length);) {
+					if (termIds[ti] < trigramTermIds[tti])
+						ti++;
+					else if (termIds[ti] > trigramTermIds[tti])
+						tti++;
+					else {
+						termIds[i++] = termIds[ti++];
+						tti++;
+					}
+				}
+				termIdCount = i;
+			}
+			
+			//	we have no index terms including all trigrams so far
+			if (termIdCount == 0)
+				return new String[0];
+		}
+		if (termIds == null)
+			return new String[0];
+		String[] terms = new String[termIdCount];
+		for (int t = 0; t < termIdCount; t++)
+			terms[t] = this.getTerm(termIds[t]);
+		return terms;
+	}
+	
+	/* get IDs of terms containing a trigram, from both file and delta (concatenation is sorted, as delta IDs follow file IDs) */
+	private int[] getTermIds(long trigram) {
+		int baseStart = 0;
+		int baseCount = 0;
+		int low = 0;
+		int high = (this.baseTrigramCount - 1);
+		while (low <= high) {
+			int mid = ((low + high) >>> 1);
+			int entryOffset = (this.trigramTableOffset + (mid * TRIGRAM_ENTRY_SIZE));
+			long midTrigram = this.base.getLong(entryOffset);
+			if (midTrigram < trigram)
+				low = (mid + 1);
+			else if (midTrigram > trigram)
+				high = (mid - 1);
+			else {
+				baseStart = this.base.getInt(entryOffset + 8);
+				baseCount = this.base.getInt(entryOffset + 12);
+				break;
+			}
+		}
+		IntArray deltaTermIds = ((IntArray) this.deltaTrigramTermIds.get(new Long(trigram)));
+		int[] termIds = new int[baseCount + ((deltaTermIds == null) ? 0 : deltaTermIds.size)];
+		for (int i = 0; i < baseCount; i++)
+			termIds[i] = this.base.getInt(this.termIdArrayOffset + ((baseStart + i) * 4));
+		if (deltaTermIds != null)
+			System.arraycopy(deltaTermIds.ints, 0, termIds, baseCount, deltaTermIds.size);
+		return termIds;
+	}
+	
+	private String getTerm(int termId) {
+		return ((termId < this.baseTermCount) ? this.getBaseTerm(termId) : ((String) this.deltaTerms.get(termId - this.baseTermCount)));
+	}
+	
+	private String getBaseTerm(int termId) {
+		int termOffset = this.base.getInt(HEADER_SIZE + (termId * 4));
+		byte[] termBytes = new byte[this.base.getShort(termOffset) & 0xFFFF];
+		for (int b = 0; b < termBytes.length; b++)
+			termBytes[b] = this.base.get(termOffset + 2 + b);
+		try {
+			return new String(termBytes, "UTF-8");
+		}
+		catch (IOException ioe) {
+			return null; // never gonna happen with UTF-8, but Java don't know
+		}
+	}
+	
+	/* binary search term in file (terms are sorted, so IDs are sort positions) */
+	private int getBaseTermId(String term) {
+		int low = 0;
+		int high = (this.baseTermCount - 1);
+		while (low <= high) {
+			int mid = ((low + high) >>> 1);
+			int c = this.getBaseTerm(mid).compareTo(term);
+			if (c < 0)
+				low = (mid + 1);
+			else if (c > 0)
+				high = (mid - 1);
+			else return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Store the dictionary, merging the in-memory delta into a new file. The
+	 * bulk of the work happens without holding the monitor of the
+	 * dictionary, so lookups and additions can proceed in the meantime; terms
+	 * added while the file is being written simply remain in the delta.
+	 * @param segmentNr the number of the latest index segment whose terms are
+	 *            all in the dictionary
+	 * @throws IOException
+	 */
+	void store(int segmentNr) throws IOException {
+		
+		//	get snapshot of terms (file based ones cannot change, and delta is append-only)
+		String[] terms;
+		int deltaSize;
+		synchronized (this) {
+			deltaSize = this.deltaTerms.size();
+			terms = new String[this.baseTermCount + deltaSize];
+			for (int t = 0; t < this.baseTermCount; t++)
+				terms[t] = this.getBaseTerm(t);
+			for (int t = 0; t < deltaSize; t++)
+				terms[this.baseTermCount + t] = ((String) this.deltaTerms.get(t));
+		}
+		Arrays.sort(terms);
+		
+		//	index trigrams (sorted term order makes for sorted term ID arrays)
+		HashMap trigramTermIds = new HashMap();
+		for (int t = 0; t < terms.length; t++)
+			for (int c = 0; c <= (terms[t].length() - 3); c++) {
+				Long trigram = new Long(getTrigramKey(terms[t], c));
+				IntArray termIds = ((IntArray) trigramTermIds.get(trigram));
+				if (termIds == null) {
+					termIds = new IntArray(2);
+					trigramTermIds.put(trigram, termIds);
+				}
+				if ((termIds.size == 0) || (termIds.ints[termIds.size-1] != t))
+					termIds.add(t);
+			}
+		long[] trigrams = new long[trigramTermIds.size()];
+		int tg = 0;
+		for (Iterator tgit = trigramTermIds.keySet().iterator(); tgit.hasNext();)
+			trigrams[tg++] = ((Long) tgit.next()).longValue();
+		Arrays.sort(trigrams);
+		
+		//	encode terms
+		byte[][] termBytes = new byte[terms.length][];
+		for (int t = 0; t < terms.length; t++)
+			termBytes[t] = terms[t].getBytes("UTF-8");
+		
+		//	write file
+		File tempFile = new File(this.file.getAbsolutePath() + ".tmp");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile, false)));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(segmentNr);
+			dos.writeInt(terms.length);
+			dos.writeInt(trigrams.length);
+			int termIdCount = 0;
+			for (tg = 0; tg < trigrams.length; tg++)
+				termIdCount += ((IntArray) trigramTermIds.get(new Long(trigrams[tg]))).size;
+			int termOffset = (HEADER_SIZE + (terms.length * 4) + (trigrams.length * TRIGRAM_ENTRY_SIZE) + (termIdCount * 4));
+			for (int t = 0; t < terms.length; t++) {
+				dos.writeInt(termOffset);
+				termOffset += (2 + termBytes[t].length);
+			}
+			int termIdStart = 0;
+			for (tg = 0; tg < trigrams.length; tg++) {
+				IntArray termIds = ((IntArray) trigramTermIds.get(new Long(trigrams[tg])));
+				dos.writeLong(trigrams[tg]);
+				dos.writeInt(termIdStart);
+				dos.writeInt(termIds.size);
+				termIdStart += termIds.size;
+			}
+			for (tg = 0; tg < trigrams.length; tg++) {
+				IntArray termIds = ((IntArray) trigramTermIds.get(new Long(trigrams[tg])));
+				for (int i = 0; i < termIds.size; i++)
+					dos.writeInt(termIds.ints[i]);
+			}
+			for (int t = 0; t < terms.length; t++) {
+				dos.writeShort(termBytes[t].length);
+				dos.write(termBytes[t]);
+			}
+			dos.writeInt(MAGIC);
+			dos.flush();
+		}
+		finally {
+			dos.close();
+		}
+		
+		//	switch to new file, keeping terms added in the meantime in delta
+		synchronized (this) {
+			String[] newDeltaTerms = new String[this.deltaTerms.size() - deltaSize];
+			for (int t = 0; t < newDeltaTerms.length; t++)
+				newDeltaTerms[t] = ((String) this.deltaTerms.get(deltaSize + t));
+			File newFile = this.getVersionFile(this.fileVersion + 1);
+			if (!tempFile.renameTo(newFile))
+				throw new IOException("Could not rename " + tempFile.getName() + " to " + newFile.getName());
+			this.loadBase(newFile);
+			this.fileVersion++;
+			this.deltaTerms.clear();
+			this.deltaTermIds.clear();
+			this.deltaTrigramTermIds.clear();
+			for (int t = 0; t < newDeltaTerms.length; t++)
+				this.addTerm(newDeltaTerms[t]);
+		}
+		
+		//	clean up previous version (its mapping lingers until garbage collected)
+		this.cleanupFiles();
+	}
+	
+	private static long getTrigramKey(String str, int start) {
+		return ((((long) str.charAt(start)) << 32) | (((long) str.charAt(start + 1)) << 16) | ((long) str.charAt(start + 2)));
+	}
+	
+	/* growable array of primitive ints */
+	private static class IntArray {
+		int[] ints;
+		int size = 0;
+		IntArray(int capacity) {
+			this.ints = new int[capacity];
+		}
+		void add(int i) {
+			if (this.size == this.ints.length) {
+				int[] ints = new int[this.ints.length * 2];
+				System.arraycopy(this.ints, 0, ints, 0, this.size);
+				this.ints = ints;
+			}
+			this.ints[this.size++] = i;
+		}
+	}
+}
@@ -28,9 +28,7 @@
 package de.uka.ipd.idaho.goldenGateServer.srs.webPortal;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,18 +40,16 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.gamta.Annotation;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.AnnotationUtils.XmlOutputOptions;
 import de.uka.ipd.idaho.gamta.MutableAnnotation;
-import de.uka.ipd.idaho.gamta.util.AnnotationInputStream;
-import de.uka.ipd.idaho.htmlXmlUtil.accessories.XsltUtils;
+import de.uka.ipd.idaho.goldenGateServer.util.XsltChain;
 import de.uka.ipd.idaho.stringUtils.StringVector;
 
 /**
@@ -296,9 +292,10 @@ public class XsltServlet extends AbstractSrsWebPortalServlet implements SearchPo
 		
 		//	set response content type (must be done before obtaining writer)
 		String contentType = "text/xml";
+		XsltChain xslt = null;
 		if ((xsltUrls != null) && (xsltUrls.length != 0)) {
-			Transformer lastTransform = this.getTransformer(xsltUrls[xsltUrls.length-1]);
-			String lastTransformMediaType = lastTransform.getOutputProperty(OutputKeys.MEDIA_TYPE);
+			xslt = this.getXsltChain(xsltUrls);
+			String lastTransformMediaType = xslt.getOutputProperty(OutputKeys.MEDIA_TYPE);
 			if (lastTransformMediaType != null)
 				contentType = lastTransformMediaType;
 		}
@@ -316,7 +313,7 @@ public class XsltServlet extends AbstractSrsWebPortalServlet implements SearchPo
 		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
 		
 		//	no XSLT transformer, send plain data
-		if ((xsltUrls == null) || (xsltUrls.length == 0)) {
+		if (xslt == null) {
 			AnnotationUtils.writeXML(doc, out, xsltOptions);
 //			System.out.println(" - plain document sent after " + (System.currentTimeMillis() - start));
 		}
@@ -362,15 +359,9 @@ public class XsltServlet extends AbstractSrsWebPortalServlet implements SearchPo
 				}
 			}
 			
-			//	build transformer chain
-			InputStream is = new AnnotationInputStream(doc, "  ", "utf-8", xsltOptions); 
-			for (int x = 0; x < (xsltUrls.length - 1); x++)
-				is = XsltUtils.chain(is, this.getTransformer(xsltUrls[x]));
-//			System.out.println(" - got XSL transformers after " + (System.currentTimeMillis() - start));
-			
-			//	process data through last transformer
+			//	process data through transformer chain, feeding in document as SAX events
 			try {
-				this.getTransformer(xsltUrls[xsltUrls.length-1]).transform(new StreamSource(is), new StreamResult(out));
+				xslt.transform(doc, "  ", xsltOptions, new StreamResult(out));
 //				System.out.println(" - XSL transformation done after " + (System.currentTimeMillis() - start));
 			}
 			catch (TransformerException te) {
@@ -423,17 +414,16 @@ public class XsltServlet extends AbstractSrsWebPortalServlet implements SearchPo
 	
 	private HashSet cachedStylesheets = new HashSet();
 	
-	private Transformer getTransformer(String xsltUrl) throws IOException {
-		Transformer xslt;
+	private XsltChain getXsltChain(String[] xsltUrls) throws IOException {
+		Templates[] xslts = new Templates[xsltUrls.length];
 		
-		if (xsltUrl.indexOf("://") != -1)
-			xslt = XsltUtils.getTransformer(xsltUrl, !this.cachedStylesheets.add(xsltUrl));
-		else if (xsltUrl.startsWith("/") || (xsltUrl.indexOf(":") != -1))
-			xslt = XsltUtils.getTransformer(new File(xsltUrl), !this.cachedStylesheets.add(xsltUrl));
-		else xslt = XsltUtils.getTransformer(new File(this.dataFolder, xsltUrl), !this.cachedStylesheets.add(xsltUrl));
+		for (int x = 0; x < xsltUrls.length; x++) try {
+			xslts[x] = XsltChain.getTemplates(xsltUrls[x], this.dataFolder, !this.cachedStylesheets.add(xsltUrls[x]));
+		}
+		catch (IOException ioe) {
+			throw new IOException("XSLT transformer chain broken at '" + xsltUrls[x] + "': " + ioe.getMessage());
+		}
 		
-		if (xslt == null)
-			throw new IOException("XSLT transformer chain broken at '" + xsltUrl + "'");
-		return xslt;
+		return new XsltChain(xslts);
 	}
 }
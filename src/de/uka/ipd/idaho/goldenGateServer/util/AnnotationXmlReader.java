@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Stack;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.AnnotationUtils.XmlOutputOptions;
+import de.uka.ipd.idaho.gamta.Gamta;
+import de.uka.ipd.idaho.gamta.QueriableAnnotation;
+import de.uka.ipd.idaho.gamta.Token;
+
+/**
+ * XMLReader that does not parse anything, but walks a QueriableAnnotation and
+ * emits the SAX events parsing the output of an AnnotationInputStream would
+ * yield. This allows for handing documents to anything that accepts a
+ * SAXSource, e.g. a javax.xml.validation.Validator, without serializing them
+ * to text and having that text tokenized again. The input source handed to
+ * the parse() methods is ignored.
+ * 
+ * @author sautter
+ */
+public class AnnotationXmlReader implements XMLReader {
+	
+	private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+	private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+	
+	private QueriableAnnotation doc;
+	private String indent;
+	private XmlOutputOptions options;
+	
+	private ContentHandler contentHandler = null;
+	private DTDHandler dtdHandler = null;
+	private EntityResolver entityResolver = null;
+	private ErrorHandler errorHandler = null;
+	
+	/** Constructor
+	 * @param doc the document to emit SAX events for
+	 * @param indent the indent for nested elements (null for no indent)
+	 * @param options the output options selecting annotations and attributes
+	 */
+	public AnnotationXmlReader(QueriableAnnotation doc, String indent, XmlOutputOptions options) {
+		this.doc = doc;
+		this.indent = indent;
+		this.options = options;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getFeature(java.lang.String)
+	 */
+	public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if (NAMESPACES_FEATURE.equals(name))
+			return true;
+		else if (NAMESPACE_PREFIXES_FEATURE.equals(name))
+			return false;
+		else throw new SAXNotRecognizedException(name);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setFeature(java.lang.String, boolean)
+	 */
+	public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if (this.getFeature(name) != value)
+			throw new SAXNotSupportedException(name);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getProperty(java.lang.String)
+	 */
+	public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+		throw new SAXNotRecognizedException(name);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setProperty(java.lang.String, java.lang.Object)
+	 */
+	public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+		throw new SAXNotRecognizedException(name);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setEntityResolver(org.xml.sax.EntityResolver)
+	 */
+	public void setEntityResolver(EntityResolver resolver) {
+		this.entityResolver = resolver;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getEntityResolver()
+	 */
+	public EntityResolver getEntityResolver() {
+		return this.entityResolver;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setDTDHandler(org.xml.sax.DTDHandler)
+	 */
+	public void setDTDHandler(DTDHandler handler) {
+		this.dtdHandler = handler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getDTDHandler()
+	 */
+	public DTDHandler getDTDHandler() {
+		return this.dtdHandler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setContentHandler(org.xml.sax.ContentHandler)
+	 */
+	public void setContentHandler(ContentHandler handler) {
+		this.contentHandler = handler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getContentHandler()
+	 */
+	public ContentHandler getContentHandler() {
+		return this.contentHandler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#setErrorHandler(org.xml.sax.ErrorHandler)
+	 */
+	public void setErrorHandler(ErrorHandler handler) {
+		this.errorHandler = handler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#getErrorHandler()
+	 */
+	public ErrorHandler getErrorHandler() {
+		return this.errorHandler;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#parse(org.xml.sax.InputSource)
+	 */
+	public void parse(InputSource input) throws IOException, SAXException {
+		if (this.contentHandler == null)
+			throw new SAXException("No content handler set");
+		writeSax(this.doc, this.indent, this.options, this.contentHandler, this.errorHandler);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.xml.sax.XMLReader#parse(java.lang.String)
+	 */
+	public void parse(String systemId) throws IOException, SAXException {
+		this.parse((InputSource) null);
+	}
+	
+	/**
+	 * Generate SAX events for a document, equivalent to parsing the output of
+	 * an AnnotationInputStream with the same indent and output options. This
+	 * includes whitespace and line breaks between elements, and namespace
+	 * scopes opened by 'xmlns' attributes. As in parsing, element or attribute
+	 * names that are not well-formed, as well as prefixes without a namespace
+	 * declaration in scope, are fatal errors.
+	 * @param doc the document to generate SAX events for
+	 * @param indent the indent for nested elements (null for no indent)
+	 * @param options the output options selecting annotations and attributes
+	 * @param ch the content handler to send the SAX events to
+	 * @throws SAXException
+	 */
+	public static void writeSax(QueriableAnnotation doc, String indent, XmlOutputOptions options, ContentHandler ch) throws SAXException {
+		writeSax(doc, indent, options, ch, null);
+	}
+	
+	/**
+	 * Generate SAX events for a document, equivalent to parsing the output of
+	 * an AnnotationInputStream with the same indent and output options. This
+	 * includes whitespace and line breaks between elements, and namespace
+	 * scopes opened by 'xmlns' attributes. As in parsing, element or attribute
+	 * names that are not well-formed, as well as prefixes without a namespace
+	 * declaration in scope, are fatal errors, which are reported to the
+	 * argument error handler (if any) before the SAXParseException is thrown.
+	 * @param doc the document to generate SAX events for
+	 * @param indent the indent for nested elements (null for no indent)
+	 * @param options the output options selecting annotations and attributes
+	 * @param ch the content handler to send the SAX events to
+	 * @param eh the error handler to report fatal errors to (may be null)
+	 * @throws SAXException
+	 */
+	public static void writeSax(QueriableAnnotation doc, String indent, XmlOutputOptions options, ContentHandler ch, ErrorHandler eh) throws SAXException {
+		if ((indent != null) && (indent.length() == 0))
+			indent = null;
+		if (options == null)
+			options = new XmlOutputOptions();
+		
+		//	get annotations, and add document itself if not covered
+		Annotation[] annotations = doc.getAnnotations();
+		ArrayList annotationList = new ArrayList();
+		for (int a = 0; a < annotations.length; a++) {
+			if (options.writeAnnotations(annotations[a].getType()))
+				annotationList.add(annotations[a]);
+		}
+		annotations = ((Annotation[]) annotationList.toArray(new Annotation[annotationList.size()]));
+		if ((annotations.length == 0) || (annotations[0].size() < doc.size())) {
+			Annotation[] docAnnotations = new Annotation[annotations.length + 1];
+			docAnnotations[0] = doc;
+			System.arraycopy(annotations, 0, docAnnotations, 1, annotations.length);
+			annotations = docAnnotations;
+		}
+		
+		//	line breaks and spaces follow the exact same rules as in AnnotationReader, so XSLTs see the very same text nodes
+		SaxWriter sw = new SaxWriter(ch, eh, options);
+		Stack stack = new Stack();
+		HashSet lineBroken = new HashSet();
+		int annotationPointer = 0;
+		boolean lastWasLineBreak = false;
+		boolean lastWasTag = true;
+		Token token = null;
+		Token lastToken;
+		
+		ch.startDocument();
+		for (int t = 0; t < doc.size(); t++) {
+			lastToken = token;
+			token = doc.tokenAt(t);
+			
+			//	close ended annotations
+			while ((stack.size() > 0) && ((((Annotation) stack.peek()).getEndIndex()) <= t)) {
+				Annotation annotation = ((Annotation) stack.pop());
+				if (!lastWasLineBreak && lineBroken.contains(annotation.getAnnotationID()))
+					sw.text.append('\n');
+				if (lastWasLineBreak && (indent != null))
+					sw.indent(indent, stack.size());
+				sw.endElement(annotation);
+				sw.text.append('\n');
+				lastWasLineBreak = true;
+				lastWasTag = true;
+			}
+			
+			//	add line break at end of paragraph, or space between tokens
+			if (!lastWasLineBreak && (lastToken != null) && lastToken.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE)) {
+				sw.text.append('\n');
+				lastWasLineBreak = true;
+			}
+			if (!lastWasTag && !lastWasLineBreak && (lastToken != null) && !lastToken.hasAttribute(Token.PARAGRAPH_END_ATTRIBUTE) && Gamta.insertSpace(lastToken, token) && (t != 0) && (doc.getWhitespaceAfter(t-1).length() != 0))
+				sw.text.append(' ');
+			
+			//	open starting annotations
+			while ((annotationPointer < annotations.length) && (annotations[annotationPointer].getStartIndex() == t)) {
+				Annotation annotation = annotations[annotationPointer++];
+				if (!lastWasTag)
+					sw.text.append('\n');
+				if (lastWasLineBreak && (indent != null))
+					sw.indent(indent, stack.size());
+				sw.startElement(annotation);
+				stack.push(annotation);
+				if ((annotationPointer < annotations.length) && AnnotationUtils.contains(annotation, annotations[annotationPointer])) {
+					sw.text.append('\n');
+					lineBroken.add(annotation.getAnnotationID());
+				}
+				lastWasLineBreak = true;
+				lastWasTag = true;
+			}
+			
+			//	add token
+			appendNormalized(sw.text, token.getValue(), false);
+			lastWasLineBreak = false;
+			lastWasTag = false;
+		}
+		
+		//	close remaining annotations
+		while (stack.size() > 0) {
+			Annotation annotation = ((Annotation) stack.pop());
+			if (!lastWasLineBreak && lineBroken.contains(annotation.getAnnotationID())) {
+				sw.text.append('\n');
+				lastWasLineBreak = true;
+			}
+			if (lastWasLineBreak && (indent != null))
+				sw.indent(indent, stack.size());
+			sw.endElement(annotation);
+			lastWasLineBreak = false;
+		}
+		sw.flushText();
+		ch.endDocument();
+	}
+	
+	/* Mirrors what AnnotationUtils.escapeForXml() does to control characters,
+	 * i.e., what a parser gets back after un-escaping its output: line breaks
+	 * and tabs survive only as character references in attribute values. */
+	private static void appendNormalized(StringBuffer sb, String str, boolean keepLineBreaks) {
+		for (int c = 0; c < str.length(); c++) {
+			char ch = str.charAt(c);
+			if ((ch < 32) || (ch == 127) || (ch == 129) || (ch == 141) || (ch == 143) || (ch == 144) || (ch == 157)) {
+				if (keepLineBreaks && ((ch == '\t') || (ch == '\n') || (ch == '\r')))
+					sb.append(ch);
+				else sb.append(' ');
+			}
+			else sb.append(ch);
+		}
+	}
+	
+	private static class SaxWriter {
+		private ContentHandler ch;
+		private ErrorHandler eh;
+		private XmlOutputOptions options;
+		final StringBuffer text = new StringBuffer();
+		private char[] textBuffer = new char[1024];
+		private AttributesImpl attributes = new AttributesImpl();
+		private StringBuffer valueBuilder = new StringBuffer();
+		private HashMap namespaceUris = new HashMap();
+		private Stack namespaceScopes = new Stack();
+		SaxWriter(ContentHandler ch, ErrorHandler eh, XmlOutputOptions options) {
+			this.ch = ch;
+			this.eh = eh;
+			this.options = options;
+		}
+		
+		void indent(String indent, int depth) {
+			for (int d = 0; d < depth; d++)
+				this.text.append(indent);
+		}
+		
+		void flushText() throws SAXException {
+			if (this.text.length() == 0)
+				return;
+			if (this.textBuffer.length < this.text.length())
+				this.textBuffer = new char[Math.max(this.text.length(), (this.textBuffer.length * 2))];
+			int length = this.text.length();
+			this.text.getChars(0, length, this.textBuffer, 0);
+			this.text.setLength(0);
+			this.ch.characters(this.textBuffer, 0, length);
+		}
+		
+		void startElement(Annotation annotation) throws SAXException {
+			this.flushText();
+			String type = annotation.getType();
+			if (!isQName(type))
+				this.fatalError("Element type \"" + type + "\" is not a valid XML name.");
+			String[] attributeNames = annotation.getAttributeNames();
+			
+			//	open namespace scopes first, so they apply to the element and its attributes
+			ArrayList scope = null;
+			for (int a = 0; a < attributeNames.length; a++) {
+				if (!attributeNames[a].equals("xmlns") && !attributeNames[a].startsWith("xmlns:"))
+					continue;
+				String uri = this.getAttributeValue(annotation, type, attributeNames[a]);
+				if (uri == null)
+					continue;
+				String prefix = ((attributeNames[a].length() == "xmlns".length()) ? "" : attributeNames[a].substring("xmlns:".length()));
+				if ((prefix.length() != 0) && !isNCName(prefix, 0, prefix.length()))
+					this.fatalError("Attribute name \"" + attributeNames[a] + "\" associated with element type \"" + type + "\" is not a valid XML name.");
+				if (scope == null)
+					scope = new ArrayList();
+				scope.add(prefix);
+				scope.add(this.namespaceUris.put(prefix, uri));
+				this.ch.startPrefixMapping(prefix, uri);
+			}
+			this.namespaceScopes.push(scope);
+			
+			//	collect attributes, ID first
+			this.attributes.clear();
+			if (this.options.includeIDs(type) && !annotation.hasAttribute("id"))
+				this.attributes.addAttribute("", "id", "id", "CDATA", annotation.getAnnotationID());
+			for (int a = 0; a < attributeNames.length; a++) {
+				if (attributeNames[a].equals("xmlns") || attributeNames[a].startsWith("xmlns:"))
+					continue;
+				String value = this.getAttributeValue(annotation, type, attributeNames[a]);
+				if (value == null)
+					continue;
+				if (!isQName(attributeNames[a]))
+					this.fatalError("Attribute name \"" + attributeNames[a] + "\" associated with element type \"" + type + "\" is not a valid XML name.");
+				int split = attributeNames[a].indexOf(':');
+				if (split == -1)
+					this.attributes.addAttribute("", attributeNames[a], attributeNames[a], "CDATA", value);
+				else this.attributes.addAttribute(this.getNamespaceUri(attributeNames[a].substring(0, split), attributeNames[a], type), attributeNames[a].substring(split + 1), attributeNames[a], "CDATA", value);
+			}
+			
+			int split = type.indexOf(':');
+			this.ch.startElement(this.getNamespaceUri(((split == -1) ? "" : type.substring(0, split)), type, null), type.substring(split + 1), type, this.attributes);
+		}
+		
+		void endElement(Annotation annotation) throws SAXException {
+			this.flushText();
+			String type = annotation.getType();
+			int split = type.indexOf(':');
+			this.ch.endElement(this.getNamespaceUri(((split == -1) ? "" : type.substring(0, split)), type, null), type.substring(split + 1), type);
+			
+			//	close namespace scopes opened by element, restoring whatever mappings they shadowed
+			ArrayList scope = ((ArrayList) this.namespaceScopes.pop());
+			if (scope == null)
+				return;
+			for (int s = (scope.size() - 2); s >= 0; s -= 2) {
+				String prefix = ((String) scope.get(s));
+				this.ch.endPrefixMapping(prefix);
+				if (scope.get(s+1) == null)
+					this.namespaceUris.remove(prefix);
+				else this.namespaceUris.put(prefix, scope.get(s+1));
+			}
+		}
+		
+		private String getAttributeValue(Annotation annotation, String type, String name) {
+			if (!this.options.writeAttribute(type, name))
+				return null;
+			Object value = annotation.getAttribute(name);
+			if (value == null)
+				return null;
+			this.valueBuilder.setLength(0);
+			appendNormalized(this.valueBuilder, value.toString(), this.options.escapeAttributeValues());
+			return this.valueBuilder.toString();
+		}
+		
+		private String getNamespaceUri(String prefix, String name, String elementType) throws SAXException {
+			String uri = ((String) this.namespaceUris.get(prefix));
+			if (uri != null)
+				return uri;
+			else if (prefix.length() == 0)
+				return "";
+			else if ("xml".equals(prefix))
+				return XML_NAMESPACE_URI;
+			
+			//	parser would reject undeclared prefix as well
+			if (elementType == null)
+				this.fatalError("The prefix \"" + prefix + "\" for element \"" + name + "\" is not bound.");
+			else this.fatalError("The prefix \"" + prefix + "\" for attribute \"" + name + "\" associated with an element type \"" + elementType + "\" is not bound.");
+			return null; // we never get here, as fatalError() throws the exception
+		}
+		
+		private void fatalError(String message) throws SAXException {
+			this.flushText();
+			SAXParseException spe = new SAXParseException(message, null, null, -1, -1);
+			if (this.eh != null)
+				this.eh.fatalError(spe);
+			throw spe;
+		}
+	}
+	
+	private static final String XML_NAMESPACE_URI = "http://www.w3.org/XML/1998/namespace";
+	
+	/* XML 1.0 (5th edition) name rules, minus the colon, which we handle
+	 * separately to tell prefixes from local names; characters outside the
+	 * basic multilingual plane are accepted as surrogate pairs */
+	private static boolean isQName(String name) {
+		int split = name.indexOf(':');
+		if (split == -1)
+			return isNCName(name, 0, name.length());
+		else return (isNCName(name, 0, split) && isNCName(name, (split + 1), name.length()));
+	}
+	
+	private static boolean isNCName(String name, int start, int end) {
+		if (start >= end)
+			return false;
+		if (!isNameStartChar(name.charAt(start)))
+			return false;
+		for (int c = (start + 1); c < end; c++) {
+			if (!isNameChar(name.charAt(c)))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean isNameStartChar(char ch) {
+		if (('a' <= ch) && (ch <= 'z'))
+			return true;
+		if (('A' <= ch) && (ch <= 'Z'))
+			return true;
+		if (ch == '_')
+			return true;
+		if (ch < 0xC0)
+			return false;
+		return (((ch <= 0xD6) || ((0xD8 <= ch) && (ch <= 0xF6)) || ((0xF8 <= ch) && (ch <= 0x2FF)))
+				|| ((0x370 <= ch) && (ch <= 0x37D))
+				|| ((0x37F <= ch) && (ch <= 0x1FFF))
+				|| ((0x200C <= ch) && (ch <= 0x200D))
+				|| ((0x2070 <= ch) && (ch <= 0x218F))
+				|| ((0x2C00 <= ch) && (ch <= 0x2FEF))
+				|| ((0x3001 <= ch) && (ch <= 0xDFFF)) // includes surrogates
+				|| ((0xF900 <= ch) && (ch <= 0xFDCF))
+				|| ((0xFDF0 <= ch) && (ch <= 0xFFFD)));
+	}
+	
+	private static boolean isNameChar(char ch) {
+		if (isNameStartChar(ch))
+			return true;
+		if (('0' <= ch) && (ch <= '9'))
+			return true;
+		if ((ch == '-') || (ch == '.') || (ch == 0xB7))
+			return true;
+		return (((0x300 <= ch) && (ch <= 0x36F)) || ((0x203F <= ch) && (ch <= 0x2040)));
+	}
+}
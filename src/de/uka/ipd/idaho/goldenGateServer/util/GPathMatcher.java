@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import de.uka.ipd.idaho.gamta.Annotation;
+import de.uka.ipd.idaho.gamta.AnnotationUtils;
+import de.uka.ipd.idaho.gamta.DocumentRoot;
+import de.uka.ipd.idaho.gamta.QueriableAnnotation;
+import de.uka.ipd.idaho.gamta.util.gPath.GPath;
+import de.uka.ipd.idaho.gamta.util.gPath.GPathExpression;
+import de.uka.ipd.idaho.gamta.util.gPath.GPathParser;
+import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathNumber;
+import de.uka.ipd.idaho.gamta.util.gPath.types.GPathObject;
+
+/**
+ * A set of GPath expressions merged into a single automaton that evaluates all
+ * of them in one traversal of a document's annotations, rather than walking
+ * the document once for every path. The automaton handles paths consisting of
+ * child, descendant, self, and descendant-or-self steps, optionally starting
+ * at the document root, whose predicates depend on nothing but the annotation
+ * they test, i.e., do not refer to positions, variables, the document root, or
+ * any axes leading outside the tested annotation. Any other paths are still
+ * accepted, but are evaluated on their own by the default GPath engine. Path
+ * results are the same as from GPath.evaluatePath() in either case.<br>
+ * Instances of this class do not change after construction and can be used by
+ * multiple threads concurrently.
+ * 
+ * @author sautter
+ */
+public class GPathMatcher {
+	
+	private static final int ROOT_STEP = 0;
+	private static final int CHILD_STEP = 1;
+	private static final int SELF_STEP = 2;
+	private static final int DESCENDANT_OR_SELF_STEP = 3;
+	
+	private static final String[] NON_LOCAL_PREDICATE_PARTS = {
+		"position()",
+		"last()",
+		"$",
+		"parent::",
+		"ancestor",
+		"sibling::",
+		"preceding",
+		"following",
+		"interleaving",
+		"descendant-or-self::annotation()",
+		"descendant-or-self::*",
+		("child::" + DocumentRoot.DOCUMENT_TYPE),
+		("attribute::" + Annotation.START_INDEX_ATTRIBUTE),
+		("attribute::" + Annotation.END_INDEX_ATTRIBUTE),
+		("attribute::" + GPath.ABSOLUTE_START_INDEX_ATTRIBUTE),
+	};
+	
+	private static final HashSet COMPUTED_ATTRIBUTE_NAMES = new HashSet(Arrays.asList(new String[] {
+		Annotation.SIZE_ATTRIBUTE,
+		Annotation.ANNOTATION_VALUE_ATTRIBUTE,
+		Annotation.ANNOTATION_ID_ATTRIBUTE,
+	}));
+	
+	private GPath[] paths;
+	private boolean[] compiled;
+	private int[] finalStates;
+	
+	private int[] statePaths;
+	private int[] stateSteps;
+	private int[] stateKinds;
+	private String[] stateTypes;
+	private StepPredicate[][] statePredicates;
+	private int stateWords;
+	
+	private int[] rootStates;
+	private int[] wildcardStates;
+	private HashMap typeStates = new HashMap();
+	
+	/** Constructor
+	 * @param paths the GPath expressions to evaluate
+	 */
+	public GPathMatcher(GPath[] paths) {
+		this.paths = paths;
+		this.compiled = new boolean[paths.length];
+		this.finalStates = new int[paths.length];
+		
+		//	compile paths into states, numbered in path and step order
+		ArrayList states = new ArrayList();
+		for (int p = 0; p < paths.length; p++) {
+			CompiledStep[] steps = compilePath(paths[p], p);
+			if (steps == null) {
+				this.finalStates[p] = -1;
+				continue;
+			}
+			states.addAll(Arrays.asList(steps));
+			this.compiled[p] = true;
+			this.finalStates[p] = (states.size() - 1);
+		}
+		
+		//	store states in parallel arrays for fast access
+		this.statePaths = new int[states.size()];
+		this.stateSteps = new int[states.size()];
+		this.stateKinds = new int[states.size()];
+		this.stateTypes = new String[states.size()];
+		this.statePredicates = new StepPredicate[states.size()][];
+		this.stateWords = ((states.size() + 63) / 64);
+		ArrayList rootStates = new ArrayList();
+		ArrayList wildcardStates = new ArrayList();
+		HashMap typeStateLists = new HashMap();
+		for (int s = 0; s < states.size(); s++) {
+			CompiledStep cs = ((CompiledStep) states.get(s));
+			this.statePaths[s] = cs.path;
+			this.stateSteps[s] = cs.step;
+			this.stateKinds[s] = cs.kind;
+			this.stateTypes[s] = cs.type;
+			this.statePredicates[s] = cs.predicates;
+			
+			//	root steps, and self steps at the start of a path, can only ever match the document root
+			if ((cs.kind == ROOT_STEP) || ((cs.kind == SELF_STEP) && (cs.step == 0))) {
+				rootStates.add(new Integer(s));
+				continue;
+			}
+			if (cs.kind != CHILD_STEP)
+				rootStates.add(new Integer(s));
+			
+			//	index other steps by the annotation type they match
+			if (cs.type == null) {
+				wildcardStates.add(new Integer(s));
+				for (Iterator tit = typeStateLists.values().iterator(); tit.hasNext();)
+					((ArrayList) tit.next()).add(new Integer(s));
+			}
+			else {
+				ArrayList typeStateList = ((ArrayList) typeStateLists.get(cs.type));
+				if (typeStateList == null) {
+					typeStateList = new ArrayList(wildcardStates);
+					typeStateLists.put(cs.type, typeStateList);
+				}
+				typeStateList.add(new Integer(s));
+			}
+		}
+		this.rootStates = toIntArray(rootStates);
+		this.wildcardStates = toIntArray(wildcardStates);
+		for (Iterator tit = typeStateLists.keySet().iterator(); tit.hasNext();) {
+			String type = ((String) tit.next());
+			this.typeStates.put(type, toIntArray((ArrayList) typeStateLists.get(type)));
+		}
+	}
+	
+	private static int[] toIntArray(ArrayList ints) {
+		int[] intArray = new int[ints.size()];
+		for (int i = 0; i < intArray.length; i++)
+			intArray[i] = ((Integer) ints.get(i)).intValue();
+		return intArray;
+	}
+	
+	/**
+	 * Retrieve the number of paths in the matcher.
+	 * @return the number of paths
+	 */
+	public int getPathCount() {
+		return this.paths.length;
+	}
+	
+	/**
+	 * Retrieve one of the paths in the matcher.
+	 * @param index the index of the path
+	 * @return the path at the argument index
+	 */
+	public GPath getPath(int index) {
+		return this.paths[index];
+	}
+	
+	/**
+	 * Check whether or not a path is evaluated as part of the single document
+	 * traversal, as opposed to on its own by the default GPath engine.
+	 * @param index the index of the path
+	 * @return true if the path at the argument index is part of the automaton
+	 */
+	public boolean isCompiled(int index) {
+		return this.compiled[index];
+	}
+	
+	/**
+	 * Evaluate all paths on a document. The result annotations of each path
+	 * are in document order, exactly as returned by GPath.evaluatePath().
+	 * @param doc the document to evaluate the paths on
+	 * @return an array holding the result annotations of each path, at the
+	 *         index of the path
+	 * @throws GPathException
+	 */
+	public QueriableAnnotation[][] evaluate(QueriableAnnotation doc) throws GPathException {
+		ArrayList[] results = new ArrayList[this.paths.length];
+		for (int p = 0; p < this.paths.length; p++)
+			results[p] = new ArrayList();
+		this.evaluate(doc, null, results);
+		QueriableAnnotation[][] resultArrays = new QueriableAnnotation[this.paths.length][];
+		for (int p = 0; p < this.paths.length; p++)
+			resultArrays[p] = ((QueriableAnnotation[]) results[p].toArray(new QueriableAnnotation[results[p].size()]));
+		return resultArrays;
+	}
+	
+	/**
+	 * Check which paths have at least one result annotation in a document. If
+	 * any of the paths flagged in the argument array matches, the traversal
+	 * stops right away, so paths yet to match may be reported as not matching
+	 * in this case.
+	 * @param doc the document to evaluate the paths on
+	 * @param stopOnMatch an array flagging the paths whose first match ends
+	 *            the traversal (may be null)
+	 * @return an array indicating for each path whether or not it matches
+	 * @throws GPathException
+	 */
+	public boolean[] match(QueriableAnnotation doc, boolean[] stopOnMatch) throws GPathException {
+		return this.evaluate(doc, stopOnMatch, null);
+	}
+	
+	private boolean[] evaluate(QueriableAnnotation doc, boolean[] stopOnMatch, ArrayList[] results) throws GPathException {
+		boolean[] matched = new boolean[this.paths.length];
+		boolean[] direct = new boolean[this.paths.length];
+		boolean stopped = false;
+		
+		//	do root first
+		String docId = doc.getAnnotationID();
+		long[] rootBits = new long[this.stateWords];
+		if (this.computeStates(doc, this.rootStates, null, rootBits, direct))
+			stopped = this.collectMatches(doc, rootBits, stopOnMatch, matched, results);
+		
+		//	walk annotations in document order, handling annotations with identical spans as a group, as those all contain each other
+		QueriableAnnotation[] annotations = ((this.stateWords == 0) ? new QueriableAnnotation[0] : doc.getAnnotations());
+		ArrayList activeGroups = new ArrayList();
+		for (int a = 0; (a < annotations.length) && !stopped;) {
+			if (docId.equals(annotations[a].getAnnotationID())) {
+				a++;
+				continue;
+			}
+			int start = annotations[a].getStartIndex();
+			int end = annotations[a].getEndIndex();
+			int groupEnd = (a + 1);
+			while ((groupEnd < annotations.length) && (annotations[groupEnd].getStartIndex() == start) && (annotations[groupEnd].getEndIndex() == end))
+				groupEnd++;
+			
+			//	collect states of annotations the group is nested in
+			long[] ancestorBits = ((long[]) rootBits.clone());
+			for (int g = 0; g < activeGroups.size(); g++) {
+				ActiveGroup ag = ((ActiveGroup) activeGroups.get(g));
+				if (ag.end <= start)
+					activeGroups.remove(g--);
+				else if (end <= ag.end)
+					or(ancestorBits, ag.bits);
+			}
+			
+			//	compute group states, re-computing until stable if group members can serve as ancestors for each other
+			ArrayList group = new ArrayList();
+			for (int g = a; g < groupEnd; g++) {
+				if (!docId.equals(annotations[g].getAnnotationID()))
+					group.add(annotations[g]);
+			}
+			long[][] groupBits = new long[group.size()][this.stateWords];
+			boolean groupMatched = false;
+			for (boolean changed = true; changed;) {
+				changed = false;
+				for (int g = 0; g < group.size(); g++) {
+					long[] memberAncestorBits = ancestorBits;
+					if (group.size() > 1) {
+						memberAncestorBits = ((long[]) ancestorBits.clone());
+						for (int og = 0; og < group.size(); og++) {
+							if (og != g)
+								or(memberAncestorBits, groupBits[og]);
+						}
+					}
+					long[] memberBits = new long[this.stateWords];
+					QueriableAnnotation annotation = ((QueriableAnnotation) group.get(g));
+					int[] states = ((int[]) this.typeStates.get(annotation.getType()));
+					if (this.computeStates(annotation, ((states == null) ? this.wildcardStates : states), memberAncestorBits, memberBits, direct))
+						groupMatched = true;
+					if (!Arrays.equals(memberBits, groupBits[g])) {
+						groupBits[g] = memberBits;
+						changed = (group.size() > 1);
+					}
+				}
+			}
+			
+			//	collect matches
+			ActiveGroup ag = new ActiveGroup(end, this.stateWords);
+			for (int g = 0; g < group.size(); g++) {
+				if (groupMatched && this.collectMatches(((QueriableAnnotation) group.get(g)), groupBits[g], stopOnMatch, matched, results))
+					stopped = true;
+				or(ag.bits, groupBits[g]);
+			}
+			
+			//	remember group as potential ancestor if any states hold on it
+			for (int w = 0; w < ag.bits.length; w++)
+				if (ag.bits[w] != 0) {
+					activeGroups.add(ag);
+					break;
+				}
+			a = groupEnd;
+		}
+		
+		//	evaluate remaining paths on their own
+		for (int p = 0; (p < this.paths.length) && !stopped; p++) {
+			if (this.compiled[p] && !direct[p])
+				continue;
+			QueriableAnnotation[] pathResult = GPath.evaluatePath(doc, this.paths[p], null);
+			if (results != null)
+				results[p].addAll(Arrays.asList(pathResult));
+			if (pathResult.length != 0) {
+				matched[p] = true;
+				stopped = ((stopOnMatch != null) && stopOnMatch[p]);
+			}
+		}
+		
+		//	sort results the way the GPath engine does
+		if (results != null) {
+			for (int p = 0; p < this.paths.length; p++) {
+				if (this.compiled[p] && !direct[p] && (results[p].size() > 1))
+					Collections.sort(results[p], AnnotationUtils.getComparator(doc.getAnnotationNestingOrder()));
+			}
+		}
+		
+		return matched;
+	}
+	
+	private static class ActiveGroup {
+		final int end;
+		final long[] bits;
+		ActiveGroup(int end, int words) {
+			this.end = end;
+			this.bits = new long[words];
+		}
+	}
+	
+	private boolean computeStates(QueriableAnnotation annotation, int[] states, long[] ancestorBits, long[] bits, boolean[] direct) throws GPathException {
+		boolean finalState = false;
+		for (int i = 0; i < states.length; i++) {
+			int s = states[i];
+			if (direct[this.statePaths[s]])
+				continue;
+			
+			//	check annotation type and preceding step (states are sorted, so preceding step of same path is already done)
+			if ((this.stateTypes[s] != null) && !this.stateTypes[s].equals(annotation.getType()))
+				continue;
+			boolean previous;
+			if (this.stateSteps[s] == 0)
+				previous = true;
+			else if (this.stateKinds[s] == CHILD_STEP)
+				previous = isSet(ancestorBits, (s-1));
+			else if (this.stateKinds[s] == SELF_STEP)
+				previous = isSet(bits, (s-1));
+			else if (this.stateKinds[s] == DESCENDANT_OR_SELF_STEP)
+				previous = (isSet(bits, (s-1)) || ((ancestorBits != null) && isSet(ancestorBits, (s-1))));
+			else previous = false;
+			if (!previous)
+				continue;
+			
+			//	check predicates
+			boolean predicatesMet = true;
+			for (int p = 0; predicatesMet && (p < this.statePredicates[s].length); p++) {
+				StepPredicate sp = this.statePredicates[s][p];
+				
+				//	check plain attribute tests right away
+				if (sp.expression == null) {
+					Object value = annotation.getAttribute(sp.attributeName);
+					predicatesMet = ((value instanceof String) && ((sp.attributeValue == null) || sp.attributeValue.equals(value)));
+					continue;
+				}
+				GPathObject gpo = GPath.evaluateExpression(sp.expression, annotation, null);
+				
+				//	numeric result refers to position, hand path to GPath engine
+				if (gpo instanceof GPathNumber) {
+					direct[this.statePaths[s]] = true;
+					predicatesMet = false;
+				}
+				else predicatesMet = gpo.asBoolean().value;
+			}
+			if (!predicatesMet)
+				continue;
+			
+			//	set state
+			bits[s >> 6] |= (1L << (s & 63));
+			if (s == this.finalStates[this.statePaths[s]])
+				finalState = true;
+		}
+		return finalState;
+	}
+	
+	private boolean collectMatches(QueriableAnnotation annotation, long[] bits, boolean[] stopOnMatch, boolean[] matched, ArrayList[] results) {
+		boolean stop = false;
+		for (int p = 0; p < this.paths.length; p++) {
+			if ((this.finalStates[p] == -1) || !isSet(bits, this.finalStates[p]))
+				continue;
+			matched[p] = true;
+			if (results != null)
+				results[p].add(annotation);
+			if ((stopOnMatch != null) && stopOnMatch[p])
+				stop = true;
+		}
+		return stop;
+	}
+	
+	private static boolean isSet(long[] bits, int s) {
+		return ((bits[s >> 6] & (1L << (s & 63))) != 0);
+	}
+	
+	private static void or(long[] bits, long[] addBits) {
+		for (int w = 0; w < bits.length; w++)
+			bits[w] |= addBits[w];
+	}
+	
+	private static class StepPredicate {
+		final GPathExpression expression;
+		final String attributeName;
+		final String attributeValue;
+		StepPredicate(GPathExpression expression, String attributeName, String attributeValue) {
+			this.expression = expression;
+			this.attributeName = attributeName;
+			this.attributeValue = attributeValue;
+		}
+	}
+	
+	/*
+	 * Compile a predicate, recognizing plain tests for presence or value of
+	 * an attribute, which are by far the most common ones, so they can do
+	 * without the overhead of the GPath engine.
+	 */
+	private static StepPredicate compilePredicate(String predicate) {
+		String attributeName = null;
+		String attributeValue = null;
+		if (predicate.startsWith("attribute::")) {
+			String[] parts = predicate.substring("attribute::".length()).split("\\s+\\=\\s+", 2);
+			if (parts[0].matches("[a-zA-Z\\_][a-zA-Z0-9\\_\\-\\.\\:]*") && !COMPUTED_ATTRIBUTE_NAMES.contains(parts[0]))
+				attributeName = parts[0];
+			if ((attributeName != null) && (parts.length == 2)) {
+				String literal = parts[1];
+				char quote = ((literal.length() < 2) ? 0 : literal.charAt(0));
+				if (((quote == '\'') || (quote == '"')) && (literal.indexOf(quote, 1) == (literal.length() - 1)))
+					attributeValue = literal.substring(1, (literal.length() - 1));
+				else attributeName = null;
+			}
+		}
+		if (attributeName == null)
+			return new StepPredicate(GPathParser.parseExpression(predicate), null, null);
+		else return new StepPredicate(null, attributeName, attributeValue);
+	}
+	
+	private static class CompiledStep {
+		final int path;
+		final int step;
+		final int kind;
+		final String type;
+		final StepPredicate[] predicates;
+		CompiledStep(int path, int step, int kind, String type, StepPredicate[] predicates) {
+			this.path = path;
+			this.step = step;
+			this.kind = kind;
+			this.type = type;
+			this.predicates = predicates;
+		}
+	}
+	
+	/*
+	 * Compile a path into a sequence of steps, working on the normalized
+	 * string representation of the path, as the steps proper are not
+	 * accessible from outside the GPath package. Returns null if the path
+	 * cannot be evaluated in a single traversal.
+	 */
+	private static CompiledStep[] compilePath(GPath path, int pathIndex) {
+		String[] steps = split(path.toString(), '/');
+		if (steps.length == 0)
+			return null;
+		CompiledStep[] compiledSteps = new CompiledStep[steps.length];
+		for (int s = 0; s < steps.length; s++) {
+			String[] stepParts = split(steps[s], '[');
+			int axisEnd = stepParts[0].indexOf("::");
+			if (axisEnd == -1)
+				return null;
+			String axis = stepParts[0].substring(0, axisEnd);
+			String test = stepParts[0].substring(axisEnd + "::".length());
+			if (test.startsWith("$"))
+				return null;
+			String type = (("annotation()".equals(test) || "*".equals(test)) ? null : test);
+			
+			//	determine step kind, observing the GPath engine's special treatment of document references
+			int kind;
+			if ((s == 0) && "descendant-or-self".equals(axis) && (type == null))
+				kind = ROOT_STEP;
+			else if ((s == 0) && "child".equals(axis) && DocumentRoot.DOCUMENT_TYPE.equals(type)) {
+				kind = ROOT_STEP;
+				type = null;
+			}
+			else if ("child".equals(axis) || "descendant".equals(axis))
+				kind = CHILD_STEP;
+			else if ("self".equals(axis))
+				kind = SELF_STEP;
+			else if ("descendant-or-self".equals(axis))
+				kind = DESCENDANT_OR_SELF_STEP;
+			else return null;
+			
+			//	parse predicates, making sure they only depend on the tested annotation proper
+			StepPredicate[] predicates = new StepPredicate[stepParts.length - 1];
+			for (int p = 1; p < stepParts.length; p++) {
+				String predicate = stepParts[p].trim();
+				if (!predicate.endsWith("]"))
+					return null;
+				predicate = predicate.substring(0, (predicate.length() - 1));
+				for (int n = 0; n < NON_LOCAL_PREDICATE_PARTS.length; n++) {
+					if (predicate.indexOf(NON_LOCAL_PREDICATE_PARTS[n]) != -1)
+						return null;
+				}
+				predicates[p-1] = compilePredicate(predicate);
+			}
+			compiledSteps[s] = new CompiledStep(pathIndex, s, kind, type, predicates);
+		}
+		return compiledSteps;
+	}
+	
+	/*
+	 * Split a string at the argument character wherever it occurs outside
+	 * quotes, brackets, and parentheses. Splitting at opening brackets yields
+	 * the bracket contents with the closing bracket still attached.
+	 */
+	private static String[] split(String string, char separator) {
+		ArrayList parts = new ArrayList();
+		int depth = 0;
+		char quote = 0;
+		int partStart = 0;
+		for (int c = 0; c < string.length(); c++) {
+			char ch = string.charAt(c);
+			if (quote != 0) {
+				if (ch == quote)
+					quote = 0;
+			}
+			else if ((ch == '\'') || (ch == '"'))
+				quote = ch;
+			else if ((depth == 0) && (ch == separator)) {
+				parts.add(string.substring(partStart, c));
+				partStart = (c + 1);
+				if (separator == '[')
+					depth++;
+			}
+			else if ((ch == '[') || (ch == '('))
+				depth++;
+			else if ((ch == ']') || (ch == ')'))
+				depth--;
+		}
+		parts.add(string.substring(partStart));
+		return ((String[]) parts.toArray(new String[parts.size()]));
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2006-, IPD Boehm, Universitaet Karlsruhe (TH) / KIT, by Guido Sautter
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Universitaet Karlsruhe (TH) nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY UNIVERSITAET KARLSRUHE (TH) / KIT AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uka.ipd.idaho.goldenGateServer.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.SAXException;
+
+import de.uka.ipd.idaho.gamta.AnnotationUtils.XmlOutputOptions;
+import de.uka.ipd.idaho.gamta.QueriableAnnotation;
+
+/**
+ * A chain of XSLT stylesheets connected as SAX TransformerHandlers, so each
+ * stage hands its output to the next one as SAX events rather than as text
+ * that has to be parsed anew. The source document is fed into the first stage
+ * as SAX events generated straight from a QueriableAnnotation by an
+ * AnnotationXmlReader. The compiled stylesheets come from a
+ * shared cache that is safe for use by multiple threads, and chains
+ * themselves can be used by any number of threads concurrently.
+ * 
+ * @author sautter
+ */
+public class XsltChain {
+	
+	private static SAXTransformerFactory transformerFactory = null;
+	private static synchronized SAXTransformerFactory getTransformerFactory() throws TransformerConfigurationException {
+		if (transformerFactory == null) {
+			TransformerFactory tf = TransformerFactory.newInstance();
+			if (!tf.getFeature(SAXTransformerFactory.FEATURE) || !tf.getFeature(SAXResult.FEATURE))
+				throw new TransformerConfigurationException("Transformer factory '" + tf.getClass().getName() + "' does not support SAX pipelines");
+			transformerFactory = ((SAXTransformerFactory) tf);
+		}
+		return transformerFactory;
+	}
+	
+	private static class CachedTemplates {
+		final Templates templates;
+		final long lastModified;
+		CachedTemplates(Templates templates, long lastModified) {
+			this.templates = templates;
+			this.lastModified = lastModified;
+		}
+	}
+	private static HashMap templatesCache = new HashMap();
+	
+	/**
+	 * Retrieve the compiled form of an XSLT stylesheet. If the argument name
+	 * contains '://', it is interpreted as a URL. If it starts with a slash or
+	 * contains a colon, it is interpreted as an absolute file path. Otherwise,
+	 * it is interpreted as a path relative to the argument base folder.
+	 * @param xsltName the name of the stylesheet
+	 * @param basePath the folder to resolve relative names against
+	 * @param allowCache allow returning cached stylesheets?
+	 * @return the compiled stylesheet
+	 * @throws IOException
+	 */
+	public static Templates getTemplates(String xsltName, File basePath, boolean allowCache) throws IOException {
+		if (xsltName.indexOf("://") != -1)
+			return getTemplates(new URL(xsltName), allowCache);
+		else if (xsltName.startsWith("/") || (xsltName.indexOf(":") != -1))
+			return getTemplates(new File(xsltName), allowCache);
+		else return getTemplates(new File(basePath, xsltName), allowCache);
+	}
+	
+	/**
+	 * Retrieve the compiled form of an XSLT stylesheet loaded from a URL.
+	 * Stylesheets loaded from URLs other than 'file:' ones stay in the cache
+	 * until explicitly reloaded, i.e., until this method is invoked with
+	 * allowCache set to false.
+	 * @param xsltUrl the URL to load the stylesheet from
+	 * @param allowCache allow returning cached stylesheets?
+	 * @return the compiled stylesheet
+	 * @throws IOException
+	 */
+	public static Templates getTemplates(URL xsltUrl, boolean allowCache) throws IOException {
+		if ("file".equals(xsltUrl.getProtocol()))
+			return getTemplates(getFile(xsltUrl), allowCache);
+		else return getTemplates(xsltUrl.toString(), -1, allowCache);
+	}
+	
+	private static File getFile(URL fileUrl) {
+		
+		//	go through URI to decode escaped characters, e.g. '%20' for spaces
+		try {
+			return new File(fileUrl.toURI());
+		}
+		
+		//	URL not a valid URI, e.g. due to unescaped spaces, so path is literal
+		catch (URISyntaxException use) {
+			return new File(fileUrl.getPath());
+		}
+		
+		//	URI not hierarchical, or with authority, query, or fragment
+		catch (IllegalArgumentException iae) {
+			return new File(fileUrl.getPath());
+		}
+	}
+	
+	/**
+	 * Retrieve the compiled form of an XSLT stylesheet loaded from a file.
+	 * Stylesheets loaded from files are recompiled automatically if the file
+	 * was modified since they were cached.
+	 * @param xsltFile the file to load the stylesheet from
+	 * @param allowCache allow returning cached stylesheets?
+	 * @return the compiled stylesheet
+	 * @throws IOException
+	 */
+	public static Templates getTemplates(File xsltFile, boolean allowCache) throws IOException {
+		long lastModified = xsltFile.lastModified();
+		if (lastModified == 0)
+			throw new FileNotFoundException(xsltFile.getAbsolutePath());
+		return getTemplates(xsltFile.getAbsoluteFile().toURI().toString(), lastModified, allowCache);
+	}
+	
+	private static Templates getTemplates(String systemId, long lastModified, boolean allowCache) throws IOException {
+		synchronized (templatesCache) {
+			CachedTemplates ct = ((CachedTemplates) templatesCache.get(systemId));
+			if (allowCache && (ct != null) && (ct.lastModified == lastModified))
+				return ct.templates;
+		}
+		
+		//	compile outside the lock, so one slow download does not block the cache as a whole
+		Templates templates;
+		try {
+			SAXTransformerFactory stf = getTransformerFactory();
+			synchronized (stf) {
+				templates = stf.newTemplates(new StreamSource(systemId));
+			}
+		}
+		catch (TransformerConfigurationException tce) {
+			throw new IOException("Could not compile XSLT stylesheet from '" + systemId + "': " + tce.getMessageAndLocation());
+		}
+		synchronized (templatesCache) {
+			templatesCache.put(systemId, new CachedTemplates(templates, lastModified));
+		}
+		return templates;
+	}
+	
+	/**
+	 * Create a chain from the stylesheets with the argument names, resolving
+	 * the names the same way as getTemplates() does.
+	 * @param xsltNames the names of the stylesheets, in chaining order
+	 * @param basePath the folder to resolve relative names against
+	 * @param allowCache allow using cached stylesheets?
+	 * @return the transformer chain
+	 * @throws IOException
+	 */
+	public static XsltChain getChain(String[] xsltNames, File basePath, boolean allowCache) throws IOException {
+		Templates[] stages = new Templates[xsltNames.length];
+		for (int x = 0; x < xsltNames.length; x++)
+			stages[x] = getTemplates(xsltNames[x], basePath, allowCache);
+		return new XsltChain(stages);
+	}
+	
+	private final Templates[] stages;
+	private ErrorListener errorListener = null;
+	
+	/** Constructor
+	 * @param stages the compiled stylesheets to chain, in chaining order
+	 */
+	public XsltChain(Templates[] stages) {
+		if (stages.length == 0)
+			throw new IllegalArgumentException("Cannot create transformer chain without stylesheets");
+		this.stages = stages;
+	}
+	
+	/**
+	 * Set the error listener to notify of problems in any stage of the chain.
+	 * If no error listener is set, the default one of the underlying XSLT
+	 * implementation applies.
+	 * @param errorListener the error listener to use
+	 */
+	public void setErrorListener(ErrorListener errorListener) {
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * Retrieve an output property of the last stylesheet in the chain, e.g.
+	 * the media type of the output.
+	 * @param name the name of the property
+	 * @return the value of the property
+	 */
+	public String getOutputProperty(String name) {
+		return this.stages[this.stages.length-1].getOutputProperties().getProperty(name);
+	}
+	
+	/**
+	 * Run a document through the transformer chain. The indent and output
+	 * options have the same meaning as in an AnnotationInputStream.
+	 * @param doc the document to transform
+	 * @param indent the indent for nested elements (null for no indent)
+	 * @param options the output options selecting annotations and attributes
+	 * @param result the result to write the output of the last stage to
+	 * @throws TransformerException
+	 */
+	public void transform(QueriableAnnotation doc, String indent, XmlOutputOptions options, Result result) throws TransformerException {
+		
+		//	connect stages, last one first
+		SAXTransformerFactory stf = getTransformerFactory();
+		TransformerHandler handler = null;
+		for (int s = (this.stages.length - 1); s >= 0; s--) {
+			TransformerHandler stageHandler;
+			synchronized (stf) {
+				stageHandler = stf.newTransformerHandler(this.stages[s]);
+			}
+			if (this.errorListener != null)
+				stageHandler.getTransformer().setErrorListener(this.errorListener);
+			if (handler == null)
+				stageHandler.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			stageHandler.setResult((handler == null) ? result : new SAXResult(handler));
+			handler = stageHandler;
+		}
+		
+		//	feed document into first stage
+		try {
+			AnnotationXmlReader.writeSax(doc, indent, options, handler);
+		}
+		catch (SAXException se) {
+			Exception e = se.getException();
+			if (e instanceof TransformerException)
+				throw ((TransformerException) e);
+			else throw new TransformerException(se.getMessage(), ((e == null) ? se : e));
+		}
+	}
+}